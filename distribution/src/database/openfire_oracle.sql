@@ -367,6 +367,15 @@ CREATE TABLE ofPubsubDefaultConf (
   CONSTRAINT ofPubsubDefaultConf_pk PRIMARY KEY (serviceID, leaf)
 );
 
+CREATE TABLE ofEntityCaps (
+  verHash             VARCHAR2(100) NOT NULL,
+  hashAlgorithm       VARCHAR2(50)  NOT NULL,
+  discoInfo           CLOB          NOT NULL,
+  lastSeen            CHAR(15)      NOT NULL,
+  CONSTRAINT ofEntityCaps_pk PRIMARY KEY (verHash)
+);
+CREATE INDEX ofEntityCaps_lSeen_idx ON ofEntityCaps (lastSeen ASC);
+
 -- Finally, insert default table values.
 
 INSERT INTO ofID (idType, id) VALUES (18, 1);
@@ -375,7 +384,7 @@ INSERT INTO ofID (idType, id) VALUES (23, 1);
 INSERT INTO ofID (idType, id) VALUES (26, 2);
 INSERT INTO ofID (idType, id) VALUES (27, 1);
 
-INSERT INTO ofVersion (name, version) VALUES ('openfire', 33);
+INSERT INTO ofVersion (name, version) VALUES ('openfire', 34);
 
 -- Entry for admin user
 INSERT INTO ofUser (username, plainPassword, name, email, creationDate, modificationDate)
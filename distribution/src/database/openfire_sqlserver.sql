@@ -372,6 +372,15 @@ CREATE TABLE ofPubsubDefaultConf (
   CONSTRAINT ofPubsubDefaultConf_pk PRIMARY KEY (serviceID, leaf)
 );
 
+CREATE TABLE ofEntityCaps (
+  verHash             NVARCHAR(100) NOT NULL,
+  hashAlgorithm       NVARCHAR(50)  NOT NULL,
+  discoInfo           NTEXT         NOT NULL,
+  lastSeen            CHAR(15)      NOT NULL,
+  CONSTRAINT ofEntityCaps_pk PRIMARY KEY (verHash)
+);
+CREATE INDEX ofEntityCaps_lSeen_idx ON ofEntityCaps (lastSeen ASC);
+
 /* Finally, insert default table values. */
 
 INSERT INTO ofID (idType, id) VALUES (18, 1);
@@ -380,7 +389,7 @@ INSERT INTO ofID (idType, id) VALUES (23, 1);
 INSERT INTO ofID (idType, id) VALUES (26, 2);
 INSERT INTO ofID (idType, id) VALUES (27, 1);
 
-INSERT INTO ofVersion (name, version) VALUES ('openfire', 33);
+INSERT INTO ofVersion (name, version) VALUES ('openfire', 34);
 
 /* Entry for admin user */
 INSERT INTO ofUser (username, plainPassword, name, email, creationDate, modificationDate)
@@ -0,0 +1,10 @@
+CREATE TABLE ofEntityCaps (
+  verHash             VARCHAR(100)  NOT NULL,
+  hashAlgorithm       VARCHAR(50)   NOT NULL,
+  discoInfo           CLOB          NOT NULL,
+  lastSeen            CHAR(15)      NOT NULL,
+  CONSTRAINT ofEntityCaps_pk PRIMARY KEY (verHash)
+);
+CREATE INDEX ofEntityCaps_lSeen_idx ON ofEntityCaps (lastSeen ASC);
+
+UPDATE ofVersion SET version = 34 WHERE name = 'openfire';
@@ -0,0 +1,10 @@
+CREATE TABLE ofEntityCaps (
+  verHash             VARCHAR(100)  NOT NULL,
+  hashAlgorithm       VARCHAR(50)   NOT NULL,
+  discoInfo           TEXT          NOT NULL,
+  lastSeen            CHAR(15)      NOT NULL,
+  PRIMARY KEY (verHash),
+  INDEX ofEntityCaps_lSeen_idx (lastSeen)
+);
+
+UPDATE ofVersion SET version = 34 WHERE name = 'openfire';
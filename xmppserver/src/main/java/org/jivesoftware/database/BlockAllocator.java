@@ -0,0 +1,202 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.database;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.IntSupplier;
+
+/**
+ * Hands out IDs from blocks of IDs that are reserved by a {@link BlockSource}, without locking.
+ *
+ * IDs of the current block are handed out using an atomic counter. When a quarter of the block remains, the next
+ * block is reserved asynchronously, so that it is typically available by the time that the current block is
+ * exhausted. The size of the blocks that are reserved adapts to the rate at which IDs are used: when a block is used
+ * up quickly, the next block is larger; when a block lasts long, the next block is smaller.
+ *
+ * This class holds its blocks in local memory. It is cluster-safe for as long as the source reserves blocks atomically
+ * in shared storage, but IDs handed out by different cluster nodes are not ordered.
+ */
+class BlockAllocator
+{
+    private static final Logger Log = LoggerFactory.getLogger(BlockAllocator.class);
+
+    /**
+     * A block that is used up in less time than this causes the next block to be twice as large.
+     */
+    static final long GROW_THRESHOLD_NANOS = 5_000_000_000L;
+
+    /**
+     * A block that lasts longer than this causes the next block to be half as large.
+     */
+    static final long SHRINK_THRESHOLD_NANOS = 60_000_000_000L;
+
+    /**
+     * Reserves a block of IDs.
+     */
+    interface BlockSource
+    {
+        /**
+         * Reserves a block of IDs.
+         *
+         * @param size the number of IDs to reserve.
+         * @return the first ID of the reserved block.
+         */
+        long reserve(int size);
+    }
+
+    private final BlockSource source;
+    private final IntSupplier minBlockSize;
+    private final IntSupplier maxBlockSize;
+    private final Executor executor;
+
+    private volatile Block current = new Block(0, 0);
+
+    /**
+     * The next block, while it is being reserved or after it was reserved. Guarded by 'this'.
+     */
+    private CompletableFuture<Block> next;
+
+    /**
+     * Creates a new allocator.
+     *
+     * @param source Reserves the blocks of IDs.
+     * @param minBlockSize The smallest size of a block.
+     * @param maxBlockSize The largest size of a block.
+     * @param executor Executes the reservation of blocks in advance.
+     */
+    BlockAllocator(final BlockSource source, final IntSupplier minBlockSize, final IntSupplier maxBlockSize, final Executor executor)
+    {
+        this.source = source;
+        this.minBlockSize = minBlockSize;
+        this.maxBlockSize = maxBlockSize;
+        this.executor = executor;
+    }
+
+    /**
+     * Returns the next unique ID.
+     *
+     * @return an ID.
+     */
+    long nextID()
+    {
+        while (true) {
+            final Block block = current;
+            final long id = block.cursor.getAndIncrement();
+            if (id < block.end) {
+                if (block.end - id <= Math.max(1, block.size() / 4) && block.prefetchTriggered.compareAndSet(false, true)) {
+                    prefetch(block);
+                }
+                return id;
+            }
+            advance(block);
+        }
+    }
+
+    /**
+     * Starts reserving the block that follows the provided block.
+     */
+    private synchronized void prefetch(final Block block)
+    {
+        if (current == block && next == null) {
+            final int size = nextBlockSize(block);
+            next = CompletableFuture.supplyAsync(() -> reserve(size), executor);
+        }
+    }
+
+    /**
+     * Replaces an exhausted block with the next block, waiting for that block to be reserved if needed.
+     */
+    private synchronized void advance(final Block exhausted)
+    {
+        if (current != exhausted) {
+            return; // Another thread already replaced the block.
+        }
+
+        Block replacement = null;
+        if (next != null) {
+            try {
+                replacement = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for a block of IDs.", e);
+            } catch (ExecutionException e) {
+                Log.warn("Unable to reserve the next block of IDs in advance. Retrying.", e.getCause());
+            }
+            next = null;
+        }
+        if (replacement == null) {
+            replacement = reserve(nextBlockSize(exhausted));
+        }
+        current = replacement;
+    }
+
+    /**
+     * Determines the size of the block that follows the provided block.
+     */
+    private int nextBlockSize(final Block block)
+    {
+        final int min = Math.max(1, minBlockSize.getAsInt());
+        final int max = Math.max(min, maxBlockSize.getAsInt());
+        if (block.size() == 0) {
+            return min;
+        }
+        final long age = System.nanoTime() - block.createdNanos;
+        long size = block.size();
+        if (age < GROW_THRESHOLD_NANOS) {
+            size *= 2;
+        } else if (age > SHRINK_THRESHOLD_NANOS) {
+            size /= 2;
+        }
+        return (int) Math.max(min, Math.min(max, size));
+    }
+
+    private Block reserve(final int size)
+    {
+        final long start = source.reserve(size);
+        return new Block(start, start + size);
+    }
+
+    /**
+     * A range of IDs, from start (inclusive) to end (exclusive).
+     */
+    private static final class Block
+    {
+        final AtomicLong cursor;
+        final long start;
+        final long end;
+        final long createdNanos = System.nanoTime();
+        final AtomicBoolean prefetchTriggered = new AtomicBoolean();
+
+        Block(final long start, final long end)
+        {
+            this.cursor = new AtomicLong(start);
+            this.start = start;
+            this.end = end;
+        }
+
+        long size()
+        {
+            return end - start;
+        }
+    }
+}
@@ -24,9 +24,13 @@ import java.sql.SQLException;
 import java.util.Map;
 import java.util.Objects;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.locks.Lock;
 
 import org.jivesoftware.util.JiveConstants;
+import org.jivesoftware.util.NamedThreadFactory;
+import org.jivesoftware.util.SystemProperty;
 import org.jivesoftware.util.cache.Cache;
 import org.jivesoftware.util.cache.CacheFactory;
 import org.slf4j.Logger;
@@ -49,6 +53,11 @@ import org.slf4j.LoggerFactory;
  * Each sequence type that this class manages has a different block size value. Objects that aren't
  * created often have a block size of 1, while frequently created objects such as entries and
  * comments have larger block sizes.
+ * <p>
+ * By default, a block is shared by all cluster nodes, and IDs are handed out under a cluster-wide lock. When
+ * {@link #PREFETCH_ENABLED} is set, each cluster node instead reserves its own blocks, hands out IDs without locking,
+ * and reserves the next block before the current one is exhausted (see {@link BlockAllocator}). The configured block
+ * size then is the minimum size of a block.</p>
  *
  * @author Matt Tucker
  * @author Bruce Ritchie
@@ -66,6 +75,34 @@ public class SequenceManager {
     private static final String UPDATE_ID =
             "UPDATE ofID SET id=? WHERE idType=? AND id=?";
 
+    /**
+     * Controls if IDs are handed out from blocks that are reserved by each cluster node, and that are reserved in
+     * advance, rather than from blocks that are shared by all cluster nodes.
+     */
+    public static final SystemProperty<Boolean> PREFETCH_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.sequence.prefetch.enabled")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The largest size of a block of IDs that is reserved in advance.
+     */
+    public static final SystemProperty<Integer> PREFETCH_MAX_BLOCK_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.sequence.prefetch.max-block-size")
+        .setDefaultValue(5000)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The number of attempts to reserve a block of IDs, before giving up. Attempts can fail when other cluster nodes
+     * reserve a block at the same time.
+     */
+    private static final int MAX_RESERVE_ATTEMPTS = 10;
+
+    private static final ExecutorService prefetchExecutor = Executors.newCachedThreadPool(new NamedThreadFactory("sequence-prefetch-", null, true, null));
+
     // Statically startup a sequence manager for each of the sequence counters.
     private static final Map<Integer, SequenceManager> managers = new ConcurrentHashMap<>();
 
@@ -143,7 +180,8 @@ public class SequenceManager {
     }
 
     private final int type;
-    private int blockSize;
+    private volatile int blockSize;
+    private final BlockAllocator allocator;
 
     /**
      * Creates a new DbSequenceManager.
@@ -155,6 +193,7 @@ public class SequenceManager {
         managers.put(seqType, this);
         this.type = seqType;
         this.blockSize = size;
+        this.allocator = new BlockAllocator(this::reserveBlock, () -> blockSize, PREFETCH_MAX_BLOCK_SIZE::getValue, prefetchExecutor);
     }
 
     /**
@@ -163,6 +202,10 @@ public class SequenceManager {
      * @return the next sequence number
      */
     public long nextUniqueID() {
+        if (PREFETCH_ENABLED.getValue()) {
+            return allocator.nextID();
+        }
+
         final Lock lock = sequenceBlocks.getLock(type);
         lock.lock();
         try {
@@ -243,6 +286,61 @@ public class SequenceManager {
         }
     }
 
+    /**
+     * Reserves a block of IDs for use by this cluster node only. Unlike {@link #getNextBlock()}, this does not require
+     * a lock to be held: when another process reserves a block at the same time, the attempt is retried.
+     *
+     * @param size the number of IDs to reserve.
+     * @return the first ID of the reserved block.
+     */
+    private long reserveBlock(int size) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = DbConnectionManager.getConnection();
+            for (int attempt = 1; attempt <= MAX_RESERVE_ATTEMPTS; attempt++) {
+                // Get the current ID from the database.
+                pstmt = con.prepareStatement(LOAD_ID);
+                pstmt.setInt(1, type);
+                rs = pstmt.executeQuery();
+
+                long currentID = 1;
+                if (rs.next()) {
+                    currentID = rs.getLong(1);
+                }
+                else {
+                    createNewID(con, type);
+                }
+                DbConnectionManager.fastcloseStmt(rs, pstmt);
+                rs = null;
+
+                // The WHERE clause includes the last value of the id. This ensures that an update will occur only if
+                // nobody else has performed an update first.
+                pstmt = con.prepareStatement(UPDATE_ID);
+                pstmt.setLong(1, currentID + size);
+                pstmt.setInt(2, type);
+                pstmt.setLong(3, currentID);
+                final boolean reserved = pstmt.executeUpdate() == 1;
+                DbConnectionManager.closeStatement(pstmt);
+                pstmt = null;
+                if (reserved) {
+                    return currentID;
+                }
+                Log.debug("Another process reserved IDs of type {} at the same time. Retrying (attempt {} of {}).", type, attempt, MAX_RESERVE_ATTEMPTS);
+            }
+            throw new IllegalStateException("Failed at attempt to obtain an ID, aborting...");
+        }
+        catch (SQLException e) {
+            Log.error("An exception occurred while trying to obtain new sequence values from the database for type {}", type, e);
+            throw new IllegalStateException("Failed at attempt to obtain an ID, aborting...", e);
+        }
+        finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+    }
+
     private void createNewID(Connection con, int type) throws SQLException {
         Log.warn("Autocreating jiveID row for type '" + type + "'");
 
@@ -188,6 +188,18 @@ public interface Connection extends Closeable {
      */
     boolean isClosed();
 
+    /**
+     * Returns the amount of bytes that have been queued for delivery to the peer, but that have not yet been written
+     * to the network. Implementations that cannot determine this return zero.
+     *
+     * This can be used to avoid queuing large amounts of data for a peer that is not reading it fast enough.
+     *
+     * @return the amount of bytes that are waiting to be written.
+     */
+    default long getPendingWriteBytes() {
+        return 0;
+    }
+
     /**
      * Returns true if this connection is secure.
      *
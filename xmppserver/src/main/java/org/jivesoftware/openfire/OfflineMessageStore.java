@@ -25,6 +25,8 @@ import org.jivesoftware.openfire.cluster.ClusterManager;
 import org.jivesoftware.openfire.container.BasicModule;
 import org.jivesoftware.openfire.event.UserEventDispatcher;
 import org.jivesoftware.openfire.event.UserEventListener;
+import org.jivesoftware.openfire.session.ClientSession;
+import org.jivesoftware.openfire.session.LocalSession;
 import org.jivesoftware.openfire.user.User;
 import org.jivesoftware.openfire.user.UserManager;
 import org.jivesoftware.util.*;
@@ -44,6 +46,9 @@ import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.function.Predicate;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -63,8 +68,9 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
     private static final String INSERT_OFFLINE =
         "INSERT INTO ofOffline (username, messageID, creationDate, messageSize, stanza) " +
         "VALUES (?, ?, ?, ?, ?)";
-    private static final String LOAD_OFFLINE =
-        "SELECT stanza, creationDate FROM ofOffline WHERE username=? ORDER BY creationDate ASC";
+    private static final String LOAD_OFFLINE_CHUNK =
+        "SELECT messageID, stanza, creationDate FROM ofOffline WHERE username=? " +
+        "AND (creationDate>? OR (creationDate=? AND messageID>?)) ORDER BY creationDate ASC, messageID ASC";
     private static final String LOAD_OFFLINE_MESSAGE =
         "SELECT stanza FROM ofOffline WHERE username=? AND creationDate=?";
     private static final String SELECT_COUNT_OFFLINE =
@@ -77,6 +83,8 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
         "DELETE FROM ofOffline WHERE username=?";
     private static final String DELETE_OFFLINE_MESSAGE =
         "DELETE FROM ofOffline WHERE username=? AND creationDate=?";
+    private static final String DELETE_OFFLINE_MESSAGE_BY_ID =
+        "DELETE FROM ofOffline WHERE username=? AND messageID=?";
     private static final String DELETE_OFFLINE_MESSAGE_BEFORE =
         "DELETE FROM ofOffline WHERE creationDate < ?";
     private static final String SELECT_SIZE_OFFLINE_ALL_USERS =
@@ -108,6 +116,50 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
     .setDynamic(false)
     .build();
 
+    /**
+     * The maximum amount of offline messages that are loaded from the database at once.
+     */
+    public static final SystemProperty<Integer> OFFLINE_CHUNK_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.offline.chunk-size")
+        .setDefaultValue(100)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * When offline messages are delivered to a client, no further messages are delivered while more than this amount
+     * of bytes is waiting to be written to the connection of the client.
+     */
+    public static final SystemProperty<Long> OFFLINE_FLOOD_MAX_PENDING_BYTES = SystemProperty.Builder.ofType(Long.class)
+        .setKey("xmpp.offline.flood.max-pending-bytes")
+        .setDefaultValue(256 * 1024L)
+        .setMinValue(0L)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum amount of time during which no offline messages can be delivered to a client, because too much data
+     * is waiting to be written to its connection. When this time passes, the remaining messages are retained, to be
+     * delivered later.
+     */
+    public static final SystemProperty<Duration> OFFLINE_FLOOD_WRITE_TIMEOUT = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("xmpp.offline.flood.write-timeout")
+        .setDefaultValue(Duration.ofSeconds(30))
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The delay after which the delivery of offline messages is retried, when too much data is waiting to be written to
+     * the connection of the client.
+     */
+    private static final Duration FLOOD_RETRY_INTERVAL = Duration.ofMillis(100);
+
+    /**
+     * A creation date that precedes that of all stored messages.
+     */
+    private static final String FIRST_CREATION_DATE = StringUtils.zeroPadString("0", 15);
+
     private Timer timer = null;
 
     /**
@@ -217,84 +269,206 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
      * Messages may be deleted after being selected from the database depending on
      * the delete param.
      *
+     * Consider using {@link #processMessages(String, boolean, Predicate)} instead, which does not require all messages
+     * to be loaded in memory at the same time.
+     *
      * @param username the username of the user who's messages you'd like to receive.
      * @param delete true if the offline messages should be deleted.
      * @return An iterator of packets containing all offline messages.
      */
     public Collection<OfflineMessage> getMessages(String username, boolean delete) {
-        List<OfflineMessage> messages = new ArrayList<>();
+        final List<OfflineMessage> messages = new ArrayList<>();
+        processMessages(username, delete, chunk -> {
+            messages.addAll(chunk);
+            return true;
+        });
+        return messages;
+    }
+
+    /**
+     * Delivers all offline messages of the user of a client session to that session, deleting them from the store.
+     *
+     * Messages are loaded from the database and delivered in chunks. The first chunk is delivered by the calling
+     * thread. Every following chunk is delivered by a task of the {@link TaskEngine}. When more than
+     * {@link #OFFLINE_FLOOD_MAX_PENDING_BYTES} of previously delivered data is waiting to be written to the connection of
+     * the session, the delivery of the next chunk is rescheduled, rather than having a thread wait for the client. When
+     * the connection of the session is closed, or when no chunk could be delivered for
+     * {@link #OFFLINE_FLOOD_WRITE_TIMEOUT}, delivery stops. Messages that were not delivered are retained in the store.
+     *
+     * @param session the session to deliver offline messages to.
+     */
+    public void deliverMessages(ClientSession session) {
+        new OfflineMessageDelivery(session).deliverNextChunk();
+    }
+
+    /**
+     * Processes all messages in the store for a user, in chunks, in the order in which they were stored.
+     *
+     * Messages are loaded from the database in chunks of {@link #OFFLINE_CHUNK_SIZE} messages. The next chunk is loaded
+     * while the current chunk is processed. When the processor indicates that it processed the messages of a chunk,
+     * these are deleted (depending on the delete param) in one batch. When the processor indicates that it did not
+     * process a chunk, processing stops, and the messages of that chunk (and of all following chunks) are retained.
+     *
+     * @param username the username of the user who's messages you'd like to process.
+     * @param delete true if the offline messages should be deleted after they've been processed.
+     * @param processor invoked for every chunk of messages. Returns true if the messages were processed, otherwise false.
+     */
+    public void processMessages(String username, boolean delete, Predicate<List<OfflineMessage>> processor) {
+        final int chunkSize = OFFLINE_CHUNK_SIZE.getValue();
+        Chunk chunk = loadChunk(username, FIRST_CREATION_DATE, -1, chunkSize);
+        while (!chunk.isEmpty()) {
+            Future<Chunk> next = null;
+            if (chunk.isComplete(chunkSize)) {
+                final String lastCreationDate = chunk.lastCreationDate;
+                final long lastMessageID = chunk.lastMessageID;
+                final FutureTask<Chunk> task = new FutureTask<>(() -> loadChunk(username, lastCreationDate, lastMessageID, chunkSize));
+                TaskEngine.getInstance().submit(task);
+                next = task;
+            }
+
+            if (!processor.test(chunk.messages)) {
+                if (next != null) {
+                    next.cancel(false);
+                }
+                return;
+            }
+            if (delete) {
+                deleteMessages(username, chunk.messageIDs);
+            }
+            if (next == null) {
+                return;
+            }
+
+            try {
+                chunk = next.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                Log.error("Offline Message retrieval interrupted", e);
+                return;
+            } catch (ExecutionException e) {
+                Log.error("Error retrieving offline messages of username: " + username, e);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Loads a chunk of the messages of a user, starting after a particular message.
+     *
+     * @param username the username of the user who's messages you'd like to load.
+     * @param afterCreationDate the creation date of the message after which to start loading.
+     * @param afterMessageID the identifier of the message after which to start loading.
+     * @param chunkSize the maximum number of messages to load.
+     * @return the loaded messages.
+     */
+    private Chunk loadChunk(String username, String afterCreationDate, long afterMessageID, int chunkSize) {
+        final Chunk chunk = new Chunk();
         Connection con = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
         try {
             con = DbConnectionManager.getConnection();
-            pstmt = con.prepareStatement(LOAD_OFFLINE);
+            pstmt = con.prepareStatement(LOAD_OFFLINE_CHUNK);
+            DbConnectionManager.limitRowsAndFetchSize(pstmt, 0, chunkSize);
             pstmt.setString(1, username);
+            pstmt.setString(2, afterCreationDate);
+            pstmt.setString(3, afterCreationDate);
+            pstmt.setLong(4, afterMessageID);
             rs = pstmt.executeQuery();
-            while (rs.next()) {
-                String msgXML = rs.getString(1);
-                Date creationDate = new Date(Long.parseLong(rs.getString(2).trim()));
-                OfflineMessage message;
-                try {
-                    message = new OfflineMessage(creationDate, SAXReaderUtil.readRootElement(msgXML));
-                } catch (ExecutionException e) {
-                    // Try again after removing invalid XML chars (e.g. &#12;)
-                    Matcher matcher = pattern.matcher(msgXML);
-                    if (matcher.find()) {
-                        msgXML = matcher.replaceAll("");
-                    }
-                    try {
-                        message = new OfflineMessage(creationDate, SAXReaderUtil.readRootElement(msgXML));
-                    } catch (ExecutionException de) {
-                        Log.error("Failed to route packet (offline message): " + msgXML, de);
-                        continue; // skip and process remaining offline messages
-                    } catch (InterruptedException de) {
-                        Thread.currentThread().interrupt();
-                        Log.error("Offline Message retrieval interrupted", de);
-                        break; // Skip all further offline messages
-                    }
-                }
-                catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    Log.error("Offline Message retrieval interrupted", e);
-                    break; // Skip all further offline messages
-                }
-
-                // if there is already a delay stamp, we shouldn't add another.
-                Element delaytest = message.getChildElement("delay", "urn:xmpp:delay");
-                if (delaytest == null) {
-                    // Add a delayed delivery (XEP-0203) element to the message.
-                    Element delay = message.addChildElement("delay", "urn:xmpp:delay");
-                    delay.addAttribute("from", XMPPServer.getInstance().getServerInfo().getXMPPDomain());
-                    delay.addAttribute("stamp", XMPPDateTimeFormat.format(creationDate));
-                }
-                messages.add(message);
-            }
-            // Check if the offline messages loaded should be deleted, and that there are
-            // messages to delete.
-            if (delete && !messages.isEmpty()) {
-                PreparedStatement pstmt2 = null;
-                try {
-                    pstmt2 = con.prepareStatement(DELETE_OFFLINE);
-                    pstmt2.setString(1, username);
-                    pstmt2.executeUpdate();
-                    removeUsernameFromSizeCache(username);
-                }
-                catch (Exception e) {
-                    Log.error("Error deleting offline messages of username: " + username, e);
+            while (rs.next() && chunk.messageIDs.size() < chunkSize) {
+                final long messageID = rs.getLong(1);
+                final String msgXML = rs.getString(2);
+                final String creationDateValue = rs.getString(3);
+                chunk.messageIDs.add(messageID);
+                chunk.lastMessageID = messageID;
+                chunk.lastCreationDate = creationDateValue;
+
+                final OfflineMessage message = parseMessage(msgXML, new Date(Long.parseLong(creationDateValue.trim())));
+                if (message != null) {
+                    chunk.messages.add(message);
                 }
-                finally {
-                    DbConnectionManager.closeStatement(pstmt2);
-                } 
             }
         }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            Log.error("Offline Message retrieval interrupted", e);
+            chunk.messageIDs.clear(); // Skip all further offline messages
+            chunk.messages.clear();
+        }
         catch (Exception e) {
             Log.error("Error retrieving offline messages of username: " + username, e);
         }
         finally {
             DbConnectionManager.closeConnection(rs, pstmt, con);
         }
-        return messages;
+        return chunk;
+    }
+
+    /**
+     * Parses a stored message, adding a delayed delivery element.
+     *
+     * @param msgXML the stored message.
+     * @param creationDate the date when the message was stored.
+     * @return the message, or null if the stored data could not be parsed.
+     * @throws InterruptedException if the thread was interrupted while parsing.
+     */
+    private OfflineMessage parseMessage(String msgXML, Date creationDate) throws InterruptedException {
+        OfflineMessage message;
+        try {
+            message = new OfflineMessage(creationDate, SAXReaderUtil.readRootElement(msgXML));
+        } catch (ExecutionException e) {
+            // Try again after removing invalid XML chars (e.g. &#12;)
+            Matcher matcher = pattern.matcher(msgXML);
+            if (matcher.find()) {
+                msgXML = matcher.replaceAll("");
+            }
+            try {
+                message = new OfflineMessage(creationDate, SAXReaderUtil.readRootElement(msgXML));
+            } catch (ExecutionException de) {
+                Log.error("Failed to route packet (offline message): " + msgXML, de);
+                return null; // skip and process remaining offline messages
+            }
+        }
+
+        // if there is already a delay stamp, we shouldn't add another.
+        Element delaytest = message.getChildElement("delay", "urn:xmpp:delay");
+        if (delaytest == null) {
+            // Add a delayed delivery (XEP-0203) element to the message.
+            Element delay = message.addChildElement("delay", "urn:xmpp:delay");
+            delay.addAttribute("from", XMPPServer.getInstance().getServerInfo().getXMPPDomain());
+            delay.addAttribute("stamp", XMPPDateTimeFormat.format(creationDate));
+        }
+        return message;
+    }
+
+    /**
+     * Deletes specific offline messages of a user, in one batch.
+     *
+     * @param username the username of the user who's messages are going to be deleted.
+     * @param messageIDs the identifiers of the messages to delete.
+     */
+    private void deleteMessages(String username, List<Long> messageIDs) {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        boolean abortTransaction = false;
+        try {
+            con = DbConnectionManager.getTransactionConnection();
+            pstmt = con.prepareStatement(DELETE_OFFLINE_MESSAGE_BY_ID);
+            for (final long messageID : messageIDs) {
+                pstmt.setString(1, username);
+                pstmt.setLong(2, messageID);
+                pstmt.addBatch();
+            }
+            pstmt.executeBatch();
+        }
+        catch (Exception e) {
+            abortTransaction = true;
+            Log.error("Error deleting offline messages of username: " + username, e);
+        }
+        finally {
+            DbConnectionManager.closeTransactionConnection(pstmt, con, abortTransaction);
+        }
+        removeUsernameFromSizeCache(username);
     }
 
     /**
@@ -697,4 +871,90 @@ public class OfflineMessageStore extends BasicModule implements UserEventListene
             DbConnectionManager.closeConnection(pstmt, con);
         }
     }
+
+    /**
+     * Delivers the offline messages of a user to a client session, one chunk at a time.
+     */
+    private final class OfflineMessageDelivery {
+        private final ClientSession session;
+        private final String username;
+
+        /**
+         * The creation date and identifier of the last message that was delivered.
+         */
+        private String lastCreationDate = FIRST_CREATION_DATE;
+        private long lastMessageID = -1;
+
+        /**
+         * The moment when delivery started, or when the last chunk was delivered.
+         */
+        private Instant lastProgress = Instant.now();
+
+        private OfflineMessageDelivery(ClientSession session) {
+            this.session = session;
+            this.username = session.getAddress().getNode();
+        }
+
+        private void deliverNextChunk() {
+            final org.jivesoftware.openfire.Connection connection = session instanceof LocalSession ? ((LocalSession) session).getConnection() : null;
+            if (connection != null && connection.isClosed()) {
+                Log.debug("Stopping delivery of offline messages to {}, as its connection is closed. Remaining messages are retained.", session.getAddress());
+                return;
+            }
+            if (connection != null && connection.getPendingWriteBytes() > OFFLINE_FLOOD_MAX_PENDING_BYTES.getValue()) {
+                if (Duration.between(lastProgress, Instant.now()).compareTo(OFFLINE_FLOOD_WRITE_TIMEOUT.getValue()) > 0) {
+                    Log.debug("Stopping delivery of offline messages to {}, as it does not read data fast enough. Remaining messages are retained.", session.getAddress());
+                    return;
+                }
+                TaskEngine.getInstance().schedule(new TimerTask() {
+                    @Override
+                    public void run() {
+                        deliverNextChunk();
+                    }
+                }, FLOOD_RETRY_INTERVAL);
+                return;
+            }
+
+            final int chunkSize = OFFLINE_CHUNK_SIZE.getValue();
+            final Chunk chunk = loadChunk(username, lastCreationDate, lastMessageID, chunkSize);
+            if (chunk.isEmpty()) {
+                return;
+            }
+            for (final Message message : chunk.messages) {
+                session.process(message);
+            }
+            deleteMessages(username, chunk.messageIDs);
+            lastCreationDate = chunk.lastCreationDate;
+            lastMessageID = chunk.lastMessageID;
+            lastProgress = Instant.now();
+
+            if (chunk.isComplete(chunkSize)) {
+                TaskEngine.getInstance().submit(this::deliverNextChunk);
+            }
+        }
+    }
+
+    /**
+     * A chunk of offline messages, as loaded from the database.
+     */
+    private static final class Chunk {
+        /**
+         * The identifiers of all loaded messages, including those that could not be parsed.
+         */
+        private final List<Long> messageIDs = new ArrayList<>();
+
+        private final List<OfflineMessage> messages = new ArrayList<>();
+
+        private String lastCreationDate;
+
+        private long lastMessageID;
+
+        private boolean isEmpty() {
+            return messageIDs.isEmpty();
+        }
+
+        private boolean isComplete(int chunkSize) {
+            return messageIDs.size() >= chunkSize;
+        }
+    }
 }
@@ -80,6 +80,21 @@ public interface PresenceManager {
      */
     void probePresence( JID prober, JID probee );
 
+    /**
+     * Probes the presence of each of the given XMPPAddresses and attempts to send it to the given
+     * user, as if {@link #probePresence(JID, JID)} was invoked for each of them. Implementations
+     * can use this to resolve the presence of many contacts at once, which typically happens
+     * when a user logs in.
+     *
+     * @param prober The user requesting the probes
+     * @param probees The XMPPAddresses whos presence we would like sent have have probed
+     */
+    default void probePresences( JID prober, Collection<JID> probees ) {
+        for ( final JID probee : probees ) {
+            probePresence( prober, probee );
+        }
+    }
+
     /**
      * Handle a presence probe sent by a remote server. The logic to apply is the following: If
      * the remote user is not in the local user's roster with a subscription state of "From", or
@@ -49,6 +49,7 @@ import org.jivesoftware.openfire.mediaproxy.MediaProxyService;
 import org.jivesoftware.openfire.muc.MultiUserChatManager;
 import org.jivesoftware.openfire.net.MulticastDNSService;
 import org.jivesoftware.openfire.net.ServerTrafficCounter;
+import org.jivesoftware.openfire.net.WriteCoalescingFilter;
 import org.jivesoftware.openfire.pep.IQPEPHandler;
 import org.jivesoftware.openfire.pep.IQPEPOwnerHandler;
 import org.jivesoftware.openfire.pubsub.PubSubModule;
@@ -59,6 +60,7 @@ import org.jivesoftware.openfire.roster.RosterManager;
 import org.jivesoftware.openfire.sasl.AnonymousSaslServer;
 import org.jivesoftware.openfire.security.SecurityAuditManager;
 import org.jivesoftware.openfire.session.ConnectionSettings;
+import org.jivesoftware.openfire.session.LocalOutgoingServerSession;
 import org.jivesoftware.openfire.session.RemoteSessionLocator;
 import org.jivesoftware.openfire.session.SoftwareServerVersionManager;
 import org.jivesoftware.openfire.session.SoftwareVersionManager;
@@ -676,6 +678,8 @@ public class XMPPServer {
             }
             // Initialize statistics
             ServerTrafficCounter.initStatistics();
+            WriteCoalescingFilter.initStatistics();
+            LocalOutgoingServerSession.initStatistics();
 
             // Load plugins (when in setup mode only the admin console will be loaded)
             pluginManager.start();
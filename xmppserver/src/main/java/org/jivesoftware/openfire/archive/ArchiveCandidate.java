@@ -16,14 +16,19 @@
 package org.jivesoftware.openfire.archive;
 
 import java.time.Instant;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A to-be-archived entity.
  *
- * Note that the ordering imposed by the Comparable implementation is not consistent with equals, and serves only
- * to order instances by their creation timestamp.
+ * The ordering imposed by the Comparable implementation orders instances by their creation timestamp. Instances that
+ * share a timestamp are ordered by the order in which they were instantiated.
  */
 public class ArchiveCandidate<E> implements Comparable<ArchiveCandidate<E>> {
+    private static final AtomicLong sequence = new AtomicLong();
+
+    private final long seq = sequence.getAndIncrement();
+
     private final Instant creation = Instant.now();
 
     private final E element;
@@ -48,6 +53,7 @@ public class ArchiveCandidate<E> implements Comparable<ArchiveCandidate<E>> {
     @Override
     public int compareTo( ArchiveCandidate<E> o )
     {
-        return creation.compareTo( o.creation );
+        final int result = creation.compareTo( o.creation );
+        return result != 0 ? result : Long.compare( seq, o.seq );
     }
 }
@@ -66,6 +66,17 @@ public class ArchiveManager extends BasicModule
         .setDynamic(false)
         .build();
 
+    /**
+     * The number of threads that each archiving task uses to concurrently write batches of data to the database. A
+     * value larger than one increases throughput, at the expense of the order in which data is written.
+     */
+    public static final SystemProperty<Integer> WRITER_COUNT = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.archivemanager.writers")
+        .setMinValue(1)
+        .setDefaultValue(1)
+        .setDynamic(true)
+        .build();
+
     /**
      * A thread pool that writes messages to the database.
      */
@@ -84,6 +95,7 @@ public class ArchiveManager extends BasicModule
     public ArchiveManager()
     {
         super( "ArchiveManager" );
+        WRITER_COUNT.addListener( count -> tasks.values().forEach( task -> task.setWriterCount( count ) ) );
     }
 
     /**
@@ -143,6 +155,7 @@ public class ArchiveManager extends BasicModule
             throw new IllegalStateException( "A task with ID " + archiver.getId() + " has already been added." );
         }
 
+        archiver.setWriterCount( WRITER_COUNT.getValue() );
         executor.submit( archiver );
         tasks.put( archiver.getId(), archiver );
     }
@@ -15,6 +15,7 @@
  */
 package org.jivesoftware.openfire.archive;
 
+import org.jivesoftware.util.NamedThreadFactory;
 import org.jivesoftware.util.cache.CacheFactory;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -23,10 +24,13 @@ import java.time.Duration;
 import java.time.Instant;
 import java.util.ArrayList;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.LinkedTransferQueue;
+import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
@@ -39,9 +43,14 @@ import java.util.stream.Collectors;
  * This implementation acts as a consumer (in context of the producer-consumer design pattern), where the queue that
  * is used to relay work from both processes is passed as an argument to the constructor of this class.
  *
+ * By default, batches are written by the thread that executes this runnable, one after the other. When more than one
+ * writer is configured (see {@link #setWriterCount(int)}), batches are handed over to a pool of writer threads, allowing
+ * several batches to be written to the database concurrently. In that case, {@link #store(List)} must be thread-safe,
+ * and batches can be written in a different order than the one in which they were created.
+ *
  * This mechanism should be used with care in a clustered setup: although the individual Archiver instances will
  * guarantee that the database insertion order matches the order in which elements are provided to the instance (using
- * the {@link #archive(Object)} method), this is not the case in a clustered environment. As each cluster node will
+ * the {@link #archive(Object)} method) when only one writer is used, this is not the case in a clustered environment. As each cluster node will
  * manage its own batched queue of data, the insertion order of the elements in persistent storage might no longer
  * reflect the order in which the data was made available somewhere in the cluster. If data order is important,
  * the data to be archived should have a value that can be used to order on, which must already be present when the
@@ -65,14 +74,19 @@ public abstract class Archiver<E> implements Runnable
     // Maximum time to wait for 'more' work to arrive, before committing the batch.
     private Duration gracePeriod;
 
+    // The number of threads that concurrently write batches to the database.
+    private volatile int writerCount = 1;
+
     // Reference to the queue in which work is produced.
-    final PriorityBlockingQueue<ArchiveCandidate<E>> queue = new PriorityBlockingQueue<>();
+    final LinkedTransferQueue<ArchiveCandidate<E>> queue = new LinkedTransferQueue<>();
 
-    private boolean running = true;
+    // All work that has been produced, but has not been written yet, ordered by creation date.
+    final ConcurrentSkipListSet<ArchiveCandidate<E>> pending = new ConcurrentSkipListSet<>();
 
-    private Instant lastProcessed = null;
+    private volatile boolean running = true;
 
-    final List<ArchiveCandidate<E>> workQueue = Collections.synchronizedList(new ArrayList<>());
+    // Writes batches when more than one writer is used. Only accessed by the thread that executes this runnable.
+    private ThreadPoolExecutor writers;
 
     /**
      * Instantiates a new archiver.
@@ -102,7 +116,9 @@ public abstract class Archiver<E> implements Runnable
 
     public void archive( final E data )
     {
-        queue.add( new ArchiveCandidate<>( data ) );
+        final ArchiveCandidate<E> candidate = new ArchiveCandidate<>( data );
+        pending.add( candidate );
+        queue.add( candidate );
     }
 
     public String getId()
@@ -112,14 +128,14 @@ public abstract class Archiver<E> implements Runnable
 
     public void run()
     {
-        Log.debug( "Running with max work queue size {}, max purge interval {}, grace period {}.", maxWorkQueueSize, maxPurgeInterval, gracePeriod);
+        Log.debug( "Running with max work queue size {}, max purge interval {}, grace period {}, writers {}.", maxWorkQueueSize, maxPurgeInterval, gracePeriod, writerCount);
 
         // This loop is designed to write data to be stored in the database without much delay, while at the same
         // time allowing for batching of work that's produced at roughly the same time (which improves performance).
         while ( running )
         {
             // The batch of work for this iteration.
-            new ArrayList<>();
+            final List<ArchiveCandidate<E>> workQueue = new ArrayList<>();
 
             try
             {
@@ -148,14 +164,75 @@ public abstract class Archiver<E> implements Runnable
 
             if ( !workQueue.isEmpty() )
             {
-                final List<E> batch = workQueue.stream()
-                    .map( ArchiveCandidate::getElement )
-                    .collect( Collectors.toList() );
-                store( batch );
-                lastProcessed = workQueue.get( workQueue.size() -1 ).createdAt();
-                Log.trace( "Stored all produced work in the database. Work size: {}", workQueue.size() );
-                workQueue.clear();
+                dispatch( workQueue );
+            }
+        }
+
+        if ( writers != null )
+        {
+            // Batches that have been handed over to the writers are still written.
+            writers.shutdown();
+            writers = null;
+        }
+    }
+
+    /**
+     * Writes a batch of work, either in the calling thread or, when more than one writer is configured, by handing it
+     * over to a writer thread. When all writers are busy, and the amount of batches that await a writer equals the
+     * amount of writers, the batch is written by the calling thread (which prevents the backlog from growing).
+     *
+     * @param workQueue The batch of work to be written.
+     */
+    private void dispatch( final List<ArchiveCandidate<E>> workQueue )
+    {
+        final int count = writerCount;
+        if ( count <= 1 )
+        {
+            if ( writers != null )
+            {
+                writers.shutdown();
+                writers = null;
             }
+            write( workQueue );
+            return;
+        }
+
+        if ( writers == null )
+        {
+            writers = new ThreadPoolExecutor( count, count, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>( count ),
+                new NamedThreadFactory( "archive-writer-" + id + "-", null, true, null ), new ThreadPoolExecutor.CallerRunsPolicy() );
+        }
+        else if ( writers.getMaximumPoolSize() != count )
+        {
+            // Order matters: the core pool size cannot exceed the maximum pool size.
+            if ( count > writers.getMaximumPoolSize() ) {
+                writers.setMaximumPoolSize( count );
+                writers.setCorePoolSize( count );
+            } else {
+                writers.setCorePoolSize( count );
+                writers.setMaximumPoolSize( count );
+            }
+        }
+        writers.execute( () -> write( workQueue ) );
+    }
+
+    private void write( final List<ArchiveCandidate<E>> workQueue )
+    {
+        final List<E> batch = workQueue.stream()
+            .map( ArchiveCandidate::getElement )
+            .collect( Collectors.toList() );
+        try
+        {
+            store( batch );
+            Log.trace( "Stored all produced work in the database. Work size: {}", workQueue.size() );
+        }
+        catch ( RuntimeException e )
+        {
+            Log.error( "An unexpected exception occurred while storing a batch of work. Work size: {}", workQueue.size(), e );
+        }
+        finally
+        {
+            pending.removeAll( workQueue );
         }
     }
 
@@ -226,19 +303,21 @@ public abstract class Archiver<E> implements Runnable
             return result;
         }
 
-        // If the last message that's processed is newer than the instant that we're after, all of the
-        // data that is of interest must have been written.
-        if ( lastProcessed != null && lastProcessed.isAfter( instant ) )
+        // If the date of interest is not in the future, and no data is queued or being worked on, then all data
+        // has been written.
+        final Iterator<ArchiveCandidate<E>> iterator = pending.iterator();
+        if ( !iterator.hasNext() )
         {
-            Log.debug( "Creation date of last logged data ({}) is younger than the timestamp that's requested ({}). Therefor, all data must have already been written.", lastProcessed, instant );
+            Log.debug( "The timestamp that's requested ({}) is not in the future. All data must have already been received. There's no data queued or being worked on. Therefor, all data must have already been written.", instant );
             return Duration.ZERO;
         }
 
-        // If the date of interest is not in the future, the queue is empty, and
-        // no data is currently being worked on, then all data has been written.
-        if ( queue.isEmpty() && workQueue.isEmpty() )
+        // If the oldest data that has not been written yet is newer than the instant that we're after, all of the
+        // data that is of interest must have been written. This holds regardless of the order in which writers finish.
+        final Instant oldestPending = iterator.next().createdAt();
+        if ( oldestPending.isAfter( instant ) )
         {
-            Log.debug( "The timestamp that's requested ({}) is not in the future. All data must have already been received. There's no data queued or being worked on. Therefor, all data must have already been written.", instant );
+            Log.debug( "Creation date of oldest data that is yet to be written ({}) is younger than the timestamp that's requested ({}). Therefor, all data must have already been written.", oldestPending, instant );
             return Duration.ZERO;
         }
 
@@ -271,6 +350,26 @@ public abstract class Archiver<E> implements Runnable
         this.maxPurgeInterval = maxPurgeInterval;
     }
 
+    public int getWriterCount()
+    {
+        return writerCount;
+    }
+
+    /**
+     * Sets the number of threads that concurrently write batches to the database. When this is larger than one, the
+     * implementation of {@link #store(List)} must be thread-safe.
+     *
+     * @param writerCount The number of writers (must be a positive integer).
+     */
+    public void setWriterCount( final int writerCount )
+    {
+        if ( writerCount < 1 )
+        {
+            throw new IllegalArgumentException( "Argument 'writerCount' must be a positive integer." );
+        }
+        this.writerCount = writerCount;
+    }
+
     public Duration getGracePeriod()
     {
         return gracePeriod;
@@ -16,6 +16,8 @@
 
 package org.jivesoftware.openfire.entitycaps;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 import org.jivesoftware.util.cache.CacheSizes;
 import org.jivesoftware.util.cache.Cacheable;
 import org.jivesoftware.util.cache.CannotCalculateSizeException;
@@ -25,6 +27,7 @@ import java.io.Externalizable;
 import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
 
@@ -38,6 +41,19 @@ import java.util.Set;
 // TODO: Instances of this class should not be cached in distributed caches. The overhead of distributing data is a lot higher than recalculating the hash on every cluster node. We should remove the Externalizable interface, and turn this class into an immutable class.
 public class EntityCapabilities implements Cacheable, Externalizable {
 
+    /**
+     * Identities and features are shared by many different capabilities (eg: by different versions of the same
+     * client). The strings that represent them are interned, so that all capabilities refer to the same instances.
+     */
+    private static final Interner<String> INTERNER = Interners.newWeakInterner();
+
+    /**
+     * Many entities advertise different capabilities that nonetheless have the same identities, or the same features
+     * (eg: when their capabilities differ only in a data form). Complete collections of identities and features are
+     * interned too, so that such capabilities share the same collection instances.
+     */
+    private static final Interner<Set<String>> COLLECTION_INTERNER = Interners.newWeakInterner();
+
     /**
      * Identities included in these entity capabilities.
      */
@@ -68,7 +84,7 @@ public class EntityCapabilities implements Cacheable, Externalizable {
      *         identity
      */
     boolean addIdentity(String identity) {
-        return identities.add(identity);
+        return identities.add(INTERNER.intern(identity));
     }
 
     /**
@@ -79,7 +95,16 @@ public class EntityCapabilities implements Cacheable, Externalizable {
      *         feature
      */
     boolean addFeature(String feature) {
-        return features.add(feature);
+        return features.add(INTERNER.intern(feature));
+    }
+
+    /**
+     * Replaces the collections of identities and features with equal, interned, unmodifiable instances. After this
+     * method has been invoked, no identities or features can be added.
+     */
+    void internCollections() {
+        identities = COLLECTION_INTERNER.intern(Collections.unmodifiableSet(identities));
+        features = COLLECTION_INTERNER.intern(Collections.unmodifiableSet(features));
     }
 
     /**
@@ -143,9 +168,14 @@ public class EntityCapabilities implements Cacheable, Externalizable {
     
     @Override
     public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
-        ExternalizableUtil.getInstance().readStrings(in, identities);
-        ExternalizableUtil.getInstance().readStrings(in, features);
+        final Set<String> readIdentities = new HashSet<>();
+        ExternalizableUtil.getInstance().readStrings(in, readIdentities);
+        readIdentities.forEach(this::addIdentity);
+        final Set<String> readFeatures = new HashSet<>();
+        ExternalizableUtil.getInstance().readStrings(in, readFeatures);
+        readFeatures.forEach(this::addFeature);
         verAttribute = ExternalizableUtil.getInstance().readSafeUTF(in);
+        internCollections();
     }
 
     @Override
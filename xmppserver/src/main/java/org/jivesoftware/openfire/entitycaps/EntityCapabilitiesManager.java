@@ -27,6 +27,8 @@ import org.jivesoftware.openfire.event.UserEventDispatcher;
 import org.jivesoftware.openfire.event.UserEventListener;
 import org.jivesoftware.openfire.user.User;
 import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.SystemProperty;
+import org.jivesoftware.util.TaskEngine;
 import org.jivesoftware.util.cache.Cache;
 import org.jivesoftware.util.cache.CacheFactory;
 import org.slf4j.Logger;
@@ -38,7 +40,11 @@ import org.xmpp.packet.Presence;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArraySet;
 import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
@@ -71,6 +77,36 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
      */
     public static final String OPENFIRE_IDENTIFIER_NODE = "https://www.igniterealtime.org/projects/openfire/";
 
+    /**
+     * Controls if entity capabilities are stored in the database, allowing them to be recognized without querying an
+     * entity for them, including after a restart of the server.
+     */
+    public static final SystemProperty<Boolean> PERSISTENCE_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.entitycaps.persistence.enabled")
+        .setDefaultValue(true)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum amount of stored entity capabilities that are loaded into the cache when the server starts.
+     */
+    public static final SystemProperty<Integer> PERSISTENCE_WARMUP_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.entitycaps.persistence.warmup-size")
+        .setDefaultValue(1000)
+        .setMinValue(0)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The period after which stored entity capabilities that have not been seen are removed from the database.
+     */
+    public static final SystemProperty<Duration> PERSISTENCE_MAX_AGE = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("xmpp.entitycaps.persistence.max-age")
+        .setDefaultValue(Duration.ofDays(90))
+        .setChronoUnit(ChronoUnit.DAYS)
+        .setDynamic(true)
+        .build();
+
     /**
      * Entity Capabilities cache map. This cache stores entity capabilities
      * that may be shared among users.
@@ -140,6 +176,33 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
      */
     private final SetMultimap<JID, EntityCapabilitiesListener> userSpecificCapabilitiesListener = HashMultimap.create();
 
+    /**
+     * Stores entity capabilities in the database.
+     */
+    private final EntityCapabilitiesStore store = new EntityCapabilitiesStore();
+
+    /**
+     * The 'ver' hashes for which it has been recorded in the database that they were seen since the server started.
+     * Used to limit the amount of database updates to one per 'ver' hash.
+     */
+    private final Set<String> verHashesSeen = ConcurrentHashMap.newKeySet();
+
+    /**
+     * 'ver' hashes for which no capabilities were found in the database. This prevents that every presence that
+     * advertises such a hash causes a database query. Entries expire, as the capabilities can be stored later (eg: by
+     * another cluster node).
+     */
+    private Cache<String, Boolean> unstoredVerHashes;
+
+    /**
+     * The 'ver' hash that is being looked up in the database for an entity. Used to discard the result of a lookup when
+     * the entity advertised other capabilities (or became unavailable) before the lookup completed.
+     *
+     * Key:   The full JID of the entity.
+     * Value: The 'ver' hash that is being looked up.
+     */
+    private final Map<JID, String> storeLookups = new ConcurrentHashMap<>();
+
     public EntityCapabilitiesManager() {
         super( "Entity Capabilities Manager" );
     }
@@ -150,11 +213,35 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
         super.initialize( server );
         entityCapabilitiesMap = CacheFactory.createLocalCache("Entity Capabilities");
         entityCapabilitiesUserMap = CacheFactory.createLocalCache("Entity Capabilities Users");
+        unstoredVerHashes = CacheFactory.createLocalCache("Entity Capabilities Unstored");
         capabilitiesBeingUpdated = new HashMap<>();
-        verAttributes = new HashMap<>();
+        verAttributes = new ConcurrentHashMap<>();
         UserEventDispatcher.addListener( this );
     }
 
+    @Override
+    public void start()
+    {
+        super.start();
+        if ( PERSISTENCE_ENABLED.getValue() ) {
+            TaskEngine.getInstance().submit( this::loadPersistedCapabilities );
+        }
+    }
+
+    /**
+     * Removes stale entity capabilities from the database, and loads the most recently seen entity capabilities into
+     * the cache.
+     */
+    private void loadPersistedCapabilities()
+    {
+        store.purge( Instant.now().minus( PERSISTENCE_MAX_AGE.getValue() ) );
+        final List<EntityCapabilities> capabilities = store.loadRecent( PERSISTENCE_WARMUP_SIZE.getValue() );
+        for ( final EntityCapabilities caps : capabilities ) {
+            entityCapabilitiesMap.putIfAbsent( caps.getVerAttribute(), caps );
+        }
+        Log.debug( "Loaded {} entity capabilities from the database.", capabilities.size() );
+    }
+
     @Override
     public void destroy()
     {
@@ -168,6 +255,7 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
             if (packet.getFrom() != null ) {
                 final String oldVer;
 
+                storeLookups.remove( packet.getFrom() );
                 final Lock lock = this.entityCapabilitiesUserMap.getLock(packet.getFrom().asBareJID());
                 lock.lock();
                 try {
@@ -209,49 +297,102 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
         }
 
         // Check to see if the 'ver' hash is already in our cache.
-        EntityCapabilities caps;
+        final EntityCapabilities caps;
         if ((caps = entityCapabilitiesMap.get(newVerAttribute)) != null) {
             // The 'ver' hash is in the cache already, so let's update the
             // entityCapabilitiesUserMap for the user that sent the caps
             // packet.
+            storeLookups.remove( packet.getFrom() );
             Log.trace( "Registering 'ver' (for recognized caps) for {}", packet.getFrom() );
             registerCapabilities( packet.getFrom(), caps );
+            recordSeen( newVerAttribute );
+        }
+        else if ( PERSISTENCE_ENABLED.getValue() && unstoredVerHashes.get( newVerAttribute ) == null ) {
+            // The 'ver' hash might have been learned before (possibly prior to a restart), in which case there is no
+            // need to query the entity. Look it up in the database, without blocking the thread that processes the
+            // presence.
+            final JID entity = packet.getFrom();
+            storeLookups.put( entity, newVerAttribute );
+            TaskEngine.getInstance().submit( () -> loadStoredCapabilities( entity, hashAttribute, newVerAttribute ) );
         }
         else {
-            final Lock lock = this.entityCapabilitiesUserMap.getLock(packet.getFrom().asBareJID());
-            lock.lock();
-            try {
-                // If this entity previously had another registration, that now no longer is valid.
-                final String ver = entityCapabilitiesUserMap.remove(packet.getFrom());
-                if ( ver != null ) {
-                    capabilitiesBeingUpdated.put( packet.getFrom(), ver );
-                }
-            } finally {
-                lock.unlock();
+            storeLookups.remove( packet.getFrom() );
+            queryCapabilities( packet.getFrom(), hashAttribute, newVerAttribute );
+        }
+    }
+
+    /**
+     * Looks up capabilities in the database, and registers these for an entity. When the capabilities are not stored,
+     * the entity is queried for its capabilities instead.
+     *
+     * @param entity the entity that advertised the capabilities.
+     * @param hashAttribute the hash algorithm that was used to create the 'ver' hash.
+     * @param verAttribute the 'ver' hash that was advertised by the entity.
+     */
+    private void loadStoredCapabilities( @Nonnull final JID entity, @Nonnull final String hashAttribute, @Nonnull final String verAttribute )
+    {
+        final EntityCapabilities caps = store.load( verAttribute );
+        if ( caps == null ) {
+            unstoredVerHashes.put( verAttribute, Boolean.TRUE );
+        }
+
+        if ( !storeLookups.remove( entity, verAttribute ) ) {
+            // The entity advertised other capabilities, or became unavailable, while the lookup was in progress.
+            return;
+        }
+
+        if ( caps != null ) {
+            Log.trace( "Registering 'ver' (for stored caps) for {}", entity );
+            registerCapabilities( entity, caps );
+            recordSeen( verAttribute );
+        } else {
+            queryCapabilities( entity, hashAttribute, verAttribute );
+        }
+    }
+
+    /**
+     * Sends a disco#info query to an entity, to learn the capabilities that are identified by a 'ver' hash that it
+     * advertised.
+     *
+     * @param entity the entity that advertised the capabilities.
+     * @param hashAttribute the hash algorithm that was used to create the 'ver' hash.
+     * @param verAttribute the 'ver' hash that was advertised by the entity.
+     */
+    private void queryCapabilities( @Nonnull final JID entity, @Nonnull final String hashAttribute, @Nonnull final String verAttribute )
+    {
+        final Lock lock = this.entityCapabilitiesUserMap.getLock(entity.asBareJID());
+        lock.lock();
+        try {
+            // If this entity previously had another registration, that now no longer is valid.
+            final String ver = entityCapabilitiesUserMap.remove(entity);
+            if ( ver != null ) {
+                capabilitiesBeingUpdated.put( entity, ver );
             }
+        } finally {
+            lock.unlock();
+        }
 
-            // The 'ver' hash is not in the cache so send out a disco#info query
-            // so that we may begin recognizing this 'ver' hash.
-            IQ iq = new IQ(IQ.Type.get);
-            iq.setTo(packet.getFrom());
+        // The 'ver' hash is not in the cache so send out a disco#info query
+        // so that we may begin recognizing this 'ver' hash.
+        IQ iq = new IQ(IQ.Type.get);
+        iq.setTo(entity);
 
-            String serverName = XMPPServer.getInstance().getServerInfo().getXMPPDomain();
-            iq.setFrom(serverName);
+        String serverName = XMPPServer.getInstance().getServerInfo().getXMPPDomain();
+        iq.setFrom(serverName);
 
-            iq.setChildElement("query", "http://jabber.org/protocol/disco#info");
+        iq.setChildElement("query", "http://jabber.org/protocol/disco#info");
 
-            String packetId = iq.getID();
-            
-            caps = new EntityCapabilities();
-            caps.setHashAttribute(hashAttribute);
-            caps.setVerAttribute(newVerAttribute);
-            Log.trace( "Querying 'ver' for unrecognized caps. Querying: {}", packet.getFrom() );
-            verAttributes.put(packetId, caps);
+        String packetId = iq.getID();
 
-            final IQRouter iqRouter = XMPPServer.getInstance().getIQRouter();
-            iqRouter.addIQResultListener(packetId, this);
-            iqRouter.route(iq);
-        }
+        final EntityCapabilities caps = new EntityCapabilities();
+        caps.setHashAttribute(hashAttribute);
+        caps.setVerAttribute(verAttribute);
+        Log.trace( "Querying 'ver' for unrecognized caps. Querying: {}", entity );
+        verAttributes.put(packetId, caps);
+
+        final IQRouter iqRouter = XMPPServer.getInstance().getIQRouter();
+        iqRouter.addIQResultListener(packetId, this);
+        iqRouter.route(iq);
     }
 
     /**
@@ -365,28 +506,64 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
             // Add the resolved identities and features to the entity 
             // EntityCapabilitiesManager.capabilities object and add it 
             // to the cache map...
-            EntityCapabilities caps = verAttributes.get(packetId);
-
-            // Store identities.
-            List<String> identities = getIdentitiesFrom(packet);
-            for (String identity : identities) {
-                caps.addIdentity(identity);
-            }
-
-            // Store features.
-            List<String> features = getFeaturesFrom(packet);
-            for (String feature : features) {
-                caps.addFeature(feature);
-            }
+            final EntityCapabilities original = verAttributes.get(packetId);
+            final EntityCapabilities caps = createCapabilities(packet, original.getVerAttribute(), original.getHashAttribute());
 
             Log.trace( "Received response to querying 'ver'. Caps now recognized. Received response from: {}", packet.getFrom() );
             registerCapabilities( packet.getFrom(), caps );
+
+            if ( PERSISTENCE_ENABLED.getValue() ) {
+                verHashesSeen.add( caps.getVerAttribute() );
+                unstoredVerHashes.remove( caps.getVerAttribute() );
+                final Element discoInfo = packet.getChildElement().createCopy();
+                TaskEngine.getInstance().submit( () -> store.store( caps, discoInfo ) );
+            }
         }
 
         // Remove cached 'ver' attribute.
         verAttributes.remove(packetId);
     }
 
+    /**
+     * Records in the database that capabilities were seen, if that has not been done since the server started. This
+     * prevents stored capabilities that are in use from being removed as stale data.
+     *
+     * @param verHash the 'ver' hash of the capabilities.
+     */
+    private void recordSeen( @Nonnull final String verHash )
+    {
+        if ( PERSISTENCE_ENABLED.getValue() && verHashesSeen.add( verHash ) ) {
+            TaskEngine.getInstance().submit( () -> store.touch( verHash ) );
+        }
+    }
+
+    /**
+     * Creates entity capabilities from a disco#info response.
+     *
+     * @param packet the disco#info response.
+     * @param verAttribute the 'ver' hash of the capabilities.
+     * @param hashAttribute the hash algorithm that was used to create the 'ver' hash.
+     * @return the entity capabilities.
+     */
+    static EntityCapabilities createCapabilities( @Nonnull final IQ packet, @Nonnull final String verAttribute, @Nullable final String hashAttribute )
+    {
+        final EntityCapabilities caps = new EntityCapabilities();
+        caps.setVerAttribute( verAttribute );
+        caps.setHashAttribute( hashAttribute );
+
+        // Store identities.
+        for ( final String identity : getIdentitiesFrom( packet ) ) {
+            caps.addIdentity( identity );
+        }
+
+        // Store features.
+        for ( final String feature : getFeaturesFrom( packet ) ) {
+            caps.addFeature( feature );
+        }
+        caps.internCollections();
+        return caps;
+    }
+
     /**
      * Returns the entity capabilities for a specific JID. The specified JID
      * should be a full JID that identified the entity's connection.
@@ -765,5 +942,8 @@ public class EntityCapabilitiesManager extends BasicModule implements IQResultLi
         entityCapabilitiesUserMap.clear();
         verAttributes.clear();
         capabilitiesBeingUpdated.clear();
+        verHashesSeen.clear();
+        unstoredVerHashes.clear();
+        storeLookups.clear();
     }
 }
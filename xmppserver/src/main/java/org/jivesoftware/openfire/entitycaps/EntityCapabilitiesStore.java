@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.entitycaps;
+
+import org.dom4j.Element;
+import org.jivesoftware.database.DbConnectionManager;
+import org.jivesoftware.util.SAXReaderUtil;
+import org.jivesoftware.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.IQ;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Persists entity capabilities in the database, keyed by their 'ver' hash.
+ *
+ * The result of the service discovery request that was used to learn the capabilities is stored as-is. When loaded,
+ * the 'ver' hash is recalculated from this data, and compared with the stored hash, to guard against data that has
+ * been modified.
+ */
+final class EntityCapabilitiesStore
+{
+    private static final Logger Log = LoggerFactory.getLogger(EntityCapabilitiesStore.class);
+
+    private static final String LOAD_CAPABILITIES =
+        "SELECT verHash, hashAlgorithm, discoInfo FROM ofEntityCaps WHERE verHash=?";
+    private static final String LOAD_RECENT_CAPABILITIES =
+        "SELECT verHash, hashAlgorithm, discoInfo FROM ofEntityCaps ORDER BY lastSeen DESC";
+    private static final String INSERT_CAPABILITIES =
+        "INSERT INTO ofEntityCaps (verHash, hashAlgorithm, discoInfo, lastSeen) VALUES (?,?,?,?)";
+    private static final String UPDATE_LAST_SEEN =
+        "UPDATE ofEntityCaps SET lastSeen=? WHERE verHash=?";
+    private static final String DELETE_OLD_CAPABILITIES =
+        "DELETE FROM ofEntityCaps WHERE lastSeen<?";
+
+    /**
+     * Loads the capabilities that are identified by a particular 'ver' hash.
+     *
+     * @param verHash the 'ver' hash of the capabilities.
+     * @return the capabilities, or null if these are not stored.
+     */
+    @Nullable
+    EntityCapabilities load(@Nonnull final String verHash)
+    {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(LOAD_CAPABILITIES);
+            pstmt.setString(1, verHash);
+            rs = pstmt.executeQuery();
+            if (rs.next()) {
+                return parse(rs);
+            }
+        } catch (SQLException e) {
+            Log.warn("Unable to load entity capabilities for 'ver' hash '{}' from the database.", verHash, e);
+        } finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+        return null;
+    }
+
+    /**
+     * Loads the capabilities that were seen most recently.
+     *
+     * @param maxResults the maximum amount of capabilities to load.
+     * @return capabilities, ordered from most to least recently seen.
+     */
+    @Nonnull
+    List<EntityCapabilities> loadRecent(final int maxResults)
+    {
+        final List<EntityCapabilities> result = new ArrayList<>();
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(LOAD_RECENT_CAPABILITIES);
+            DbConnectionManager.limitRowsAndFetchSize(pstmt, 0, maxResults);
+            rs = pstmt.executeQuery();
+            while (rs.next() && result.size() < maxResults) {
+                final EntityCapabilities capabilities = parse(rs);
+                if (capabilities != null) {
+                    result.add(capabilities);
+                }
+            }
+        } catch (SQLException e) {
+            Log.warn("Unable to load entity capabilities from the database.", e);
+        } finally {
+            DbConnectionManager.closeConnection(rs, pstmt, con);
+        }
+        return result;
+    }
+
+    /**
+     * Stores capabilities, unless capabilities with the same 'ver' hash are already stored (in which case the moment
+     * they were last seen is updated).
+     *
+     * @param capabilities the capabilities to store.
+     * @param discoInfo the child element of the service discovery response from which the capabilities were learned.
+     */
+    void store(@Nonnull final EntityCapabilities capabilities, @Nonnull final Element discoInfo)
+    {
+        if (touch(capabilities.getVerAttribute())) {
+            return;
+        }
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(INSERT_CAPABILITIES);
+            pstmt.setString(1, capabilities.getVerAttribute());
+            pstmt.setString(2, capabilities.getHashAttribute());
+            DbConnectionManager.setLargeTextField(pstmt, 3, discoInfo.asXML());
+            pstmt.setString(4, StringUtils.dateToMillis(new Date()));
+            pstmt.executeUpdate();
+        } catch (SQLException e) {
+            // Another cluster node might have stored the same capabilities concurrently.
+            Log.debug("Unable to store entity capabilities for 'ver' hash '{}' in the database.", capabilities.getVerAttribute(), e);
+        } finally {
+            DbConnectionManager.closeConnection(pstmt, con);
+        }
+    }
+
+    /**
+     * Records that capabilities were seen.
+     *
+     * @param verHash the 'ver' hash of the capabilities.
+     * @return true if the capabilities are stored, otherwise false.
+     */
+    boolean touch(@Nonnull final String verHash)
+    {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(UPDATE_LAST_SEEN);
+            pstmt.setString(1, StringUtils.dateToMillis(new Date()));
+            pstmt.setString(2, verHash);
+            return pstmt.executeUpdate() > 0;
+        } catch (SQLException e) {
+            Log.warn("Unable to update entity capabilities for 'ver' hash '{}' in the database.", verHash, e);
+            return false;
+        } finally {
+            DbConnectionManager.closeConnection(pstmt, con);
+        }
+    }
+
+    /**
+     * Removes all capabilities that were not seen after a particular moment.
+     *
+     * @param lastSeen the moment before which capabilities must have been seen last to be removed.
+     */
+    void purge(@Nonnull final Instant lastSeen)
+    {
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        try {
+            con = DbConnectionManager.getConnection();
+            pstmt = con.prepareStatement(DELETE_OLD_CAPABILITIES);
+            pstmt.setString(1, StringUtils.dateToMillis(Date.from(lastSeen)));
+            final int removed = pstmt.executeUpdate();
+            Log.debug("Removed {} entity capabilities that were last seen before {} from the database.", removed, lastSeen);
+        } catch (SQLException e) {
+            Log.warn("Unable to remove old entity capabilities from the database.", e);
+        } finally {
+            DbConnectionManager.closeConnection(pstmt, con);
+        }
+    }
+
+    /**
+     * Creates capabilities from a row of a result set, verifying that the stored data matches the stored 'ver' hash.
+     *
+     * @return the capabilities, or null if the stored data could not be parsed or does not match the stored hash.
+     */
+    @Nullable
+    private static EntityCapabilities parse(@Nonnull final ResultSet rs) throws SQLException
+    {
+        final String verHash = rs.getString(1);
+        final String hashAlgorithm = rs.getString(2);
+        final String discoInfo = DbConnectionManager.getLargeTextField(rs, 3);
+        try {
+            final IQ response = new IQ(IQ.Type.result);
+            response.setChildElement(SAXReaderUtil.readRootElement(discoInfo));
+            if (!verHash.equals(EntityCapabilitiesManager.generateVerHash(response, hashAlgorithm))) {
+                Log.warn("Ignoring stored entity capabilities for 'ver' hash '{}', as the stored data does not match the hash.", verHash);
+                return null;
+            }
+            return EntityCapabilitiesManager.createCapabilities(response, verHash, hashAlgorithm);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (Exception e) {
+            Log.warn("Unable to parse stored entity capabilities for 'ver' hash '{}'.", verHash, e);
+            return null;
+        }
+    }
+}
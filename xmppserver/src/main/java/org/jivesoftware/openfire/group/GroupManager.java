@@ -809,6 +809,75 @@ public class GroupManager {
         GroupEventDispatcher.dispatchEvent(updatedGroup, GroupEventDispatcher.EventType.member_removed, params);
     }
 
+    /**
+     * Updates the caches maintained by this manager and dispatches events that reflect a group having been created or
+     * modified by other means than this manager, for example directly in a directory service that is used by the group
+     * provider.
+     *
+     * Rather than evicting all cached group data, only the data that relates to the modified group is refreshed. When
+     * a previously cached version of the group is available, events are dispatched for every member and admin that was
+     * added or removed.
+     *
+     * This method is intended to be invoked by group providers that are able to detect such changes. It should rarely
+     * be invoked by code that is not part of a group provider implementation.
+     *
+     * @param name The name of the group that was created or modified.
+     */
+    public void groupModifiedExternallyPostProcess(@Nonnull final String name)
+    {
+        final CacheableOptional<Group> cachedGroup = groupCache.get(name);
+        final Group originalGroup = cachedGroup == null ? null : cachedGroup.toOptional().orElse(null);
+        if (originalGroup != null) {
+            evictCachedUsersForGroup(originalGroup);
+        }
+
+        final Group updatedGroup;
+        try {
+            // By forcing the lookup, the cache will automatically receive the required refresh.
+            updatedGroup = getGroup(name, true);
+        } catch (GroupNotFoundException e) {
+            Log.debug("Group '{}' was reported to be modified, but it no longer exists.", name, e);
+            return;
+        }
+        evictCachedUsersForGroup(updatedGroup);
+
+        final HashSet<String> groupNames = getGroupNamesFromCache();
+        if (groupNames == null || !groupNames.contains(name)) {
+            // The group might be new.
+            clearGroupNameCache();
+            clearGroupCountCache();
+            evictCachedPaginatedGroupNames();
+        }
+
+        if (originalGroup == null) {
+            // Without a prior state, it is unknown what changed.
+            return;
+        }
+
+        // Fire events.
+        dispatchDifferences(updatedGroup, originalGroup.getMembers(), updatedGroup.getMembers(), "member", GroupEventDispatcher.EventType.member_added, GroupEventDispatcher.EventType.member_removed);
+        dispatchDifferences(updatedGroup, originalGroup.getAdmins(), updatedGroup.getAdmins(), "admin", GroupEventDispatcher.EventType.admin_added, GroupEventDispatcher.EventType.admin_removed);
+    }
+
+    /**
+     * Dispatches an event for every address that was added to, or removed from, a collection of group members or admins.
+     */
+    private static void dispatchDifferences(@Nonnull final Group group, @Nonnull final Collection<JID> original, @Nonnull final Collection<JID> updated, @Nonnull final String paramName, @Nonnull final GroupEventDispatcher.EventType addedType, @Nonnull final GroupEventDispatcher.EventType removedType)
+    {
+        final Set<JID> originalSet = new HashSet<>(original);
+        final Set<JID> updatedSet = new HashSet<>(updated);
+        for (final JID jid : updatedSet) {
+            if (!originalSet.contains(jid)) {
+                GroupEventDispatcher.dispatchEvent(group, addedType, Collections.singletonMap(paramName, jid.toString()));
+            }
+        }
+        for (final JID jid : originalSet) {
+            if (!updatedSet.contains(jid)) {
+                GroupEventDispatcher.dispatchEvent(group, removedType, Collections.singletonMap(paramName, jid.toString()));
+            }
+        }
+    }
+
     /**
      * Updates the caches maintained by this manager and dispatches events that reflect a group having received a new
      * name.
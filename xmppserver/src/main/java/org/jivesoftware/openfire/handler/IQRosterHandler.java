@@ -21,6 +21,7 @@ import gnu.inet.encoding.IDNAException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
 
 import org.jivesoftware.openfire.IQHandlerInfo;
@@ -189,17 +190,21 @@ public class IQRosterHandler extends IQHandler implements ServerFeaturesProvider
             Roster cachedRoster = userManager.getUser(sender.getNode()).getRoster();
             if (IQ.Type.get == type) {
 
+                List<org.xmpp.packet.Roster> pushes = null;
                 if (RosterManager.isRosterVersioningEnabled()) {
                     String clientVersion = packet.getChildElement().attributeValue("ver");
-                    String latestVersion = String.valueOf( cachedRoster.hashCode() );
+                    String latestVersion = cachedRoster.getVersion();
+                    if (clientVersion != null && !latestVersion.equals(clientVersion)) {
+                        pushes = cachedRoster.getPushesSince(clientVersion);
+                    }
                     // Whether or not the roster has been modified since the version ID enumerated by the client, ...
-                    if (!latestVersion.equals(clientVersion)) {
+                    if (!latestVersion.equals(clientVersion) && pushes == null) {
                         // ... the server MUST either return the complete roster
                         // (including a 'ver' attribute that signals the latest version)
                         returnPacket = cachedRoster.getReset();
                         returnPacket.getChildElement().addAttribute("ver", latestVersion );
                     } else {
-                        // ... or return an empty IQ-result
+                        // ... or return an empty IQ-result (followed by roster pushes for the items that changed)
                         returnPacket = new org.xmpp.packet.IQ();
                     }
                 } else {
@@ -212,6 +217,13 @@ public class IQRosterHandler extends IQHandler implements ServerFeaturesProvider
                 // a presence probe from all contacts
                 deliverer.deliver(returnPacket);
                 returnPacket = null;
+
+                if (pushes != null) {
+                    for (org.xmpp.packet.Roster push : pushes) {
+                        push.setTo(sender);
+                        deliverer.deliver(push);
+                    }
+                }
             }
             else if (IQ.Type.set == type) {
                 returnPacket = IQ.createResultIQ(packet);
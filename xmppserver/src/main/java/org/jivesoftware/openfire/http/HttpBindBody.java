@@ -17,24 +17,34 @@ package org.jivesoftware.openfire.http;
 
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
+import org.dom4j.DocumentFactory;
 import org.dom4j.Element;
 import org.dom4j.QName;
 import org.dom4j.io.XMPPPacketReader;
 import org.jivesoftware.openfire.net.MXParser;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xmlpull.v1.XmlPullParser;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
 import javax.xml.XMLConstants;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
 import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 /**
  * Representation of the 'body' element of an HTTP-Bind defined request.
  *
+ * The request is parsed in a streaming fashion: the attributes of the 'body' element are read from a pull parser,
+ * after which each child element (stanza) is parsed into an element of its own. The request data is not copied into
+ * an intermediate representation of the entire request.
+ *
  * @author Guus der Kinderen, guus.der.kinderen@gmail.com
  */
 public class HttpBindBody
@@ -55,42 +65,125 @@ public class HttpBindBody
         }
     }
 
-    private final ThreadLocal<XMPPPacketReader> localReader = new ThreadLocal<>();
+    /**
+     * The 'body' element, including its attributes and namespace declarations, but without its child elements.
+     */
+    private final Element root;
 
-    private final Document document;
+    /**
+     * The child elements of the 'body' element, each parsed individually.
+     */
+    private final List<Element> stanzas;
 
     public static HttpBindBody from( String content ) throws DocumentException, XmlPullParserException, IOException
     {
         return new HttpBindBody( content );
     }
 
+    /**
+     * Parses request data from a stream of UTF-8 encoded bytes.
+     *
+     * @param content the request data.
+     * @return the parsed request.
+     * @throws DocumentException if the data could not be parsed.
+     * @throws XmlPullParserException if the data could not be parsed.
+     * @throws IOException if the data could not be read.
+     */
+    public static HttpBindBody from( InputStream content ) throws DocumentException, XmlPullParserException, IOException
+    {
+        final XMPPPacketReader reader = createPacketReader();
+        reader.getXPPParser().setInput( content, StandardCharsets.UTF_8.name() );
+        return new HttpBindBody( reader );
+    }
+
     protected HttpBindBody( String content ) throws DocumentException, XmlPullParserException, IOException
     {
-        // Parse document from the content.
-        document = getPacketReader().read( new StringReader( content ), "UTF-8" );
-        final Element node = document.getRootElement();
-        if ( node == null || !"body".equals( node.getName() ) )
+        this( createPacketReader( content ) );
+    }
+
+    private HttpBindBody( XMPPPacketReader reader ) throws DocumentException, XmlPullParserException, IOException
+    {
+        final XmlPullParser pp = reader.getXPPParser();
+
+        // Skip the XML declaration, processing instructions, comments and whitespace that can precede the root element.
+        int type;
+        do
+        {
+            type = pp.nextToken();
+        }
+        while ( type != XmlPullParser.START_TAG && type != XmlPullParser.END_DOCUMENT );
+
+        if ( type != XmlPullParser.START_TAG || !"body".equals( pp.getName() ) )
         {
             throw new IllegalArgumentException( "Root element 'body' is missing from parsed request data" );
         }
+        root = createRootElement( pp );
+
+        // Each invocation parses the next child element. When the end of the 'body' element is reached, an empty document is returned.
+        final List<Element> children = new ArrayList<>();
+        while ( true )
+        {
+            final Element child = reader.parseDocument().getRootElement();
+            if ( child == null )
+            {
+                break;
+            }
+            children.add( child );
+        }
+        stanzas = Collections.unmodifiableList( children );
     }
 
-    private XMPPPacketReader getPacketReader()
+    private static XMPPPacketReader createPacketReader() throws XmlPullParserException
     {
-        // Reader is associated with a new XMPPPacketReader
-        XMPPPacketReader reader = localReader.get();
-        if ( reader == null )
+        final XMPPPacketReader reader = new XMPPPacketReader();
+        reader.setXPPFactory( factory );
+        return reader;
+    }
+
+    private static XMPPPacketReader createPacketReader( String content ) throws XmlPullParserException
+    {
+        final XMPPPacketReader reader = createPacketReader();
+        reader.getXPPParser().setInput( new StringReader( content ) );
+        return reader;
+    }
+
+    /**
+     * Creates an element that represents the element on which the parser is positioned, including its attributes and
+     * namespace declarations, but excluding any child nodes. This mimics how {@link XMPPPacketReader} creates a root
+     * element.
+     */
+    private static Element createRootElement( XmlPullParser pp ) throws XmlPullParserException
+    {
+        final DocumentFactory df = DocumentFactory.getInstance();
+        final QName qname = ( pp.getPrefix() == null ) ? df.createQName( pp.getName(), pp.getNamespace() ) : df.createQName( pp.getName(), pp.getPrefix(), pp.getNamespace() );
+        final Element element = df.createElement( qname );
+        final int nsStart = pp.getNamespaceCount( pp.getDepth() - 1 );
+        final int nsEnd = pp.getNamespaceCount( pp.getDepth() );
+        for ( int i = nsStart; i < nsEnd; i++ )
         {
-            reader = new XMPPPacketReader();
-            reader.setXPPFactory( factory );
-            localReader.set( reader );
+            final String namespacePrefix = pp.getNamespacePrefix( i );
+            final String namespaceUri = pp.getNamespaceUri( i );
+            if ( namespacePrefix != null )
+            {
+                element.addNamespace( namespacePrefix, namespaceUri );
+            }
+            else if ( !XMPPPacketReader.IGNORED_NAMESPACE_ON_STANZA.contains( namespaceUri ) )
+            {
+                element.addNamespace( "", namespaceUri );
+            }
         }
-        return reader;
+        for ( int i = 0; i < pp.getAttributeCount(); i++ )
+        {
+            final QName qa = ( pp.getAttributePrefix( i ) == null ) ? df.createQName( pp.getAttributeName( i ) ) : df.createQName( pp.getAttributeName( i ), pp.getAttributePrefix( i ), pp.getAttributeNamespace( i ) );
+            element.addAttribute( qa, pp.getAttributeValue( i ) );
+        }
+        df.createDocument( element );
+        return element;
     }
 
     public Long getRid()
     {
-        final String value = document.getRootElement().attributeValue( "rid" );
+        final String value = root.attributeValue( "rid" );
         if ( value == null )
         {
             return null;
@@ -101,22 +194,22 @@ public class HttpBindBody
 
     public String getSid()
     {
-        return document.getRootElement().attributeValue( "sid" );
+        return root.attributeValue( "sid" );
     }
 
     public boolean isEmpty()
     {
-        return document.getRootElement().elements().isEmpty();
+        return stanzas.isEmpty();
     }
 
     public boolean isPoll()
     {
         boolean isPoll = isEmpty();
-        if ( "terminate".equals( document.getRootElement().attributeValue( "type" ) ) )
+        if ( "terminate".equals( root.attributeValue( "type" ) ) )
         { isPoll = false; }
-        else if ( "true".equals( document.getRootElement().attributeValue( new QName( "restart", document.getRootElement().getNamespaceForPrefix( "xmpp" ) ) ) ) )
+        else if ( "true".equals( root.attributeValue( new QName( "restart", root.getNamespaceForPrefix( "xmpp" ) ) ) ) )
         { isPoll = false; }
-        else if ( document.getRootElement().attributeValue( "pause" ) != null )
+        else if ( root.attributeValue( "pause" ) != null )
         { isPoll = false; }
 
         return isPoll;
@@ -125,7 +218,7 @@ public class HttpBindBody
     public String getLanguage()
     {
         // Default language is English ("en").
-        final String language = document.getRootElement().attributeValue( QName.get( "lang", XMLConstants.XML_NS_URI ) );
+        final String language = root.attributeValue( QName.get( "lang", XMLConstants.XML_NS_URI ) );
         if ( language == null || "".equals( language ) )
         {
             return "en";
@@ -136,17 +229,17 @@ public class HttpBindBody
 
     public Duration getWait()
     {
-        return Duration.ofSeconds( getIntAttribute( document.getRootElement().attributeValue( "wait" ), 60 ) );
+        return Duration.ofSeconds( getIntAttribute( root.attributeValue( "wait" ), 60 ) );
     }
 
     public int getHold()
     {
-        return getIntAttribute( document.getRootElement().attributeValue( "hold" ), 1 );
+        return getIntAttribute( root.attributeValue( "hold" ), 1 );
     }
 
     public Duration getPause()
     {
-        final int value = getIntAttribute( document.getRootElement().attributeValue( "pause" ), -1  );
+        final int value = getIntAttribute( root.attributeValue( "pause" ), -1  );
         if (value == -1) {
             return null;
         }
@@ -155,7 +248,7 @@ public class HttpBindBody
 
     public String getVersion()
     {
-        final String version = document.getRootElement().attributeValue( "ver" );
+        final String version = root.attributeValue( "ver" );
         if ( version == null || "".equals( version ) )
         {
             return "1.5";
@@ -176,23 +269,23 @@ public class HttpBindBody
 
     public String getType()
     {
-        return document.getRootElement().attributeValue( "type" );
+        return root.attributeValue( "type" );
     }
 
     public boolean isRestart()
     {
-        final String restart = document.getRootElement().attributeValue( new QName( "restart", document.getRootElement().getNamespaceForPrefix( "xmpp" ) ) );
+        final String restart = root.attributeValue( new QName( "restart", root.getNamespaceForPrefix( "xmpp" ) ) );
         return "true".equals( restart );
     }
 
     public List<Element> getStanzaElements()
     {
-        return document.getRootElement().elements();
+        return stanzas;
     }
 
     public String asXML()
     {
-        return document.getRootElement().asXML();
+        return getDocument().getRootElement().asXML();
     }
 
     @Override
@@ -201,9 +294,20 @@ public class HttpBindBody
         return asXML();
     }
 
+    /**
+     * Returns a document that represents the entire request. As the request is not parsed into a single document, this
+     * creates a copy of the 'body' element and all of its child elements. This is intended for diagnostic purposes.
+     *
+     * @return a copy of the request.
+     */
     public Document getDocument()
     {
-        return document;
+        final Element copy = root.createCopy();
+        for ( final Element stanza : stanzas )
+        {
+            copy.add( stanza.createCopy() );
+        }
+        return DocumentFactory.getInstance().createDocument( copy );
     }
 
     protected static long getLongAttribute(String value, long defaultValue) {
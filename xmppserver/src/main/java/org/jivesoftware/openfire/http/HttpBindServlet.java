@@ -135,16 +135,40 @@ public class HttpBindServlet extends HttpServlet {
 
     protected void processContent(AsyncContext context, String content) throws IOException
     {
-        final String remoteAddress = getRemoteAddress(context);
+        final HttpBindBody body;
+        try {
+            body = HttpBindBody.from( content );
+        } catch (Exception ex) {
+            Log.warn("Error parsing request data from [" + getRemoteAddress(context) + "]", ex);
+            sendLegacyError(context, BoshBindingError.badRequest);
+            return;
+        }
+        processContent(context, body);
+    }
 
+    /**
+     * Parses the request data from a stream of UTF-8 encoded bytes, and processes it.
+     *
+     * @param context the context of the asynchronous servlet call.
+     * @param content the request data.
+     * @throws IOException if an input or output exception occurred
+     */
+    protected void processContent(AsyncContext context, InputStream content) throws IOException
+    {
         final HttpBindBody body;
         try {
             body = HttpBindBody.from( content );
         } catch (Exception ex) {
-            Log.warn("Error parsing request data from [" + remoteAddress + "]", ex);
+            Log.warn("Error parsing request data from [" + getRemoteAddress(context) + "]", ex);
             sendLegacyError(context, BoshBindingError.badRequest);
             return;
         }
+        processContent(context, body);
+    }
+
+    protected void processContent(AsyncContext context, HttpBindBody body) throws IOException
+    {
+        final String remoteAddress = getRemoteAddress(context);
 
         final Long rid = body.getRid();
         if (rid == null || rid <= 0) {
@@ -213,17 +237,16 @@ public class HttpBindServlet extends HttpServlet {
             return;
         }
 
-        synchronized (session) {
-            try {
-                session.forwardRequest(body, context);
-            }
-            catch (HttpBindException e) {
-                sendError(session, context, e.getBindingError());
-            }
-            catch (HttpConnectionClosedException nc) {
-                Log.error("Error sending packet to client.", nc);
-                context.complete();
-            }
+        // Processing of the request is serialized by the session itself, which does not block this thread.
+        try {
+            session.forwardRequest(body, context);
+        }
+        catch (HttpBindException e) {
+            sendError(session, context, e.getBindingError());
+        }
+        catch (HttpConnectionClosedException nc) {
+            Log.error("Error sending packet to client.", nc);
+            context.complete();
         }
     }
 
@@ -264,7 +287,7 @@ public class HttpBindServlet extends HttpServlet {
         }
     }
 
-    private void sendError(HttpSession session, AsyncContext context, BoshBindingError bindingError)
+    static void sendError(HttpSession session, AsyncContext context, BoshBindingError bindingError)
             throws IOException
     {
         if (HttpBindManager.LOG_HTTPBIND_ENABLED.getValue()) {
@@ -329,7 +352,7 @@ public class HttpBindServlet extends HttpServlet {
     class ReadListenerImpl implements ReadListener {
 
         private final AsyncContext context;
-        private final ByteArrayOutputStream outStream = new ByteArrayOutputStream(1024);
+        private final RequestBuffer outStream = new RequestBuffer(1024);
         private final String remoteAddress;
 
         ReadListenerImpl(AsyncContext context) {
@@ -357,7 +380,7 @@ public class HttpBindServlet extends HttpServlet {
             if( Log.isTraceEnabled() ) {
                 Log.trace("All data has been read from [" + remoteAddress + "]");
             }
-            processContent(context, outStream.toString(StandardCharsets.UTF_8.name()));
+            processContent(context, outStream.asInputStream());
         }
 
         @Override
@@ -373,6 +396,20 @@ public class HttpBindServlet extends HttpServlet {
         }
     }
 
+    /**
+     * Buffers request data, allowing it to be parsed without copying it first.
+     */
+    private static class RequestBuffer extends ByteArrayOutputStream {
+
+        RequestBuffer(int size) {
+            super(size);
+        }
+
+        InputStream asInputStream() {
+            return new ByteArrayInputStream(buf, 0, count);
+        }
+    }
+
     private static class WriteListenerImpl implements WriteListener {
 
         private final AsyncContext context;
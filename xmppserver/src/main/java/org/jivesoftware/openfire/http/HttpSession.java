@@ -46,7 +46,6 @@ import org.xmpp.packet.*;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.Immutable;
 import javax.servlet.AsyncContext;
 import javax.servlet.AsyncEvent;
@@ -82,6 +81,17 @@ public class HttpSession extends LocalClientSession {
         .setDynamic(true)
         .build();
 
+    /**
+     * The maximum number of tasks that a thread executes on behalf of one session, before the remaining tasks of that
+     * session are handed off to the BOSH worker pool.
+     */
+    public static final SystemProperty<Integer> MAILBOX_BATCH_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.httpbind.session.mailbox.batch-size")
+        .setDefaultValue(32)
+        .setMinValue(1)
+        .setDynamic(false)
+        .build();
+
     private static XmlPullParserFactory factory = null;
     private static final ThreadLocal<XMPPPacketReader> localParser;
     static {
@@ -160,12 +170,28 @@ public class HttpSession extends LocalClientSession {
      */
     private final X509Certificate[] sslCertificates;
 
+    /**
+     * Executes all tasks that read or modify the state of this session (the connections that are waiting to be
+     * responded to, the sequence of request IDs, and the data that was delivered) one at a time, in order. This allows
+     * that state to be accessed without locking, and prevents threads that process HTTP requests for this session
+     * from blocking each other.
+     *
+     * Fields that may only be accessed by tasks executed by this mailbox are documented as such.
+     */
+    private final SessionMailbox mailbox = new SessionMailbox(task -> HttpBindManager.getInstance().getSessionManager().execute(task), true, MAILBOX_BATCH_SIZE.getValue());
+
+    /**
+     * Routes data that was received from the client, in the order in which it was received, using the BOSH worker pool.
+     */
+    private final SessionMailbox inboundMailbox = new SessionMailbox(task -> HttpBindManager.getInstance().getSessionManager().execute(task), false, MAILBOX_BATCH_SIZE.getValue());
+
     /**
      * Collection of client connections on which a BOSH request has been made, but have not been responded to.
      *
      * The connections in the queue will be ordered by their requestId value.
+     *
+     * Only to be accessed by tasks executed by {@link #mailbox}.
      */
-    @GuardedBy("itself")
     private final PriorityQueue<HttpConnection> connectionQueue = new PriorityQueue<>((o1, o2) -> (int) (o1.getRequestId() - o2.getRequestId()));
 
     /**
@@ -178,22 +204,26 @@ public class HttpSession extends LocalClientSession {
      * A list of data that has been delivered, for potential future retransmission.
      *
      * The size of this collection is limited. It will contain only the last few transmitted elements.
+     *
+     * Only to be accessed by tasks executed by {@link #mailbox}.
      */
-    @GuardedBy("itself")
     private final LinkedList<Delivered> sentElements = new LinkedList<>();
 
-    private Instant lastPoll = Instant.EPOCH;
+    /**
+     * The amount of connections in {@link #connectionQueue}, as of the last task executed by {@link #mailbox}.
+     */
+    private volatile int openConnections;
+
+    private Instant lastPoll = Instant.EPOCH; // Only to be accessed by tasks executed by the mailbox.
     private Duration inactivityTimeout;
 
-    private Instant lastActivity;
+    private volatile Instant lastActivity;
 
-    @GuardedBy("connectionQueue")
-    private long lastSequentialRequestID; // received
+    private volatile long lastSequentialRequestID; // received. Only to be modified by tasks executed by the mailbox.
 
-    @GuardedBy("connectionQueue")
-    private long lastAnsweredRequestID; // sent
+    private long lastAnsweredRequestID; // sent. Only to be accessed by tasks executed by the mailbox.
 
-    private boolean lastResponseEmpty;
+    private volatile boolean lastResponseEmpty;
 
     private final SessionPacketRouter router = new SessionPacketRouter(this);
 
@@ -383,14 +413,14 @@ public class HttpSession extends LocalClientSession {
      */
     public void pause(Duration duration) {
         // Respond immediately to all pending requests
-        synchronized (connectionQueue) {
+        runInMailbox(() -> {
             final Iterator<HttpConnection> iter = connectionQueue.iterator();
             while (iter.hasNext()) {
                 final HttpConnection toClose = iter.next();
                 toClose.close();
                 iter.remove();
             }
-        }
+        });
         setInactivityTimeout(duration);
     }
 
@@ -402,13 +432,11 @@ public class HttpSession extends LocalClientSession {
      * @return the time in milliseconds since the epoch that this session was last active.
      */
     public Instant getLastActivity() {
-        synchronized (connectionQueue) {
-            if (!connectionQueue.isEmpty()) {
-                // The session is currently active, set the last activity to the current time.
-                lastActivity = Instant.now();
-            }
-            return lastActivity;
+        if (openConnections > 0) {
+            // The session is currently active, set the last activity to the current time.
+            lastActivity = Instant.now();
         }
+        return lastActivity;
     }
 
     /**
@@ -422,9 +450,7 @@ public class HttpSession extends LocalClientSession {
      * all requests with lower 'rid' values.
      */
     public long getLastAcknowledged() {
-        synchronized (connectionQueue) {
-            return lastSequentialRequestID;
-        }
+        return lastSequentialRequestID;
     }
 
     /**
@@ -479,6 +505,11 @@ public class HttpSession extends LocalClientSession {
      * any pending packets bound for the client will be forwarded to the client through the
      * connection.
      *
+     * This method does not block when other requests for the same session are being processed
+     * concurrently. The request is processed in order with all other events of this session, which
+     * might happen after this method returns. Errors that are detected during that processing are
+     * reported to the client through the provided context.
+     *
      * @param body the body element that was sent containing the request for a new session.
      * @param context the context of the asynchronous servlet call leading up to this method call.
      *
@@ -491,7 +522,6 @@ public class HttpSession extends LocalClientSession {
             throws HttpBindException, HttpConnectionClosedException, IOException
     {
         final HttpConnection connection = this.createConnection(body, context);
-        final long rid = body.getRid();
         final StreamID streamid = getStreamID();
 
         // Check if security restraints are observed.
@@ -500,47 +530,76 @@ public class HttpSession extends LocalClientSession {
                 "connections on this session must be secured.", BoshBindingError.badRequest);
         }
 
-        synchronized (connectionQueue)
-        {
-            // Check if the provided RID is in the to-be-expected window.
-            if (rid > (lastSequentialRequestID + maxRequests)) {
-                Log.warn("Request {} > {}, ending session {}", body.getRid(), (lastSequentialRequestID + maxRequests), getStreamID());
-                throw new HttpBindException("Unexpected RID error.", BoshBindingError.itemNotFound);
+        runInMailbox(() -> {
+            try {
+                processRequest(connection, context);
+            } catch (HttpBindException e) {
+                try {
+                    HttpBindServlet.sendError(this, context, e.getBindingError());
+                } catch (IOException ex) {
+                    Log.debug("Unable to send an error to the client of session {}.", streamid, ex);
+                }
+            } catch (HttpConnectionClosedException e) {
+                Log.error("Error sending packet to client.", e);
+                context.complete();
+            } catch (IOException e) {
+                Log.warn("An unexpected exception occurred while processing a request of session {}.", streamid, e);
+                context.complete();
             }
+        });
+    }
 
-            // Check for retransmission.
-            if (rid <= lastAnsweredRequestID) {
-                Log.debug("Request {} on session {} appears to be a request for redelivery, as the last answered RID is {}", rid, getStreamID(), lastAnsweredRequestID);
-                redeliver(connection);
-                return;
-            }
+    /**
+     * Processes a request that was received from the client.
+     *
+     * Only to be invoked by tasks executed by {@link #mailbox}.
+     *
+     * @param connection the connection on which the request was received.
+     * @param context the context of the asynchronous servlet call leading up to this method call.
+     */
+    private void processRequest(@Nonnull final HttpConnection connection, @Nonnull final AsyncContext context)
+        throws HttpBindException, HttpConnectionClosedException, IOException
+    {
+        final long rid = connection.getRequestId();
+        final StreamID streamid = getStreamID();
 
-            /*
-             * Search through the connection queue to see if this rid already exists on it. If it does then we
-             * will close and deliver the existing connection (if appropriate), and close and deliver the same
-             * deliverable on the new connection. This is under the assumption that a connection has been dropped,
-             * and re-requested before jetty has realised.
-             */
-            final Iterator<HttpConnection> iter = connectionQueue.iterator();
-            while (iter.hasNext()) {
-                final HttpConnection queuedConnection = iter.next();
-                if (queuedConnection.getRequestId() == rid) {
-                    Log.debug("Found previous connection in queue with rid {}", rid);
-
-                    // Note that the old connection is removed here, but the new connection will not be added back before the mutex is released. This leaves
-                    // room for another thread to try and consume a connection before this connection has been restored. This should be safe, as the consumer
-                    // should not be allowed to consume a connection with a RID that, compared to the previously consumed RID, leaves a 'gap'. In that case,
-                    // the to-be-delivered data is expected to be queued, which will be picked up as soon as this connection (for which the RID 'fills the gap',
-                    // is being processed by org.jivesoftware.openfire.http.HttpSession.processConnection.
-                    iter.remove();
-
-                    assert !queuedConnection.isClosed();
+        // Check if the provided RID is in the to-be-expected window.
+        if (rid > (lastSequentialRequestID + maxRequests)) {
+            Log.warn("Request {} > {}, ending session {}", rid, (lastSequentialRequestID + maxRequests), getStreamID());
+            throw new HttpBindException("Unexpected RID error.", BoshBindingError.itemNotFound);
+        }
+
+        // Check for retransmission.
+        if (rid <= lastAnsweredRequestID) {
+            Log.debug("Request {} on session {} appears to be a request for redelivery, as the last answered RID is {}", rid, getStreamID(), lastAnsweredRequestID);
+            redeliver(connection);
+            return;
+        }
+
+        /*
+         * Search through the connection queue to see if this rid already exists on it. If it does then we
+         * will close and deliver the existing connection (if appropriate), and close and deliver the same
+         * deliverable on the new connection. This is under the assumption that a connection has been dropped,
+         * and re-requested before jetty has realised.
+         */
+        final Iterator<HttpConnection> iter = connectionQueue.iterator();
+        while (iter.hasNext()) {
+            final HttpConnection queuedConnection = iter.next();
+            if (queuedConnection.getRequestId() == rid) {
+                Log.debug("Found previous connection in queue with rid {}", rid);
+
+                // Note that the old connection is removed here, and the new connection is added back below, in the same task. As all tasks
+                // that consume connections are executed by the mailbox, no other consumer can observe the queue without this connection.
+                iter.remove();
+
+                // The old connection might have timed out (and been responded to) while the task to remove it was pending.
+                if (!queuedConnection.isClosed()) {
                     Log.debug("For session {} queued connection is still open - calling close() on the old connection (as the new connection will replace it).", streamid);
                     // TODO: OF-2447: implement section 14.3 of XEP 0124 instead of this!
                     deliver(queuedConnection, Collections.singletonList(new Deliverable("")), true);
                     queuedConnection.close();
-                    break;
                 }
+                break;
             }
         }
 
@@ -553,11 +612,8 @@ public class HttpSession extends LocalClientSession {
 
     /**
      * This method sends any pending packets in the session. If no packets are
-     * pending, this method simply returns. The method is internally synchronized
-     * to avoid simultaneous sending operations on this Session. If two
-     * threads try to run this method simultaneously, the first one will trigger
-     * the pending packets to be sent, while the second one will simply return
-     * (as there are no packets left to send).
+     * pending, this method simply returns. Packets are routed asynchronously, but
+     * in the order in which this method is invoked.
      */
     protected void sendPendingPackets(final List<Element> packetsToSend) {
         if (packetsToSend == null || packetsToSend.isEmpty()) {
@@ -565,17 +621,32 @@ public class HttpSession extends LocalClientSession {
         }
 
         // Schedule in-order.
-        synchronized (router) {
-            HttpBindManager.getInstance().getSessionManager().execute(() -> {
-                for (Element packet : packetsToSend) {
-                    try {
-                        router.route(packet);
-                    } catch (UnknownStanzaException e) {
-                        Log.error("On session " + getStreamID() + " client provided unknown packet type", e);
-                    }
+        inboundMailbox.execute(() -> {
+            for (Element packet : packetsToSend) {
+                try {
+                    router.route(packet);
+                } catch (UnknownStanzaException e) {
+                    Log.error("On session " + getStreamID() + " client provided unknown packet type", e);
                 }
-            });
-        }
+            }
+        });
+    }
+
+    /**
+     * Executes a task that reads or modifies the state of this session. Tasks are executed one at a time, in the order
+     * in which they are submitted, but not necessarily before this method returns.
+     *
+     * @param task the task to execute.
+     */
+    private void runInMailbox(@Nonnull final Runnable task)
+    {
+        mailbox.execute(() -> {
+            try {
+                task.run();
+            } finally {
+                openConnections = connectionQueue.size();
+            }
+        });
     }
 
     /**
@@ -596,7 +667,7 @@ public class HttpSession extends LocalClientSession {
      * @return the created {@link HttpConnection} which represents the connection.
      */
     @Nonnull
-    synchronized HttpConnection createConnection(@Nonnull final HttpBindBody body, @Nonnull final AsyncContext context)
+    HttpConnection createConnection(@Nonnull final HttpBindBody body, @Nonnull final AsyncContext context)
     {
         final HttpConnection connection = new HttpConnection(body, context);
         final StreamID streamID = getStreamID();
@@ -612,11 +683,11 @@ public class HttpSession extends LocalClientSession {
                 if (Log.isTraceEnabled()) {
                     Log.trace("Session {} Request ID {}, event complete: {}", streamID, rid, asyncEvent);
                 }
-                synchronized (connectionQueue) {
+                runInMailbox(() -> {
                     if (connectionQueue.remove(connection) || !connection.isClosed()) {
                         Log.warn("Discovered a 'complete' event for a BOSH connection that has not been consumed (for session {} with Request ID {}, was closed: {}). This likely is a bug in Openfire.", streamID, rid, connection.isClosed());
                     }
-                }
+                });
                 lastActivity = Instant.now();
                 SessionEventDispatcher.dispatchEvent( HttpSession.this, SessionEventDispatcher.EventType.connection_closed, connection, context );
             }
@@ -629,15 +700,20 @@ public class HttpSession extends LocalClientSession {
 
                 try {
                     // If onTimeout does not result in a complete(), the container falls back to default behavior.
-                    // This is why this body is to be delivered in a non-async fashion.
-                    synchronized (connectionQueue) {
-                        // Consume the connection that is timing out, by removing it from the queue and sending data to it.
+                    // This is why this body is to be delivered in a non-async fashion, on this thread. A connection
+                    // can be responded to only once: if the connection is concurrently being consumed by the mailbox,
+                    // one of both attempts fails.
+                    final List<Deliverable> empty = Collections.singletonList(new Deliverable(""));
+                    connection.deliverBody(asBodyText(empty), false);
+                    setLastResponseEmpty(true);
+
+                    // Remove the connection that timed out from the queue, and record what was delivered on it.
+                    runInMailbox(() -> {
                         connectionQueue.remove(connection);
-                        deliver(connection, Collections.singletonList(new Deliverable("")), false);
-                        setLastResponseEmpty(true);
-                    }
+                        recordDelivery(connection, empty);
+                    });
                 } catch (HttpConnectionClosedException e) {
-                    Log.warn("Unexpected exception while processing connection timeout.", e);
+                    Log.debug("Connection of session {} with Request ID {} timed out after it was consumed.", streamID, rid, e);
                 }
 
                 // Note that 'onComplete' will be invoked.
@@ -649,10 +725,8 @@ public class HttpSession extends LocalClientSession {
                     Log.trace("Session {} Request ID {}, event error: {}", streamID, rid, asyncEvent);
                 }
                 Log.warn("For session {} an unhandled AsyncListener error occurred: ", streamID, asyncEvent.getThrowable());
-                synchronized (connectionQueue) {
-                    // There was an error with a connection. Make sure it cannot be consumed again.
-                    connectionQueue.remove(connection);
-                }
+                // There was an error with a connection. Make sure it cannot be consumed again.
+                runInMailbox(() -> connectionQueue.remove(connection));
                 SessionEventDispatcher.dispatchEvent( HttpSession.this, SessionEventDispatcher.EventType.connection_closed, connection, context );
             }
 
@@ -680,11 +754,9 @@ public class HttpSession extends LocalClientSession {
      */
     @Nonnull
     private Optional<Delivered> retrieveDeliverable(final long rid) {
-        synchronized (sentElements) {
-            for (Delivered delivered : sentElements) {
-                if (delivered.getRequestID() == rid) {
-                    return Optional.of(delivered);
-                }
+        for (Delivered delivered : sentElements) {
+            if (delivered.getRequestID() == rid) {
+                return Optional.of(delivered);
             }
         }
         return Optional.empty();
@@ -695,6 +767,8 @@ public class HttpSession extends LocalClientSession {
      * values. Processing causes data delivered by the client to be routed in the server to their intended recipients,
      * and allow the connection to be used to send back data to the client.
      *
+     * Only to be invoked by tasks executed by {@link #mailbox}.
+     *
      * @param connection The connection ready to be processed.
      * @param context the context of the asynchronous servlet call leading up to this method call.
      */
@@ -712,107 +786,108 @@ public class HttpSession extends LocalClientSession {
         // connection arrives that 'fills the gap' (and be used only _after_ that connection gets used).
         boolean aConnectionAvailableForDelivery = false;
         boolean mustClose = false;
-        synchronized (connectionQueue) {
-            // Note that this queue will automatically order its entities.
-            connectionQueue.add(connection);
+        // Note that this queue will automatically order its entities.
+        connectionQueue.add(connection);
 
-            lastActivity = Instant.now();
+        lastActivity = Instant.now();
 
-            final Iterator<HttpConnection> iter = connectionQueue.iterator();
-            while (iter.hasNext()) {
-                final HttpConnection queuedConnection = iter.next();
-                assert !queuedConnection.isClosed();
-
-                final long queuedRequestID = queuedConnection.getRequestId();
-                if (queuedRequestID <= lastSequentialRequestID)
-                {
-                    // The request body (inbound data) for this request will already have been processed, but the connection remains queued, waiting to be used to send outbound data.
-                    Log.trace("Detected a queued connection (for session {}) with a request ID ({}) that is not higher than the last sequential request ID ({}). This connection is waiting to be used to deliver outbound data back to the client.", streamid, queuedRequestID, lastSequentialRequestID);
-                    continue;
-                }
-                if (queuedRequestID == lastSequentialRequestID + 1)
-                {
-                    Log.debug("Detected a queued connection (for session {}) with request ID ({}) that is exactly one higher than the last sequential request ID ({}). This inbound data on this connection will now be processed, after which the connection can be used to send outbound data back to the client.", streamid, queuedRequestID, lastSequentialRequestID);
-                    // The data that was provided by the client can now be processed by the server.
-                    // The below sends this data asynchronously.
-                    sendPendingPackets(queuedConnection.getInboundDataQueue());
-
-                    // Evaluate edge-cases.
-                    if (queuedConnection.isTerminate()) {
-                        Log.debug("Connection (for session {}) with request ID ({}) is a request to terminate.", getStreamID(), queuedRequestID);
-                        iter.remove(); // This connection will be consumed here.
-                        queuedConnection.deliverBody(createEmptyBody(true), true);
+        final Iterator<HttpConnection> iter = connectionQueue.iterator();
+        while (iter.hasNext()) {
+            final HttpConnection queuedConnection = iter.next();
+
+            final long queuedRequestID = queuedConnection.getRequestId();
+            if (queuedRequestID <= lastSequentialRequestID)
+            {
+                // The request body (inbound data) for this request will already have been processed, but the connection remains queued, waiting to be used to send outbound data.
+                Log.trace("Detected a queued connection (for session {}) with a request ID ({}) that is not higher than the last sequential request ID ({}). This connection is waiting to be used to deliver outbound data back to the client.", streamid, queuedRequestID, lastSequentialRequestID);
+                continue;
+            }
+            if (queuedRequestID == lastSequentialRequestID + 1)
+            {
+                Log.debug("Detected a queued connection (for session {}) with request ID ({}) that is exactly one higher than the last sequential request ID ({}). This inbound data on this connection will now be processed, after which the connection can be used to send outbound data back to the client.", streamid, queuedRequestID, lastSequentialRequestID);
+                // The data that was provided by the client can now be processed by the server.
+                // The below sends this data asynchronously.
+                sendPendingPackets(queuedConnection.getInboundDataQueue());
+
+                // Evaluate edge-cases.
+                if (queuedConnection.isTerminate()) {
+                    Log.debug("Connection (for session {}) with request ID ({}) is a request to terminate.", getStreamID(), queuedRequestID);
+                    iter.remove(); // This connection will be consumed here.
+                    queuedConnection.deliverBody(createEmptyBody(true), true);
+                    mustClose = true;
+                } else if (queuedConnection.isRestart()) {
+                    Log.debug("Connection (for session {}) with request ID ({}) is a request to restart.", getStreamID(), queuedRequestID);
+                    iter.remove(); // This connection has now been fully consumed.
+                    queuedConnection.deliverBody(createSessionRestartResponse(), true);
+                } else if (queuedConnection.getPause() != null) {
+                    // OF-2449: Error when the requested pause is higher than the allowed maximum.
+                    if (!IGNORE_INVALID_PAUSE.getValue() && (queuedConnection.getPause().compareTo(getMaxPause()) > 0 || queuedConnection.getPause().isNegative())) {
+                        Log.info("Connection (for session {}) with request ID ({}) is a request to pause (for {}) that is outside of the permissible range of 0 to {}", getStreamID(), queuedRequestID, queuedConnection.getPause(), getMaxPause());
+                        queuedConnection.deliverBody(createTerminalBindingBody("policy-violation"), true);
                         mustClose = true;
-                    } else if (queuedConnection.isRestart()) {
-                        Log.debug("Connection (for session {}) with request ID ({}) is a request to restart.", getStreamID(), queuedRequestID);
-                        iter.remove(); // This connection has now been fully consumed.
-                        queuedConnection.deliverBody(createSessionRestartResponse(), true);
-                    } else if (queuedConnection.getPause() != null) {
-                        // OF-2449: Error when the requested pause is higher than the allowed maximum.
-                        if (!IGNORE_INVALID_PAUSE.getValue() && (queuedConnection.getPause().compareTo(getMaxPause()) > 0 || queuedConnection.getPause().isNegative())) {
-                            Log.info("Connection (for session {}) with request ID ({}) is a request to pause (for {}) that is outside of the permissible range of 0 to {}", getStreamID(), queuedRequestID, queuedConnection.getPause(), getMaxPause());
-                            queuedConnection.deliverBody(createTerminalBindingBody("policy-violation"), true);
-                            mustClose = true;
-                        } else {
-                            Log.debug("Connection (for session {}) with request ID ({}) is a request to pause (for {}).", getStreamID(), queuedRequestID, queuedConnection.getPause());
-                            pause(queuedConnection.getPause());
-                            queuedConnection.deliverBody(createEmptyBody(false), true);
-                            setLastResponseEmpty(true);
-                        }
-                        iter.remove(); // This connection will be consumed by this block. It should not be processed by the 'pause' method.
                     } else {
-                        // At least one new connection has become available, and can be used to return data to the client.
-                        aConnectionAvailableForDelivery = true;
+                        Log.debug("Connection (for session {}) with request ID ({}) is a request to pause (for {}).", getStreamID(), queuedRequestID, queuedConnection.getPause());
+                        pause(queuedConnection.getPause());
+                        queuedConnection.deliverBody(createEmptyBody(false), true);
+                        setLastResponseEmpty(true);
                     }
-
-                    // There is a new connection available for consumption.
-                    lastSequentialRequestID = queuedRequestID;
-
-                    // Note that when this connection fills a gap in the sequence, other connections might already be
-                    // available that have the 'next' Request ID value. We need to keep iterating.
+                    iter.remove(); // This connection will be consumed by this block. It should not be processed by the 'pause' method.
                 } else {
-                    // As we're iterating over the collection that is ordered by Request ID, the iteration can stop
-                    // when a gap is detected (subsequent connections will only have higher Request ID values).
-                    break;
+                    // At least one new connection has become available, and can be used to return data to the client.
+                    aConnectionAvailableForDelivery = true;
                 }
+
+                // There is a new connection available for consumption.
+                lastSequentialRequestID = queuedRequestID;
+
+                // Note that when this connection fills a gap in the sequence, other connections might already be
+                // available that have the 'next' Request ID value. We need to keep iterating.
+            } else {
+                // As we're iterating over the collection that is ordered by Request ID, the iteration can stop
+                // when a gap is detected (subsequent connections will only have higher Request ID values).
+                break;
             }
+        }
 
-            if (!mustClose) {
-                // If a connection became available for delivery and there's pending data to be delivered, deliver immediately.
-                // Request ID of the new connection 'fits in the window'
+        if (!mustClose) {
+            // If a connection became available for delivery and there's pending data to be delivered, deliver immediately.
+            // Request ID of the new connection 'fits in the window'
 
-                if (isPollingSession()) {
-                    // Note that the code leading up to here checks if the Request ID of the new connection 'fits in the window',
-                    // which means that for polling sessions, the request ID must have been a sequential one, which in turn should
-                    // guarantee that 'a new connection is now available for delivery').
-                    assert aConnectionAvailableForDelivery; // FIXME: OF-2451: the edge-cases evaluated above make this assertion not necessarily true.
-                }
+            if (isPollingSession()) {
+                // Note that the code leading up to here checks if the Request ID of the new connection 'fits in the window',
+                // which means that for polling sessions, the request ID must have been a sequential one, which in turn should
+                // guarantee that 'a new connection is now available for delivery').
+                assert aConnectionAvailableForDelivery; // FIXME: OF-2451: the edge-cases evaluated above make this assertion not necessarily true.
+            }
 
-                if (isPollingSession() || aConnectionAvailableForDelivery) {
-                    SessionEventDispatcher.dispatchEvent(this, SessionEventDispatcher.EventType.connection_opened, connection, context); // TODO is this the right place to dispatch this event?
-                    tryImmediateDelivery();
-                }
+            if (isPollingSession() || aConnectionAvailableForDelivery) {
+                SessionEventDispatcher.dispatchEvent(this, SessionEventDispatcher.EventType.connection_opened, connection, context); // TODO is this the right place to dispatch this event?
+                tryImmediateDelivery();
+            }
 
-                // When a new connection has become available, older connections need to be released (allowing the client to
-                // send more data if it needs to).
-                while (!connectionQueue.isEmpty() && connectionQueue.size() > hold) {
-                    if (Log.isTraceEnabled()) {
-                        Log.trace("Stream {}: releasing oldest connection (rid {}), as the amount of open connections ({}) is higher than the requested amount to hold ({}).", streamid, rid, connectionQueue.size(), hold);
-                    }
-                    final HttpConnection openConnection = connectionQueue.peek();
-                    assert openConnection != null;
-                    if (openConnection.getRequestId() > lastSequentialRequestID) {
-                        break; // There's a gap. As described above, connections must be used in sequence, without jumping the queue.
-                    }
+            // When a new connection has become available, older connections need to be released (allowing the client to
+            // send more data if it needs to).
+            while (!connectionQueue.isEmpty() && connectionQueue.size() > hold) {
+                if (Log.isTraceEnabled()) {
+                    Log.trace("Stream {}: releasing oldest connection (rid {}), as the amount of open connections ({}) is higher than the requested amount to hold ({}).", streamid, rid, connectionQueue.size(), hold);
+                }
+                final HttpConnection openConnection = connectionQueue.peek();
+                assert openConnection != null;
+                if (openConnection.getRequestId() > lastSequentialRequestID) {
+                    break; // There's a gap. As described above, connections must be used in sequence, without jumping the queue.
+                }
 
-                    // Consume this connection.
-                    connectionQueue.poll();
+                // Consume this connection.
+                connectionQueue.poll();
+                try {
                     openConnection.deliverBody(createEmptyBody(false), true);
+                } catch (HttpConnectionClosedException e) {
+                    // The connection timed out (and was responded to) while the task to remove it from the queue was pending.
+                    Log.debug("Stream {}: oldest connection (rid {}) was already closed.", streamid, openConnection.getRequestId(), e);
                 }
             }
         }
 
-        // OF-2444: Call 'close()' outside of the connectionQueue mutex, to avoid deadlocks.
         if (mustClose) {
             close();
         }
@@ -830,7 +905,6 @@ public class HttpSession extends LocalClientSession {
      * @throws HttpConnectionClosedException if the connection was closed before a response could be delivered.
      * @throws HttpBindException if the connection has violated a facet of the HTTP binding protocol.
      */
-    @GuardedBy("connectionQueue")
     private void redeliver(@Nonnull final HttpConnection connection) throws HttpBindException, IOException, HttpConnectionClosedException
     {
         Log.debug("Session {} requesting a retransmission for rid {}", getStreamID(), connection.getRequestId());
@@ -862,9 +936,7 @@ public class HttpSession extends LocalClientSession {
         int pendingConnections;
         OveractivityType overactivity = OveractivityType.NONE;
 
-        synchronized (connectionQueue) {
-            pendingConnections = connectionQueue.size();
-        }
+        pendingConnections = connectionQueue.size();
 
         Instant time = Instant.now();
         Duration deltaFromLastPoll = Duration.between(lastPoll, time).abs();
@@ -952,7 +1024,7 @@ public class HttpSession extends LocalClientSession {
     private void deliver(@Nonnull final List<Deliverable> deliverable)
     {
         pendingElements.addAll(deliverable); // ConcurrentLinkedQueue.addAll is not guaranteed to be atomic. We don't need that, as long as the insertion/iteration order is guaranteed. I'm not sure if it is (but I assume so).
-        tryImmediateDelivery();
+        runInMailbox(this::tryImmediateDelivery);
     }
 
     /**
@@ -960,6 +1032,8 @@ public class HttpSession extends LocalClientSession {
      * available for delivery.
      *
      * When no data is queued for delivery, or when no connection is available, an invocation does nothing.
+     *
+     * Only to be invoked by tasks executed by {@link #mailbox}.
      */
     private void tryImmediateDelivery()
     {
@@ -975,30 +1049,27 @@ public class HttpSession extends LocalClientSession {
             return;
         }
 
-        final Optional<HttpConnection> connection = getConnectionReadyForOutboundDelivery();
+        while (true) {
+            final Optional<HttpConnection> connection = getConnectionReadyForOutboundDelivery();
 
-        if (!connection.isPresent()) {
-            Log.trace("Immediate delivery of pending data to the client on session {} was requested, but no connection is available. The data ({} deliverables) will be re-queued.", getStreamID(), deliverables.size());
-            // place pending deliverables back on queue. // FIXME: if other threads have placed pending elements, this will cause a re-order, which might be undesirable.
-            pendingElements.addAll(deliverables);
-            return;
-        }
+            if (!connection.isPresent()) {
+                Log.trace("Immediate delivery of pending data to the client on session {} was requested, but no connection is available. The data ({} deliverables) will be re-queued.", getStreamID(), deliverables.size());
+                // place pending deliverables back on queue. // FIXME: if other threads have placed pending elements, this will cause a re-order, which might be undesirable.
+                pendingElements.addAll(deliverables);
+                return;
+            }
 
-        // OF-2444: deliver asynchronously, to avoid deadlocking issues.
-        HttpBindManager.getInstance().getSessionManager().execute(() -> {
+            // Connections are responded to asynchronously, which does not block the thread that executes this task.
             try {
                 deliver(connection.get(), deliverables, true);
+                return;
             } catch (HttpConnectionClosedException e) {
-                /* Connection was closed, try the next one. Indicates a (concurrency?) bug. */
-                Log.warn("Iterating over a connection that was closed for session {}. Openfire will recover from this problem, but it should not occur in the first place.", getStreamID(), e);
-                // place pending deliverables back on queue. // FIXME: if other threads have placed pending elements, this will cause a re-order, which might be undesirable.
-                pendingElements.addAll(deliverables);
+                // The connection timed out (and was responded to) while the task to remove it from the queue was pending. Try the next one.
+                Log.debug("Skipping a connection that was closed for session {}.", getStreamID(), e);
             } catch (IOException e) {
                 Log.warn("An unexpected exception occurred while iterating over connections for session {}. Openfire will attempt to recover by ignoring this connection.", getStreamID(), e);
-                // place pending deliverables back on queue. // FIXME: if other threads have placed pending elements, this will cause a re-order, which might be undesirable.
-                pendingElements.addAll(deliverables);
             }
-        });
+        }
     }
 
     /**
@@ -1009,23 +1080,20 @@ public class HttpSession extends LocalClientSession {
     @Nonnull
     private Optional<HttpConnection> getConnectionReadyForOutboundDelivery()
     {
-        synchronized (connectionQueue) {
-            // The connection queue is ordered. No need to iterate further than the first element.
-            if (!connectionQueue.isEmpty()) {
-                final HttpConnection connection = connectionQueue.peek();
-                assert !connection.isClosed();
-
-                // We can only use connections that have a sequential request ID.
-                if (connection.getRequestId() <= lastSequentialRequestID) {
-                    Log.trace("Got a connection that is ready for outbound delivery of session {}. The connection's RID is {}. The last sequential RID was: {}", getStreamID(), connection.getRequestId(), lastSequentialRequestID);
-                    connectionQueue.poll(); // remove it.
-                    return Optional.of(connection);
-                } else {
-                    Log.trace("Trying to get a connection that is ready for outbound delivery of session {}, but the first connection in the connection queue isn't the next connection that needs to be responded to. It's RID is {}, while the last sequential RID was {}.", getStreamID(), connection.getRequestId(), lastSequentialRequestID);
-                }
+        // The connection queue is ordered. No need to iterate further than the first element.
+        if (!connectionQueue.isEmpty()) {
+            final HttpConnection connection = connectionQueue.peek();
+
+            // We can only use connections that have a sequential request ID.
+            if (connection.getRequestId() <= lastSequentialRequestID) {
+                Log.trace("Got a connection that is ready for outbound delivery of session {}. The connection's RID is {}. The last sequential RID was: {}", getStreamID(), connection.getRequestId(), lastSequentialRequestID);
+                connectionQueue.poll(); // remove it.
+                return Optional.of(connection);
             } else {
-                Log.trace("Trying to get a connection that is ready for outbound delivery of session {}, but the connection queue is currently empty. The last sequential RID was {}", getStreamID(), lastSequentialRequestID);
+                Log.trace("Trying to get a connection that is ready for outbound delivery of session {}, but the first connection in the connection queue isn't the next connection that needs to be responded to. It's RID is {}, while the last sequential RID was {}.", getStreamID(), connection.getRequestId(), lastSequentialRequestID);
             }
+        } else {
+            Log.trace("Trying to get a connection that is ready for outbound delivery of session {}, but the connection queue is currently empty. The last sequential RID was {}", getStreamID(), lastSequentialRequestID);
         }
         return Optional.empty();
     }
@@ -1042,22 +1110,41 @@ public class HttpSession extends LocalClientSession {
     {
         Log.trace("Delivering {} deliverables to the client on session {}, using connection with RID {}", deliverable.size(), getStreamID(), connection.getRequestId());
         connection.deliverBody(asBodyText(deliverable), async);
-        lastAnsweredRequestID = connection.getRequestId();
+        recordDelivery(connection, deliverable);
+    }
+
+    /**
+     * Keeps track of data that has been delivered, for potential future retransmission.
+     *
+     * Only to be invoked by tasks executed by {@link #mailbox}.
+     *
+     * @param connection The connection that was used to return data.
+     * @param deliverable The data that was delivered.
+     */
+    private void recordDelivery(@Nonnull final HttpConnection connection, @Nonnull final List<Deliverable> deliverable)
+    {
+        lastAnsweredRequestID = Math.max(lastAnsweredRequestID, connection.getRequestId());
 
         lastActivity = Instant.now();
 
-        // Keep track of data that has been delivered, for potential future retransmission.
         final Delivered delivered = new Delivered(deliverable, connection.getRequestId());
-        synchronized (sentElements) {
-            while (sentElements.size() > maxRequests) {
-                sentElements.poll();
-            }
-
-            sentElements.add(delivered);
+        while (sentElements.size() > maxRequests) {
+            sentElements.poll();
         }
+
+        sentElements.add(delivered);
     }
 
     private void closeSession(@Nullable final StreamError error) {
+        runInMailbox(this::closeSessionInMailbox);
+    }
+
+    /**
+     * Responds to all pending connections, and fails delivery of all pending data.
+     *
+     * Only to be invoked by tasks executed by {@link #mailbox}.
+     */
+    private void closeSessionInMailbox() {
         try {
             // There generally should not be a scenario where there are pending connections, as well as pending elements
             // to deliver, as when a new connection becomes available while there are pending elements, those will be
@@ -1065,31 +1152,28 @@ public class HttpSession extends LocalClientSession {
             // do not have the correct, expected Request ID (+1 in the sequence). In that case, those connections are
             // not eligible to receive data. These facts combines should rule out the need to flush pending elements to
             // open connections in this method.
-            synchronized (connectionQueue) {
-                boolean isFirst = true;
-                while (!connectionQueue.isEmpty()) {
-                    final HttpConnection toClose = connectionQueue.poll();
-                    assert !toClose.isClosed();
-                    try {
-                        // XEP-0124, section 13: "The connection manager SHOULD acknowledge the session termination on
-                        // the oldest connection with an HTTP 200 OK containing a <body/> element of the type
-                        // 'terminate'. On all other open connections, the connection manager SHOULD respond with an
-                        // HTTP 200 OK containing an empty <body/> element.
-                        final String body;
-                        if (isFirst) {
-                            isFirst = false;
-                            body = this.createEmptyBody(true);
-                        } else {
-                            body = null;
-                        }
-                        toClose.deliverBody(body, true);
-                    } catch (HttpConnectionClosedException e) {
-                        // Probably benign.
-                        Log.debug("Closing an already closed connection.", e);
-                    } catch (IOException e) {
-                        // Likely caused by closing a stale session / connection.
-                        Log.debug("An unexpected exception occurred while closing a session.", e);
+            boolean isFirst = true;
+            while (!connectionQueue.isEmpty()) {
+                final HttpConnection toClose = connectionQueue.poll();
+                try {
+                    // XEP-0124, section 13: "The connection manager SHOULD acknowledge the session termination on
+                    // the oldest connection with an HTTP 200 OK containing a <body/> element of the type
+                    // 'terminate'. On all other open connections, the connection manager SHOULD respond with an
+                    // HTTP 200 OK containing an empty <body/> element.
+                    final String body;
+                    if (isFirst) {
+                        isFirst = false;
+                        body = this.createEmptyBody(true);
+                    } else {
+                        body = null;
                     }
+                    toClose.deliverBody(body, true);
+                } catch (HttpConnectionClosedException e) {
+                    // Probably benign.
+                    Log.debug("Closing an already closed connection.", e);
+                } catch (IOException e) {
+                    // Likely caused by closing a stale session / connection.
+                    Log.debug("An unexpected exception occurred while closing a session.", e);
                 }
             }
 
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.http;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Executes tasks one at a time, in the order in which they were submitted, without ever blocking the thread that
+ * submits a task.
+ *
+ * State that is only accessed by tasks that are executed by the same mailbox is owned by a single thread at any time,
+ * and does not need to be guarded by a lock. This is used to serialize all modifications of the state of a BOSH
+ * session, which can concurrently be affected by several HTTP requests, by timeouts and by data that is delivered to
+ * the session.
+ *
+ * When a task is submitted while no other task is being executed, the thread that submits the task claims ownership of
+ * the mailbox. Depending on the configuration of the mailbox, the owner either executes all pending tasks itself, or
+ * has them executed by an executor. When a task is submitted while the mailbox is owned by another thread, the task is
+ * queued, and the submitting thread returns immediately. The owner of the mailbox will execute the queued task.
+ *
+ * To prevent a thread from being occupied indefinitely by tasks that were submitted by others, an owner that executes
+ * tasks itself hands off further work to the executor after having executed a limited number of tasks.
+ */
+final class SessionMailbox
+{
+    private static final Logger Log = LoggerFactory.getLogger(SessionMailbox.class);
+
+    private final Queue<Runnable> tasks = new ConcurrentLinkedQueue<>();
+
+    private final AtomicBoolean owned = new AtomicBoolean(false);
+
+    private final Executor executor;
+
+    private final boolean runOnCaller;
+
+    private final int maxTasksPerOwner;
+
+    /**
+     * Creates a new mailbox.
+     *
+     * @param executor the executor that is used when tasks are not executed by the thread that submits them.
+     * @param runOnCaller true if the thread that submits a task may execute it, false if all tasks are to be executed by the executor.
+     * @param maxTasksPerOwner the maximum number of tasks that a thread executes before work is handed off to the executor.
+     */
+    SessionMailbox(@Nonnull final Executor executor, final boolean runOnCaller, final int maxTasksPerOwner)
+    {
+        this.executor = executor;
+        this.runOnCaller = runOnCaller;
+        this.maxTasksPerOwner = Math.max(1, maxTasksPerOwner);
+    }
+
+    /**
+     * Submits a task for execution. Tasks are executed in the order of their submission, and never concurrently.
+     *
+     * Tasks may submit other tasks. These are executed after the submitting task has finished.
+     *
+     * @param task the task to execute.
+     */
+    void execute(@Nonnull final Runnable task)
+    {
+        tasks.add(task);
+        if (runOnCaller) {
+            if (owned.compareAndSet(false, true)) {
+                runOwned();
+            }
+        } else {
+            schedule();
+        }
+    }
+
+    /**
+     * Returns true if there are tasks that have been submitted, but have not yet been executed.
+     *
+     * @return true if there are pending tasks.
+     */
+    boolean hasPendingTasks()
+    {
+        return !tasks.isEmpty();
+    }
+
+    /**
+     * Has the executor execute pending tasks, unless the mailbox is already owned by a thread (which will then execute
+     * all pending tasks).
+     */
+    private void schedule()
+    {
+        if (!tasks.isEmpty() && owned.compareAndSet(false, true)) {
+            try {
+                executor.execute(this::runOwned);
+            } catch (RejectedExecutionException e) {
+                // The executor is shutting down. Rather than losing tasks, execute them on the calling thread.
+                Log.debug("Unable to hand off tasks to the executor. Executing them on the calling thread instead.", e);
+                runOwned();
+            }
+        }
+    }
+
+    /**
+     * Executes pending tasks on the calling thread, which must own the mailbox. Ownership is released when this method
+     * returns.
+     */
+    private void runOwned()
+    {
+        int executed = 0;
+        while (true) {
+            Runnable task;
+            while (executed < maxTasksPerOwner && (task = tasks.poll()) != null) {
+                executed++;
+                try {
+                    task.run();
+                } catch (Throwable t) {
+                    Log.warn("An unexpected exception occurred while executing a task of a BOSH session.", t);
+                }
+            }
+            owned.set(false);
+
+            if (tasks.isEmpty()) {
+                return;
+            }
+            if (executed >= maxTasksPerOwner) {
+                // Release the current thread. Ownership was released before handing off, allowing the executor to claim it.
+                schedule();
+                return;
+            }
+            // A task was submitted after the last poll, but before ownership was released. Its submitter might not
+            // have been able to claim ownership, in which case the task needs to be executed by this thread.
+            if (!owned.compareAndSet(false, true)) {
+                return;
+            }
+        }
+    }
+}
@@ -16,12 +16,19 @@
 
 package org.jivesoftware.openfire.interceptor;
 
+import org.jivesoftware.openfire.JMXManager;
 import org.jivesoftware.openfire.XMPPServer;
 import org.jivesoftware.openfire.session.Session;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
 import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
 
+import javax.management.ObjectName;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -39,7 +46,12 @@ import java.util.concurrent.CopyOnWriteArrayList;
  * (when read) may change the original packet or reject the packet by throwing
  * a {@link PacketRejectedException}. If the interceptor rejects a received packet
  * then the sender of the packet receive a
- * {@link org.xmpp.packet.PacketError.Condition#not_allowed not_allowed} error.
+ * {@link org.xmpp.packet.PacketError.Condition#not_allowed not_allowed} error.<p>
+ *
+ * Interceptors are only invoked for the packets that they declare interest in (see
+ * {@link PacketInterceptor#isInterestedIn(Class, boolean, boolean)}). For every installed interceptor, the manager
+ * records the number of invocations, rejections and errors, as well as the latency of invocations. These statistics
+ * are available through {@link #getStatistics()} and, when enabled, JMX.
  *
  * @see PacketInterceptor
  * @author Gaston Dombiak
@@ -48,6 +60,11 @@ public class InterceptorManager {
 
     private static final Logger Log = LoggerFactory.getLogger(InterceptorManager.class);
 
+    /**
+     * The types of packets for which interceptors are selected, in order of preference. {@link Packet} matches any type.
+     */
+    private static final List<Class<? extends Packet>> PACKET_TYPES = Collections.unmodifiableList(Arrays.asList(Message.class, Presence.class, IQ.class, Packet.class));
+
     private static InterceptorManager instance = new InterceptorManager();
 
     private XMPPServer server = XMPPServer.getInstance();
@@ -56,6 +73,17 @@ public class InterceptorManager {
     private Map<String, List<PacketInterceptor>> usersInterceptors =
             new ConcurrentHashMap<>();
 
+    /**
+     * Statistics for each interceptor that is installed, either globally or for a user.
+     */
+    private final Map<PacketInterceptor, InterceptorStatistics> statistics = new ConcurrentHashMap<>();
+
+    /**
+     * The global interceptors, grouped by the type of packet and phase that they are interested in (see
+     * {@link #dispatchIndex(int, boolean, boolean)}). Replaced whenever the global interceptors change.
+     */
+    private volatile Registration[][] globalDispatch = buildDispatch(Collections.emptyList());
+
     /**
      * Returns a singleton instance of InterceptorManager.
      *
@@ -90,6 +118,7 @@ public class InterceptorManager {
             globalInterceptors.remove(interceptor);
         }
         globalInterceptors.add(interceptor);
+        updateGlobalDispatch();
     }
 
     /**
@@ -116,6 +145,7 @@ public class InterceptorManager {
         }
 
         globalInterceptors.add(index, interceptor);
+        updateGlobalDispatch();
     }
 
     /**
@@ -125,7 +155,12 @@ public class InterceptorManager {
      * @return true if the item was present in the list
      */
     public boolean removeInterceptor(PacketInterceptor interceptor) {
-        return globalInterceptors.remove(interceptor);
+        final boolean answer = globalInterceptors.remove(interceptor);
+        if (answer) {
+            updateGlobalDispatch();
+            releaseStatistics(interceptor);
+        }
+        return answer;
     }
 
     /**
@@ -179,6 +214,7 @@ public class InterceptorManager {
             }
         }
         userInterceptors.add(index, interceptor);
+        getStatistics(interceptor);
     }
 
     /**
@@ -199,9 +235,106 @@ public class InterceptorManager {
                 usersInterceptors.remove(username);
             }
         }
+        if (answer) {
+            releaseStatistics(interceptor);
+        }
         return answer;
     }
 
+    /**
+     * Returns the statistics of all interceptors that are currently installed, either globally or for a user.
+     *
+     * @return an unmodifiable map of statistics, by interceptor.
+     */
+    public Map<PacketInterceptor, InterceptorStatistics> getStatistics() {
+        return Collections.unmodifiableMap(statistics);
+    }
+
+    /**
+     * Returns the statistics for an interceptor, creating (and registering them with JMX) when needed.
+     */
+    private InterceptorStatistics getStatistics(final PacketInterceptor interceptor) {
+        return statistics.computeIfAbsent(interceptor, key -> {
+            final InterceptorStatistics result = new InterceptorStatistics(key);
+            if (JMXManager.isEnabled()) {
+                result.objectName = JMXManager.tryRegister(result, InterceptorStatisticsMBean.BASE_OBJECT_NAME
+                    + ObjectName.quote(key.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(key))));
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Removes the statistics for an interceptor, unless it is still installed (globally, or for any user).
+     */
+    private void releaseStatistics(final PacketInterceptor interceptor) {
+        if (globalInterceptors.contains(interceptor)
+            || usersInterceptors.values().stream().anyMatch(interceptors -> interceptors.contains(interceptor))) {
+            return;
+        }
+        final InterceptorStatistics removed = statistics.remove(interceptor);
+        if (removed != null && removed.objectName != null) {
+            JMXManager.tryUnregister(removed.objectName);
+        }
+    }
+
+    private synchronized void updateGlobalDispatch() {
+        globalDispatch = buildDispatch(globalInterceptors);
+    }
+
+    /**
+     * Groups interceptors by the type of packet and phase that they are interested in.
+     *
+     * @param interceptors the interceptors to group.
+     * @return the interceptors, indexed by {@link #dispatchIndex(int, boolean, boolean)}.
+     */
+    private Registration[][] buildDispatch(final List<PacketInterceptor> interceptors) {
+        final Registration[][] result = new Registration[PACKET_TYPES.size() * 4][];
+        for (int type = 0; type < PACKET_TYPES.size(); type++) {
+            for (final boolean read : new boolean[] { false, true }) {
+                for (final boolean processed : new boolean[] { false, true }) {
+                    final List<Registration> registrations = new ArrayList<>();
+                    for (final PacketInterceptor interceptor : interceptors) {
+                        if (isInterestedIn(interceptor, type, read, processed)) {
+                            registrations.add(new Registration(interceptor, getStatistics(interceptor)));
+                        }
+                    }
+                    result[dispatchIndex(type, read, processed)] = registrations.toArray(new Registration[0]);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static boolean isInterestedIn(final PacketInterceptor interceptor, final int type, final boolean read, final boolean processed) {
+        try {
+            return interceptor.isInterestedIn(PACKET_TYPES.get(type), read, processed);
+        } catch (Throwable e) {
+            Log.error("Error in interceptor: " + interceptor + " while determining the packets that it is interested in. Assuming it is interested in all packets.", e);
+            return true;
+        }
+    }
+
+    /**
+     * Returns the index in {@link #PACKET_TYPES} of the type of a packet.
+     */
+    private static int packetType(final Packet packet) {
+        if (packet instanceof Message) {
+            return 0;
+        }
+        if (packet instanceof Presence) {
+            return 1;
+        }
+        if (packet instanceof IQ) {
+            return 2;
+        }
+        return 3;
+    }
+
+    private static int dispatchIndex(final int type, final boolean read, final boolean processed) {
+        return type * 4 + (read ? 2 : 0) + (processed ? 1 : 0);
+    }
+
     /**
      * Invokes all currently-installed interceptors on the specified packet.
      * All global interceptors will be invoked as well as interceptors that
@@ -226,8 +359,11 @@ public class InterceptorManager {
     public void invokeInterceptors(Packet packet, Session session, boolean read, boolean processed)
             throws PacketRejectedException
     {
-        // Invoke the global interceptors for this packet
-        invokeInterceptors( globalInterceptors, packet, session, read, processed );
+        // Invoke the global interceptors that are interested in this packet
+        for ( final Registration registration : globalDispatch[dispatchIndex( packetType( packet ), read, processed )] )
+        {
+            invokeInterceptor( registration.interceptor, registration.statistics, packet, session, read, processed );
+        }
 
         // Invoke the interceptors that are related to the address of the session
         if (usersInterceptors.isEmpty()) {
@@ -261,28 +397,68 @@ public class InterceptorManager {
             return;
         }
 
+        final int type = packetType( packet );
         for ( final PacketInterceptor interceptor : interceptors )
         {
-            try
+            if ( isInterestedIn( interceptor, type, read, processed ) )
+            {
+                invokeInterceptor( interceptor, instance.statistics.get( interceptor ), packet, session, read, processed );
+            }
+        }
+    }
+
+    private static void invokeInterceptor( PacketInterceptor interceptor, InterceptorStatistics statistics, Packet packet, Session session, boolean read, boolean processed ) throws PacketRejectedException
+    {
+        final long start = System.nanoTime();
+        try
+        {
+            interceptor.interceptPacket( packet, session, read, processed );
+        }
+        catch ( PacketRejectedException e )
+        {
+            if ( statistics != null )
             {
-                interceptor.interceptPacket( packet, session, read, processed );
+                statistics.recordRejection();
             }
-            catch ( PacketRejectedException e )
+            if ( processed )
             {
-                if ( processed )
-                {
-                    Log.error( "Post interceptor cannot reject packet.", e );
-                }
-                else
-                {
-                    // Throw this exception since we don't really want to catch it
-                    throw e;
-                }
+                Log.error( "Post interceptor cannot reject packet.", e );
+            }
+            else
+            {
+                // Throw this exception since we don't really want to catch it
+                throw e;
+            }
+        }
+        catch ( Throwable e )
+        {
+            if ( statistics != null )
+            {
+                statistics.recordError();
             }
-            catch ( Throwable e )
+            Log.error( "Error in interceptor: " + interceptor + " while intercepting: " + packet, e );
+        }
+        finally
+        {
+            if ( statistics != null )
             {
-                Log.error( "Error in interceptor: " + interceptor + " while intercepting: " + packet, e );
+                statistics.recordInvocation( System.nanoTime() - start );
             }
         }
     }
+
+    /**
+     * An interceptor, paired with its statistics.
+     */
+    private static final class Registration
+    {
+        final PacketInterceptor interceptor;
+        final InterceptorStatistics statistics;
+
+        Registration( final PacketInterceptor interceptor, final InterceptorStatistics statistics )
+        {
+            this.interceptor = interceptor;
+            this.statistics = statistics;
+        }
+    }
 }
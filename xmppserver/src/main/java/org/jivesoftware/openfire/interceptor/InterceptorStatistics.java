@@ -0,0 +1,158 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.interceptor;
+
+import javax.management.ObjectName;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Statistics on the invocations of one {@link PacketInterceptor}, as recorded by the {@link InterceptorManager}.
+ *
+ * Latencies are recorded in a histogram with exponentially growing buckets, which keeps the cost of recording an
+ * invocation constant.
+ */
+public class InterceptorStatistics implements InterceptorStatisticsMBean
+{
+    /**
+     * Upper bounds (exclusive, in microseconds) of all but the last bucket of the latency histogram.
+     */
+    private static final long[] BUCKET_BOUNDS = { 10, 100, 1_000, 10_000, 100_000 };
+
+    private static final String[] BUCKET_LABELS = { "< 10\u00b5s", "< 100\u00b5s", "< 1ms", "< 10ms", "< 100ms", ">= 100ms" };
+
+    private final String interceptorClassName;
+
+    private final LongAdder invocations = new LongAdder();
+    private final LongAdder rejections = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+    private final AtomicLong maxNanos = new AtomicLong();
+    private final LongAdder[] histogram = new LongAdder[BUCKET_BOUNDS.length + 1];
+
+    /**
+     * The name under which these statistics are registered with JMX, or null when they are not registered.
+     */
+    ObjectName objectName;
+
+    InterceptorStatistics( final PacketInterceptor interceptor )
+    {
+        this.interceptorClassName = interceptor.getClass().getName();
+        for ( int i = 0; i < histogram.length; i++ ) {
+            histogram[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * Records an invocation of the interceptor.
+     *
+     * @param nanos The duration of the invocation, in nanoseconds.
+     */
+    void recordInvocation( final long nanos )
+    {
+        invocations.increment();
+        totalNanos.add( nanos );
+
+        long max = maxNanos.get();
+        while ( nanos > max && !maxNanos.compareAndSet( max, nanos ) ) {
+            max = maxNanos.get();
+        }
+
+        final long micros = TimeUnit.NANOSECONDS.toMicros( nanos );
+        int bucket = 0;
+        while ( bucket < BUCKET_BOUNDS.length && micros >= BUCKET_BOUNDS[bucket] ) {
+            bucket++;
+        }
+        histogram[bucket].increment();
+    }
+
+    void recordRejection()
+    {
+        rejections.increment();
+    }
+
+    void recordError()
+    {
+        errors.increment();
+    }
+
+    @Override
+    public String getInterceptorClassName()
+    {
+        return interceptorClassName;
+    }
+
+    @Override
+    public long getInvocationCount()
+    {
+        return invocations.sum();
+    }
+
+    @Override
+    public long getRejectionCount()
+    {
+        return rejections.sum();
+    }
+
+    @Override
+    public long getErrorCount()
+    {
+        return errors.sum();
+    }
+
+    @Override
+    public double getAverageLatencyMicros()
+    {
+        final long count = invocations.sum();
+        return count == 0 ? 0 : totalNanos.sum() / (double) count / 1_000d;
+    }
+
+    @Override
+    public long getMaxLatencyMicros()
+    {
+        return TimeUnit.NANOSECONDS.toMicros( maxNanos.get() );
+    }
+
+    @Override
+    public String[] getLatencyHistogramBuckets()
+    {
+        return BUCKET_LABELS.clone();
+    }
+
+    @Override
+    public long[] getLatencyHistogram()
+    {
+        final long[] result = new long[histogram.length];
+        for ( int i = 0; i < histogram.length; i++ ) {
+            result[i] = histogram[i].sum();
+        }
+        return result;
+    }
+
+    @Override
+    public void reset()
+    {
+        invocations.reset();
+        rejections.reset();
+        errors.reset();
+        totalNanos.reset();
+        maxNanos.set( 0 );
+        for ( final LongAdder bucket : histogram ) {
+            bucket.reset();
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.interceptor;
+
+/**
+ * MBean definition for the statistics of a {@link PacketInterceptor}.
+ */
+public interface InterceptorStatisticsMBean
+{
+    String BASE_OBJECT_NAME = "org.igniterealtime.openfire:type=PacketInterceptor,name=";
+
+    /**
+     * Returns the name of the class of the interceptor.
+     *
+     * @return a class name.
+     */
+    String getInterceptorClassName();
+
+    /**
+     * Returns the number of times that the interceptor was invoked.
+     *
+     * @return the number of invocations.
+     */
+    long getInvocationCount();
+
+    /**
+     * Returns the number of times that the interceptor rejected a packet.
+     *
+     * @return the number of rejections.
+     */
+    long getRejectionCount();
+
+    /**
+     * Returns the number of times that the interceptor threw an exception other than a {@link PacketRejectedException}.
+     *
+     * @return the number of errors.
+     */
+    long getErrorCount();
+
+    /**
+     * Returns the average time that an invocation of the interceptor took, in microseconds.
+     *
+     * @return the average latency.
+     */
+    double getAverageLatencyMicros();
+
+    /**
+     * Returns the longest time that an invocation of the interceptor took, in microseconds.
+     *
+     * @return the maximum latency.
+     */
+    long getMaxLatencyMicros();
+
+    /**
+     * Returns a description of each bucket of the latency histogram, in the order used by {@link #getLatencyHistogram()}.
+     *
+     * @return the bucket labels.
+     */
+    String[] getLatencyHistogramBuckets();
+
+    /**
+     * Returns the number of invocations per latency bucket.
+     *
+     * @return the number of invocations per bucket.
+     */
+    long[] getLatencyHistogram();
+
+    /**
+     * Resets all statistics to zero.
+     */
+    void reset();
+}
@@ -60,4 +60,23 @@ public interface PacketInterceptor {
      */
     void interceptPacket(Packet packet, Session session, boolean incoming, boolean processed)
             throws PacketRejectedException;
+
+    /**
+     * Declares if the interceptor needs to be invoked for a particular type of packet, in a particular phase. The
+     * {@link InterceptorManager} does not invoke an interceptor for packets that it is not interested in. The default
+     * implementation declares interest in all packets.<p>
+     *
+     * The manager evaluates this method when an interceptor is installed, rather than for each packet. The returned
+     * value must therefore not change over time.
+     *
+     * @param packetType the type of packet: {@link org.xmpp.packet.Message}, {@link org.xmpp.packet.Presence},
+     *      {@link org.xmpp.packet.IQ}, or {@link Packet} for any other type.
+     * @param incoming flag that indicates if the packet was read by the server or sent from
+     *      the server.
+     * @param processed flag that indicates if the action (read/send) was performed. (PRE vs. POST).
+     * @return true if the interceptor needs to be invoked for the packet, otherwise false.
+     */
+    default boolean isInterestedIn(Class<? extends Packet> packetType, boolean incoming, boolean processed) {
+        return true;
+    }
 }
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.ldap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.naming.CommunicationException;
+import javax.naming.InterruptedNamingException;
+import javax.naming.NamingException;
+import javax.naming.ServiceUnavailableException;
+import java.time.Duration;
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A pool of LDAP contexts. Every context is backed by its own connection to the LDAP server, which is established (and,
+ * when StartTLS is used, secured) before the context is first lent out. Unlike the connection pool that is built into
+ * JNDI, this pool can therefore be used for connections that are secured using StartTLS.
+ *
+ * The pool limits the amount of contexts that are lent out concurrently. When all contexts are in use, a request for a
+ * context waits until another context is returned, or fails after a timeout. A context that has been idle for a while
+ * is validated before it is lent out again. A context that has been idle for too long is closed.
+ *
+ * Contexts are returned to the pool by closing them. A context should be invalidated instead when its state is unknown.
+ */
+final class LdapContextPool
+{
+    private static final Logger Log = LoggerFactory.getLogger(LdapContextPool.class);
+
+    /**
+     * Creates a new context, which is connected to the LDAP server.
+     */
+    @FunctionalInterface
+    interface ContextFactory
+    {
+        PooledLdapContext create() throws NamingException;
+    }
+
+    private final String name;
+    private final ContextFactory factory;
+    private final Semaphore permits;
+    private final Duration borrowTimeout;
+    private final Duration validationInterval;
+    private final Duration maxIdleTime;
+    private final Statistics statistics;
+
+    /**
+     * Contexts that are not lent out, most recently returned first.
+     */
+    private final Deque<PooledLdapContext> idle = new ConcurrentLinkedDeque<>();
+
+    private volatile boolean closed = false;
+
+    LdapContextPool(@Nonnull final String name, @Nonnull final ContextFactory factory, final int maxSize, @Nonnull final Duration borrowTimeout, @Nonnull final Duration validationInterval, @Nonnull final Duration maxIdleTime, @Nonnull final Statistics statistics)
+    {
+        this.name = name;
+        this.factory = factory;
+        this.permits = new Semaphore(Math.max(1, maxSize), true);
+        this.borrowTimeout = borrowTimeout;
+        this.validationInterval = validationInterval;
+        this.maxIdleTime = maxIdleTime;
+        this.statistics = statistics;
+    }
+
+    /**
+     * Lends out a context, creating a new one if no idle context is available. When the maximum amount of contexts is
+     * lent out already, this method waits for a context to be returned.
+     *
+     * @return a context, which is to be returned to the pool by closing it.
+     * @throws ServiceUnavailableException when no context became available in time.
+     * @throws NamingException when a new context could not be created.
+     */
+    @Nonnull
+    PooledLdapContext borrow() throws NamingException
+    {
+        if (closed) {
+            throw new ServiceUnavailableException("The LDAP connection pool '" + name + "' has been closed.");
+        }
+
+        final long start = System.nanoTime();
+        try {
+            if (!permits.tryAcquire(borrowTimeout.toNanos(), TimeUnit.NANOSECONDS)) {
+                throw new ServiceUnavailableException("No connection of LDAP connection pool '" + name + "' became available within " + borrowTimeout + ".");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedNamingException("Interrupted while waiting for a connection of LDAP connection pool '" + name + "'.");
+        }
+
+        try {
+            PooledLdapContext context;
+            while ((context = idle.pollFirst()) != null) {
+                final long idleNanos = System.nanoTime() - context.getReleasedAt();
+                if (idleNanos > maxIdleTime.toNanos()) {
+                    Log.trace("Closing a connection of LDAP connection pool '{}' that has been idle for too long.", name);
+                    context.destroy();
+                    continue;
+                }
+                if (idleNanos > validationInterval.toNanos() && !isValid(context)) {
+                    Log.debug("Closing a connection of LDAP connection pool '{}' that is no longer usable.", name);
+                    context.destroy();
+                    continue;
+                }
+                break;
+            }
+
+            if (context == null) {
+                context = factory.create();
+                statistics.connectionsCreated.increment();
+            }
+
+            context.lend(this);
+            statistics.borrows.increment();
+            statistics.borrowNanos.add(context.getBorrowedAt() - start);
+            return context;
+        } catch (NamingException | RuntimeException e) {
+            permits.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns a context that was lent out by this pool. This is invoked when the context is closed.
+     *
+     * @param context the context to return.
+     */
+    void release(@Nonnull final PooledLdapContext context)
+    {
+        final long now = System.nanoTime();
+        statistics.uses.increment();
+        statistics.useNanos.add(now - context.getBorrowedAt());
+        try {
+            // Request controls (such as those used for paging) apply to all subsequent operations.
+            context.setRequestControls(null);
+            // Do not retain credentials that were added by the borrower, such as those of a user that authenticated.
+            context.resetSecurityEnvironment();
+            context.setReleasedAt(now);
+            idle.offerFirst(context);
+        } catch (NamingException e) {
+            Log.debug("Unable to reset a context that was returned to LDAP connection pool '{}'.", name, e);
+            context.destroy();
+        } finally {
+            permits.release();
+        }
+
+        if (closed) {
+            // The pool was closed while the context was lent out.
+            closeIdle();
+            return;
+        }
+
+        // Idle contexts accumulate at the end of the deque. Evict those that will not be used again.
+        PooledLdapContext oldest;
+        while ((oldest = idle.peekLast()) != null && now - oldest.getReleasedAt() > maxIdleTime.toNanos()) {
+            if (idle.removeLastOccurrence(oldest)) {
+                oldest.destroy();
+            }
+        }
+    }
+
+    /**
+     * Closes a context that was lent out by this pool, without making it available again. This is invoked when the
+     * context is invalidated.
+     *
+     * @param context the context to close.
+     */
+    void invalidate(@Nonnull final PooledLdapContext context)
+    {
+        statistics.uses.increment();
+        statistics.useNanos.add(System.nanoTime() - context.getBorrowedAt());
+        try {
+            context.destroy();
+        } finally {
+            permits.release();
+        }
+    }
+
+    /**
+     * Closes all idle contexts. Contexts that are lent out are closed when they are returned.
+     */
+    void close()
+    {
+        closed = true;
+        closeIdle();
+    }
+
+    private void closeIdle()
+    {
+        PooledLdapContext context;
+        while ((context = idle.pollFirst()) != null) {
+            context.destroy();
+        }
+    }
+
+    /**
+     * Returns the amount of contexts that are not lent out.
+     *
+     * @return an amount of contexts.
+     */
+    int getIdleCount()
+    {
+        return idle.size();
+    }
+
+    /**
+     * Verifies that the connection of a context can still be used, by reading the entry that the context is based on.
+     * When the server refuses that request (for example, because of access controls), the connection is considered
+     * to be usable.
+     */
+    private boolean isValid(@Nonnull final PooledLdapContext context)
+    {
+        try {
+            context.getAttributes("", new String[] { "1.1" });
+            return true;
+        } catch (CommunicationException | ServiceUnavailableException e) {
+            Log.trace("A connection of LDAP connection pool '{}' failed validation.", name, e);
+            return false;
+        } catch (NamingException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Usage statistics, which can be shared by multiple pools.
+     */
+    static final class Statistics
+    {
+        final LongAdder connectionsCreated = new LongAdder();
+        final LongAdder borrows = new LongAdder();
+        final LongAdder borrowNanos = new LongAdder();
+        final LongAdder uses = new LongAdder();
+        final LongAdder useNanos = new LongAdder();
+
+        /**
+         * Returns the amount of connections that were created since the last invocation of this method.
+         *
+         * @return an amount of connections.
+         */
+        long sampleConnectionsCreated()
+        {
+            return connectionsCreated.sumThenReset();
+        }
+
+        /**
+         * Returns the average time that it took to obtain a context since the last invocation of this method.
+         *
+         * @return a duration in milliseconds.
+         */
+        double sampleAverageBorrowMillis()
+        {
+            final long count = borrows.sumThenReset();
+            final long nanos = borrowNanos.sumThenReset();
+            return count == 0 ? 0 : nanos / (double) count / 1_000_000d;
+        }
+
+        /**
+         * Returns the average time that a context was lent out since the last invocation of this method.
+         *
+         * @return a duration in milliseconds.
+         */
+        double sampleAverageUseMillis()
+        {
+            final long count = uses.sumThenReset();
+            final long nanos = useNanos.sumThenReset();
+            return count == 0 ? 0 : nanos / (double) count / 1_000_000d;
+        }
+    }
+}
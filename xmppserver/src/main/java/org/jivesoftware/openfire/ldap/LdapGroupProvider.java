@@ -39,12 +39,14 @@ import javax.naming.ldap.Rdn;
 import java.text.MessageFormat;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 import java.util.stream.Collectors;
 
 import org.jivesoftware.util.SystemProperty;
+import org.jivesoftware.util.TaskEngine;
 
 /**
  * LDAP implementation of the GroupProvider interface.  All data in the directory is treated as
@@ -68,6 +70,26 @@ public class LdapGroupProvider extends AbstractGroupProvider {
             .setDynamic(true)
             .build();
 
+    public static final SystemProperty<Boolean> GROUP_SYNC_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+            .setKey("ldap.groupSync.enabled")
+            .setDefaultValue(false)
+            .setDynamic(false)
+            .build();
+
+    public static final SystemProperty<Duration> GROUP_SYNC_INTERVAL = SystemProperty.Builder.ofType(Duration.class)
+            .setKey("ldap.groupSync.interval")
+            .setDefaultValue(Duration.ofMinutes(5))
+            .setMinValue(Duration.ofSeconds(10))
+            .setChronoUnit(ChronoUnit.SECONDS)
+            .setDynamic(false)
+            .build();
+
+    public static final SystemProperty<String> GROUP_SYNC_CHANGE_ATTRIBUTE = SystemProperty.Builder.ofType(String.class)
+            .setKey("ldap.groupSync.changeAttribute")
+            .setDefaultValue("modifyTimestamp")
+            .setDynamic(false)
+            .build();
+
     /**
      * Constructs a new LDAP group provider.
      */
@@ -79,6 +101,11 @@ public class LdapGroupProvider extends AbstractGroupProvider {
         standardAttributes[0] = manager.getGroupNameField();
         standardAttributes[1] = manager.getGroupDescriptionField();
         standardAttributes[2] = manager.getGroupMemberField();
+
+        if (GROUP_SYNC_ENABLED.getValue()) {
+            final Duration interval = GROUP_SYNC_INTERVAL.getValue();
+            TaskEngine.getInstance().schedule(new LdapGroupSynchronizer(manager, this, GROUP_SYNC_CHANGE_ATTRIBUTE.getValue()), interval, interval);
+        }
     }
 
     @Override
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.ldap;
+
+import org.jivesoftware.openfire.cluster.ClusterManager;
+import org.jivesoftware.openfire.group.GroupManager;
+import org.jivesoftware.openfire.group.GroupProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.naming.NamingException;
+import javax.naming.directory.Attribute;
+import java.text.MessageFormat;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.TimerTask;
+
+/**
+ * Periodically queries the LDAP server for groups that have changed since the previous query, and refreshes the cached
+ * state of only those groups. This avoids having to reload all groups to learn about changes that were applied directly
+ * in the directory.
+ *
+ * Changes are detected by an attribute of which the value increases every time that a group is modified, such as
+ * 'modifyTimestamp' (supported by most servers) or 'uSNChanged' (Active Directory). The first query only establishes
+ * the highest value of that attribute. Values are compared numerically when possible, and lexicographically otherwise.
+ *
+ * Deleted groups cannot be detected this way. These are removed from caches when the cached entries expire. The same
+ * applies to a group that is modified again within the same second as the previous query, when using timestamps.
+ *
+ * In a cluster, only the senior cluster member processes changes, to avoid events being dispatched more than once.
+ */
+final class LdapGroupSynchronizer extends TimerTask
+{
+    private static final Logger Log = LoggerFactory.getLogger(LdapGroupSynchronizer.class);
+
+    private final LdapManager manager;
+    private final GroupProvider provider;
+    private final String changeAttribute;
+
+    /**
+     * The highest value of the change attribute that was seen, or null if no value has been seen yet.
+     */
+    private String highestValue = null;
+
+    /**
+     * The names of the groups that have the highest value of the change attribute. As the search for changes includes
+     * that value (to not miss changes that happened in quick succession), these groups are ignored when found again.
+     */
+    private final Set<String> namesAtHighestValue = new HashSet<>();
+
+    LdapGroupSynchronizer(@Nonnull final LdapManager manager, @Nonnull final GroupProvider provider, @Nonnull final String changeAttribute)
+    {
+        this.manager = manager;
+        this.provider = provider;
+        this.changeAttribute = changeAttribute;
+    }
+
+    @Override
+    public synchronized void run()
+    {
+        if (GroupManager.getInstance().getProvider() != provider) {
+            Log.debug("The group provider for which LDAP group changes were being synchronized is no longer in use.");
+            cancel();
+            return;
+        }
+
+        if (!ClusterManager.isSeniorClusterMember()) {
+            // Start afresh when this node becomes the senior member.
+            highestValue = null;
+            namesAtHighestValue.clear();
+            return;
+        }
+
+        try {
+            final Set<String> changed = findChanges();
+            for (final String name : changed) {
+                Log.debug("Group '{}' was modified in the LDAP server. Refreshing its cached state.", name);
+                GroupManager.getInstance().groupModifiedExternallyPostProcess(name);
+            }
+        } catch (NamingException e) {
+            Log.warn("An exception occurred while trying to find groups that have changed in the LDAP server.", e);
+        } catch (RuntimeException e) {
+            Log.error("An unexpected exception occurred while synchronizing groups that have changed in the LDAP server.", e);
+        }
+    }
+
+    /**
+     * Searches for groups that have a value for the change attribute that is at least as high as the highest value that
+     * was seen previously, and records the new highest value.
+     *
+     * @return the names of groups that have changed (empty when no prior value was known).
+     */
+    @Nonnull
+    Set<String> findChanges() throws NamingException
+    {
+        final String groupNameField = manager.getGroupNameField();
+        final String groupFilter = MessageFormat.format(manager.getGroupSearchFilter(), "*");
+        final String filter = highestValue == null
+            ? "(&" + groupFilter + "(" + changeAttribute + "=*))"
+            : "(&" + groupFilter + "(" + changeAttribute + ">=" + LdapManager.sanitizeSearchFilter(highestValue) + "))";
+
+        final boolean isBaseline = highestValue == null;
+        final Set<String> changed = new LinkedHashSet<>();
+        final String[] newHighestValue = { highestValue };
+        final Set<String> newNamesAtHighestValue = new HashSet<>(namesAtHighestValue);
+
+        manager.forEachSearchResult(filter, new String[] { groupNameField, changeAttribute }, searchResult -> {
+            final String name = getValue(searchResult.getAttributes().get(groupNameField));
+            final String value = getValue(searchResult.getAttributes().get(changeAttribute));
+            if (name == null || value == null) {
+                return;
+            }
+
+            if (!isBaseline && !(compare(value, highestValue) == 0 && namesAtHighestValue.contains(name))) {
+                // Unless found again without having been modified after the previous search.
+                changed.add(name);
+            }
+
+            final int comparison = newHighestValue[0] == null ? 1 : compare(value, newHighestValue[0]);
+            if (comparison > 0) {
+                newHighestValue[0] = value;
+                newNamesAtHighestValue.clear();
+            }
+            if (comparison >= 0) {
+                newNamesAtHighestValue.add(name);
+            }
+        });
+
+        highestValue = newHighestValue[0];
+        namesAtHighestValue.clear();
+        namesAtHighestValue.addAll(newNamesAtHighestValue);
+        return changed;
+    }
+
+    @Nullable
+    private static String getValue(@Nullable final Attribute attribute) throws NamingException
+    {
+        if (attribute == null) {
+            return null;
+        }
+        final Object value = attribute.get();
+        return value == null ? null : value.toString();
+    }
+
+    /**
+     * Compares two values of a change attribute. Values are compared numerically (as is appropriate for update
+     * sequence numbers) when both are numbers, and lexicographically (as is appropriate for generalized time values)
+     * otherwise.
+     *
+     * @param a a value.
+     * @param b another value.
+     * @return a negative integer, zero, or a positive integer as the first value is lower than, equal to, or higher
+     *         than the second value.
+     */
+    static int compare(@Nonnull final String a, @Nonnull final String b)
+    {
+        try {
+            return Long.compare(Long.parseLong(a), Long.parseLong(b));
+        } catch (NumberFormatException e) {
+            return a.compareTo(b);
+        }
+    }
+}
@@ -18,6 +18,9 @@ package org.jivesoftware.openfire.ldap;
 
 import org.jivesoftware.admin.LdapUserTester;
 import org.jivesoftware.openfire.group.GroupNotFoundException;
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
+import org.jivesoftware.openfire.stats.i18nStatistic;
 import org.jivesoftware.openfire.user.UserNotFoundException;
 import org.jivesoftware.util.*;
 import org.jivesoftware.util.cache.Cache;
@@ -31,11 +34,16 @@ import javax.naming.*;
 import javax.naming.directory.*;
 import javax.naming.ldap.*;
 import javax.net.ssl.SSLSession;
+import java.io.IOException;
 import java.io.Serializable;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
 import java.text.MessageFormat;
+import java.time.Duration;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Consumer;
 
 /**
  * Centralized administration of LDAP connections. The {@link #getInstance()} method
@@ -70,6 +78,16 @@ import java.util.*;
  *          "com.sun.jndi.ldap.LdapCtxFactory" will be used.</li>
  *      <li>ldap.connectionPoolEnabled -- true if an LDAP connection pool should be used.
  *          False if not set.</li>
+ *      <li>ldap.pool.maxSize -- the maximum amount of connections (using the admin login) per base DN that are used
+ *          concurrently. Default value is 16.</li>
+ *      <li>ldap.pool.auth.maxSize -- the maximum amount of connections per base DN that are used concurrently to
+ *          authenticate users. Default value is 8.</li>
+ *      <li>ldap.pool.borrowTimeout -- the maximum time (in milliseconds) to wait for a pooled connection to become
+ *          available. Default value is 10000.</li>
+ *      <li>ldap.pool.validationInterval -- the time (in milliseconds) after which an idle pooled connection is
+ *          verified before it is used again. Default value is 10000.</li>
+ *      <li>ldap.pool.maxIdleTime -- the time (in milliseconds) after which an idle pooled connection is closed.
+ *          Default value is 300000.</li>
  *      <li>ldap.findUsersFromGroupsEnabled</li> -- If true then Openfire users will be identified from the members
  *      of Openfire groups instead of from the list of all users in LDAP. This option is only useful if you wish to
  *      restrict the users of Openfire to those in certain groups. Normally this is done by applying an appropriate
@@ -170,11 +188,55 @@ public class LdapManager {
             }
         };
         instance = new LdapManager(properties);
+        initStatistics();
     }
 
     /** Exposed for test use only */
     public static void setInstance(LdapManager instance) {
+        final LdapManager previous = LdapManager.instance;
         LdapManager.instance = instance;
+        if (previous != null && previous != instance) {
+            previous.closeContextPools();
+        }
+    }
+
+    private static void initStatistics() {
+        StatisticsManager.getInstance().addStatistic("ldap_connections_created", new i18nStatistic("ldap.connections_created", Statistic.Type.count) {
+            @Override
+            public double sample() {
+                final LdapManager manager = getInstance();
+                return manager == null ? 0 : manager.poolStatistics.sampleConnectionsCreated();
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return true;
+            }
+        });
+        StatisticsManager.getInstance().addStatistic("ldap_borrow_time", new i18nStatistic("ldap.borrow_time", Statistic.Type.count) {
+            @Override
+            public double sample() {
+                final LdapManager manager = getInstance();
+                return manager == null ? 0 : manager.poolStatistics.sampleAverageBorrowMillis();
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return true;
+            }
+        });
+        StatisticsManager.getInstance().addStatistic("ldap_use_time", new i18nStatistic("ldap.use_time", Statistic.Type.count) {
+            @Override
+            public double sample() {
+                final LdapManager manager = getInstance();
+                return manager == null ? 0 : manager.poolStatistics.sampleAverageUseMillis();
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return true;
+            }
+        });
     }
 
     private Collection<String> hosts = new ArrayList<>();
@@ -211,6 +273,24 @@ public class LdapManager {
 
     private Cache<String, CacheableOptional<DNCacheEntry>> userDNCache = null;
 
+    private final int poolMaxSize;
+    private final int authenticationPoolMaxSize;
+    private final Duration poolBorrowTimeout;
+    private final Duration poolValidationInterval;
+    private final Duration poolMaxIdleTime;
+
+    /**
+     * Pools of contexts that use the admin login, by base DN.
+     */
+    private final ConcurrentMap<LdapName, LdapContextPool> contextPools = new ConcurrentHashMap<>();
+
+    /**
+     * Pools of contexts that are used to authenticate users, by base DN.
+     */
+    private final ConcurrentMap<LdapName, LdapContextPool> authenticationPools = new ConcurrentHashMap<>();
+
+    private final LdapContextPool.Statistics poolStatistics = new LdapContextPool.Statistics();
+
     /**
      * Provides singleton access to an instance of the LdapManager class.
      *
@@ -334,6 +414,16 @@ public class LdapManager {
         }
         connectionPoolEnabled = StringUtils.parseBoolean(properties.get("ldap.connectionPoolEnabled"))
             .orElse(Boolean.TRUE);
+        poolMaxSize = StringUtils.parseInteger(properties.get("ldap.pool.maxSize"))
+            .orElse(16);
+        authenticationPoolMaxSize = StringUtils.parseInteger(properties.get("ldap.pool.auth.maxSize"))
+            .orElse(8);
+        poolBorrowTimeout = Duration.ofMillis(StringUtils.parseLong(properties.get("ldap.pool.borrowTimeout"))
+            .orElse(10000L));
+        poolValidationInterval = Duration.ofMillis(StringUtils.parseLong(properties.get("ldap.pool.validationInterval"))
+            .orElse(10000L));
+        poolMaxIdleTime = Duration.ofMillis(StringUtils.parseLong(properties.get("ldap.pool.maxIdleTime"))
+            .orElse(300000L));
         searchFilter = properties.get("ldap.searchFilter");
         subTreeSearch = StringUtils.parseBoolean(properties.get("ldap.subTreeSearch"))
             .orElse(Boolean.TRUE);
@@ -412,6 +502,8 @@ public class LdapManager {
         buf.append("\t startTlsEnabled: ").append(startTlsEnabled).append("\n");
         buf.append("\t initialContextFactory: ").append(initialContextFactory).append("\n");
         buf.append("\t connectionPoolEnabled: ").append(connectionPoolEnabled).append("\n");
+        buf.append("\t pool.maxSize: ").append(poolMaxSize).append("\n");
+        buf.append("\t pool.auth.maxSize: ").append(authenticationPoolMaxSize).append("\n");
         buf.append("\t autoFollowReferrals: ").append(followReferrals).append("\n");
         buf.append("\t autoFollowAliasReferrals: ").append(followAliasReferrals).append("\n");
         buf.append("\t groupNameField: ").append(groupNameField).append("\n");
@@ -627,7 +719,78 @@ public class LdapManager {
      * @throws NamingException if there is an error making the LDAP connection.
      */
     public LdapContext getContext(LdapName baseDN) throws NamingException {
-        Log.debug("Creating a DirContext in LdapManager.getContext() for baseDN '{}'...", baseDN);
+        if (connectionPoolEnabled && (baseDN.equals(this.baseDN) || baseDN.equals(alternateBaseDN))) {
+            Log.debug("Obtaining a DirContext in LdapManager.getContext() for baseDN '{}' from a connection pool...", baseDN);
+            return getContextPool(baseDN).borrow();
+        }
+        return createContext(baseDN, adminDN, adminPassword, env -> new JiveInitialLdapContext(env, null));
+    }
+
+    /**
+     * Returns the pool of contexts that use the admin login for a base DN, creating it when it does not exist yet.
+     *
+     * @param baseDN the base DN of the contexts in the pool.
+     * @return a pool of contexts.
+     */
+    private LdapContextPool getContextPool(LdapName baseDN) {
+        return contextPools.computeIfAbsent(baseDN, dn -> new LdapContextPool("admin " + dn,
+            () -> createContext(dn, adminDN, adminPassword, PooledLdapContext::new),
+            poolMaxSize, poolBorrowTimeout, poolValidationInterval, poolMaxIdleTime, poolStatistics));
+    }
+
+    /**
+     * Returns the pool of contexts that are used to authenticate users for a base DN, creating it when it does not
+     * exist yet. The contexts in this pool are anonymous when they are created, and are bound as a particular user
+     * every time that they are used.
+     *
+     * @param baseDN the base DN of the contexts in the pool.
+     * @return a pool of contexts.
+     */
+    // @VisibleForTesting
+    LdapContextPool getAuthenticationPool(LdapName baseDN) {
+        return authenticationPools.computeIfAbsent(baseDN, dn -> new LdapContextPool("authentication " + dn,
+            () -> createContext(dn, null, null, PooledLdapContext::new),
+            authenticationPoolMaxSize, poolBorrowTimeout, poolValidationInterval, poolMaxIdleTime, poolStatistics));
+    }
+
+    /**
+     * Closes all pooled contexts. This is to be invoked when the configuration that is used to create contexts
+     * changes, or when this instance is no longer used (such as an instance that is created to test settings). New
+     * pools are created when needed.
+     */
+    public void closeContextPools() {
+        for (final Map<LdapName, LdapContextPool> pools : Arrays.asList(contextPools, authenticationPools)) {
+            final Iterator<LdapContextPool> iterator = pools.values().iterator();
+            while (iterator.hasNext()) {
+                final LdapContextPool pool = iterator.next();
+                iterator.remove();
+                pool.close();
+            }
+        }
+    }
+
+    /**
+     * Instantiates a context, using an environment.
+     */
+    @FunctionalInterface
+    private interface ContextConstructor<C extends JiveInitialLdapContext> {
+        C create(Hashtable<String, Object> environment) throws NamingException;
+    }
+
+    /**
+     * Creates a context for the LDAP server that uses the specified base DN. When a principal is provided, the context
+     * uses simple authentication to bind as that principal. Otherwise, the context is anonymous. When StartTLS is
+     * enabled, the bind is performed only after the connection has been secured.
+     *
+     * @param baseDN the base DN to use for the context.
+     * @param principal the DN to bind as (can be null).
+     * @param credentials the password of the principal (can be null).
+     * @param constructor instantiates the context.
+     * @return a connection to the LDAP server.
+     * @throws NamingException if there is an error making the LDAP connection.
+     */
+    private <C extends JiveInitialLdapContext> C createContext(LdapName baseDN, String principal, String credentials, ContextConstructor<C> constructor) throws NamingException {
+        Log.debug("Creating a DirContext in LdapManager.createContext() for baseDN '{}'...", baseDN);
         if (!sslEnabled && !startTlsEnabled) {
             Log.warn("Using unencrypted connection to LDAP service!");
         }
@@ -643,15 +806,15 @@ public class LdapManager {
             env.put(Context.SECURITY_PROTOCOL, "ssl");
         }
 
-        // Use simple authentication to connect as the admin.
-        if (adminDN != null) {
+        // Use simple authentication to connect as the principal.
+        if (principal != null) {
             /* If startTLS is requested we MUST NOT bind() before
              * the secure connection has been established. */
             if (!(startTlsEnabled && !sslEnabled)) {
                 env.put(Context.SECURITY_AUTHENTICATION, "simple");
-                env.put(Context.SECURITY_PRINCIPAL, adminDN);
-                if (adminPassword != null) {
-                    env.put(Context.SECURITY_CREDENTIALS, adminPassword);
+                env.put(Context.SECURITY_PRINCIPAL, principal);
+                if (credentials != null) {
+                    env.put(Context.SECURITY_CREDENTIALS, credentials);
                 }
             }
         }
@@ -663,18 +826,9 @@ public class LdapManager {
         if (ldapDebugEnabled) {
             env.put("com.sun.jndi.ldap.trace.ber", System.err);
         }
-        if (connectionPoolEnabled) {
-            if (!startTlsEnabled) {
-                env.put("com.sun.jndi.ldap.connect.pool", "true");
-                System.setProperty("com.sun.jndi.ldap.connect.pool.protocol", "plain ssl");
-            } else {
-                // See http://java.sun.com/products/jndi/tutorial/ldap/connect/pool.html "When Not to Use Pooling"
-                Log.debug("connection pooling was requested but has been disabled because of StartTLS.");
-                env.put("com.sun.jndi.ldap.connect.pool", "false");
-            }
-        } else {
-            env.put("com.sun.jndi.ldap.connect.pool", "false");
-        }
+        // Connections are pooled by LdapContextPool, as the JNDI connection pool cannot be used with StartTLS.
+        // See http://java.sun.com/products/jndi/tutorial/ldap/connect/pool.html "When Not to Use Pooling"
+        env.put("com.sun.jndi.ldap.connect.pool", "false");
         if (connTimeout > 0) {
             env.put("com.sun.jndi.ldap.connect.timeout", String.valueOf(connTimeout));
         } else {
@@ -694,7 +848,7 @@ public class LdapManager {
         Log.debug("Created hashtable with context values, attempting to create context...");
 
         // Create new initial context
-        JiveInitialLdapContext context = new JiveInitialLdapContext(env, null);
+        final C context = constructor.create(env);
 
         // TLS http://www.ietf.org/rfc/rfc2830.txt ("1.3.6.1.4.1.1466.20037")
         if (startTlsEnabled && !sslEnabled) {
@@ -722,21 +876,26 @@ public class LdapManager {
                 /* Set login credentials only if SSL session has been
                  * negotiated successfully - otherwise user/password
                  * could be transmitted in clear text. */
-                if (adminDN != null) {
+                if (principal != null) {
                     context.addToEnvironment(
                             Context.SECURITY_AUTHENTICATION,
                             "simple");
                     context.addToEnvironment(
                             Context.SECURITY_PRINCIPAL,
-                            adminDN);
-                    if (adminPassword != null) {
+                            principal);
+                    if (credentials != null) {
                         context.addToEnvironment(
                                 Context.SECURITY_CREDENTIALS,
-                                adminPassword);
+                                credentials);
                     }
                 }
             } catch (java.io.IOException ex) {
                 Log.error("An exception occurred while trying to create a context for baseDN {}", baseDN, ex);
+                // Do not use a connection that is not secured, and that would not have been bound.
+                context.close();
+                final CommunicationException e = new CommunicationException("Unable to negotiate TLS for a context for baseDN " + baseDN);
+                e.setRootCause(ex);
+                throw e;
             }
         }
 
@@ -760,6 +919,10 @@ public class LdapManager {
             Log.warn("Using unencrypted connection to LDAP service!");
         }
 
+        if (connectionPoolEnabled) {
+            return checkPooledAuthentication(userRDN, password);
+        }
+
         JiveInitialLdapContext ctx = null;
         try {
             // See if the user authenticates.
@@ -947,6 +1110,42 @@ public class LdapManager {
         return true;
     }
 
+    /**
+     * Returns true if the user is able to successfully authenticate against the LDAP server, using a pooled
+     * connection. The "simple" authentication protocol is used.
+     *
+     * @param userRDN the user's rdn to authenticate (relative to {@code baseDN}).
+     * @param password the user's password.
+     * @return true if the user successfully authenticates.
+     */
+    private boolean checkPooledAuthentication(Rdn[] userRDN, String password) {
+        final List<LdapName> baseDNs = alternateBaseDN == null ? Collections.singletonList(baseDN) : Arrays.asList(baseDN, alternateBaseDN);
+        for (final LdapName base : baseDNs) {
+            final String principal = createNewAbsolute(base, userRDN).toString();
+            PooledLdapContext ctx = null;
+            try {
+                ctx = getAuthenticationPool(base).borrow();
+                ctx.addToEnvironment(Context.SECURITY_AUTHENTICATION, "simple");
+                ctx.addToEnvironment(Context.SECURITY_PRINCIPAL, principal);
+                ctx.addToEnvironment(Context.SECURITY_CREDENTIALS, password);
+
+                // Bind, using the connection that is already established (and secured, if StartTLS is used).
+                ctx.reconnect(null);
+                // Returning the context to the pool removes the credentials of the user from its environment.
+                ctx.close();
+                return true;
+            }
+            catch (NamingException e) {
+                Log.debug("Unable to authenticate as '{}'.", principal, e);
+                // The context is no longer bound as it was. Do not use it again.
+                if (ctx != null) {
+                    ctx.invalidate();
+                }
+            }
+        }
+        return false;
+    }
+
     public boolean isFindUsersFromGroupsEnabled() {
         return findUsersFromGroupsEnabled;
     }
@@ -1329,13 +1528,14 @@ public class LdapManager {
             Log.debug("LdapManager: Starting LDAP search to check group DN: {}", dn);
             // Search for the group in the node with the given DN.
             // should return the group object itself if is matches the group filter
-            ctx = getContext(dn);
+            final LdapName base = getContainingBaseDN(dn);
+            ctx = getContext(base);
             // only search the object itself.
             SearchControls constraints = new SearchControls();
             constraints.setSearchScope(SearchControls.OBJECT_SCOPE);
             constraints.setReturningAttributes(new String[]{});
             String filter = MessageFormat.format(getGroupSearchFilter(), "*");
-            NamingEnumeration<SearchResult> answer = ctx.search("", filter, constraints);
+            NamingEnumeration<SearchResult> answer = ctx.search(dn.getSuffix(base.size()), filter, constraints);
 
             Log.debug("LdapManager: ... group check search finished for DN: {}", dn);
 
@@ -1366,6 +1566,23 @@ public class LdapManager {
         }
     }
 
+    /**
+     * Returns the base DN (either the base DN or the alternate base DN) that contains a DN. Contexts for these base
+     * DNs are pooled, and can be used to access the DN using a relative name.
+     *
+     * @param dn the absolute DN of a node.
+     * @return the base DN that contains the DN, or null if neither contains the DN.
+     */
+    private LdapName getContainingBaseDN(LdapName dn) {
+        if (dn.startsWith(baseDN)) {
+            return baseDN;
+        }
+        if (alternateBaseDN != null && dn.startsWith(alternateBaseDN)) {
+            return alternateBaseDN;
+        }
+        return null;
+    }
+
     /**
      * Returns a properly encoded URL for use as the PROVIDER_URL.
      * If the encoding fails then the URL will contain the raw base dn.
@@ -1426,6 +1643,7 @@ public class LdapManager {
             hostProperty.setLength(hostProperty.length()-1);
         }
         properties.put("ldap.host", hostProperty.toString());
+        closeContextPools();
     }
 
     /**
@@ -1447,6 +1665,7 @@ public class LdapManager {
     public void setPort(int port) {
         this.port = port;
         properties.put("ldap.port", Integer.toString(port));
+        closeContextPools();
     }
 
     /**
@@ -1489,6 +1708,7 @@ public class LdapManager {
     public void setSslEnabled(boolean sslEnabled) {
         this.sslEnabled = sslEnabled;
         properties.put("ldap.sslEnabled", Boolean.toString(sslEnabled));
+        closeContextPools();
     }
 
     /**
@@ -1508,6 +1728,7 @@ public class LdapManager {
     public void setStartTlsEnabled(boolean startTlsEnabled) {
         this.startTlsEnabled = startTlsEnabled;
         properties.put("ldap.startTlsEnabled", Boolean.toString(startTlsEnabled));
+        closeContextPools();
     }
 
 
@@ -1637,6 +1858,7 @@ public class LdapManager {
     public void setBaseDN(LdapName baseDN) {
         this.baseDN = baseDN;
         properties.put("ldap.baseDN", baseDN.toString());
+        closeContextPools();
     }
 
     /**
@@ -1666,6 +1888,7 @@ public class LdapManager {
         else {
             properties.put("ldap.alternateBaseDN", alternateBaseDN.toString());
         }
+        closeContextPools();
     }
 
     /**
@@ -1778,6 +2001,7 @@ public class LdapManager {
     public void setAdminDN(String adminDN) {
         this.adminDN = adminDN;
         properties.put("ldap.adminDN", adminDN);
+        closeContextPools();
     }
 
     /**
@@ -1799,6 +2023,7 @@ public class LdapManager {
     public void setAdminPassword(String adminPassword) {
         this.adminPassword = adminPassword;
         properties.put("ldap.adminPassword", adminPassword);
+        closeContextPools();
     }
 
     /**
@@ -1809,6 +2034,7 @@ public class LdapManager {
     public void setConnectionPoolEnabled(boolean connectionPoolEnabled) {
         this.connectionPoolEnabled = connectionPoolEnabled;
         properties.put("ldap.connectionPoolEnabled", Boolean.toString(connectionPoolEnabled));
+        closeContextPools();
     }
 
     /**
@@ -2269,6 +2495,123 @@ public class LdapManager {
         return results;
     }
 
+    /**
+     * Performs the given action for the value of an attribute of every entry that matches a search filter, without
+     * collecting all values in memory first. Unlike {@link #retrieveList(String, String, int, int, String, boolean)},
+     * results are not sorted. When a page size is configured (see {@link #LDAP_PAGE_SIZE}), entries are retrieved from
+     * the LDAP server one page at a time.
+     * <p>
+     * The passed in filter string needs to be pre-prepared! In other words, nothing will be changed
+     * in the string before it is used as a string.
+     *
+     * @param attribute    LDAP attribute of which the value is passed to the action.
+     * @param searchFilter Filter to use to perform the search.  Typically pulled from this manager.
+     * @param suffixToTrim An arbitrary string to trim from the end of every value (can be null).
+     * @param escapeJIDs   Use JID-escaping for returned values (e.g. usernames)
+     * @param action       The action to perform for each value.
+     * @throws NamingException when the LDAP server could not be searched.
+     */
+    public void forEachValue(@Nonnull final String attribute, @Nonnull final String searchFilter, final String suffixToTrim, final boolean escapeJIDs, @Nonnull final Consumer<String> action) throws NamingException {
+        forEachSearchResult(searchFilter, new String[] { attribute }, searchResult -> {
+            final Attribute values = searchResult.getAttributes().get(attribute);
+            if (values == null) {
+                return;
+            }
+            String result = (String) values.get();
+            // Remove suffixToTrim if set
+            if (suffixToTrim != null && suffixToTrim.length() > 0 && result.endsWith(suffixToTrim)) {
+                result = result.substring(0, result.length() - suffixToTrim.length());
+            }
+            action.accept(escapeJIDs ? JID.escapeNode(result) : result);
+        });
+    }
+
+    /**
+     * Processes an entry that was found by a search.
+     */
+    @FunctionalInterface
+    interface SearchResultHandler {
+        void handle(SearchResult searchResult) throws NamingException;
+    }
+
+    /**
+     * Passes every entry that matches a search filter, both in the base DN and in the alternate base DN, to a handler
+     * as soon as it is received from the LDAP server. When a page size is configured, entries are retrieved one page at
+     * a time.
+     *
+     * @param searchFilter Filter to use to perform the search.
+     * @param attributes   The attributes to return for every entry.
+     * @param handler      Processes every entry that is found.
+     * @throws NamingException when the LDAP server could not be searched.
+     */
+    void forEachSearchResult(@Nonnull final String searchFilter, @Nonnull final String[] attributes, @Nonnull final SearchResultHandler handler) throws NamingException {
+        forEachSearchResult(baseDN, searchFilter, attributes, handler);
+        if (alternateBaseDN != null) {
+            forEachSearchResult(alternateBaseDN, searchFilter, attributes, handler);
+        }
+    }
+
+    private void forEachSearchResult(@Nonnull final LdapName baseDN, @Nonnull final String searchFilter, @Nonnull final String[] attributes, @Nonnull final SearchResultHandler handler) throws NamingException {
+        final int pageSize = LDAP_PAGE_SIZE.getValue();
+        final LdapContext ctx = getContext(baseDN);
+        try {
+            if (pageSize > 0) {
+                ctx.setRequestControls(new Control[] { new PagedResultsControl(pageSize, Control.NONCRITICAL) });
+            }
+
+            final SearchControls searchControls = new SearchControls();
+            // See if recursive searching is enabled. Otherwise, only search one level.
+            if (isSubTreeSearch()) {
+                searchControls.setSearchScope(SearchControls.SUBTREE_SCOPE);
+            }
+            else {
+                searchControls.setSearchScope(SearchControls.ONELEVEL_SCOPE);
+            }
+            searchControls.setReturningAttributes(attributes);
+
+            byte[] cookie;
+            // Run through all pages of results (one page is also possible  ;)  )
+            do {
+                cookie = null;
+                final NamingEnumeration<SearchResult> answer = ctx.search("", searchFilter, searchControls);
+                try {
+                    while (answer.hasMoreElements()) {
+                        handler.handle(answer.next());
+                    }
+                } finally {
+                    answer.close();
+                }
+
+                // Examine the paged results control response
+                final Control[] controls = ctx.getResponseControls();
+                if (controls != null) {
+                    for (final Control control : controls) {
+                        if (control instanceof PagedResultsResponseControl) {
+                            cookie = ((PagedResultsResponseControl) control).getCookie();
+                        }
+                    }
+                }
+                if (pageSize > 0 && cookie != null) {
+                    ctx.setRequestControls(new Control[] { new PagedResultsControl(pageSize, cookie, Control.CRITICAL) });
+                }
+            } while (pageSize > 0 && cookie != null);
+        }
+        catch (IOException e) {
+            final NamingException ne = new NamingException("Unable to encode a paged results control.");
+            ne.setRootCause(e);
+            throw ne;
+        }
+        finally {
+            try {
+                ctx.setRequestControls(null);
+            }
+            catch (NamingException e) {
+                Log.debug("An exception occurred while trying to reset the request controls of a context.", e);
+            }
+            ctx.close();
+        }
+    }
+
     static List<String> sortAndPaginate(Collection<String> unpagedCollection, int startIndex, int numResults) {
         final List<String> results = new ArrayList<>(unpagedCollection);
         Collections.sort(results);
@@ -2386,8 +2729,10 @@ public class LdapManager {
         NamingEnumeration<?> values = null;
         try {
 
-            ctx = getContext(dn);
-            Attributes attributes = ctx.getAttributes("", new String[]{attributeName});
+            final LdapName base = getContainingBaseDN(dn);
+            ctx = getContext(base == null ? dn : base);
+            final Name name = base == null ? new LdapName("") : dn.getSuffix(base.size());
+            Attributes attributes = ctx.getAttributes(name, new String[]{attributeName});
             Attribute attribute = attributes.get(attributeName);
             if (attribute == null)
                 return Collections.emptyList();
@@ -26,7 +26,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmpp.packet.JID;
 
+import javax.annotation.Nonnull;
 import javax.naming.NamingEnumeration;
+import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
 import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
@@ -36,6 +38,7 @@ import java.text.SimpleDateFormat;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
 /**
@@ -214,7 +217,46 @@ public class LdapUserProvider implements UserProvider {
         getUsers();
         return this.allUsernames;
     }
-    
+
+    @Override
+    public void forEachUsername(@Nonnull final Consumer<String> action) {
+        final List<String> cachedUsernames = allUsernames;
+        if (cachedUsernames != null && allUserCacheExpires.isAfter(Instant.now())) {
+            cachedUsernames.forEach(action);
+            return;
+        }
+        if (manager.isFindUsersFromGroupsEnabled()) {
+            // Users are derived from the members of all groups, which need to be loaded regardless.
+            getUsernames().forEach(action);
+            return;
+        }
+        // Pass on every username as soon as it is received, while using the result to refresh the cache. All usernames
+        // are therefore still held in memory, but subsequent calls do not each need a full search of the LDAP server.
+        final List<String> usernames = new ArrayList<>();
+        try {
+            manager.forEachValue(
+                manager.getUsernameField(),
+                MessageFormat.format(manager.getSearchFilter(), "*"),
+                manager.getUsernameSuffix(),
+                true,
+                username -> {
+                    usernames.add(username);
+                    action.accept(username);
+                }
+            );
+        }
+        catch (NamingException e) {
+            throw new IllegalStateException("Unable to iterate over all usernames in the LDAP server.", e);
+        }
+        Collections.sort(usernames);
+        synchronized (this) {
+            this.allUsers = null;
+            this.userCount = usernames.size();
+            this.allUsernames = usernames;
+            this.allUserCacheExpires = Instant.now().plus(5, ChronoUnit.MINUTES);
+        }
+    }
+
     @Override
     public synchronized Collection<User> getUsers() {
         if (allUsers != null && allUserCacheExpires.isAfter(Instant.now())) {
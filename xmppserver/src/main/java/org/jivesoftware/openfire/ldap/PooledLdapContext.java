@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.ldap;
+
+import org.jivesoftware.util.JiveInitialLdapContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.naming.Context;
+import javax.naming.NamingException;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A context that is managed by a {@link LdapContextPool}. Closing a context that was obtained from a pool returns it to
+ * that pool, rather than closing the connection to the LDAP server.
+ */
+final class PooledLdapContext extends JiveInitialLdapContext
+{
+    private static final Logger Log = LoggerFactory.getLogger(PooledLdapContext.class);
+
+    /**
+     * The pool that this context is currently lent out by, or null when it is not lent out.
+     */
+    private final AtomicReference<LdapContextPool> lender = new AtomicReference<>();
+
+    /**
+     * The moment (in nanoseconds, as returned by {@link System#nanoTime()}) that this context was lent out.
+     */
+    private long borrowedAt;
+
+    /**
+     * The moment (in nanoseconds, as returned by {@link System#nanoTime()}) that this context was last returned.
+     */
+    private long releasedAt;
+
+    /**
+     * Whether this context has ever been lent out.
+     */
+    private boolean lent = false;
+
+    /**
+     * The security properties of the environment that this context was created with, by property name.
+     */
+    private final Map<String, Object> securityEnvironment = new HashMap<>();
+
+    PooledLdapContext(final Hashtable<?, ?> environment) throws NamingException
+    {
+        super(environment, null);
+        for (final String property : new String[] { Context.SECURITY_AUTHENTICATION, Context.SECURITY_PRINCIPAL, Context.SECURITY_CREDENTIALS }) {
+            securityEnvironment.put(property, environment.get(property));
+        }
+        releasedAt = System.nanoTime();
+    }
+
+    void lend(final LdapContextPool pool)
+    {
+        borrowedAt = System.nanoTime();
+        lent = true;
+        lender.set(pool);
+    }
+
+    long getBorrowedAt()
+    {
+        return borrowedAt;
+    }
+
+    long getReleasedAt()
+    {
+        return releasedAt;
+    }
+
+    void setReleasedAt(final long releasedAt)
+    {
+        this.releasedAt = releasedAt;
+    }
+
+    /**
+     * Restores the security properties of the environment to those that this context was created with, removing any
+     * credentials that were added to it while it was lent out. This does not affect the identity that the connection
+     * is bound as, which changes only when the context reconnects.
+     *
+     * @throws NamingException if the environment could not be modified.
+     */
+    void resetSecurityEnvironment() throws NamingException
+    {
+        for (final Map.Entry<String, Object> entry : securityEnvironment.entrySet()) {
+            if (entry.getValue() == null) {
+                removeFromEnvironment(entry.getKey());
+            } else {
+                addToEnvironment(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Returns this context to the pool that it was obtained from. Subsequent invocations have no effect. When this
+     * context has never been lent out, its connection to the LDAP server is closed.
+     */
+    @Override
+    public void close()
+    {
+        final LdapContextPool pool = lender.getAndSet(null);
+        if (pool != null) {
+            pool.release(this);
+        } else if (!lent) {
+            destroy();
+        }
+    }
+
+    /**
+     * Closes this context, without returning it to the pool that it was obtained from. This should be used when the
+     * state of the context is unknown, for example after a failed attempt to bind.
+     */
+    void invalidate()
+    {
+        final LdapContextPool pool = lender.getAndSet(null);
+        if (pool != null) {
+            pool.invalidate(this);
+        }
+    }
+
+    /**
+     * Closes the connection to the LDAP server.
+     */
+    void destroy()
+    {
+        try {
+            super.close();
+        } catch (NamingException e) {
+            Log.debug("An exception occurred while closing a pooled LDAP context.", e);
+        }
+    }
+}
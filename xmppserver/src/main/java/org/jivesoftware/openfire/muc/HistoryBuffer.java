@@ -0,0 +1,354 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.muc;
+
+import org.dom4j.Element;
+import org.xmpp.packet.Message;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A ring buffer that holds the messages of the history of a room, ordered by the timestamp of their delay element.
+ *
+ * Adding a message, and removing the oldest message when the buffer exceeds its limit, are constant-time operations.
+ * Messages that are added out of order (which may happen in a cluster) are inserted at their proper position, which
+ * requires the buffer to be copied.
+ *
+ * The history can be read through a {@link Snapshot}, which is created in constant time and does not copy any
+ * messages. A snapshot reflects the history as it was when the snapshot was created, minus any messages that were
+ * removed from the buffer since (those are skipped).
+ */
+final class HistoryBuffer {
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    /**
+     * Slots of the ring buffer. An entry with sequence number <tt>s</tt> is stored at index <tt>s &amp; (length - 1)</tt>.
+     * The length of the array is always a power of two.
+     *
+     * Once an array has been replaced (when the buffer grows, or a message is inserted out of order) it is never
+     * modified again, which keeps snapshots that still reference it consistent.
+     */
+    private Entry[] entries = new Entry[INITIAL_CAPACITY];
+
+    /**
+     * Sequence number of the oldest entry in the buffer.
+     */
+    private long head = 0;
+
+    /**
+     * Sequence number that will be assigned to the next entry that is appended to the buffer.
+     */
+    private long tail = 0;
+
+    /**
+     * Adds a message to the buffer, removing the oldest messages first if the buffer already holds (at least) the
+     * maximum amount of messages.
+     *
+     * @param message The message to add.
+     * @param limit The maximum number of messages in the buffer, or a negative value if the number is not limited.
+     */
+    synchronized void add(@Nonnull final Message message, final int limit) {
+        if (limit >= 0) {
+            while (tail > head && tail - head >= limit) {
+                evictOldest();
+            }
+        }
+
+        final String stamp = getStamp(message);
+        if (tail > head && stamp != null) {
+            final String newest = entries[index(tail - 1)].stamp;
+            if (newest != null && stamp.compareTo(newest) < 0) {
+                insertOutOfOrder(message, stamp);
+                return;
+            }
+        }
+
+        if (tail - head == entries.length) {
+            resize(entries.length * 2);
+        }
+        entries[index(tail)] = new Entry(tail, message, stamp);
+        tail++;
+    }
+
+    /**
+     * Returns the number of messages in the buffer.
+     *
+     * @return the number of messages in the buffer.
+     */
+    synchronized int size() {
+        return (int) (tail - head);
+    }
+
+    /**
+     * Creates a read-only view on the messages currently in the buffer. This does not copy any messages.
+     *
+     * @return a snapshot of the buffer.
+     */
+    synchronized Snapshot snapshot() {
+        return new Snapshot(entries, head, tail);
+    }
+
+    /**
+     * Returns a copy of all messages currently in the buffer, oldest first.
+     *
+     * @return a list of messages.
+     */
+    List<Message> toList() {
+        final List<Message> result = new ArrayList<>();
+        snapshot().iterator().forEachRemaining(result::add);
+        return result;
+    }
+
+    private void evictOldest() {
+        entries[index(head)] = null;
+        head++;
+    }
+
+    /**
+     * Inserts a message that is older than the newest message of the buffer at its proper position. This rewrites the
+     * buffer in a new array, to keep existing snapshots valid.
+     */
+    private void insertOutOfOrder(final Message message, final String stamp) {
+        final int size = (int) (tail - head);
+        final Entry[] replacement = new Entry[capacityFor(size + 1)];
+        final int mask = replacement.length - 1;
+
+        // Find the insertion point, searching from the newest message (that is where out-of-order messages typically belong).
+        long insertAt = tail;
+        while (insertAt > head) {
+            final String other = entries[index(insertAt - 1)].stamp;
+            if (other == null || other.compareTo(stamp) <= 0) {
+                break;
+            }
+            insertAt--;
+        }
+
+        long seq = head;
+        for (long s = head; s < tail; s++) {
+            if (s == insertAt) {
+                replacement[(int) (seq & mask)] = new Entry(seq, message, stamp);
+                seq++;
+            }
+            final Entry entry = entries[index(s)];
+            replacement[(int) (seq & mask)] = new Entry(seq, entry.message, entry.stamp);
+            seq++;
+        }
+        entries = replacement;
+        tail = seq;
+    }
+
+    private void resize(final int capacity) {
+        final Entry[] replacement = new Entry[capacity];
+        final int mask = capacity - 1;
+        for (long s = head; s < tail; s++) {
+            replacement[(int) (s & mask)] = entries[index(s)];
+        }
+        entries = replacement;
+    }
+
+    private int index(final long seq) {
+        return (int) (seq & (entries.length - 1));
+    }
+
+    private static int capacityFor(final int size) {
+        int capacity = INITIAL_CAPACITY;
+        while (capacity < size) {
+            capacity *= 2;
+        }
+        return capacity;
+    }
+
+    /**
+     * Returns the timestamp of the delay element of a message. Openfire formats these using
+     * {@link org.jivesoftware.util.XMPPDateTimeFormat#format(java.util.Date)}, which allows them to be compared
+     * lexicographically.
+     */
+    @Nullable
+    static String getStamp(@Nonnull final Message message) {
+        final Element delay = message.getChildElement("delay", "urn:xmpp:delay");
+        return delay == null ? null : delay.attributeValue("stamp");
+    }
+
+    /**
+     * An immutable message in the buffer, labeled with its sequence number.
+     */
+    private static final class Entry {
+        final long seq;
+        final Message message;
+        final String stamp;
+
+        Entry(final long seq, final Message message, final String stamp) {
+            this.seq = seq;
+            this.message = message;
+            this.stamp = stamp;
+        }
+    }
+
+    /**
+     * A read-only view of the messages that were in the buffer when the snapshot was created.
+     */
+    static final class Snapshot {
+        private final Entry[] entries;
+        private final long head;
+        private final long tail;
+
+        private Snapshot(final Entry[] entries, final long head, final long tail) {
+            this.entries = entries;
+            this.head = head;
+            this.tail = tail;
+        }
+
+        /**
+         * Returns the entry with the provided sequence number, or null if it has since been removed from the buffer.
+         */
+        private Entry get(final long seq) {
+            final Entry entry = entries[(int) (seq & (entries.length - 1))];
+            return entry != null && entry.seq == seq ? entry : null;
+        }
+
+        /**
+         * Returns an iterator over the messages, oldest first.
+         *
+         * @return an iterator.
+         */
+        Iterator<Message> iterator() {
+            return new SnapshotIterator(head, tail, head);
+        }
+
+        /**
+         * Returns a list iterator that is positioned after the newest message, to be traversed in reverse. When a
+         * non-null stamp is provided, traversal ends at the first message with a timestamp that is earlier than it.
+         *
+         * @param since Formatted timestamp of the oldest message to return, or null to return all messages.
+         * @return a list iterator positioned at the end of the history.
+         */
+        ListIterator<Message> reverseIterator(@Nullable final String since) {
+            long start = tail;
+            if (since == null) {
+                start = head;
+            } else {
+                // Only walk back as far as needed, starting at the newest message.
+                while (start > head) {
+                    final Entry entry = get(start - 1);
+                    if (entry == null || (entry.stamp != null && entry.stamp.compareTo(since) < 0)) {
+                        break;
+                    }
+                    start--;
+                }
+            }
+            return new SnapshotIterator(start, tail, tail);
+        }
+
+        /**
+         * Iterates over a range of sequence numbers of the snapshot. As messages are only ever removed from the buffer
+         * starting with the oldest, a removed message implies that all older messages have been removed as well.
+         */
+        private final class SnapshotIterator implements ListIterator<Message> {
+            /**
+             * Sequence number of the message at index 0 of this iterator.
+             */
+            private final long origin;
+
+            /**
+             * Sequence number of the oldest message that can still be returned.
+             */
+            private long low;
+
+            /**
+             * Sequence number beyond the newest message that can be returned.
+             */
+            private final long high;
+
+            /**
+             * Sequence number of the message that is returned by a call to {@link #next()}.
+             */
+            private long cursor;
+
+            SnapshotIterator(final long low, final long high, final long cursor) {
+                this.origin = low;
+                this.low = low;
+                this.high = high;
+                this.cursor = cursor;
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (cursor < high && get(cursor) == null) {
+                    // Skip messages that were removed after this snapshot was created.
+                    low = ++cursor;
+                }
+                return cursor < high;
+            }
+
+            @Override
+            public Message next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return get(cursor++).message;
+            }
+
+            @Override
+            public boolean hasPrevious() {
+                if (cursor > low && get(cursor - 1) == null) {
+                    // This message and all older ones were removed after this snapshot was created.
+                    low = cursor;
+                }
+                return cursor > low;
+            }
+
+            @Override
+            public Message previous() {
+                if (!hasPrevious()) {
+                    throw new NoSuchElementException();
+                }
+                return get(--cursor).message;
+            }
+
+            @Override
+            public int nextIndex() {
+                return (int) (cursor - origin);
+            }
+
+            @Override
+            public int previousIndex() {
+                return (int) (cursor - origin) - 1;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void set(final Message message) {
+                throw new UnsupportedOperationException();
+            }
+
+            @Override
+            public void add(final Message message) {
+                throw new UnsupportedOperationException();
+            }
+        }
+    }
+}
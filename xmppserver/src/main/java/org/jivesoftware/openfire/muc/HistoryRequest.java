@@ -115,6 +115,24 @@ public class HistoryRequest {
         return since;
     }
 
+    /**
+     * Returns the date of the oldest message that matches the 'seconds' and 'since' criteria of this request, or null
+     * if neither has been configured.
+     *
+     * @return the oldest date for messages to be included in the history, or null.
+     */
+    private Date getOldestDate() {
+        Date oldest = getSince();
+        if (getSeconds() > -1) {
+            // Include messages that have been sent less than the requested amount of seconds ago.
+            final Date secondsAgo = new Date(System.currentTimeMillis() - getSeconds() * 1000L + 1);
+            if (oldest == null || secondsAgo.after(oldest)) {
+                oldest = secondsAgo;
+            }
+        }
+        return oldest;
+    }
+
     /**
      * Returns true if the history has been configured with some values.
      * 
@@ -145,9 +163,10 @@ public class HistoryRequest {
             }
             int accumulatedChars = 0;
             int accumulatedStanzas = 0;
-            Element delayInformation;
             LinkedList<Message> historyToSend = new LinkedList<>();
-            ListIterator<Message> iterator = roomHistory.getReverseMessageHistory();
+            // The history is ordered by time. Only retrieve the part of it that matches the time-based criteria.
+            final Date oldest = getOldestDate();
+            ListIterator<Message> iterator = oldest == null ? roomHistory.getReverseMessageHistory() : roomHistory.getReverseMessageHistory(oldest);
             while (iterator.hasPrevious()) {
                 Message message = iterator.previous();
                 // Update number of characters to send
@@ -168,30 +187,6 @@ public class HistoryRequest {
                     break;
                 }
 
-                if (getSeconds() > -1 || getSince() != null) {
-                    delayInformation = message.getChildElement("delay", "urn:xmpp:delay");
-                    try {
-                        // Get the date when the historic message was sent
-                        Date delayedDate = xmppDateTime.parseString(delayInformation.attributeValue("stamp"));
-                        if (getSince() != null && delayedDate != null && delayedDate.before(getSince())) {
-                            // Stop collecting history since we have exceded a limit
-                            break;
-                        }
-                        if (getSeconds() > -1) {
-                            Date current = new Date();
-                            long diff = (current.getTime() - delayedDate.getTime()) / 1000;
-                            if (getSeconds() <= diff) {
-                                // Stop collecting history since we have exceded a limit
-                                break;
-                            }
-                        }
-                    }
-                    catch (Exception e) {
-                        Log.error("Error parsing date from historic message", e);
-                    }
-
-                }
-
                 historyToSend.addFirst(message);
             }
             // Send the smallest amount of traffic to the user
@@ -21,12 +21,12 @@ import java.io.IOException;
 import java.io.ObjectInput;
 import java.io.ObjectOutput;
 import java.util.*;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.stream.Collectors;
 
 import org.dom4j.tree.DefaultElement;
 import org.jivesoftware.openfire.muc.spi.MUCPersistenceManager;
 import org.jivesoftware.util.JiveGlobals;
+import org.jivesoftware.util.XMPPDateTimeFormat;
 import org.jivesoftware.util.cache.ExternalizableUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -55,10 +55,10 @@ public class HistoryStrategy implements Externalizable {
     private Type type = Type.number;
 
     /**
-     * List containing the history of messages.
+     * Buffer containing the history of messages, ordered by timestamp.
      */
-    // TODO it is likely that a lot of serialization (in a cluster) can be prevented by replacing this queue with a clustered cache.
-    private ConcurrentLinkedQueue<Message> history = new ConcurrentLinkedQueue<>();
+    // TODO it is likely that a lot of serialization (in a cluster) can be prevented by replacing this buffer with a clustered cache.
+    private HistoryBuffer history = new HistoryBuffer();
 
     /**
      * Default max number.
@@ -195,24 +195,12 @@ public class HistoryStrategy implements Externalizable {
 
         // store message according to active strategy
         if (strategyType == Type.all) {
-            history.add(packet);
+            history.add(packet, -1);
         }
         else if (strategyType == Type.number) {
-            if (history.size() >= strategyMaxNumber) {
-                // We have to remove messages so the new message won't exceed
-                // the max history size
-                // This is complicated somewhat because we must skip over the
-                // last room subject
-                // message because we want to preserve the room subject if
-                // possible.
-                Iterator<Message> historyIter = history.iterator();
-                while (historyIter.hasNext() && history.size() >= strategyMaxNumber) {
-                    if (historyIter.next() != roomSubject) {
-                        historyIter.remove();
-                    }
-                }
-            }
-            history.add(packet);
+            // Removes the oldest messages so the new message won't exceed the max history size. Room subject
+            // changes are not stored in the history, so those are preserved.
+            history.add(packet, strategyMaxNumber);
         }
     }
 
@@ -230,10 +218,8 @@ public class HistoryStrategy implements Externalizable {
      * @return An iterator of Message objects to be sent to the new room member.
      */
     public Iterator<Message> getMessageHistory(){
-        LinkedList<Message> list = new LinkedList<>(history);
-        // Sort messages. Messages may be out of order when running inside of a cluster
-        list.sort(new MessageComparator());
-        return list.iterator();
+        // Messages are kept in order of their timestamp, even when they are added out of order (in a cluster).
+        return history.snapshot().iterator();
     }
 
     /**
@@ -244,16 +230,26 @@ public class HistoryStrategy implements Externalizable {
      * @return A list iterator of Message objects positioned at the end of the list.
      */
     public ListIterator<Message> getReverseMessageHistory(){
-        LinkedList<Message> list = new LinkedList<>(history);
-        // Sort messages. Messages may be out of order when running inside of a cluster
-        list.sort(new MessageComparator());
-        return list.listIterator(list.size());
+        return history.snapshot().reverseIterator(null);
+    }
+
+    /**
+     * Obtain the history of messages that were sent at or after a particular moment, to be iterated in reverse mode.
+     * This means that the returned list iterator will be positioned at the end of the history so senders of this
+     * message must traverse the list in reverse mode. Only the messages that are returned are looked at to determine
+     * where the iteration ends.
+     *
+     * @param since The moment in time of the oldest message to return.
+     * @return A list iterator of Message objects positioned at the end of the list.
+     */
+    public ListIterator<Message> getReverseMessageHistory(Date since){
+        return history.snapshot().reverseIterator(XMPPDateTimeFormat.format(since));
     }
 
     @Override
     public void writeExternal(ObjectOutput out) throws IOException {
         ExternalizableUtil.getInstance().writeSerializable(out, type);
-        ExternalizableUtil.getInstance().writeSerializableCollection(out, history.stream().map(message -> (DefaultElement)message.getElement()).collect(Collectors.toCollection(ArrayList::new)));
+        ExternalizableUtil.getInstance().writeSerializableCollection(out, history.toList().stream().map(message -> (DefaultElement)message.getElement()).collect(Collectors.toCollection(ArrayList::new)));
         ExternalizableUtil.getInstance().writeInt(out, maxNumber);
 
         ExternalizableUtil.getInstance().writeBoolean(out,parent != null);
@@ -282,7 +278,8 @@ public class HistoryStrategy implements Externalizable {
         type = (Type) ExternalizableUtil.getInstance().readSerializable(in);
         final ArrayList<DefaultElement> serializedHistory = new ArrayList<>();
         ExternalizableUtil.getInstance().readSerializableCollection(in, serializedHistory, this.getClass().getClassLoader());
-        history = serializedHistory.stream().map(Message::new).collect(Collectors.toCollection(ConcurrentLinkedQueue::new));
+        history = new HistoryBuffer();
+        serializedHistory.stream().map(Message::new).forEach(message -> history.add(message, -1));
         maxNumber = ExternalizableUtil.getInstance().readInt(in);
 
         if (ExternalizableUtil.getInstance().readBoolean(in)) {
@@ -415,15 +412,6 @@ public class HistoryStrategy implements Externalizable {
         return JiveGlobals.getBooleanProperty("xmpp.muc.subject.change.strict", true);
     }
 
-    private static class MessageComparator implements Comparator<Message> {
-        @Override
-        public int compare(Message o1, Message o2) {
-            String stamp1 = o1.getChildElement("delay", "urn:xmpp:delay").attributeValue("stamp");
-            String stamp2 = o2.getChildElement("delay", "urn:xmpp:delay").attributeValue("stamp");
-            return stamp1.compareTo(stamp2);
-        }
-    }
-
     @Override
     public boolean equals(Object o) {
         if (this == o) return true;
@@ -435,12 +423,11 @@ public class HistoryStrategy implements Externalizable {
             && equalsHistory(that.history) && Objects.equals(parent, that.parent);
     }
 
-    private boolean equalsHistory(Object o) {
-        if (this.history == o) return true;
-        if (o == null || this.history.getClass() != o.getClass()) return false;
-        Collection<Message> that = (Collection<Message>) o;
-        final ArrayList<String> thatList = that.stream().map(Packet::toXML).collect(Collectors.toCollection(ArrayList::new));
-        final ArrayList<String> thisList = history.stream().map(Packet::toXML).collect(Collectors.toCollection(ArrayList::new));
+    private boolean equalsHistory(HistoryBuffer that) {
+        if (this.history == that) return true;
+        if (that == null) return false;
+        final ArrayList<String> thatList = that.toList().stream().map(Packet::toXML).collect(Collectors.toCollection(ArrayList::new));
+        final ArrayList<String> thisList = history.toList().stream().map(Packet::toXML).collect(Collectors.toCollection(ArrayList::new));
         return thatList.equals(thisList);
     }
 
@@ -155,6 +155,18 @@ public final class MUCRoomHistory implements Externalizable {
         return historyStrategy.getReverseMessageHistory();
     }
 
+    /**
+     * Obtain the history of messages that were sent at or after a particular moment, to be iterated in reverse mode.
+     * This means that the returned list iterator will be positioned at the end of the history so senders of this
+     * message must traverse the list in reverse mode.
+     *
+     * @param since The moment in time of the oldest message to return.
+     * @return A list iterator of Message objects positioned at the end of the list.
+     */
+    public ListIterator<Message> getReverseMessageHistory(Date since) {
+        return historyStrategy.getReverseMessageHistory(since);
+    }
+
     /**
      * Creates a new message and adds it to the history. The new message will be created based on
      * the provided information. This information will likely come from the database when loading
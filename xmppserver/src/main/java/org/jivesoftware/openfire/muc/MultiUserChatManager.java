@@ -31,6 +31,7 @@ import org.jivesoftware.openfire.muc.spi.MUCPersistenceManager;
 import org.jivesoftware.openfire.muc.spi.MUCServicePropertyEventDispatcher;
 import org.jivesoftware.openfire.muc.spi.MUCServicePropertyEventListener;
 import org.jivesoftware.openfire.muc.spi.MultiUserChatServiceImpl;
+import org.jivesoftware.openfire.muc.spi.RoomStateWriter;
 import org.jivesoftware.openfire.stats.Statistic;
 import org.jivesoftware.openfire.stats.StatisticsManager;
 import org.jivesoftware.openfire.user.User;
@@ -116,6 +117,7 @@ public class MultiUserChatManager extends BasicModule implements MUCServicePrope
         addTotalConnectedUsers();
         addNumberIncomingMessages();
         addNumberOutgoingMessages();
+        RoomStateWriter.getInstance().initStatistics();
 
         UserEventDispatcher.addListener(this);
         MUCServicePropertyEventDispatcher.addListener(this);
@@ -137,10 +139,14 @@ public class MultiUserChatManager extends BasicModule implements MUCServicePrope
         StatisticsManager.getInstance().removeStatistic(usersStatKey);
         StatisticsManager.getInstance().removeStatistic(incomingStatKey);
         StatisticsManager.getInstance().removeStatistic(outgoingStatKey);
+        RoomStateWriter.getInstance().removeStatistics();
 
         for (MultiUserChatService service : mucServices.values()) {
             unregisterMultiUserChatService(service.getServiceName(), false);
         }
+
+        // Make sure that all changes to room state have been written to the database.
+        RoomStateWriter.getInstance().flush();
     }
 
     /**
@@ -125,17 +125,17 @@ public class MUCPersistenceManager {
         "DELETE FROM ofMucAffiliation WHERE roomID=?";
     private static final String DELETE_MEMBERS =
         "DELETE FROM ofMucMember WHERE roomID=?";
-    private static final String ADD_MEMBER =
+    static final String ADD_MEMBER =
         "INSERT INTO ofMucMember (roomID,jid,nickname) VALUES (?,?,?)";
-    private static final String UPDATE_MEMBER =
+    static final String UPDATE_MEMBER =
         "UPDATE ofMucMember SET nickname=? WHERE roomID=? AND jid=?";
-    private static final String DELETE_MEMBER =
+    static final String DELETE_MEMBER =
         "DELETE FROM ofMucMember WHERE roomID=? AND jid=?";
-    private static final String ADD_AFFILIATION =
+    static final String ADD_AFFILIATION =
         "INSERT INTO ofMucAffiliation (roomID,jid,affiliation) VALUES (?,?,?)";
-    private static final String UPDATE_AFFILIATION =
+    static final String UPDATE_AFFILIATION =
         "UPDATE ofMucAffiliation SET affiliation=? WHERE roomID=? AND jid=?";
-    private static final String DELETE_AFFILIATION =
+    static final String DELETE_AFFILIATION =
         "DELETE FROM ofMucAffiliation WHERE roomID=? AND jid=?";
     private static final String DELETE_USER_MEMBER =
         "DELETE FROM ofMucMember WHERE jid=?";
@@ -155,6 +155,7 @@ public class MUCPersistenceManager {
      * @return the reserved room nickname for the bare JID or null if none.
      */
     public static String getReservedNickname(MUCRoom room, String bareJID) {
+        RoomStateWriter.getInstance().flush(room.getID());
         Connection con = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
@@ -218,6 +219,7 @@ public class MUCPersistenceManager {
      */
     public static void loadFromDB(MUCRoom room) {
         Log.debug("Attempting to load room '{}' from the database.", room.getName());
+        RoomStateWriter.getInstance().flush();
         Connection con = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
@@ -537,6 +539,8 @@ public class MUCPersistenceManager {
         if (!room.isPersistent() || !room.wasSavedToDB()) {
             return;
         }
+        // Prevent pending changes from being written after the room has been deleted.
+        RoomStateWriter.getInstance().flush(room.getID());
         Connection con = null;
         PreparedStatement pstmt = null;
         boolean abortTransaction = false;
@@ -620,6 +624,7 @@ public class MUCPersistenceManager {
      */
     public static Collection<MUCRoom> loadRoomsFromDB(MultiUserChatService chatserver, Date cleanupDate) {
         Log.debug( "Loading rooms for chat service {}", chatserver.getServiceName() );
+        RoomStateWriter.getInstance().flush();
         Long serviceID = XMPPServer.getInstance().getMultiUserChatManager().getMultiUserChatServiceID(chatserver.getServiceName());
 
         final Map<Long, MUCRoom> rooms;
@@ -926,6 +931,12 @@ public class MUCPersistenceManager {
         if (!room.isPersistent() || !room.wasSavedToDB()) {
             return;
         }
+        if (RoomStateWriter.ENABLED.getValue()) {
+            RoomStateWriter.getInstance().updateRoomColumn(UPDATE_SUBJECT, room.getID(), room.getSubject());
+            return;
+        }
+        // Changes that were added while asynchronous writes were enabled must not overwrite this change later.
+        RoomStateWriter.getInstance().flush(room.getID());
 
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -953,6 +964,12 @@ public class MUCPersistenceManager {
         if (!room.isPersistent() || !room.wasSavedToDB()) {
             return;
         }
+        if (RoomStateWriter.ENABLED.getValue()) {
+            RoomStateWriter.getInstance().updateRoomColumn(UPDATE_LOCK, room.getID(), StringUtils.dateToMillis(room.getLockedDate()));
+            return;
+        }
+        // Changes that were added while asynchronous writes were enabled must not overwrite this change later.
+        RoomStateWriter.getInstance().flush(room.getID());
 
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -980,6 +997,13 @@ public class MUCPersistenceManager {
         if (!room.isPersistent() || !room.wasSavedToDB()) {
             return;
         }
+        if (RoomStateWriter.ENABLED.getValue()) {
+            final Date emptyDate = room.getEmptyDate();
+            RoomStateWriter.getInstance().updateRoomColumn(UPDATE_EMPTYDATE, room.getID(), emptyDate == null ? null : StringUtils.dateToMillis(emptyDate));
+            return;
+        }
+        // Changes that were added while asynchronous writes were enabled must not overwrite this change later.
+        RoomStateWriter.getInstance().flush(room.getID());
 
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -1021,6 +1045,12 @@ public class MUCPersistenceManager {
         if (!room.isPersistent() || !room.wasSavedToDB()) {
             return;
         }
+        if (RoomStateWriter.ENABLED.getValue()) {
+            RoomStateWriter.getInstance().updateAffiliation(room.getID(), affiliationJid, nickname, newAffiliation, oldAffiliation);
+            return;
+        }
+        // Changes that were added while asynchronous writes were enabled must not overwrite this change later.
+        RoomStateWriter.getInstance().flush(room.getID());
         if (MUCRole.Affiliation.none == oldAffiliation) {
             if (MUCRole.Affiliation.member == newAffiliation) {
                 // Add the user to the members table
@@ -1173,6 +1203,12 @@ public class MUCPersistenceManager {
     {
         final String affiliationJID = jid.toBareJID();
         if (room.isPersistent() && room.wasSavedToDB()) {
+            if (RoomStateWriter.ENABLED.getValue()) {
+                RoomStateWriter.getInstance().updateAffiliation(room.getID(), affiliationJID, null, MUCRole.Affiliation.none, oldAffiliation);
+                return;
+            }
+            // Changes that were added while asynchronous writes were enabled must not overwrite this change later.
+            RoomStateWriter.getInstance().flush(room.getID());
             if (MUCRole.Affiliation.member == oldAffiliation) {
                 // Remove the user from the members table
                 Connection con = null;
@@ -1219,6 +1255,8 @@ public class MUCPersistenceManager {
      */
     public static void removeAffiliationFromDB(JID affiliationJID)
     {
+        // Prevent pending changes from re-adding affiliations after they have been removed.
+        RoomStateWriter.getInstance().flush();
         Connection con = null;
         PreparedStatement pstmt = null;
         try {
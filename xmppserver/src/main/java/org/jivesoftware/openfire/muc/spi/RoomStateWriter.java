@@ -0,0 +1,546 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.muc.spi;
+
+import org.jivesoftware.database.DbConnectionManager;
+import org.jivesoftware.openfire.muc.MUCRole;
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
+import org.jivesoftware.util.LocaleUtils;
+import org.jivesoftware.util.NamedThreadFactory;
+import org.jivesoftware.util.SystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Writes changes to the state of persistent MUC rooms (subject, lock and empty dates, affiliations) to the database
+ * asynchronously, so that the threads that process stanzas do not need to wait for the database.
+ *
+ * Changes are held for (at most) {@link #FLUSH_INTERVAL}. When a change for the same room and column (or, for
+ * affiliations, the same room and user) is already pending, the changes are combined into one. All pending changes
+ * are written in one transaction, using JDBC batches where the database supports them.
+ *
+ * When the amount of pending changes reaches {@link #MAX_PENDING}, the thread that adds a change writes all pending
+ * changes itself. Code that reads room state from the database should first invoke {@link #flush(long)} or
+ * {@link #flush()}, to make sure that pending changes are visible.
+ *
+ * Pending changes are held by the cluster node on which they were made. Other cluster nodes that read room state from
+ * the database can therefore see state that is up to {@link #FLUSH_INTERVAL} old.
+ */
+public final class RoomStateWriter {
+
+    private static final Logger Log = LoggerFactory.getLogger(RoomStateWriter.class);
+
+    /**
+     * Controls if changes to the state of MUC rooms are written to the database asynchronously. When disabled, pending
+     * changes are written immediately. Changes that are written synchronously first write pending changes of the same
+     * room, to not be overwritten by changes that were added earlier.
+     */
+    public static final SystemProperty<Boolean> ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.muc.persistence.write-behind.enabled")
+        .setDefaultValue(true)
+        .setDynamic(true)
+        .addListener(enabled -> {
+            if (!enabled) {
+                getInstance().flush();
+            }
+        })
+        .build();
+
+    /**
+     * The maximum amount of time that a change to the state of a MUC room is held before it is written.
+     */
+    public static final SystemProperty<Duration> FLUSH_INTERVAL = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("xmpp.muc.persistence.write-behind.interval")
+        .setDefaultValue(Duration.ofMillis(500))
+        .setMinValue(Duration.ofMillis(1))
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The amount of pending changes that causes changes to be written by the thread that adds a change.
+     */
+    public static final SystemProperty<Integer> MAX_PENDING = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.muc.persistence.write-behind.max-pending")
+        .setDefaultValue(10000)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
+    private static final String queueDepthStatKey = "muc_write_behind_queue_depth";
+    private static final String flushLatencyStatKey = "muc_write_behind_flush_latency";
+
+    private static final RoomStateWriter INSTANCE = new RoomStateWriter();
+
+    public static RoomStateWriter getInstance() {
+        return INSTANCE;
+    }
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(new NamedThreadFactory("muc-state-writer-", null, true, null));
+
+    /**
+     * Pending changes, keyed by what they change. Guarded by 'this'.
+     */
+    private final Map<Key, Change> pending = new LinkedHashMap<>();
+
+    /**
+     * Indicates if a flush has been scheduled for the pending changes. Guarded by 'this'.
+     */
+    private boolean flushScheduled = false;
+
+    /**
+     * Held while changes are written, to make sure that a flush is not considered to be complete while another thread
+     * is still writing changes that it removed from the pending changes.
+     */
+    private final ReentrantLock flushLock = new ReentrantLock();
+
+    private final AtomicLong flushCounter = new AtomicLong(0);
+    private final AtomicLong flushNanosCounter = new AtomicLong(0);
+
+    private RoomStateWriter() {
+    }
+
+    /**
+     * Schedules a change of the value of a column of a room to be written.
+     *
+     * @param sql The update statement, which takes the new value as its first, and the room ID as its second parameter.
+     * @param roomID The ID of the room.
+     * @param value The new value (can be null).
+     */
+    void updateRoomColumn(final String sql, final long roomID, final String value) {
+        add(new RoomColumnChange(sql, roomID, value));
+    }
+
+    /**
+     * Schedules a change of the affiliation of a user with a room to be written.
+     *
+     * @param roomID The ID of the room.
+     * @param bareJID The bare JID of the user.
+     * @param nickname The reserved nickname of the user in the room or null if none.
+     * @param newAffiliation The new affiliation of the user (none if the affiliation is removed).
+     * @param oldAffiliation The previous affiliation of the user.
+     */
+    void updateAffiliation(final long roomID, final String bareJID, final String nickname, final MUCRole.Affiliation newAffiliation, final MUCRole.Affiliation oldAffiliation) {
+        add(new AffiliationChange(roomID, bareJID, nickname, newAffiliation, oldAffiliation));
+    }
+
+    private void add(final Change change) {
+        final boolean mustFlush;
+        synchronized (this) {
+            pending.merge(change.key, change, Change::combine);
+            mustFlush = pending.size() >= MAX_PENDING.getValue();
+            if (!mustFlush && !flushScheduled) {
+                flushScheduled = true;
+                executor.schedule(() -> flush(), FLUSH_INTERVAL.getValue().toMillis(), TimeUnit.MILLISECONDS);
+            }
+        }
+        if (mustFlush) {
+            // Apply back-pressure: let the producer do the work.
+            flush();
+        }
+    }
+
+    /**
+     * Writes all pending changes to the database. When this method returns, all changes that were added before it was
+     * invoked have been written.
+     */
+    public void flush() {
+        flushLock.lock();
+        try {
+            final List<Change> changes;
+            synchronized (this) {
+                flushScheduled = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                changes = new ArrayList<>(pending.values());
+                pending.clear();
+            }
+
+            final long start = System.nanoTime();
+            final Batch batch = new Batch();
+            for (final Change change : changes) {
+                change.addTo(batch);
+            }
+            batch.execute();
+            flushNanosCounter.addAndGet(System.nanoTime() - start);
+            flushCounter.incrementAndGet();
+            Log.trace("Wrote {} pending MUC room state change(s) to the database.", changes.size());
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Writes all pending changes to the database if any of them applies to a particular room.
+     *
+     * @param roomID The ID of the room.
+     */
+    void flush(final long roomID) {
+        flushLock.lock(); // Waits for a flush that's in progress, that possibly contains changes for the room.
+        try {
+            final boolean hasPendingChanges;
+            synchronized (this) {
+                hasPendingChanges = pending.keySet().stream().anyMatch(key -> key.roomID == roomID);
+            }
+            if (hasPendingChanges) {
+                flush();
+            }
+        } finally {
+            flushLock.unlock();
+        }
+    }
+
+    /**
+     * Returns the amount of changes that are waiting to be written.
+     *
+     * @return an amount of changes.
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    /**
+     * Creates and adds statistics to statistic manager.
+     */
+    public void initStatistics() {
+        final Statistic queueDepth = new Statistic() {
+            @Override
+            public String getName() {
+                return LocaleUtils.getLocalizedString("muc.stats.write_behind.queue_depth.name");
+            }
+
+            @Override
+            public Type getStatType() {
+                return Type.count;
+            }
+
+            @Override
+            public String getDescription() {
+                return LocaleUtils.getLocalizedString("muc.stats.write_behind.queue_depth.description");
+            }
+
+            @Override
+            public String getUnits() {
+                return LocaleUtils.getLocalizedString("muc.stats.write_behind.queue_depth.label");
+            }
+
+            @Override
+            public double sample() {
+                return getPendingCount();
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return false;
+            }
+        };
+        StatisticsManager.getInstance().addStatistic(queueDepthStatKey, queueDepth);
+
+        final Statistic flushLatency = new Statistic() {
+            @Override
+            public String getName() {
+                return LocaleUtils.getLocalizedString("muc.stats.write_behind.flush_latency.name");
+            }
+
+            @Override
+            public Type getStatType() {
+                return Type.count;
+            }
+
+            @Override
+            public String getDescription() {
+                return LocaleUtils.getLocalizedString("muc.stats.write_behind.flush_latency.description");
+            }
+
+            @Override
+            public String getUnits() {
+                return LocaleUtils.getLocalizedString("muc.stats.write_behind.flush_latency.label");
+            }
+
+            @Override
+            public double sample() {
+                // Average time (in milliseconds) that it took to write pending changes to the database.
+                final long flushes = flushCounter.getAndSet(0);
+                final long nanos = flushNanosCounter.getAndSet(0);
+                return flushes == 0 ? 0 : nanos / (double) flushes / 1_000_000d;
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return true;
+            }
+        };
+        StatisticsManager.getInstance().addStatistic(flushLatencyStatKey, flushLatency);
+    }
+
+    /**
+     * Removes the statistics that were added by {@link #initStatistics()}.
+     */
+    public void removeStatistics() {
+        StatisticsManager.getInstance().removeStatistic(queueDepthStatKey);
+        StatisticsManager.getInstance().removeStatistic(flushLatencyStatKey);
+    }
+
+    /**
+     * Identifies what is changed: a column of a room, or the affiliation of a user with a room.
+     */
+    static final class Key {
+        final long roomID;
+        final String target;
+
+        Key(final long roomID, final String target) {
+            this.roomID = roomID;
+            this.target = target;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final Key key = (Key) o;
+            return roomID == key.roomID && target.equals(key.target);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(roomID, target);
+        }
+    }
+
+    /**
+     * A change to the state of a room that is waiting to be written.
+     */
+    abstract static class Change {
+        final Key key;
+
+        Change(final Key key) {
+            this.key = key;
+        }
+
+        /**
+         * Combines this change with a newer change of the same data into one change.
+         */
+        abstract Change combine(Change newer);
+
+        /**
+         * Adds the statements that apply this change to a batch.
+         */
+        abstract void addTo(Batch batch);
+    }
+
+    static final class RoomColumnChange extends Change {
+        final String sql;
+        final String value;
+
+        RoomColumnChange(final String sql, final long roomID, final String value) {
+            super(new Key(roomID, sql));
+            this.sql = sql;
+            this.value = value;
+        }
+
+        @Override
+        Change combine(final Change newer) {
+            // Only the last value matters.
+            return newer;
+        }
+
+        @Override
+        void addTo(final Batch batch) {
+            batch.update(sql, value, key.roomID);
+        }
+    }
+
+    static final class AffiliationChange extends Change {
+        final String bareJID;
+        final String nickname;
+        final MUCRole.Affiliation newAffiliation;
+        final MUCRole.Affiliation oldAffiliation;
+
+        AffiliationChange(final long roomID, final String bareJID, final String nickname, final MUCRole.Affiliation newAffiliation, final MUCRole.Affiliation oldAffiliation) {
+            super(new Key(roomID, "affiliation:" + bareJID));
+            this.bareJID = bareJID;
+            this.nickname = nickname;
+            this.newAffiliation = newAffiliation;
+            this.oldAffiliation = oldAffiliation;
+        }
+
+        @Override
+        Change combine(final Change newer) {
+            // The database still reflects the affiliation from before the first change. Replace both changes with one
+            // that goes from that affiliation to the one after the last change.
+            final AffiliationChange last = (AffiliationChange) newer;
+            return new AffiliationChange(key.roomID, bareJID, last.nickname, last.newAffiliation, oldAffiliation);
+        }
+
+        @Override
+        void addTo(final Batch batch) {
+            final long roomID = key.roomID;
+            if (MUCRole.Affiliation.none == newAffiliation) {
+                // Remove the user from the members table or the generic affiliations table.
+                if (MUCRole.Affiliation.member == oldAffiliation) {
+                    batch.delete(MUCPersistenceManager.DELETE_MEMBER, roomID, bareJID);
+                } else {
+                    batch.delete(MUCPersistenceManager.DELETE_AFFILIATION, roomID, bareJID);
+                }
+            }
+            else if (MUCRole.Affiliation.none == oldAffiliation) {
+                if (MUCRole.Affiliation.member == newAffiliation) {
+                    batch.insert(MUCPersistenceManager.ADD_MEMBER, roomID, bareJID, nickname);
+                } else {
+                    batch.insert(MUCPersistenceManager.ADD_AFFILIATION, roomID, bareJID, newAffiliation.getValue());
+                }
+            }
+            else if (MUCRole.Affiliation.member == newAffiliation && MUCRole.Affiliation.member == oldAffiliation) {
+                batch.update(MUCPersistenceManager.UPDATE_MEMBER, nickname, roomID, bareJID);
+            }
+            else if (MUCRole.Affiliation.member == newAffiliation) {
+                batch.delete(MUCPersistenceManager.DELETE_AFFILIATION, roomID, bareJID);
+                batch.insert(MUCPersistenceManager.ADD_MEMBER, roomID, bareJID, nickname);
+            }
+            else if (MUCRole.Affiliation.member == oldAffiliation) {
+                batch.delete(MUCPersistenceManager.DELETE_MEMBER, roomID, bareJID);
+                batch.insert(MUCPersistenceManager.ADD_AFFILIATION, roomID, bareJID, newAffiliation.getValue());
+            }
+            else {
+                batch.update(MUCPersistenceManager.UPDATE_AFFILIATION, newAffiliation.getValue(), roomID, bareJID);
+            }
+        }
+    }
+
+    /**
+     * Statements to be executed, grouped by SQL. As there is at most one pending change per room and column (or user),
+     * all deletes can be executed before all inserts, which are executed before all updates.
+     */
+    static final class Batch {
+        final Map<String, List<Object[]>> deletes = new LinkedHashMap<>();
+        final Map<String, List<Object[]>> inserts = new LinkedHashMap<>();
+        final Map<String, List<Object[]>> updates = new LinkedHashMap<>();
+
+        void delete(final String sql, final Object... parameters) {
+            deletes.computeIfAbsent(sql, k -> new ArrayList<>()).add(parameters);
+        }
+
+        void insert(final String sql, final Object... parameters) {
+            inserts.computeIfAbsent(sql, k -> new ArrayList<>()).add(parameters);
+        }
+
+        void update(final String sql, final Object... parameters) {
+            updates.computeIfAbsent(sql, k -> new ArrayList<>()).add(parameters);
+        }
+
+        void execute() {
+            final List<Map<String, List<Object[]>>> phases = Arrays.asList(deletes, inserts, updates);
+            Connection con = null;
+            boolean abortTransaction = false;
+            try {
+                con = DbConnectionManager.getTransactionConnection();
+                for (final Map<String, List<Object[]>> phase : phases) {
+                    for (final Map.Entry<String, List<Object[]>> entry : phase.entrySet()) {
+                        execute(con, entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+            catch (SQLException sqle) {
+                Log.warn("Unable to write MUC room state changes in one transaction. Retrying them one by one.", sqle);
+                abortTransaction = true;
+            }
+            finally {
+                DbConnectionManager.closeTransactionConnection(con, abortTransaction);
+            }
+
+            if (abortTransaction) {
+                for (final Map<String, List<Object[]>> phase : phases) {
+                    for (final Map.Entry<String, List<Object[]>> entry : phase.entrySet()) {
+                        for (final Object[] parameters : entry.getValue()) {
+                            executeSingle(entry.getKey(), parameters);
+                        }
+                    }
+                }
+            }
+        }
+
+        private static void execute(final Connection con, final String sql, final List<Object[]> rows) throws SQLException {
+            PreparedStatement pstmt = null;
+            try {
+                pstmt = con.prepareStatement(sql);
+                final boolean batchUpdatesSupported = DbConnectionManager.isBatchUpdatesSupported();
+                for (final Object[] parameters : rows) {
+                    setParameters(pstmt, parameters);
+                    if (batchUpdatesSupported) {
+                        pstmt.addBatch();
+                    } else {
+                        pstmt.executeUpdate();
+                    }
+                }
+                if (batchUpdatesSupported) {
+                    pstmt.executeBatch();
+                }
+            }
+            finally {
+                DbConnectionManager.closeStatement(pstmt);
+            }
+        }
+
+        private static void executeSingle(final String sql, final Object[] parameters) {
+            Connection con = null;
+            PreparedStatement pstmt = null;
+            try {
+                con = DbConnectionManager.getConnection();
+                pstmt = con.prepareStatement(sql);
+                setParameters(pstmt, parameters);
+                pstmt.executeUpdate();
+            }
+            catch (SQLException sqle) {
+                Log.error(sqle.getMessage(), sqle);
+            }
+            finally {
+                DbConnectionManager.closeConnection(pstmt, con);
+            }
+        }
+
+        private static void setParameters(final PreparedStatement pstmt, final Object[] parameters) throws SQLException {
+            for (int i = 0; i < parameters.length; i++) {
+                final Object parameter = parameters[i];
+                if (parameter instanceof Long) {
+                    pstmt.setLong(i + 1, (Long) parameter);
+                } else if (parameter instanceof Integer) {
+                    pstmt.setInt(i + 1, (Integer) parameter);
+                } else {
+                    pstmt.setString(i + 1, (String) parameter);
+                }
+            }
+        }
+    }
+}
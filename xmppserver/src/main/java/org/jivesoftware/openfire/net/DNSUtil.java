@@ -17,14 +17,19 @@
 package org.jivesoftware.openfire.net;
 
 import org.jivesoftware.openfire.session.ConnectionSettings;
-import org.jivesoftware.util.CacheableOptional;
 import org.jivesoftware.util.JiveGlobals;
+import org.jivesoftware.util.SystemProperty;
+import org.jivesoftware.util.TaskEngine;
 import org.jivesoftware.util.cache.Cache;
 import org.jivesoftware.util.cache.CacheFactory;
+import org.jivesoftware.util.cache.CacheSizes;
+import org.jivesoftware.util.cache.Cacheable;
+import org.jivesoftware.util.cache.CannotCalculateSizeException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.naming.NameNotFoundException;
 import javax.naming.NamingException;
 import javax.naming.directory.Attribute;
@@ -32,7 +37,14 @@ import javax.naming.directory.Attributes;
 import javax.naming.directory.DirContext;
 import javax.naming.directory.InitialDirContext;
 import java.io.Serializable;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Utility class to perform DNS lookups for XMPP services.
@@ -45,7 +57,50 @@ public class DNSUtil {
 
     private static final Logger logger = LoggerFactory.getLogger(DNSUtil.class);
 
-    private static Cache<String, CacheableOptional<WeightedHostAddress[]>> LOOKUP_CACHE;
+    /**
+     * The duration for which the result of a DNS SRV lookup is used without being refreshed. After this period, the
+     * result is still used while it is being refreshed, until it is removed from the 'DNS Records' cache.
+     */
+    public static final SystemProperty<Duration> SRV_TTL = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("dnsutil.srv.ttl")
+        .setDefaultValue(Duration.ofMinutes(1))
+        .setMinValue(Duration.ZERO)
+        .setChronoUnit(ChronoUnit.SECONDS)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The duration for which the result of a DNS SRV lookup that failed is used without being refreshed.
+     */
+    public static final SystemProperty<Duration> SRV_NEGATIVE_TTL = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("dnsutil.srv.negative-ttl")
+        .setDefaultValue(Duration.ofSeconds(30))
+        .setMinValue(Duration.ZERO)
+        .setChronoUnit(ChronoUnit.SECONDS)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * Whether the result of a DNS SRV lookup that is used shortly before it is due to be refreshed is refreshed ahead
+     * of time. This prevents the results for frequently used domains from being used after they are due to be refreshed.
+     */
+    public static final SystemProperty<Boolean> SRV_PREFETCH = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("dnsutil.srv.prefetch")
+        .setDefaultValue(true)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The fraction of the TTL after which a result that is used is refreshed ahead of time.
+     */
+    private static final double PREFETCH_THRESHOLD = 0.8;
+
+    private static Cache<String, CachedLookup> LOOKUP_CACHE;
+
+    /**
+     * The lookups that are being refreshed in the background.
+     */
+    private static final Set<String> refreshing = ConcurrentHashMap.newKeySet();
 
     /**
      * Internal DNS that allows to specify target IP addresses and ports to use for domains.
@@ -113,13 +168,15 @@ public class DNSUtil {
             }
         }
 
-        // Attempt the SRV lookup.
-        final List<WeightedHostAddress> srvLookups = new LinkedList<>(srvLookup("xmpp-server", "tcp", domain));
-
+        // Attempt the SRV lookups concurrently. The address of the domain itself is resolved at the same time, as it
+        // is used when no SRV records exist.
         final boolean allowTLS = JiveGlobals.getBooleanProperty(ConnectionSettings.Server.TLS_POLICY, true);
-        if (allowTLS) {
-            srvLookups.addAll(srvLookup("xmpps-server", "tcp", domain));
-        }
+        final CompletableFuture<List<WeightedHostAddress>> xmppServer = srvLookupAsync("xmpp-server", "tcp", domain);
+        final CompletableFuture<List<WeightedHostAddress>> xmppsServer = allowTLS ? srvLookupAsync("xmpps-server", "tcp", domain) : CompletableFuture.completedFuture(Collections.emptyList());
+        resolveAddressAsync(domain);
+
+        final List<WeightedHostAddress> srvLookups = new LinkedList<>(xmppServer.join());
+        srvLookups.addAll(xmppsServer.join());
         if (!srvLookups.isEmpty()) {
             // we have to re-prioritize the combination of both lookups.
             results.addAll( prioritize( srvLookups.toArray( new WeightedHostAddress[0] ) ) );
@@ -132,10 +189,42 @@ public class DNSUtil {
         // Use domain and default port as fallback.
         if (results.isEmpty()) {
             results.add(new HostAddress(domain, defaultPort, false));
+        } else {
+            // Resolve the addresses of all targets concurrently, rather than one by one when a connection to each
+            // target is attempted.
+            results.stream().map(HostAddress::getHost).distinct().forEach(DNSUtil::resolveAddressAsync);
         }
         return results;
     }
 
+    /**
+     * Performs a DNS SRV lookup (see {@link #srvLookup(String, String, String)}) in another thread.
+     */
+    @Nonnull
+    private static CompletableFuture<List<WeightedHostAddress>> srvLookupAsync(@Nonnull final String service, @Nonnull final String proto, @Nonnull final String name) {
+        return CompletableFuture
+            .supplyAsync(() -> srvLookup(service, proto, name), task -> TaskEngine.getInstance().submit(task))
+            .exceptionally(t -> {
+                logger.warn("An unexpected exception occurred while performing a DNS SRV lookup for service '{}', protocol '{}' and name '{}'", service, proto, name, t);
+                return Collections.emptyList();
+            });
+    }
+
+    /**
+     * Resolves the A and AAAA records of a host in another thread. The result is not returned, but is cached by the
+     * JVM (as configured by the 'networkaddress.cache.ttl' security property), from where it is used when a connection
+     * to the host is established.
+     */
+    private static void resolveAddressAsync(@Nonnull final String host) {
+        TaskEngine.getInstance().submit(() -> {
+            try {
+                InetAddress.getAllByName(host);
+            } catch (UnknownHostException e) {
+                logger.trace("Unable to resolve the address of '{}'", host, e);
+            }
+        });
+    }
+
     /**
      * Returns the internal DNS that allows to specify target IP addresses and ports
      * to use for domains. The internal DNS will be checked up before performing an
@@ -203,15 +292,25 @@ public class DNSUtil {
 
         final String lookup = constructLookup(service, proto, name);
 
-        final CacheableOptional<WeightedHostAddress[]> optional = LOOKUP_CACHE.get(lookup);
-        WeightedHostAddress[] result;
-        if (optional != null) {
-            // Return a cached result.
-            if (optional.isAbsent()) {
+        final CachedLookup cached = LOOKUP_CACHE.get(lookup);
+        final WeightedHostAddress[] result;
+        if (cached != null) {
+            // Return a cached result. If it is (nearly) due to be refreshed, refresh it in the background.
+            final Duration ttl = cached.isFailure() ? SRV_NEGATIVE_TTL.getValue() : SRV_TTL.getValue();
+            final Duration age = cached.getAge();
+            if (age.compareTo(ttl) > 0) {
+                logger.trace("Refreshing stale DNS SRV lookup result for '{}'", lookup);
+                refreshAsync(lookup);
+            } else if (SRV_PREFETCH.getValue() && age.toMillis() > ttl.toMillis() * PREFETCH_THRESHOLD) {
+                logger.trace("Refreshing DNS SRV lookup result for '{}' ahead of time", lookup);
+                refreshAsync(lookup);
+            }
+
+            if (cached.isFailure()) {
                 logger.warn("DNS SRV lookup previously failed for '{}' (negative cache result)", lookup);
                 result = new WeightedHostAddress[0];
             } else {
-                result = optional.get();
+                result = cached.getRecords();
                 if ( result.length == 0 ) {
                     logger.debug("No SRV record found for '{}' (cached result)", lookup);
                 } else {
@@ -220,36 +319,91 @@ public class DNSUtil {
             }
         } else {
             // No result in cache. Query DNS and cache result.
-            try {
-                final Attributes dnsLookup = context.getAttributes(lookup, new String[]{"SRV"});
-                final Attribute srvRecords = dnsLookup.get("SRV");
-                if (srvRecords == null) {
-                    logger.debug("No SRV record found for '{}'", lookup);
-                    result = new WeightedHostAddress[0];
-                } else {
-                    result = new WeightedHostAddress[srvRecords.size()];
-                    final boolean directTLS = lookup.startsWith("_xmpps-"); // XEP-0368
-                    for (int i = 0; i < srvRecords.size(); i++) {
-                        result[i] = new WeightedHostAddress(((String) srvRecords.get(i)).split(" "), directTLS);
-                    }
-                    logger.trace("{} SRV record(s) found for '{}'", result.length, lookup);
-                }
-                LOOKUP_CACHE.put(lookup, CacheableOptional.of(result));
-            } catch (NameNotFoundException e) {
-                logger.debug("No SRV record found for '{}'", lookup, e);
-                LOOKUP_CACHE.put(lookup, CacheableOptional.of(new WeightedHostAddress[0])); // Empty result (different from negative result!)
-                result = new WeightedHostAddress[0];
-            } catch (NamingException e) {
-                logger.info("DNS SRV lookup was unsuccessful for '{}': {}", lookup, e.getMessage());
-                LOOKUP_CACHE.put(lookup, CacheableOptional.of(null)); // Negative result cache (different from empty result!)
-                result = new WeightedHostAddress[0];
-            }
+            final WeightedHostAddress[] records = query(lookup);
+            result = records == null ? new WeightedHostAddress[0] : records;
         }
 
         // Do not store _prioritized_ results in the cache, as there is a random element to the prioritization that needs to happen every time.
         return prioritize(result);
     }
 
+    /**
+     * Queries DNS for SRV records, and caches the result. When the query fails while a result of an earlier successful
+     * query is cached, that result is retained.
+     *
+     * @param lookup the DNS SRV lookup query (eg: <tt>_service._proto.name.</tt>)
+     * @return the records (possibly empty), or null when the query failed.
+     */
+    @Nullable
+    private static WeightedHostAddress[] query(@Nonnull final String lookup) {
+        try {
+            final WeightedHostAddress[] result;
+            final Attributes dnsLookup = context.getAttributes(lookup, new String[]{"SRV"});
+            final Attribute srvRecords = dnsLookup.get("SRV");
+            if (srvRecords == null) {
+                logger.debug("No SRV record found for '{}'", lookup);
+                result = new WeightedHostAddress[0];
+            } else {
+                result = new WeightedHostAddress[srvRecords.size()];
+                final boolean directTLS = lookup.startsWith("_xmpps-"); // XEP-0368
+                for (int i = 0; i < srvRecords.size(); i++) {
+                    result[i] = new WeightedHostAddress(((String) srvRecords.get(i)).split(" "), directTLS);
+                }
+                logger.trace("{} SRV record(s) found for '{}'", result.length, lookup);
+            }
+            LOOKUP_CACHE.put(lookup, new CachedLookup(result));
+            return result;
+        } catch (NameNotFoundException e) {
+            logger.debug("No SRV record found for '{}'", lookup, e);
+            LOOKUP_CACHE.put(lookup, new CachedLookup(new WeightedHostAddress[0])); // Empty result (different from negative result!)
+            return new WeightedHostAddress[0];
+        } catch (NamingException e) {
+            logger.info("DNS SRV lookup was unsuccessful for '{}': {}", lookup, e.getMessage());
+            final CachedLookup cached = LOOKUP_CACHE.get(lookup);
+            if (cached != null && !cached.isFailure()) {
+                // Keep using the stale result, until it is removed from the cache.
+                return cached.getRecords();
+            }
+            LOOKUP_CACHE.put(lookup, new CachedLookup(null)); // Negative result cache (different from empty result!)
+            return null;
+        }
+    }
+
+    /**
+     * Queries DNS for SRV records in the background, unless that is already in progress.
+     *
+     * @param lookup the DNS SRV lookup query (eg: <tt>_service._proto.name.</tt>)
+     */
+    private static void refreshAsync(@Nonnull final String lookup) {
+        if (!refreshing.add(lookup)) {
+            return;
+        }
+        try {
+            TaskEngine.getInstance().submit(() -> {
+                try {
+                    query(lookup);
+                } catch (Exception e) {
+                    logger.warn("An unexpected exception occurred while refreshing DNS SRV lookup result for '{}'", lookup, e);
+                } finally {
+                    refreshing.remove(lookup);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            refreshing.remove(lookup);
+            logger.debug("Unable to refresh DNS SRV lookup result for '{}'", lookup, e);
+        }
+    }
+
+    /**
+     * Replaces the context that is used to perform DNS lookups.
+     *
+     * @param context the context to use.
+     */
+    // Package protected to be able to unit test with a DNS server other than the one of the host.
+    static void setContext(@Nonnull final DirContext context) {
+        DNSUtil.context = context;
+    }
+
     /**
      * Constructs a DNS SRV lookup query (eg: <tt>_service._proto.name.</tt>)
      *
@@ -324,6 +478,46 @@ public class DNSUtil {
         return false;
     }
 
+    /**
+     * The result of a DNS SRV lookup, and the moment it was obtained.
+     */
+    private static class CachedLookup implements Cacheable {
+
+        /**
+         * The records that were found (possibly empty), or null when the lookup failed.
+         */
+        private final WeightedHostAddress[] records;
+
+        /**
+         * The moment the lookup was performed, in milliseconds since the epoch (as the cache can be shared by
+         * cluster nodes).
+         */
+        private final long resolvedAt;
+
+        private CachedLookup(@Nullable final WeightedHostAddress[] records) {
+            this.records = records;
+            this.resolvedAt = System.currentTimeMillis();
+        }
+
+        WeightedHostAddress[] getRecords() {
+            return records;
+        }
+
+        boolean isFailure() {
+            return records == null;
+        }
+
+        @Nonnull
+        Duration getAge() {
+            return Duration.ofMillis(System.currentTimeMillis() - resolvedAt);
+        }
+
+        @Override
+        public int getCachedSize() throws CannotCalculateSizeException {
+            return CacheSizes.sizeOfObject() + CacheSizes.sizeOfLong() + CacheSizes.sizeOfAnything(records);
+        }
+    }
+
     /**
      * Encapsulates a hostname and port.
      */
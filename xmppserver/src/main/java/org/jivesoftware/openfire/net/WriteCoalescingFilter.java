@@ -0,0 +1,370 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.net;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilterAdapter;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.future.IoFutureListener;
+import org.apache.mina.core.future.WriteFuture;
+import org.apache.mina.core.session.AttributeKey;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.DefaultWriteRequest;
+import org.apache.mina.core.write.WriteRequest;
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
+import org.jivesoftware.util.LocaleUtils;
+import org.jivesoftware.util.SystemProperty;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * MINA filter that gathers data that is written to a session, to write it as one buffer. This reduces the amount of
+ * (small) TCP writes and filter-chain traversals when many stanzas are sent to the same peer in a short period of time.
+ *
+ * Data is only gathered while an earlier write of the same session is still in progress. When no write is in progress,
+ * data is passed on immediately. Otherwise, gathered data is written when all writes that are in progress have
+ * completed, when the amount of gathered bytes exceeds {@link #MAX_BYTES}, or when more data is written after the first
+ * gathered data has been waiting for {@link #MAX_LATENCY}, whichever comes first.
+ *
+ * As write completion is signalled by the I/O processor of the session, gathered data is written (and passed through
+ * filters such as those for TLS and compression) by the thread that serves that session, rather than by a shared
+ * thread. Code that needs data to be written before it changes the state of the session (eg: before TLS or
+ * compression is started, or before the session is closed) must invoke {@link #flush(IoSession)}.
+ */
+public class WriteCoalescingFilter extends IoFilterAdapter {
+
+    private static final Logger Log = LoggerFactory.getLogger(WriteCoalescingFilter.class);
+
+    /**
+     * Controls if new socket connections gather outbound data before it is written.
+     */
+    public static final SystemProperty<Boolean> ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.socket.write-coalescing.enabled")
+        .setDefaultValue(false)
+        .setDynamic(false)
+        .build();
+
+    /**
+     * The amount of bytes that, when gathered for a session, causes the data to be written immediately.
+     */
+    public static final SystemProperty<Integer> MAX_BYTES = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.socket.write-coalescing.max-bytes")
+        .setDefaultValue(64 * 1024)
+        .setMinValue(1)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The maximum amount of time that data can be held while an earlier write is in progress. This is evaluated when more
+     * data is written to the session.
+     */
+    public static final SystemProperty<Duration> MAX_LATENCY = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("xmpp.socket.write-coalescing.max-latency")
+        .setDefaultValue(Duration.ofMillis(1))
+        .setMinValue(Duration.ofMillis(1))
+        .setChronoUnit(ChronoUnit.MILLIS)
+        .setDynamic(true)
+        .build();
+
+    private static final AttributeKey BATCH = new AttributeKey(WriteCoalescingFilter.class, "batch");
+
+    private static final String batchSizeStatKey = "write_coalescing_batch_size";
+    private static final String flushLatencyStatKey = "write_coalescing_flush_latency";
+
+    private static final AtomicLong flushCounter = new AtomicLong(0);
+    private static final AtomicLong messageCounter = new AtomicLong(0);
+    private static final AtomicLong latencyFlushCounter = new AtomicLong(0);
+    private static final AtomicLong latencyNanosCounter = new AtomicLong(0);
+
+    @Override
+    public void filterWrite(final NextFilter nextFilter, final IoSession session, final WriteRequest writeRequest) throws Exception {
+        if (!(writeRequest.getMessage() instanceof IoBuffer) || session.isClosing()) {
+            flush(session);
+            nextFilter.filterWrite(session, writeRequest);
+            return;
+        }
+
+        Batch batch = (Batch) session.getAttribute(BATCH);
+        if (batch == null) {
+            final Batch created = new Batch(nextFilter, session);
+            batch = (Batch) session.setAttributeIfAbsent(BATCH, created);
+            if (batch == null) {
+                batch = created;
+            }
+        }
+        batch.add(writeRequest);
+    }
+
+    @Override
+    public void filterClose(final NextFilter nextFilter, final IoSession session) throws Exception {
+        flush(session);
+        nextFilter.filterClose(session);
+    }
+
+    @Override
+    public void sessionClosed(final NextFilter nextFilter, final IoSession session) throws Exception {
+        final Batch batch = (Batch) session.removeAttribute(BATCH);
+        if (batch != null) {
+            batch.discard();
+        }
+        nextFilter.sessionClosed(session);
+    }
+
+    @Override
+    public void messageSent(final NextFilter nextFilter, final IoSession session, final WriteRequest writeRequest) throws Exception {
+        if (writeRequest instanceof CoalescedWriteRequest) {
+            // Let the handler (and filters) know about each write that was originally requested.
+            for (final WriteRequest original : ((CoalescedWriteRequest) writeRequest).originals) {
+                nextFilter.messageSent(session, original);
+            }
+        } else {
+            nextFilter.messageSent(session, writeRequest);
+        }
+    }
+
+    /**
+     * Immediately writes all data that has been gathered for a session. This method does nothing when the session does
+     * not use this filter, or when there is no pending data.
+     *
+     * @param session The session for which to write data (cannot be null).
+     */
+    public static void flush(final IoSession session) {
+        final Batch batch = (Batch) session.getAttribute(BATCH);
+        if (batch != null) {
+            batch.flush();
+        }
+    }
+
+    /**
+     * Returns the amount of bytes that have been gathered for a session, but that have not yet been passed on to be
+     * written. This does not include data that is being written.
+     *
+     * @param session The session for which to return the amount of gathered bytes (cannot be null).
+     * @return an amount of bytes.
+     */
+    public static int getPendingBytes(final IoSession session) {
+        final Batch batch = (Batch) session.getAttribute(BATCH);
+        return batch == null ? 0 : batch.getPendingBytes();
+    }
+
+    /**
+     * Creates and adds statistics to statistic manager.
+     */
+    public static void initStatistics() {
+        final Statistic batchSize = new Statistic() {
+            @Override
+            public String getName() {
+                return LocaleUtils.getLocalizedString("write_coalescing.stats.batch_size.name");
+            }
+
+            @Override
+            public Type getStatType() {
+                return Type.count;
+            }
+
+            @Override
+            public String getDescription() {
+                return LocaleUtils.getLocalizedString("write_coalescing.stats.batch_size.description");
+            }
+
+            @Override
+            public String getUnits() {
+                return LocaleUtils.getLocalizedString("write_coalescing.stats.batch_size.label");
+            }
+
+            @Override
+            public double sample() {
+                final long flushes = flushCounter.getAndSet(0);
+                final long messages = messageCounter.getAndSet(0);
+                return flushes == 0 ? 0 : (double) messages / flushes;
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return true;
+            }
+        };
+        StatisticsManager.getInstance().addStatistic(batchSizeStatKey, batchSize);
+
+        final Statistic flushLatency = new Statistic() {
+            @Override
+            public String getName() {
+                return LocaleUtils.getLocalizedString("write_coalescing.stats.flush_latency.name");
+            }
+
+            @Override
+            public Type getStatType() {
+                return Type.count;
+            }
+
+            @Override
+            public String getDescription() {
+                return LocaleUtils.getLocalizedString("write_coalescing.stats.flush_latency.description");
+            }
+
+            @Override
+            public String getUnits() {
+                return LocaleUtils.getLocalizedString("write_coalescing.stats.flush_latency.label");
+            }
+
+            @Override
+            public double sample() {
+                // Average time (in milliseconds) that data was held before being written.
+                final long flushes = latencyFlushCounter.getAndSet(0);
+                final long nanos = latencyNanosCounter.getAndSet(0);
+                return flushes == 0 ? 0 : nanos / (double) flushes / 1_000_000d;
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return true;
+            }
+        };
+        StatisticsManager.getInstance().addStatistic(flushLatencyStatKey, flushLatency);
+    }
+
+    /**
+     * A write request that replaces a number of original write requests.
+     */
+    private static class CoalescedWriteRequest extends DefaultWriteRequest {
+        private final List<WriteRequest> originals;
+
+        CoalescedWriteRequest(final IoBuffer message, final WriteFuture future, final List<WriteRequest> originals) {
+            super(message, future);
+            this.originals = originals;
+        }
+    }
+
+    /**
+     * The data that is gathered for one session.
+     */
+    private static class Batch {
+        private final NextFilter nextFilter;
+        private final IoSession session;
+
+        private List<WriteRequest> pending = new ArrayList<>();
+        private int pendingBytes = 0;
+        private long firstPendingNanos;
+
+        /**
+         * The amount of writes that were passed on to the next filter, and that have not completed yet.
+         */
+        private int inProgress = 0;
+
+        Batch(final NextFilter nextFilter, final IoSession session) {
+            this.nextFilter = nextFilter;
+            this.session = session;
+        }
+
+        synchronized void add(final WriteRequest writeRequest) {
+            pending.add(writeRequest);
+            pendingBytes += ((IoBuffer) writeRequest.getMessage()).remaining();
+            if (pending.size() == 1) {
+                firstPendingNanos = System.nanoTime();
+            }
+            if (inProgress == 0
+                || pendingBytes >= MAX_BYTES.getValue()
+                || System.nanoTime() - firstPendingNanos >= MAX_LATENCY.getValue().toNanos())
+            {
+                flush();
+            }
+        }
+
+        synchronized void flush() {
+            if (pending.isEmpty()) {
+                return;
+            }
+            final List<WriteRequest> requests = pending;
+            pending = new ArrayList<>();
+
+            flushCounter.incrementAndGet();
+            messageCounter.addAndGet(requests.size());
+            latencyFlushCounter.incrementAndGet();
+            latencyNanosCounter.addAndGet(System.nanoTime() - firstPendingNanos);
+
+            final IoBuffer buffer;
+            if (requests.size() == 1) {
+                // Nothing to combine.
+                buffer = (IoBuffer) requests.get(0).getMessage();
+            } else {
+                buffer = IoBuffer.allocate(pendingBytes, false);
+                for (final WriteRequest request : requests) {
+                    final IoBuffer data = (IoBuffer) request.getMessage();
+                    buffer.put(data.duplicate());
+                }
+                buffer.flip();
+            }
+            pendingBytes = 0;
+
+            final WriteFuture future = new DefaultWriteFuture(session);
+            future.addListener(new IoFutureListener<WriteFuture>() {
+                @Override
+                public void operationComplete(final WriteFuture result) {
+                    for (final WriteRequest request : requests) {
+                        if (result.isWritten()) {
+                            request.getFuture().setWritten();
+                        } else {
+                            request.getFuture().setException(result.getException());
+                        }
+                    }
+                    writeCompleted();
+                }
+            });
+
+            inProgress++;
+            try {
+                // Writing under this instance's lock guarantees that the order of the written data is maintained.
+                nextFilter.filterWrite(session, new CoalescedWriteRequest(buffer, future, requests));
+            } catch (Exception e) {
+                Log.debug("Unable to write gathered data for session {}", session, e);
+                future.setException(e);
+            }
+        }
+
+        /**
+         * Invoked when a write that was passed on to the next filter has completed (successfully or not). This typically
+         * is invoked by the I/O processor of the session. Data that was gathered in the meantime is written when no other
+         * writes are in progress.
+         */
+        synchronized void writeCompleted() {
+            if (inProgress > 0) {
+                inProgress--;
+            }
+            if (inProgress == 0) {
+                flush();
+            }
+        }
+
+        synchronized int getPendingBytes() {
+            return pendingBytes;
+        }
+
+        synchronized void discard() {
+            for (final WriteRequest request : pending) {
+                request.getFuture().setException(new IllegalStateException("Session closed before data was written."));
+            }
+            pending = new ArrayList<>();
+            pendingBytes = 0;
+        }
+    }
+}
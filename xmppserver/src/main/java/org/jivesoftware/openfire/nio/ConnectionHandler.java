@@ -27,6 +27,7 @@ import org.jivesoftware.openfire.net.ServerTrafficCounter;
 import org.jivesoftware.openfire.net.StanzaHandler;
 import org.jivesoftware.openfire.spi.ConnectionConfiguration;
 import org.jivesoftware.util.JiveGlobals;
+import org.jivesoftware.util.SystemProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.xmlpull.v1.XmlPullParserException;
@@ -49,6 +50,16 @@ public abstract class ConnectionHandler extends IoHandlerAdapter {
     static final String HANDLER = "HANDLER";
     static final String CONNECTION = "CONNECTION";
 
+    /**
+     * Controls if stanza boundaries in inbound data are identified by {@link XMLStreamingFramer} (which scans raw bytes
+     * and decodes only complete stanzas) instead of by {@link XMLLightweightParser}. Changes apply to new connections.
+     */
+    public static final SystemProperty<Boolean> STREAMING_FRAMER_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.parser.streaming-framer.enabled")
+        .setDefaultValue(false)
+        .setDynamic(true)
+        .build();
+
     private static final ThreadLocal<XMPPPacketReader> PARSER_CACHE = new ThreadLocal<XMPPPacketReader>()
             {
                @Override
@@ -86,8 +97,11 @@ public abstract class ConnectionHandler extends IoHandlerAdapter {
     @Override
     public void sessionOpened(IoSession session) throws Exception {
         // Create a new XML parser for the new connection. The parser will be used by the XMPPDecoder filter.
-        final XMLLightweightParser parser = new XMLLightweightParser(StandardCharsets.UTF_8);
-        session.setAttribute(XML_PARSER, parser);
+        if (STREAMING_FRAMER_ENABLED.getValue()) {
+            session.setAttribute(XML_PARSER, new XMLStreamingFramer());
+        } else {
+            session.setAttribute(XML_PARSER, new XMLLightweightParser(StandardCharsets.UTF_8));
+        }
         // Create a new NIOConnection for the new session
         final NIOConnection connection = createNIOConnection(session);
         session.setAttribute(CONNECTION, connection);
@@ -27,6 +27,7 @@ import org.jivesoftware.openfire.PacketDeliverer;
 import org.jivesoftware.openfire.auth.UnauthorizedException;
 import org.jivesoftware.openfire.net.StanzaHandler;
 import org.jivesoftware.openfire.net.StartTlsFilter;
+import org.jivesoftware.openfire.net.WriteCoalescingFilter;
 import org.jivesoftware.openfire.session.LocalSession;
 import org.jivesoftware.openfire.session.Session;
 import org.jivesoftware.openfire.spi.ConnectionConfiguration;
@@ -43,8 +44,6 @@ import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
 import java.net.UnknownHostException;
-import java.nio.charset.CharsetEncoder;
-import java.nio.charset.CodingErrorAction;
 import java.nio.charset.StandardCharsets;
 import java.security.cert.Certificate;
 import java.util.HashMap;
@@ -94,7 +93,6 @@ public class NIOConnection implements Connection {
      * Compression policy currently in use for this connection.
      */
     private CompressionPolicy compressionPolicy = CompressionPolicy.disabled;
-    private static final ThreadLocal<CharsetEncoder> encoder = new ThreadLocalEncoder();
 
     /**
      * Flag that specifies if the connection should be considered closed. Closing a NIO connection
@@ -303,6 +301,11 @@ public class NIOConnection implements Connection {
         return state.get() == State.CLOSED;
     }
 
+    @Override
+    public long getPendingWriteBytes() {
+        return ioSession.getScheduledWriteBytes() + WriteCoalescingFilter.getPendingBytes(ioSession);
+    }
+
     @Override
     public boolean isSecure() {
         return ioSession.getFilterChain().contains(TLS_FILTER_NAME);
@@ -319,11 +322,9 @@ public class NIOConnection implements Connection {
         }
         else {
             boolean errorDelivering = false;
-            IoBuffer buffer = IoBuffer.allocate(4096);
-            buffer.setAutoExpand(true);
             try {
-                buffer.putString(packet.getElement().asXML(), encoder.get());
-                buffer.flip();
+                // Serialization is done outside of the lock. The cache reuses data of stanzas that are broadcast.
+                final IoBuffer buffer = StanzaSerializationCache.serialize(packet);
 
                 ioSessionLock.lock();
                 try {
@@ -361,16 +362,13 @@ public class NIOConnection implements Connection {
 
     private void deliverRawText0(String text){
         boolean errorDelivering = false;
-        IoBuffer buffer = IoBuffer.allocate(text.length());
-        buffer.setAutoExpand(true);
         try {
-            //Charset charset = Charset.forName(CHARSET);
-            //buffer.putString(text, charset.newEncoder());
-            buffer.put(text.getBytes(StandardCharsets.UTF_8));
-            buffer.flip();
+            final IoBuffer buffer = IoBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
             ioSessionLock.lock();
             try {
                 ioSession.write(buffer);
+                // Raw text is typically used for stream negotiation. Don't let it be held back by write coalescing.
+                WriteCoalescingFilter.flush(ioSession);
             }
             finally {
                 ioSessionLock.unlock();
@@ -388,6 +386,8 @@ public class NIOConnection implements Connection {
     }
 
     public void startTLS(boolean clientMode, boolean directTLS) throws Exception {
+        // Pending data was meant to be sent before TLS is negotiated.
+        WriteCoalescingFilter.flush(ioSession);
 
         final EncryptionArtifactFactory factory = new EncryptionArtifactFactory( configuration );
         final SslFilter filter;
@@ -426,6 +426,7 @@ public class NIOConnection implements Connection {
 
     @Override
     public void startCompression() {
+        WriteCoalescingFilter.flush(ioSession);
         CompressionFilter ioFilter = (CompressionFilter) ioSession.getFilterChain().get(COMPRESSION_FILTER_NAME);
         ioFilter.setCompressOutbound(true);
     }
@@ -481,14 +482,4 @@ public class NIOConnection implements Connection {
     public String toString() {
         return super.toString() + " MINA Session: " + ioSession;
     }
-
-    private static class ThreadLocalEncoder extends ThreadLocal<CharsetEncoder> {
-
-        @Override
-        protected CharsetEncoder initialValue() {
-            return StandardCharsets.UTF_8.newEncoder()
-                .onMalformedInput(CodingErrorAction.REPORT)
-                .onUnmappableCharacter(CodingErrorAction.REPORT);
-        }
-    }
 }
@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.dom4j.Attribute;
+import org.dom4j.CharacterData;
+import org.dom4j.Element;
+import org.dom4j.Node;
+import org.jivesoftware.util.SystemProperty;
+import org.xmpp.packet.Packet;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Serializes stanzas into buffers that can be written to a MINA session.
+ *
+ * When a stanza is broadcast (eg: in a MUC room, or by pubsub), the same {@link Packet} instance typically is delivered
+ * to many recipients in a row, by the same thread, only having its 'to' address changed in between deliveries. This
+ * class recognizes that pattern. When a stanza is delivered for the second time, its serialized form is split around
+ * the value of the 'to' attribute and retained (in encoded form). Subsequent deliveries of that stanza only need to
+ * encode the new 'to' address.
+ *
+ * To guard against other modifications of the stanza in between deliveries (eg: by packet interceptors), a snapshot
+ * of the identity of all nodes, names and values of the stanza is recorded. The cached data is used only if this
+ * snapshot is still valid, which can be verified much cheaper than the stanza can be serialized.
+ *
+ * Cached data is kept per thread, and only for the last stanza that was delivered by that thread.
+ */
+final class StanzaSerializationCache {
+
+    /**
+     * Controls if the serialized form of a stanza is re-used when that stanza is delivered to multiple recipients.
+     */
+    public static final SystemProperty<Boolean> ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.nio.serialization-cache.enabled")
+        .setDefaultValue(true)
+        .setDynamic(true)
+        .build();
+
+    private static final ThreadLocal<StanzaSerializationCache> CACHE = ThreadLocal.withInitial(StanzaSerializationCache::new);
+
+    private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+        .onMalformedInput(CodingErrorAction.REPORT)
+        .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+    /**
+     * The stanza that was last serialized by this thread.
+     */
+    private Element element;
+
+    /**
+     * Encoded form of the last serialized stanza, up to and including the opening quote of its 'to' attribute value,
+     * or null if the stanza has been seen only once, or could not be cached.
+     */
+    private byte[] head;
+
+    /**
+     * Encoded form of the last serialized stanza, starting at the closing quote of its 'to' attribute value.
+     */
+    private byte[] tail;
+
+    /**
+     * References to all nodes, names and values of the last serialized stanza, as they were when it was serialized.
+     */
+    private final List<Object> snapshot = new ArrayList<>();
+
+    private StanzaSerializationCache() {
+    }
+
+    /**
+     * Serializes a stanza into a buffer that is ready to be written.
+     *
+     * @param packet The stanza to serialize.
+     * @return A flipped buffer that contains the UTF-8 encoded stanza.
+     * @throws CharacterCodingException when the stanza contains data that cannot be encoded.
+     */
+    static IoBuffer serialize(final Packet packet) throws CharacterCodingException {
+        if (!ENABLED.getValue()) {
+            return IoBuffer.wrap(CACHE.get().encode(packet.getElement().asXML()));
+        }
+        return CACHE.get().serialize(packet.getElement());
+    }
+
+    private IoBuffer serialize(final Element stanza) throws CharacterCodingException {
+        final String to = stanza.attributeValue("to");
+        if (stanza == element && to != null && isSafeAttributeValue(to)) {
+            if (head != null && isSnapshotValid(stanza)) {
+                // Reuse the cached data. Only the new address needs to be encoded.
+                final ByteBuffer address = encode(to);
+                final IoBuffer buffer = IoBuffer.allocate(head.length + address.remaining() + tail.length, false);
+                buffer.put(head);
+                buffer.put(address);
+                buffer.put(tail);
+                return buffer.flip();
+            }
+            if (head == null) {
+                // Second time that this stanza is delivered. Chances are that it is going to be delivered more often.
+                final String xml = stanza.asXML();
+                final String needle = " to=\"" + to + "\"";
+                final int index = xml.indexOf(needle);
+                if (index != -1 && index < xml.indexOf('>')) {
+                    final int valueStart = index + needle.length() - to.length() - 1;
+                    final int valueEnd = valueStart + to.length();
+                    head = toArray(encode(xml.substring(0, valueStart)));
+                    tail = toArray(encode(xml.substring(valueEnd)));
+                    snapshot.clear();
+                    record(stanza);
+                }
+                return IoBuffer.wrap(encode(xml));
+            }
+        }
+
+        // A stanza that was not seen before (or that was modified). Do not cache it yet.
+        element = stanza;
+        head = null;
+        tail = null;
+        snapshot.clear();
+        return IoBuffer.wrap(encode(stanza.asXML()));
+    }
+
+    /**
+     * Verifies that the value can be used in an attribute without it being escaped.
+     */
+    private static boolean isSafeAttributeValue(final String value) {
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c < 0x20 || c == '<' || c == '>' || c == '&' || c == '"' || c == '\'') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the identity of all nodes, names and values of an element (but not the value of the 'to' attribute of
+     * the root element).
+     */
+    private void record(final Element e) {
+        snapshot.add(e);
+        snapshot.add(e.getQName());
+        for (int i = 0; i < e.attributeCount(); i++) {
+            final Attribute attribute = e.attribute(i);
+            snapshot.add(attribute);
+            snapshot.add(e == element && isToAttribute(attribute) ? null : attribute.getValue());
+        }
+        snapshot.add(e.nodeCount());
+        for (int i = 0; i < e.nodeCount(); i++) {
+            final Node node = e.node(i);
+            if (node instanceof Element) {
+                record((Element) node);
+            } else {
+                snapshot.add(node);
+                if (node instanceof CharacterData) {
+                    snapshot.add(node.getText());
+                }
+            }
+        }
+    }
+
+    private boolean isSnapshotValid(final Element stanza) {
+        return verify(stanza, 0) == snapshot.size();
+    }
+
+    /**
+     * Compares an element with the recorded snapshot, starting at the provided index.
+     *
+     * @return the index of the first snapshot entry beyond the element, or -1 if the element does not match.
+     */
+    private int verify(final Element e, int index) {
+        if (index + 2 > snapshot.size() || snapshot.get(index++) != e || snapshot.get(index++) != e.getQName()) {
+            return -1;
+        }
+        for (int i = 0; i < e.attributeCount(); i++) {
+            final Attribute attribute = e.attribute(i);
+            if (index + 2 > snapshot.size() || snapshot.get(index++) != attribute) {
+                return -1;
+            }
+            final Object value = snapshot.get(index++);
+            if (!(e == element && isToAttribute(attribute)) && value != attribute.getValue()) {
+                return -1;
+            }
+        }
+        final int nodeCount = e.nodeCount();
+        if (index + 1 > snapshot.size() || !Integer.valueOf(nodeCount).equals(snapshot.get(index++))) {
+            return -1;
+        }
+        for (int i = 0; i < nodeCount; i++) {
+            final Node node = e.node(i);
+            if (node instanceof Element) {
+                index = verify((Element) node, index);
+                if (index == -1) {
+                    return -1;
+                }
+            } else {
+                if (index + 1 > snapshot.size() || snapshot.get(index++) != node) {
+                    return -1;
+                }
+                if (node instanceof CharacterData && (index + 1 > snapshot.size() || snapshot.get(index++) != node.getText())) {
+                    return -1;
+                }
+            }
+        }
+        return index;
+    }
+
+    private static boolean isToAttribute(final Attribute attribute) {
+        return "to".equals(attribute.getName()) && attribute.getNamespaceURI().isEmpty();
+    }
+
+    private ByteBuffer encode(final String text) throws CharacterCodingException {
+        encoder.reset();
+        return encoder.encode(CharBuffer.wrap(text));
+    }
+
+    private static byte[] toArray(final ByteBuffer buffer) {
+        final byte[] result = new byte[buffer.remaining()];
+        buffer.get(result);
+        return result;
+    }
+}
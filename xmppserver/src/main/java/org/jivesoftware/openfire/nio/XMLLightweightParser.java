@@ -110,6 +110,15 @@ class XMLLightweightParser {
         PropertyEventDispatcher.addListener(new PropertyListener());
     }
 
+    /**
+     * Returns the maximum amount of data that can be buffered for a stanza that is not yet complete.
+     *
+     * @return the maximum buffer size.
+     */
+    static int getMaxBufferSize() {
+        return maxBufferSize;
+    }
+
     public XMLLightweightParser(Charset charset) {
         encoder = charset.newDecoder()
             .onMalformedInput(CodingErrorAction.REPLACE)
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.filter.codec.ProtocolDecoderException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An alternative to {@link XMLLightweightParser} that identifies stanza boundaries by scanning the raw (UTF-8 encoded)
+ * bytes of a connection, rather than first decoding all received data into characters.
+ *
+ * Only the bytes of a stanza that is known to be complete are decoded. Bytes that belong to a stanza that is still
+ * incomplete are left in the provided buffer (where MINA's {@link org.apache.mina.filter.codec.CumulativeProtocolDecoder}
+ * will retain them), while the scanner state is kept, so that on the next invocation, scanning resumes where it left
+ * off instead of re-scanning data that was already processed.
+ *
+ * In UTF-8, every byte of a multibyte sequence has its high bit set. This allows all XML markup that is relevant for
+ * framing (which is always ASCII) to be detected without decoding.
+ *
+ * Instances of this class are not thread-safe. A new instance is expected to be used for each connection.
+ */
+class XMLStreamingFramer {
+
+    private static final byte[] STREAM_NAME = "stream:stream".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] CDATA_START = "[CDATA[".getBytes(StandardCharsets.US_ASCII);
+    private static final String STREAM_END = "</stream:stream>";
+
+    // Text content (or whitespace in between stanzas).
+    private static final int OUTSIDE = 0;
+    // A '<' was found.
+    private static final int TAG_OPEN = 1;
+    // Reading the name of a start-tag.
+    private static final int START_TAG_NAME = 2;
+    // Inside a start-tag, after its name.
+    private static final int START_TAG = 3;
+    // Inside a double-quoted attribute value.
+    private static final int ATTR_DOUBLE_QUOTED = 4;
+    // Inside a single-quoted attribute value.
+    private static final int ATTR_SINGLE_QUOTED = 5;
+    // Inside an end-tag.
+    private static final int END_TAG = 6;
+    // A '<!' was found.
+    private static final int BANG = 7;
+    // Inside a comment.
+    private static final int COMMENT = 8;
+    // Inside a CDATA section.
+    private static final int CDATA = 9;
+    // Inside a processing instruction (eg: an XML declaration).
+    private static final int PROCESSING_INSTRUCTION = 10;
+    // Inside a declaration other than a comment or CDATA section (eg: DOCTYPE).
+    private static final int DECLARATION = 11;
+
+    private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+        .onMalformedInput(CodingErrorAction.REPLACE)
+        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+    // Reused for every decoded stanza. Grows to fit the largest stanza received on this connection.
+    private CharBuffer charBuffer = CharBuffer.allocate(1024);
+
+    // List with all finished messages found.
+    private final List<String> msgs = new ArrayList<>();
+
+    // Number of bytes (relative to the position of the buffer) that have already been scanned.
+    private int scanned = 0;
+
+    private int status = OUTSIDE;
+
+    // Element depth within the current stanza. Zero when in between stanzas.
+    private int depth = 0;
+
+    // Generic counter used while matching multi-byte markers ('-->', ']]>', '?>', '[CDATA[', etc).
+    private int markerCount = 0;
+
+    // Length of the name of the current tag, and whether that (so far) equals 'stream:stream'.
+    private int nameLength = 0;
+    private boolean isStreamName = false;
+
+    // Whether the last byte in the current start-tag was a '/'.
+    private boolean lastWasSlash = false;
+
+    // Set after a decoding error, to prevent duplicate exceptions.
+    private boolean failed = false;
+
+    /*
+    * true if the framer has found some complete xml message.
+    */
+    public boolean areThereMsgs() {
+        return !msgs.isEmpty();
+    }
+
+    /*
+    * @return an array with all messages found
+    */
+    public String[] getMsgs() {
+        final String[] res = msgs.toArray(new String[0]);
+        msgs.clear();
+        return res;
+    }
+
+    /**
+     * Scans the remaining bytes of the provided buffer for complete stanzas. The position of the buffer is moved to
+     * the end of the last complete stanza that was found. Bytes beyond that position are part of an incomplete
+     * stanza, and are expected to be provided again (possibly with additional data appended) on the next invocation.
+     *
+     * @param byteBuffer The data received on the connection.
+     * @throws Exception when the data is not well-formed, or exceeds the maximum allowed stanza size.
+     */
+    public void read(IoBuffer byteBuffer) throws Exception {
+        if (failed) {
+            // exception was thrown before, avoid duplicate exception(s)
+            // "read" and discard remaining data
+            byteBuffer.position(byteBuffer.limit());
+            return;
+        }
+
+        final ByteBuffer buf = byteBuffer.buf();
+        int stanzaStart = buf.position();
+        final int limit = buf.limit();
+
+        for (int i = stanzaStart + scanned; i < limit; i++) {
+            final byte b = buf.get(i);
+            if (b >= 0 && b < 0x20 && b != 0x9 && b != 0xA && b != 0xD) {
+                // Unicode characters in the range 0x0000-0x001F other than 9, A, and D are not allowed in XML
+                failed = true;
+                throw new XMLNotWellFormedException("Character is invalid in: " + b);
+            }
+
+            switch (status) {
+                case OUTSIDE:
+                    if (b == '<') {
+                        status = TAG_OPEN;
+                    } else if (depth == 0) {
+                        // Skip whitespace (and other characters that are not part of a stanza).
+                        stanzaStart = i + 1;
+                    }
+                    break;
+
+                case TAG_OPEN:
+                    if (b == '/') {
+                        status = END_TAG;
+                        nameLength = 0;
+                        isStreamName = depth == 0;
+                    } else if (b == '!') {
+                        status = BANG;
+                        markerCount = 0;
+                    } else if (b == '?') {
+                        status = PROCESSING_INSTRUCTION;
+                        markerCount = 0;
+                    } else {
+                        status = START_TAG_NAME;
+                        nameLength = 0;
+                        isStreamName = depth == 0;
+                        lastWasSlash = false;
+                        matchName(b);
+                    }
+                    break;
+
+                case START_TAG_NAME:
+                    if (b == '>') {
+                        stanzaStart = endOfStartTag(buf, stanzaStart, i);
+                    } else if (b == '/') {
+                        status = START_TAG;
+                        lastWasSlash = true;
+                    } else if (isWhitespace(b)) {
+                        status = START_TAG;
+                    } else {
+                        matchName(b);
+                    }
+                    break;
+
+                case START_TAG:
+                    if (b == '>') {
+                        stanzaStart = endOfStartTag(buf, stanzaStart, i);
+                    } else if (b == '"') {
+                        status = ATTR_DOUBLE_QUOTED;
+                        lastWasSlash = false;
+                    } else if (b == '\'') {
+                        status = ATTR_SINGLE_QUOTED;
+                        lastWasSlash = false;
+                    } else {
+                        lastWasSlash = b == '/';
+                    }
+                    break;
+
+                case ATTR_DOUBLE_QUOTED:
+                    if (b == '"') {
+                        status = START_TAG;
+                    }
+                    break;
+
+                case ATTR_SINGLE_QUOTED:
+                    if (b == '\'') {
+                        status = START_TAG;
+                    }
+                    break;
+
+                case END_TAG:
+                    if (b == '>') {
+                        status = OUTSIDE;
+                        if (depth == 0) {
+                            // An end-tag without a matching start-tag in this stream: this closes the stream.
+                            if (isStreamName && nameLength == STREAM_NAME.length) {
+                                msgs.add(STREAM_END);
+                            } else {
+                                foundMsg(buf, stanzaStart, i + 1);
+                            }
+                            stanzaStart = i + 1;
+                        } else if (--depth == 0) {
+                            foundMsg(buf, stanzaStart, i + 1);
+                            stanzaStart = i + 1;
+                        }
+                    } else if (!isWhitespace(b)) {
+                        matchName(b);
+                    }
+                    break;
+
+                case BANG:
+                    if (markerCount == 0 && b == '-') {
+                        status = COMMENT;
+                    } else if (b == CDATA_START[markerCount]) {
+                        markerCount++;
+                        if (markerCount == CDATA_START.length) {
+                            status = CDATA;
+                            markerCount = 0;
+                        }
+                    } else {
+                        status = b == '>' ? OUTSIDE : DECLARATION;
+                        markerCount = 0;
+                    }
+                    break;
+
+                case COMMENT:
+                    // The opening '<!-' has been read. Skip the second dash, then look for '-->'.
+                    if (b == '-') {
+                        markerCount++;
+                    } else if (b == '>' && markerCount >= 3) {
+                        status = OUTSIDE;
+                        markerCount = 0;
+                    } else if (markerCount > 1) {
+                        // The first dash after '<!-' belongs to the opening '<!--'.
+                        markerCount = 1;
+                    }
+                    break;
+
+                case CDATA:
+                    if (b == ']') {
+                        markerCount++;
+                    } else if (b == '>' && markerCount >= 2) {
+                        status = OUTSIDE;
+                        markerCount = 0;
+                    } else {
+                        markerCount = 0;
+                    }
+                    break;
+
+                case PROCESSING_INSTRUCTION:
+                    if (b == '?') {
+                        markerCount = 1;
+                    } else if (b == '>' && markerCount == 1) {
+                        status = OUTSIDE;
+                        markerCount = 0;
+                        if (depth == 0) {
+                            // Found an XML declaration (eg: <?xml version='1.0'?>)
+                            foundMsg(buf, stanzaStart, i + 1);
+                            stanzaStart = i + 1;
+                        }
+                    } else {
+                        markerCount = 0;
+                    }
+                    break;
+
+                case DECLARATION:
+                    if (b == '>') {
+                        status = OUTSIDE;
+                    }
+                    break;
+
+                default:
+                    throw new IllegalStateException("Unknown status: " + status);
+            }
+        }
+
+        // Consume all complete stanzas, leave the remainder in the buffer.
+        buf.position(stanzaStart);
+        scanned = limit - stanzaStart;
+
+        // Check that the buffer is not bigger than 1 Megabyte. For security reasons
+        // we will abort parsing when 1 Mega of queued bytes was found.
+        if (scanned > XMLLightweightParser.getMaxBufferSize()) {
+            failed = true;
+            // processing the exception takes quite long
+            final ProtocolDecoderException ex = new ProtocolDecoderException("Stopped parsing never ending stanza");
+            ex.setHexdump("(redacted hex dump of never ending stanza)");
+            throw ex;
+        }
+    }
+
+    /**
+     * Processes the '>' character that ends a start-tag.
+     *
+     * @return the position in the buffer where the next stanza starts.
+     */
+    private int endOfStartTag(ByteBuffer buf, int stanzaStart, int i) throws XMLNotWellFormedException {
+        status = OUTSIDE;
+        if (lastWasSlash) {
+            // Found a tag in the form <tag />
+            if (depth == 0) {
+                foundMsg(buf, stanzaStart, i + 1);
+                return i + 1;
+            }
+        } else if (depth == 0 && isStreamName && nameLength == STREAM_NAME.length) {
+            // Found the opening stream:stream element. Its children are the stanzas.
+            foundMsg(buf, stanzaStart, i + 1);
+            return i + 1;
+        } else {
+            depth++;
+        }
+        return stanzaStart;
+    }
+
+    private void matchName(byte b) {
+        if (isStreamName) {
+            isStreamName = nameLength < STREAM_NAME.length && STREAM_NAME[nameLength] == b;
+        }
+        nameLength++;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    /*
+    * Decodes the bytes of a complete message, and adds it to the list.
+    */
+    private void foundMsg(ByteBuffer buf, int start, int end) throws XMLNotWellFormedException {
+        final int length = end - start;
+        if (charBuffer.capacity() < length) {
+            // UTF-8 never decodes into more chars than there are bytes.
+            charBuffer = CharBuffer.allocate(length);
+        }
+        charBuffer.clear();
+
+        final ByteBuffer in = buf.duplicate();
+        in.limit(end).position(start);
+        decoder.reset();
+        CoderResult result = decoder.decode(in, charBuffer, true);
+        if (!result.isError()) {
+            result = decoder.flush(charBuffer);
+        }
+        if (result.isError()) {
+            failed = true;
+            throw new XMLNotWellFormedException("Unable to decode stanza: " + result);
+        }
+
+        final String msg = new String(charBuffer.array(), 0, charBuffer.position());
+        if (XMLLightweightParser.hasIllegalCharacterReferences(msg)) {
+            failed = true;
+            throw new XMLNotWellFormedException("Illegal character reference found in: " + msg);
+        }
+        msgs.add(msg);
+    }
+}
@@ -33,7 +33,20 @@ public class XMPPDecoder extends CumulativeProtocolDecoder {
     protected boolean doDecode(IoSession session, IoBuffer in, ProtocolDecoderOutput out)
             throws Exception {
         // Get the XML light parser from the IoSession
-        XMLLightweightParser parser = (XMLLightweightParser) session.getAttribute(ConnectionHandler.XML_PARSER);
+        final Object attribute = session.getAttribute(ConnectionHandler.XML_PARSER);
+        if (attribute instanceof XMLStreamingFramer) {
+            final XMLStreamingFramer framer = (XMLStreamingFramer) attribute;
+            // Consumes complete stanzas only. Remaining (incomplete) data is kept by the cumulative decoder.
+            framer.read(in);
+            if (framer.areThereMsgs()) {
+                for (String stanza : framer.getMsgs()) {
+                    out.write(stanza);
+                }
+            }
+            return false;
+        }
+
+        XMLLightweightParser parser = (XMLLightweightParser) attribute;
         // Parse as many stanzas as possible from the received data
         parser.read(in);
 
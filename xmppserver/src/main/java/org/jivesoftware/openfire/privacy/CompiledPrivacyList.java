@@ -0,0 +1,334 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.privacy;
+
+import org.jivesoftware.openfire.roster.Roster;
+import org.jivesoftware.openfire.roster.RosterItem;
+import org.jivesoftware.openfire.user.UserNotFoundException;
+import org.jivesoftware.util.SystemProperty;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Supplier;
+
+/**
+ * The items of a {@link PrivacyList}, compiled into lookup tables that allow the verdict for a packet to be determined
+ * without evaluating each item in turn.
+ *
+ * The behavior of a privacy item depends on the category of the packet (message, IQ, inbound or outbound presence,
+ * etc) and on whether the packet is sent to or by the owner of the list. For each combination, a table is compiled that
+ * holds the items that apply to it, indexed by the value that they match: full JID, bare JID, domain, roster group or
+ * subscription state. When more than one item matches, the item with the lowest order wins, as defined by XEP-0016.
+ *
+ * Verdicts are cached per table and peer JID. Verdicts that depend on the roster of the owner of the list are discarded
+ * when that roster is modified. In a cluster, the node that modifies the roster has the other nodes discard these
+ * verdicts too (see {@link InvalidatePrivacyVerdictsTask}). Until that task has run on a node, that node can apply a
+ * verdict that is based on the previous state of the roster.
+ */
+class CompiledPrivacyList
+{
+    /**
+     * The maximum number of verdicts that are cached per packet category, per privacy list.
+     */
+    public static final SystemProperty<Integer> VERDICT_CACHE_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.privacy.verdict-cache.size")
+        .setDefaultValue(100)
+        .setMinValue(0)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * Rank of a table entry that does not match.
+     */
+    private static final int NO_MATCH = Integer.MAX_VALUE;
+
+    /**
+     * Generation counters that are incremented when a roster changes, striped by the username of the roster owner.
+     */
+    private static final AtomicLongArray rosterGenerations = new AtomicLongArray(64);
+
+    /**
+     * Categories of packets that privacy items distinguish between.
+     */
+    enum Category
+    {
+        MESSAGE,
+        IQ,
+        /** Available or unavailable presence addressed to the owner of the list. */
+        PRESENCE_IN,
+        /** Available or unavailable presence not addressed to the owner of the list. */
+        PRESENCE_OUT,
+        /** Presence of any other type, such as subscription-related presence. */
+        PRESENCE_OTHER,
+        /** Any other packet type. */
+        OTHER;
+
+        boolean isPresence()
+        {
+            return this == PRESENCE_IN || this == PRESENCE_OUT || this == PRESENCE_OTHER;
+        }
+    }
+
+    private final JID owner;
+    private final List<PrivacyItem> items;
+    private final Table[] tables = new Table[Category.values().length * 2];
+
+    /**
+     * Compiles the provided items.
+     *
+     * @param owner The owner of the privacy list.
+     * @param items The items of the privacy list, sorted by their order.
+     */
+    CompiledPrivacyList(final JID owner, final List<PrivacyItem> items)
+    {
+        this.owner = owner;
+        this.items = items;
+        for (final Category category : Category.values()) {
+            tables[index(category, true)] = new Table(category, true);
+            tables[index(category, false)] = new Table(category, false);
+        }
+    }
+
+    /**
+     * Signals that the roster of a user has changed, which invalidates the cached verdicts of that user that depend on
+     * the roster.
+     *
+     * @param username the username of the roster owner.
+     */
+    static void rosterChanged(final String username)
+    {
+        rosterGenerations.incrementAndGet(stripe(username));
+    }
+
+    private static int stripe(final String username)
+    {
+        return username == null ? 0 : (username.hashCode() & 0x7fffffff) % rosterGenerations.length();
+    }
+
+    private static int index(final Category category, final boolean incoming)
+    {
+        return category.ordinal() * 2 + (incoming ? 1 : 0);
+    }
+
+    /**
+     * Determines the category of a packet, as seen from the owner of a privacy list.
+     *
+     * @param packet The packet.
+     * @param owner The owner of the privacy list.
+     * @return the category of the packet.
+     */
+    static Category categorize(final Packet packet, final JID owner)
+    {
+        final Class<? extends Packet> packetClass = packet.getClass();
+        if (Message.class.equals(packetClass)) {
+            return Category.MESSAGE;
+        }
+        if (IQ.class.equals(packetClass)) {
+            return Category.IQ;
+        }
+        if (Presence.class.equals(packetClass)) {
+            final Presence.Type type = ((Presence) packet).getType();
+            if (type != null && type != Presence.Type.unavailable) {
+                return Category.PRESENCE_OTHER;
+            }
+            final JID to = packet.getTo();
+            return to != null && to.toBareJID().equals(owner.toBareJID()) ? Category.PRESENCE_IN : Category.PRESENCE_OUT;
+        }
+        return Category.OTHER;
+    }
+
+    /**
+     * Returns the item that decides what happens with a packet, or null when no item applies to the packet.
+     *
+     * @param packet The packet, which must have a sender.
+     * @param roster Supplies the roster of the owner of the list (can supply null if the roster is not available).
+     * @return the item that applies, or null.
+     */
+    PrivacyItem evaluate(final Packet packet, final Supplier<Roster> roster)
+    {
+        if (items.isEmpty()) {
+            return null;
+        }
+        final Category category = categorize(packet, owner);
+        final boolean incoming = !owner.toBareJID().equals(packet.getFrom().toBareJID());
+        final Table table = tables[index(category, incoming)];
+        final JID peer = incoming ? packet.getFrom() : category.isPresence() ? packet.getTo() : null;
+        final int rank = table.rank(peer, roster);
+        return rank == NO_MATCH ? null : items.get(rank);
+    }
+
+    /**
+     * Returns true if an item applies to packets of a category, in the provided direction.
+     */
+    private static boolean appliesTo(final PrivacyItem item, final Category category, final boolean incoming)
+    {
+        final boolean typeMatches;
+        switch (category) {
+            case MESSAGE: typeMatches = item.isFilterEverything() || item.isFilterMessage(); break;
+            case IQ: typeMatches = item.isFilterEverything() || item.isFilterIQ(); break;
+            case PRESENCE_IN: typeMatches = item.isFilterEverything() || item.isFilterPresenceIn(); break;
+            case PRESENCE_OUT: typeMatches = item.isFilterEverything() || item.isFilterPresenceOut(); break;
+            default: typeMatches = item.isFilterEverything(); break;
+        }
+        if (!typeMatches) {
+            return false;
+        }
+        if (item.getType() == null || incoming) {
+            // Fall-through items apply to everything, while items of incoming packets are verified against the sender.
+            return true;
+        }
+        // Items of outgoing packets are verified against the recipient, but only for presences.
+        return category.isPresence() && (item.isFilterEverything() || item.isFilterPresenceOut());
+    }
+
+    /**
+     * The items that apply to one packet category and direction, indexed by the value that they match. Each value is
+     * mapped to the lowest index (in the sorted list of items) of the items that match it.
+     */
+    private final class Table
+    {
+        private int fallThrough = NO_MATCH;
+        private final Map<JID, Integer> fullJIDs = new HashMap<>();
+        private final Map<String, Integer> bareJIDs = new HashMap<>();
+        private final Map<String, Integer> domains = new HashMap<>();
+        private final Map<String, Integer> groups = new HashMap<>();
+        private final Map<RosterItem.SubType, Integer> subscriptions = new EnumMap<>(RosterItem.SubType.class);
+
+        /**
+         * The lowest index of an item that requires the roster, which allows roster lookups to be skipped when a
+         * better match was found without it.
+         */
+        private int lowestRosterRank = NO_MATCH;
+
+        private final Map<JID, Verdict> verdicts = new LinkedHashMap<JID, Verdict>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<JID, Verdict> eldest) {
+                return size() > VERDICT_CACHE_SIZE.getValue();
+            }
+        };
+
+        Table(final Category category, final boolean incoming)
+        {
+            for (int rank = items.size() - 1; rank >= 0; rank--) {
+                final PrivacyItem item = items.get(rank);
+                if (!appliesTo(item, category, incoming)) {
+                    continue;
+                }
+                final PrivacyItem.Type type = item.getType();
+                if (type == null) {
+                    fallThrough = rank;
+                } else if (type == PrivacyItem.Type.jid) {
+                    final JID jid = item.getJID();
+                    if (jid.getResource() != null) {
+                        fullJIDs.put(jid, rank);
+                    } else if (jid.getNode() != null) {
+                        bareJIDs.put(jid.toBareJID(), rank);
+                    } else {
+                        domains.put(jid.getDomain(), rank);
+                    }
+                } else if (type == PrivacyItem.Type.group) {
+                    groups.put(item.getGroup(), rank);
+                    lowestRosterRank = rank;
+                } else {
+                    subscriptions.put(item.getSubscription(), rank);
+                    lowestRosterRank = rank;
+                }
+            }
+        }
+
+        /**
+         * Returns the index of the item that applies to a peer, or {@link #NO_MATCH}.
+         */
+        int rank(final JID peer, final Supplier<Roster> rosterSupplier)
+        {
+            if (peer == null) {
+                return fallThrough;
+            }
+
+            final int cacheSize = VERDICT_CACHE_SIZE.getValue();
+            final long generation = rosterGenerations.get(stripe(owner.getNode()));
+            if (cacheSize > 0) {
+                final Verdict cached;
+                synchronized (verdicts) {
+                    cached = verdicts.get(peer);
+                }
+                if (cached != null && (!cached.rosterDependent || cached.generation == generation)) {
+                    return cached.rank;
+                }
+            }
+
+            int rank = fallThrough;
+            rank = Math.min(rank, fullJIDs.getOrDefault(peer, NO_MATCH));
+            if (!bareJIDs.isEmpty()) {
+                rank = Math.min(rank, bareJIDs.getOrDefault(peer.toBareJID(), NO_MATCH));
+            }
+            rank = Math.min(rank, domains.getOrDefault(peer.getDomain(), NO_MATCH));
+
+            final boolean rosterDependent = lowestRosterRank < rank;
+            if (rosterDependent) {
+                RosterItem rosterItem = null;
+                final Roster roster = rosterSupplier.get();
+                if (roster != null) {
+                    try {
+                        rosterItem = roster.getRosterItem(peer);
+                    } catch (UserNotFoundException e) {
+                        // Peer is not in the roster of the owner.
+                    }
+                }
+                final RosterItem.SubType subscription = rosterItem == null ? RosterItem.SUB_NONE : rosterItem.getSubStatus();
+                rank = Math.min(rank, subscriptions.getOrDefault(subscription, NO_MATCH));
+                if (rosterItem != null && !groups.isEmpty()) {
+                    for (final String group : rosterItem.getGroups()) {
+                        rank = Math.min(rank, groups.getOrDefault(group, NO_MATCH));
+                    }
+                }
+            }
+
+            if (cacheSize > 0) {
+                synchronized (verdicts) {
+                    verdicts.put(peer, new Verdict(rank, rosterDependent, generation));
+                }
+            }
+            return rank;
+        }
+    }
+
+    /**
+     * A cached outcome of the evaluation of a table for a peer.
+     */
+    private static final class Verdict
+    {
+        final int rank;
+        final boolean rosterDependent;
+        final long generation;
+
+        Verdict(final int rank, final boolean rosterDependent, final long generation)
+        {
+            this.rank = rank;
+            this.rosterDependent = rosterDependent;
+            this.generation = generation;
+        }
+    }
+}
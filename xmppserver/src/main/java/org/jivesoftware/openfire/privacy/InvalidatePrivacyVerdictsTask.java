@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.privacy;
+
+import org.jivesoftware.util.cache.ClusterTask;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Task that is executed on other cluster nodes after the roster of a user was modified, to have them discard the cached
+ * privacy list verdicts of that user that depend on the roster. Roster events are only dispatched on the cluster node
+ * where the modification occurred.
+ */
+public class InvalidatePrivacyVerdictsTask implements ClusterTask<Void>
+{
+    private String username;
+
+    /**
+     * Constructor added for Externalizable. Do not use this constructor.
+     */
+    public InvalidatePrivacyVerdictsTask()
+    {
+    }
+
+    /**
+     * Instantiates a task for the roster of a specific user.
+     *
+     * @param username the username of the roster owner.
+     */
+    public InvalidatePrivacyVerdictsTask(@Nonnull final String username)
+    {
+        this.username = username;
+    }
+
+    @Override
+    public void run()
+    {
+        CompiledPrivacyList.rosterChanged(username);
+    }
+
+    @Override
+    public Void getResult()
+    {
+        return null;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+        ExternalizableUtil.getInstance().writeSafeUTF(out, username);
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        username = ExternalizableUtil.getInstance().readSafeUTF(in);
+    }
+}
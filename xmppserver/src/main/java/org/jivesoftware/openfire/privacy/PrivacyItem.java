@@ -171,6 +171,26 @@ public class PrivacyItem implements Cacheable, Comparable<PrivacyItem> {
         return this.subscriptionValue;
     }
 
+    boolean isFilterEverything() {
+        return filterEverything;
+    }
+
+    boolean isFilterIQ() {
+        return filterIQ;
+    }
+
+    boolean isFilterMessage() {
+        return filterMessage;
+    }
+
+    boolean isFilterPresenceIn() {
+        return filterPresence_in;
+    }
+
+    boolean isFilterPresenceOut() {
+        return filterPresence_out;
+    }
+
     private boolean matchesPacketSenderCondition(Packet packet, Roster roster, JID userJID) {
         if (type == null) {
             // This is the "fall-through" case
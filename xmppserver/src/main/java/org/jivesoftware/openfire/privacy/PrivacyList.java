@@ -88,6 +88,11 @@ public class PrivacyList implements Cacheable, Externalizable {
     private boolean isDefault;
     private List<PrivacyItem> items = new ArrayList<>();
 
+    /**
+     * The items of this list, compiled for fast evaluation. Recreated whenever the items change.
+     */
+    private volatile CompiledPrivacyList compiled = new CompiledPrivacyList(null, items);
+
     /**
      * Constructor added for Externalizable. Do not use this constructor.
      */
@@ -156,21 +161,16 @@ public class PrivacyList implements Cacheable, Externalizable {
             // Sender is the server so it's not denied
             return false;
         }
-        // Iterate over the rules and check each rule condition
-        Roster roster = getRoster();
-        for (PrivacyItem item : items) {
-            if (item.matchesCondition(packet, roster, userJID)) {
-                if (item.isAllow()) {
-                    return false;
-                }
-                if (Log.isDebugEnabled()) {
-                    Log.debug("PrivacyList: Packet was blocked: " + packet);
-                }
-                return true;
-            }
+        // Find the first rule (in ascending order) of which the condition matches
+        PrivacyItem item = compiled.evaluate(packet, this::getRoster);
+        if (item == null || item.isAllow()) {
+            // If no rule blocked the communication then allow the packet to flow
+            return false;
+        }
+        if (Log.isDebugEnabled()) {
+            Log.debug("PrivacyList: Packet was blocked: " + packet);
         }
-        // If no rule blocked the communication then allow the packet to flow
-        return false;
+        return true;
     }
 
     /**
@@ -260,6 +260,7 @@ public class PrivacyList implements Cacheable, Externalizable {
         }
         // Sort items collections
         Collections.sort(items);
+        compiled = new CompiledPrivacyList(userJID, items);
         if (notify) {
             // Trigger event that this list has been modified
             PrivacyListManager.getInstance().dispatchModifiedEvent(this);
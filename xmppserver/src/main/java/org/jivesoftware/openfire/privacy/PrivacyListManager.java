@@ -17,6 +17,10 @@
 package org.jivesoftware.openfire.privacy;
 
 import org.dom4j.Element;
+import org.jivesoftware.openfire.roster.Roster;
+import org.jivesoftware.openfire.roster.RosterEventDispatcher;
+import org.jivesoftware.openfire.roster.RosterEventListener;
+import org.jivesoftware.openfire.roster.RosterItem;
 import org.jivesoftware.util.cache.Cache;
 import org.jivesoftware.util.cache.CacheFactory;
 
@@ -63,6 +67,40 @@ public class PrivacyListManager {
             }
         };
         instance.addListener(eventListener);
+
+        // Cached privacy list verdicts that depend on the roster of a user become stale when that roster changes.
+        RosterEventDispatcher.addListener(new RosterEventListener() {
+            @Override
+            public void rosterLoaded(Roster roster) {
+                CompiledPrivacyList.rosterChanged(roster.getUsername());
+            }
+
+            @Override
+            public boolean addingContact(Roster roster, RosterItem item, boolean persistent) {
+                return true;
+            }
+
+            @Override
+            public void contactAdded(Roster roster, RosterItem item) {
+                contactsChanged(roster);
+            }
+
+            @Override
+            public void contactUpdated(Roster roster, RosterItem item) {
+                contactsChanged(roster);
+            }
+
+            @Override
+            public void contactDeleted(Roster roster, RosterItem item) {
+                contactsChanged(roster);
+            }
+
+            private void contactsChanged(Roster roster) {
+                CompiledPrivacyList.rosterChanged(roster.getUsername());
+                // Roster events are dispatched only on the cluster node where the roster was modified.
+                CacheFactory.doClusterTask(new InvalidatePrivacyVerdictsTask(roster.getUsername()));
+            }
+        });
     }
 
     /**
@@ -31,10 +31,8 @@ import javax.annotation.Nonnull;
 import java.time.Duration;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.locks.Lock;
-import java.util.stream.Collectors;
 
 public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvider
 {
@@ -67,20 +65,20 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
     private static final int MAX_ITEMS_FLUSH = JiveGlobals.getIntProperty("xmpp.pubsub.flush.max", 1000);
 
     /**
-     * Queue that holds the (wrapped) items that need to be added to the database.
+     * Items that need to be added to the database. A newer version of an item replaces the pending one. Access must
+     * be guarded by synchronizing on {@link #itemsLock}.
      */
-    private Deque<PublishedItem> itemsToAdd = new ConcurrentLinkedDeque<>();
+    private final PendingItems itemsToAdd = new PendingItems();
 
     /**
-     * Queue that holds the items that need to be deleted from the database.
+     * Items that need to be deleted from the database. Access must be guarded by synchronizing on {@link #itemsLock}.
      */
-    private Deque<PublishedItem> itemsToDelete = new ConcurrentLinkedDeque<>();
+    private final PendingItems itemsToDelete = new PendingItems();
 
     /**
-     * Keeps reference to published items that haven't been persisted yet so they
-     * can be removed before being deleted.
+     * Guards access to {@link #itemsToAdd} and {@link #itemsToDelete}.
      */
-    private final HashMap<PublishedItem.UniqueIdentifier, PublishedItem> itemsPending = new HashMap<>();
+    private final Object itemsLock = new Object();
 
     private ConcurrentMap<Node.UniqueIdentifier, List<NodeOperation>> nodesToProcess = new ConcurrentHashMap<>();
 
@@ -429,10 +427,9 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
     public void purgeNode( final LeafNode leafNode )
     {
         // If there are any pending items for this node, don't bother processing them.
-        synchronized (itemsPending) {
-            itemsPending.values().removeIf( publishedItem -> leafNode.getUniqueIdentifier().equals( publishedItem.getNode().getUniqueIdentifier() ) );
-            itemsToAdd.removeIf( publishedItem -> leafNode.getUniqueIdentifier().equals( publishedItem.getNode().getUniqueIdentifier() ) );
-            itemsToDelete.removeIf( publishedItem -> leafNode.getUniqueIdentifier().equals( publishedItem.getNode().getUniqueIdentifier() ) );
+        synchronized (itemsLock) {
+            itemsToAdd.removeAll( leafNode.getUniqueIdentifier() );
+            itemsToDelete.removeAll( leafNode.getUniqueIdentifier() );
         }
 
         // drop cached items for purged node
@@ -456,16 +453,13 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
         PublishedItem.UniqueIdentifier itemKey = item.getUniqueIdentifier();
         itemCache.put(itemKey, item);
         log.debug("Added new (inbound) item to cache");
-        synchronized (itemsPending) {
-            PublishedItem itemToReplace = itemsPending.remove(itemKey);
-            if (itemToReplace != null) {
-                itemsToAdd.remove(itemToReplace); // remove duplicate from itemsToAdd linked list
-            }
-            itemsToAdd.addLast(item);
-            itemsPending.put(itemKey, item);
+        final int pending;
+        synchronized (itemsLock) {
+            itemsToAdd.put(item); // replaces a pending, older version of the same item.
+            pending = itemsToAdd.size();
         }
 
-        if (itemsPending.size() > MAX_ITEMS_FLUSH) {
+        if (pending > MAX_ITEMS_FLUSH) {
             TaskEngine.getInstance().submit(new Runnable() {
                 @Override
                 public void run() { flushPendingChanges(false); }
@@ -488,49 +482,24 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
         // TODO: figure out if it's required to first flush pending nodes, cluster-wide, synchronously, before flushing items.
         flushPendingNode(nodeUniqueId);
 
-        if (itemsToAdd.isEmpty() && itemsToDelete.isEmpty()) {
-            return;	 // nothing left to do for this cluster member.
-        }
-
-        List<PublishedItem> addList;
-        List<PublishedItem> delList;
+        final List<PublishedItem> addList;
+        final List<PublishedItem> delList;
 
-        // Swap pending items so we can parse and save the contents from this point in time
+        // Take the pending items of the node so we can save them from this point in time
         // while not blocking new entries from being cached.
-        synchronized(itemsPending)
+        synchronized(itemsLock)
         {
-            // find items for node.
-
-            // Split the to-do list in two parts: one that contains items for the node of interest, and the rest.
-            final Map<Boolean, List<PublishedItem>> partsToAdd = itemsToAdd.stream().collect(
-                    Collectors.partitioningBy( publishedItem -> nodeUniqueId.equals( publishedItem.getNode().getUniqueIdentifier() ) )
-            );
-            addList = new ArrayList<>( partsToAdd.get( true ) ); // All elements that match must be processed.
-            itemsToAdd.retainAll( partsToAdd.get(false) ); // Non-matching elements remain on the to-do list.
-
-            // Split the to-do list in two parts: one that contains items for the node of interest, and the rest.
-            final Map<Boolean, List<PublishedItem>> partsToDelete = itemsToDelete.stream().collect(
-                    Collectors.partitioningBy( publishedItem -> nodeUniqueId.equals( publishedItem.getNode().getUniqueIdentifier() ) )
-            );
-            delList = new ArrayList<>( partsToDelete.get( true ) ); // All elements that match must be processed.
-            itemsToDelete.retainAll( partsToDelete.get(false) ); // Non-matching elements remain on the to-do list.
+            if (itemsToAdd.isEmpty() && itemsToDelete.isEmpty()) {
+                return;	 // nothing left to do for this cluster member.
+            }
+
+            addList = itemsToAdd.removeAll( nodeUniqueId );
+            delList = itemsToDelete.removeAll( nodeUniqueId );
 
             // Ensure pending items are available via the item read cache;
             // this allows the item(s) to be fetched by other request threads
             // while being written to the DB from this thread
-            // TODO Determine if this works as intended when items are being queued for adding as well as removal.
-            int copied = 0;
-            for (final PublishedItem itemToAdd : itemsToAdd) {
-                final PublishedItem.UniqueIdentifier key = itemToAdd.getUniqueIdentifier();
-                if (!itemCache.containsKey(key)) {
-                    itemsPending.remove( key );
-                    itemCache.put(key, itemToAdd);
-                    copied++;
-                }
-            }
-            if (log.isDebugEnabled() && copied > 0) {
-                log.debug("Added " + copied + " pending items to published item cache");
-            }
+            cachePendingItems( addList );
         }
 
         delegate.bulkPublishedItems( addList, delList );
@@ -555,38 +524,24 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
         // TODO: figure out if it's required to first flush pending nodes, cluster-wide, synchronously, before flushing items.
         flushPendingNodes();
 
-        if (itemsToAdd.isEmpty() && itemsToDelete.isEmpty()) {
-            return;	 // Nothing left to do for this cluster member.
-        }
-
-        List<PublishedItem> addList;
-        List<PublishedItem> delList;
+        final List<PublishedItem> addList;
+        final List<PublishedItem> delList;
 
-        // Swap pending items so we can parse and save the contents from this point in time
+        // Take all pending items so we can save the contents from this point in time
         // while not blocking new entries from being cached.
-        synchronized(itemsPending)
+        synchronized(itemsLock)
         {
-            addList = new ArrayList<>( itemsToAdd );
-            delList = new ArrayList<>( itemsToDelete );
+            if (itemsToAdd.isEmpty() && itemsToDelete.isEmpty()) {
+                return;	 // Nothing left to do for this cluster member.
+            }
 
-            itemsToAdd = new ConcurrentLinkedDeque<>();
-            itemsToDelete = new ConcurrentLinkedDeque<>();
+            addList = itemsToAdd.removeAll();
+            delList = itemsToDelete.removeAll();
 
             // Ensure pending items are available via the item read cache;
             // this allows the item(s) to be fetched by other request threads
             // while being written to the DB from this thread
-            // TODO Determine if this works as intended when items are being queued for adding as well as removal.
-            int copied = 0;
-            for ( PublishedItem.UniqueIdentifier key : itemsPending.keySet()) {
-                if (!itemCache.containsKey(key)) {
-                    itemCache.put(key, itemsPending.get(key));
-                    copied++;
-                }
-            }
-            if (log.isDebugEnabled() && copied > 0) {
-                log.debug("Added " + copied + " pending items to published item cache");
-            }
-            itemsPending.clear();
+            cachePendingItems( addList );
         }
 
         delegate.bulkPublishedItems( addList, delList );
@@ -597,10 +552,33 @@ public class CachingPubsubPersistenceProvider implements PubSubPersistenceProvid
     public void removePublishedItem(PublishedItem item) {
         PublishedItem.UniqueIdentifier itemKey = item.getUniqueIdentifier();
         itemCache.remove(itemKey);
-        synchronized (itemsPending)
+        synchronized (itemsLock)
         {
-            itemsToDelete.addLast(item);
-            itemsPending.remove(itemKey);
+            // An item that was not yet written does not need to be written anymore. The deletion is still needed, as
+            // an earlier version of the item may have been written already.
+            itemsToAdd.remove(itemKey);
+            itemsToDelete.put(item);
+        }
+    }
+
+    /**
+     * Adds items that are about to be written to the database to the item cache, unless the cache already contains
+     * them.
+     *
+     * @param items The items that are about to be written.
+     */
+    private void cachePendingItems( final List<PublishedItem> items )
+    {
+        int copied = 0;
+        for (final PublishedItem item : items) {
+            final PublishedItem.UniqueIdentifier key = item.getUniqueIdentifier();
+            if (!itemCache.containsKey(key)) {
+                itemCache.put(key, item);
+                copied++;
+            }
+        }
+        if (log.isDebugEnabled() && copied > 0) {
+            log.debug("Added " + copied + " pending items to published item cache");
         }
     }
 
@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.pubsub;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An insertion-ordered collection of published items that are waiting to be written to (or removed from) the database,
+ * keyed by the unique identifier of each item.
+ *
+ * Replacing an item (which moves it to the end of the collection) and removing an item are constant-time operations.
+ * The items of a node are indexed, allowing them to be removed without scanning the items of other nodes.
+ *
+ * This class is not thread-safe. Callers are expected to provide their own synchronization.
+ */
+final class PendingItems
+{
+    /**
+     * All items, in the order in which they were (last) added.
+     */
+    private final LinkedHashMap<PublishedItem.UniqueIdentifier, PublishedItem> items = new LinkedHashMap<>();
+
+    /**
+     * The identifiers of the items in {@link #items}, grouped by node, in the order in which they were (last) added.
+     */
+    private final Map<Node.UniqueIdentifier, Set<PublishedItem.UniqueIdentifier>> itemsByNode = new HashMap<>();
+
+    /**
+     * Adds an item to the end of the collection. An item that has the same identifier is removed from the collection.
+     *
+     * @param item The item to add.
+     * @return The item that was replaced, or null if the collection did not contain an item with the same identifier.
+     */
+    @Nullable
+    PublishedItem put( @Nonnull final PublishedItem item )
+    {
+        final PublishedItem.UniqueIdentifier key = item.getUniqueIdentifier();
+        final PublishedItem replaced = remove( key );
+        items.put( key, item );
+        itemsByNode.computeIfAbsent( key.getNodeIdentifier(), k -> new LinkedHashSet<>() ).add( key );
+        return replaced;
+    }
+
+    /**
+     * Removes an item from the collection.
+     *
+     * @param key The identifier of the item to remove.
+     * @return The item that was removed, or null if the collection did not contain an item with this identifier.
+     */
+    @Nullable
+    PublishedItem remove( @Nonnull final PublishedItem.UniqueIdentifier key )
+    {
+        final PublishedItem removed = items.remove( key );
+        if ( removed != null ) {
+            final Node.UniqueIdentifier nodeKey = key.getNodeIdentifier();
+            final Set<PublishedItem.UniqueIdentifier> keys = itemsByNode.get( nodeKey );
+            keys.remove( key );
+            if ( keys.isEmpty() ) {
+                itemsByNode.remove( nodeKey );
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Removes all items of a node from the collection.
+     *
+     * @param nodeKey The identifier of the node for which to remove items.
+     * @return The items that were removed, in the order in which they were added.
+     */
+    @Nonnull
+    List<PublishedItem> removeAll( @Nonnull final Node.UniqueIdentifier nodeKey )
+    {
+        final Set<PublishedItem.UniqueIdentifier> keys = itemsByNode.remove( nodeKey );
+        if ( keys == null ) {
+            return new ArrayList<>();
+        }
+        final List<PublishedItem> result = new ArrayList<>( keys.size() );
+        for ( final PublishedItem.UniqueIdentifier key : keys ) {
+            result.add( items.remove( key ) );
+        }
+        return result;
+    }
+
+    /**
+     * Removes all items from the collection.
+     *
+     * @return The items that were removed, in the order in which they were added.
+     */
+    @Nonnull
+    List<PublishedItem> removeAll()
+    {
+        final List<PublishedItem> result = new ArrayList<>( items.values() );
+        items.clear();
+        itemsByNode.clear();
+        return result;
+    }
+
+    /**
+     * Returns the item with the provided identifier.
+     *
+     * @param key The identifier of the item.
+     * @return The item, or null if the collection does not contain an item with this identifier.
+     */
+    @Nullable
+    PublishedItem get( @Nonnull final PublishedItem.UniqueIdentifier key )
+    {
+        return items.get( key );
+    }
+
+    int size()
+    {
+        return items.size();
+    }
+
+    boolean isEmpty()
+    {
+        return items.isEmpty();
+    }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.roster;
+
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.util.cache.ClusterTask;
+
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+
+/**
+ * Task that is executed on other cluster nodes after a group was modified, to have them rebuild their index of the
+ * visibility of shared groups. Group events are only dispatched on the cluster node where the modification occurred.
+ */
+public class InvalidateSharedGroupIndexTask implements ClusterTask<Void>
+{
+    @Override
+    public void run()
+    {
+        XMPPServer.getInstance().getRosterManager().invalidateSharedGroupIndex();
+    }
+
+    @Override
+    public Void getResult()
+    {
+        return null;
+    }
+
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException
+    {
+    }
+
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException
+    {
+    }
+}
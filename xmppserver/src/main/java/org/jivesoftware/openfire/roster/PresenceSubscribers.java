@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.roster;
+
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An immutable snapshot of the entities that are subscribed to the presence of the owner of a roster.
+ *
+ * A snapshot is computed once for a roster, and is reused for every presence broadcast until the roster is modified.
+ */
+final class PresenceSubscribers
+{
+    /**
+     * The modification count of the roster at the time that this snapshot was computed.
+     */
+    final long modificationCount;
+
+    private final List<JID> subscribers;
+
+    /**
+     * Creates a snapshot.
+     *
+     * @param modificationCount The modification count of the roster at the time that the snapshot is computed.
+     * @param subscribers The bare JIDs of all subscribers.
+     */
+    PresenceSubscribers(final long modificationCount, final Collection<JID> subscribers)
+    {
+        this.modificationCount = modificationCount;
+        this.subscribers = Collections.unmodifiableList(new ArrayList<>(subscribers));
+    }
+
+    /**
+     * Returns the bare JIDs of the subscribers.
+     *
+     * @return subscriber bare JIDs.
+     */
+    List<JID> getSubscribers()
+    {
+        return subscribers;
+    }
+
+    /**
+     * Returns the total number of subscribers.
+     *
+     * @return a number of subscribers.
+     */
+    int size()
+    {
+        return subscribers.size();
+    }
+}
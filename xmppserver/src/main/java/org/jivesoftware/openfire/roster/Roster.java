@@ -44,6 +44,7 @@ import java.io.ObjectOutput;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * <p>A roster is a list of users that the user wishes to know if they are online.</p>
@@ -73,6 +74,16 @@ public class Roster implements Cacheable, Externalizable {
 
     private String username;
 
+    /**
+     * Incremented whenever this roster is modified, to detect that a snapshot of the presence subscribers is stale.
+     */
+    private final AtomicLong modificationCount = new AtomicLong();
+
+    /**
+     * The entities that are subscribed to the presence of the owner of this roster, or null if not yet computed.
+     */
+    private volatile PresenceSubscribers presenceSubscribers;
+
     /**
      * Constructor added for Externalizable. Do not use this constructor.
      */
@@ -591,46 +602,21 @@ public class Roster implements Cacheable, Externalizable {
             // No privacy list was found (based on the session) so check if there is a default list
             list = PrivacyListManager.getInstance().getDefaultPrivacyList(username);
         }
-        // Broadcast presence to subscribed entities
-        for (RosterItem item : rosterItems.values()) {
-            if (item.getSubStatus() == RosterItem.SUB_BOTH || item.getSubStatus() == RosterItem.SUB_FROM) {
-                packet.setTo(item.getJid());
-                if (list != null && list.shouldBlockPacket(packet)) {
-                    // Outgoing presence notifications are blocked for this contact
-                    continue;
-                }
-                JID searchNode = new JID(item.getJid().getNode(), item.getJid().getDomain(), null, true);
-                final List<JID> routingTableRoutes = routingTable.getRoutes(searchNode, null);
-                for (JID jid : routingTableRoutes) {
-                    try {
-                        routingTable.routePacket(jid, packet, false);
-                    } catch (Exception e) {
-                        // Theoretically only happens if session has been closed.
-                        Log.debug(e.getMessage(), e);
-                    }
-                }
-            }
-        }
-        // Broadcast presence to shared contacts whose subscription status is FROM
-        final Set<String> implicitFroms = implicitFrom.keySet();
-        for (String contact : implicitFroms) {
-            if (contact.contains("@")) {
-                String node = contact.substring(0, contact.lastIndexOf("@"));
-                String domain = contact.substring(contact.lastIndexOf("@") + 1);
-                node = JID.escapeNode(node);
-                contact = new JID(node, domain, null).toBareJID();
-            }
-
+        // Broadcast presence to subscribed entities (including shared contacts whose subscription status is FROM).
+        final XMPPServer server = XMPPServer.getInstance();
+        for (JID contact : getPresenceSubscribers().getSubscribers()) {
             packet.setTo(contact);
             if (list != null && list.shouldBlockPacket(packet)) {
                 // Outgoing presence notifications are blocked for this contact
                 continue;
             }
-
-            final List<JID> routingTableRoutes = routingTable.getRoutes(new JID(contact), null);
+            // Packets for other domains may be queued (e.g. while a server session is being established), in which
+            // case the packet must not be modified after it has been routed.
+            final boolean copy = !server.isLocal(contact);
+            final List<JID> routingTableRoutes = routingTable.getRoutes(contact, null);
             for (JID jid : routingTableRoutes) {
                 try {
-                    routingTable.routePacket(jid, packet, false);
+                    routingTable.routePacket(jid, copy ? packet.createCopy() : packet, false);
                 } catch (Exception e) {
                     // Theoretically only happens if session has been closed.
                     Log.debug(e.getMessage(), e);
@@ -643,6 +629,44 @@ public class Roster implements Cacheable, Externalizable {
         }
     }
 
+    /**
+     * Returns the entities that are subscribed to the presence of the owner of this roster. The result is computed once
+     * and reused until this roster is modified.
+     *
+     * @return the presence subscribers.
+     */
+    PresenceSubscribers getPresenceSubscribers() {
+        PresenceSubscribers result = presenceSubscribers;
+        final long count = modificationCount.get();
+        if (result == null || result.modificationCount != count) {
+            final Set<JID> subscribers = new LinkedHashSet<>();
+            for (RosterItem item : rosterItems.values()) {
+                if (item.getSubStatus() == RosterItem.SUB_BOTH || item.getSubStatus() == RosterItem.SUB_FROM) {
+                    subscribers.add(new JID(item.getJid().getNode(), item.getJid().getDomain(), null, true));
+                }
+            }
+            for (String contact : implicitFrom.keySet()) {
+                if (contact.contains("@")) {
+                    String node = contact.substring(0, contact.lastIndexOf("@"));
+                    String domain = contact.substring(contact.lastIndexOf("@") + 1);
+                    node = JID.escapeNode(node);
+                    contact = new JID(node, domain, null).toBareJID();
+                }
+                subscribers.add(new JID(contact));
+            }
+            result = new PresenceSubscribers(count, subscribers);
+            presenceSubscribers = result;
+        }
+        return result;
+    }
+
+    /**
+     * Signals that this roster was modified, which causes the presence subscribers to be recomputed.
+     */
+    void rosterModified() {
+        modificationCount.incrementAndGet();
+    }
+
     /**
      * Returns the list of users that belong ONLY to a shared group of this user. If the contact
      * belongs to the personal roster and a shared group then it wont' be included in the answer.
@@ -655,24 +679,21 @@ public class Roster implements Cacheable, Externalizable {
         // Get the users to process from the shared groups. Users that belong to different groups
         // will have one entry in the map associated with all the groups
         Map<JID, List<Group>> sharedGroupUsers = new HashMap<>();
+        final JID userJID = getUserJID();
         for (Group group : sharedGroups) {
-            // Get all the users that should be in this roster
-            Collection<JID> users = rosterManager.getSharedUsersForRoster(group, this);
-            // Add the users of the group to the general list of users to process
-            JID userJID = getUserJID();
-            for (JID jid : users) {
+            // Add all the users that should be in this roster to the general list of users to process
+            rosterManager.forEachSharedUserForRoster(group, this, jid -> {
                 // Add the user to the answer if the user doesn't belong to the personal roster
                 // (since we have already added the user to the answer)
                 boolean isRosterItem = rosterItems.containsKey(jid.toBareJID());
                 if (!isRosterItem && !userJID.equals(jid)) {
-                    List<Group> groups = sharedGroupUsers.get(jid);
-                    if (groups == null) {
-                        groups = new ArrayList<>();
-                        sharedGroupUsers.put(jid, groups);
+                    final List<Group> groups = sharedGroupUsers.computeIfAbsent(jid, k -> new ArrayList<>());
+                    // The same user can be found more than once for the same group.
+                    if (!groups.contains(group)) {
+                        groups.add(group);
                     }
-                    groups.add(group);
                 }
-            }
+            });
         }
         return sharedGroupUsers;
     }
@@ -684,11 +705,87 @@ public class Roster implements Cacheable, Externalizable {
         // When roster versioning is enabled, the server MUST include
         // the updated roster version with each roster push.
         if (RosterManager.isRosterVersioningEnabled()) {
-            roster.getChildElement().addAttribute("ver", String.valueOf( roster.hashCode() ) );
+            List<String> changed = new ArrayList<>();
+            for (org.xmpp.packet.Roster.Item pushed : roster.getItems()) {
+                changed.add(pushed.getJID().toBareJID());
+            }
+            roster.getChildElement().addAttribute("ver", XMPPServer.getInstance().getRosterManager().recordRosterPush(username, changed));
         }
         SessionManager.getInstance().userBroadcast(username, roster);
     }
 
+    /**
+     * Returns the current version of this roster, as defined by RFC 6121 section 2.6.
+     *
+     * @return the roster version.
+     */
+    public String getVersion() {
+        return XMPPServer.getInstance().getRosterManager().getRosterVersion(username);
+    }
+
+    /**
+     * Returns roster pushes that bring a client that has the provided version of this roster up to date, as defined by
+     * RFC 6121 section 2.6.3. One push is returned for every item that changed since that version, in the order in
+     * which the items last changed. Each push carries the version of the roster that it brings the client to.
+     *
+     * @param version the roster version that was provided by the client.
+     * @return roster pushes (possibly empty), or null if the changes since the provided version are not known, in
+     *         which case the complete roster is to be sent.
+     */
+    public List<org.xmpp.packet.Roster> getPushesSince(String version) {
+        final Map<String, String> changes = XMPPServer.getInstance().getRosterManager().getRosterChangesSince(username, version);
+        if (changes == null) {
+            return null;
+        }
+        final List<org.xmpp.packet.Roster> result = new ArrayList<>(changes.size());
+        for (final Map.Entry<String, String> change : changes.entrySet()) {
+            final JID jid = new JID(change.getKey());
+            final org.xmpp.packet.Roster push = new org.xmpp.packet.Roster();
+            push.setType(IQ.Type.set);
+            final RosterItem item = rosterItems.get(change.getKey());
+            if (item == null || !isVisible(item)) {
+                push.addItem(jid, org.xmpp.packet.Roster.Subscription.remove);
+            } else {
+                push.addItem(item.getJid(), item.getNickname(),
+                        getAskStatus(item.getAskStatus()),
+                        org.xmpp.packet.Roster.Subscription.valueOf(item.getSubStatus().getName()),
+                        getGroupNames(item));
+            }
+            push.getChildElement().addAttribute("ver", change.getValue());
+            result.add(push);
+        }
+        if (!result.isEmpty()) {
+            // The last push brings the client to the current version, which may have been incremented concurrently.
+            result.get(result.size() - 1).getChildElement().addAttribute("ver", getVersion());
+        }
+        return result;
+    }
+
+    /**
+     * Returns true if the item is included in the roster that is sent to the client (see {@link #getReset()}).
+     */
+    private boolean isVisible(RosterItem item) {
+        if (item.isOnlyShared() && item.getSubStatus() == RosterItem.SUB_FROM) {
+            return false;
+        }
+        return item.getSubStatus() != RosterItem.SUB_NONE ||
+                item.getRecvStatus() != RosterItem.RECV_SUBSCRIBE && !isSubscriptionRejected(item);
+    }
+
+    /**
+     * Returns the names of the personal groups of the item, and the display names of its shared groups.
+     */
+    private List<String> getGroupNames(RosterItem item) {
+        List<String> groups = new ArrayList<>(item.getGroups());
+        for (Group sharedGroup : item.getSharedGroups()) {
+            String displayName = sharedGroup.getSharedDisplayName();
+            if (displayName != null) {
+                groups.add(displayName);
+            }
+        }
+        return groups;
+    }
+
     /**
      * Broadcasts the RosterItem to all the connected resources of this user. Due to performance
      * optimizations and due to some clients errors that are showing items with subscription status
@@ -705,13 +802,7 @@ public class Roster implements Cacheable, Externalizable {
             return;
         }
         // Set the groups to broadcast (include personal and shared groups)
-        List<String> groups = new ArrayList<>(item.getGroups());
-        for (Group sharedGroup : item.getSharedGroups()) {
-            String displayName = sharedGroup.getSharedDisplayName();
-            if (displayName != null) {
-                groups.add(displayName);
-            }
-        }
+        List<String> groups = getGroupNames(item);
 
         org.xmpp.packet.Roster roster = new org.xmpp.packet.Roster();
         roster.setType(IQ.Type.set);
@@ -26,6 +26,7 @@ import org.jivesoftware.openfire.event.GroupEventListener;
 import org.jivesoftware.openfire.event.UserEventDispatcher;
 import org.jivesoftware.openfire.event.UserEventListener;
 import org.jivesoftware.openfire.group.Group;
+import org.jivesoftware.openfire.group.GroupCollection;
 import org.jivesoftware.openfire.group.GroupManager;
 import org.jivesoftware.openfire.group.GroupNotFoundException;
 import org.jivesoftware.openfire.group.SharedGroupVisibility;
@@ -48,6 +49,7 @@ import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.*;
 import java.util.concurrent.locks.Lock;
+import java.util.function.Consumer;
 
 /**
  * A simple service that allows components to retrieve a roster based solely on the ID
@@ -94,12 +96,64 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         .setDynamic(false)
         .build();
 
+    /**
+     * The maximum number of roster item changes that are retained per roster, to allow clients that use roster
+     * versioning to be sent only the changes since the version of their roster.
+     */
+    public static final SystemProperty<Integer> VERSIONING_JOURNAL_SIZE = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.client.roster.versioning.journal.size")
+        .setMinValue(0)
+        .setDefaultValue(100)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * Determines if an index of shared group visibility is used to determine what shared groups are visible to users.
+     */
+    public static final SystemProperty<Boolean> SHARED_GROUP_INDEX_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.client.roster.shared-group-index.enabled")
+        .setDefaultValue(true)
+        .setDynamic(true)
+        .build();
+
+    /**
+     * The period after which the index of shared group visibility is rebuilt, to pick up on changes to groups that were
+     * made outside of Openfire.
+     */
+    public static final SystemProperty<Duration> SHARED_GROUP_INDEX_MAX_AGE = SystemProperty.Builder.ofType(Duration.class)
+        .setKey("xmpp.client.roster.shared-group-index.max-age")
+        .setChronoUnit(ChronoUnit.MINUTES)
+        .setDefaultValue(Duration.ofMinutes(15))
+        .setDynamic(true)
+        .build();
+
     private Cache<String, Roster> rosterCache;
+
+    /**
+     * Journals of the roster pushes per user, to allow for clients to be sent only the changes to their roster. These
+     * are kept apart from the rosters, which do not include them when they are shared between cluster nodes.
+     */
+    private Cache<String, RosterVersionJournal> versionJournalCache;
     private XMPPServer server;
     private RoutingTable routingTable;
     private RosterItemProvider provider;
     private ThreadPoolExecutor executor;
 
+    /**
+     * Inverted index of the visibility of shared groups, kept up to date by group events.
+     */
+    private final SharedGroupIndex sharedGroupIndex = new SharedGroupIndex(
+        () -> GroupManager.getInstance().getSharedGroups(),
+        groupName -> {
+            try {
+                return GroupManager.getInstance().getGroup(groupName);
+            } catch (GroupNotFoundException e) {
+                return null;
+            }
+        },
+        () -> SHARED_GROUP_INDEX_MAX_AGE.getValue().toMillis(),
+        task -> TaskEngine.getInstance().submit(task));
+
     /**
      * Object name used to register delegate MBean (JMX) for the thread pool executor.
      */
@@ -124,9 +178,87 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         return JiveGlobals.getBooleanProperty("xmpp.client.roster.versioning.active", true);
     }
 
+    /**
+     * Records a push of roster items to a user, as defined by RFC 6121 section 2.6.
+     *
+     * @param username the name of the user that owns the roster.
+     * @param bareJIDs the bare JIDs of the items that were pushed.
+     * @return the version of the roster after the push.
+     */
+    String recordRosterPush(String username, Collection<String> bareJIDs) {
+        final Lock lock = versionJournalCache.getLock(username);
+        lock.lock();
+        try {
+            RosterVersionJournal journal = versionJournalCache.get(username);
+            if (journal == null) {
+                journal = new RosterVersionJournal();
+            }
+            final String version = journal.record(bareJIDs, VERSIONING_JOURNAL_SIZE.getValue());
+            // Put the journal back, to share the change with other cluster nodes.
+            versionJournalCache.put(username, journal);
+            return version;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Discards the roster pushes that were recorded for a user, causing the roster to get a version that is not related
+     * to any version that was handed out before. This must be done when a roster is loaded, as changes to a roster that
+     * is not in memory (eg: a change of a shared group) are not recorded.
+     *
+     * @param username the name of the user that owns the roster.
+     */
+    void resetRosterVersion(String username) {
+        final Lock lock = versionJournalCache.getLock(username);
+        lock.lock();
+        try {
+            versionJournalCache.put(username, new RosterVersionJournal());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the current version of the roster of a user, as defined by RFC 6121 section 2.6.
+     *
+     * @param username the name of the user that owns the roster.
+     * @return the roster version.
+     */
+    String getRosterVersion(String username) {
+        final Lock lock = versionJournalCache.getLock(username);
+        lock.lock();
+        try {
+            RosterVersionJournal journal = versionJournalCache.get(username);
+            if (journal == null) {
+                // Retain the journal, so that the version remains valid.
+                journal = new RosterVersionJournal();
+                versionJournalCache.put(username, journal);
+            }
+            return journal.getVersion();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the items of the roster of a user that changed after the provided version.
+     *
+     * @param username the name of the user that owns the roster.
+     * @param version a roster version that was provided by the client.
+     * @return the bare JIDs of changed items mapped to the version after their last change, or null when the changes
+     *         since the provided version are not known.
+     * @see RosterVersionJournal#getChangesSince(String)
+     */
+    Map<String, String> getRosterChangesSince(String username, String version) {
+        final RosterVersionJournal journal = versionJournalCache.get(username);
+        return journal == null ? null : journal.getChangesSince(version);
+    }
+
     public RosterManager() {
         super("Roster Manager");
         rosterCache = CacheFactory.createCache("Roster");
+        versionJournalCache = CacheFactory.createCache("Roster Versions");
 
         initProvider();
 
@@ -201,6 +333,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
             }
             // Remove the cached roster from memory
             rosterCache.remove(username);
+            versionJournalCache.remove(username);
 
             // Get the rosters that have a reference to the deleted user
             Iterator<String> usernames = provider.getUsernames(user.toBareJID());
@@ -247,6 +380,12 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                     // The user belongs to the group so add the group to the answer
                     answer.add(group);
                 }
+                else if (SHARED_GROUP_INDEX_ENABLED.getValue()) {
+                    // Check if the user belongs to a group that may see this group
+                    if (sharedGroupIndex.isVisibleThroughViewerGroup(group, server.createJID(username, null, true))) {
+                        answer.add(group);
+                    }
+                }
                 else {
                     // Check if the user belongs to a group that may see this group
                     Collection<Group> groupList = parseGroups(group.getSharedWithUsersInGroupNames());
@@ -328,24 +467,35 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
 
     @Override
     public void groupCreated(Group group, Map params) {
-        //Do nothing
+        sharedGroupIndex.groupChanged(group);
+        invalidateRemoteSharedGroupIndexes();
     }
 
     @Override
     public void groupDeleting(Group group, Map params) {
+        sharedGroupIndex.groupDeleted(group);
+        invalidateRemoteSharedGroupIndexes();
         // Get group members
         Collection<JID> users = new HashSet<>(group.getMembers());
         users.addAll(group.getAdmins());
         // Get users whose roster will be updated
         Collection<JID> affectedUsers = getAffectedUsers(group);
+        final boolean visibleToEverybody = isPublicSharedGroup(group);
         // Iterate on group members and update rosters of affected users
         for (JID deletedUser : users) {
-            groupUserDeleted(group, affectedUsers, deletedUser);
+            groupUserDeleted(group, affectedUsers, deletedUser, visibleToEverybody);
         }
     }
 
     @Override
     public void groupModified(final Group group, Map params) {
+        if ("nameModified".equals(params.get("type"))) {
+            // Other groups refer to this group by name.
+            sharedGroupIndex.invalidate();
+        } else {
+            sharedGroupIndex.groupChanged(group);
+        }
+        invalidateRemoteSharedGroupIndexes();
         // Do nothing if no group property has been modified
         if ("propertyDeleted".equals(params.get("type"))) {
              return;
@@ -364,8 +514,8 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
             final Collection<JID> users = new HashSet<>(group.getMembers());
             users.addAll(group.getAdmins());
             // Get the users whose roster will be affected
-            final Collection<JID> affectedUsers = getAffectedUsers(group, SharedGroupVisibility.fromDatabaseValue(originalValue),
-                    group.getSharedWithUsersInGroupNames());
+            final SharedGroupVisibility originalVisibility = SharedGroupVisibility.fromDatabaseValue(originalValue);
+            final Collection<JID> affectedUsers = getAffectedUsers(group, originalVisibility, getSharedWithNames(group));
 
             // Simulate that the group users has been added to the group. This will cause to push
             // roster items to the "affected" users for the group users
@@ -376,7 +526,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                 {
                     // Remove the group members from the affected rosters
                     for (JID deletedUser : users) {
-                        groupUserDeleted(group, affectedUsers, deletedUser);
+                        groupUserDeleted(group, affectedUsers, deletedUser, SharedGroupVisibility.everybody == originalVisibility);
                     }
 
                     // Simulate that the group users has been added to the group. This will cause to push
@@ -401,6 +551,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
             // Get the users whose roster will be affected
             final Collection<JID> affectedUsers = getAffectedUsers(group,
                     group.getSharedWith(), parseGroupNames(originalValue));
+            final boolean visibleToEverybody = isPublicSharedGroup(group);
 
             executor.submit(new Callable<Boolean>()
             {
@@ -409,7 +560,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                     // Remove the group members from the affected rosters
 
                     for (JID deletedUser : users) {
-                        groupUserDeleted(group, affectedUsers, deletedUser);
+                        groupUserDeleted(group, affectedUsers, deletedUser, visibleToEverybody);
                     }
 
                     // Simulate that the group users has been added to the group. This will cause to push
@@ -458,7 +609,9 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         RosterEventDispatcher.addListener(new RosterEventListener() {
             @Override
             public void rosterLoaded(Roster roster) {
-                // Do nothing
+                roster.rosterModified();
+                // The roster may have changed while it was not in memory, without any pushes being recorded.
+                resetRosterVersion(roster.getUsername());
             }
 
             @Override
@@ -469,6 +622,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
 
             @Override
             public void contactAdded(Roster roster, RosterItem item) {
+                roster.rosterModified();
                 // Set object again in cache. This is done so that other cluster nodes
                 // get refreshed with latest version of the object
                 rosterCache.put(roster.getUsername(), roster);
@@ -476,6 +630,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
 
             @Override
             public void contactUpdated(Roster roster, RosterItem item) {
+                roster.rosterModified();
                 // Set object again in cache. This is done so that other cluster nodes
                 // get refreshed with latest version of the object
                 rosterCache.put(roster.getUsername(), roster);
@@ -483,6 +638,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
 
             @Override
             public void contactDeleted(Roster roster, RosterItem item) {
+                roster.rosterModified();
                 // Set object again in cache. This is done so that other cluster nodes
                 // get refreshed with latest version of the object
                 rosterCache.put(roster.getUsername(), roster);
@@ -515,6 +671,8 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
     @Override
     public void memberAdded(Group group, Map params) {
         JID addedUser = new JID((String) params.get("member"));
+        sharedGroupIndex.userAdded(group, addedUser);
+        invalidateRemoteSharedGroupIndexes();
         // Do nothing if the user was an admin that became a member
         if (group.getAdmins().contains(addedUser)) {
             return;
@@ -539,6 +697,8 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
             return;
         }
         JID deletedUser = new JID(member);
+        sharedGroupIndex.userRemoved(group, deletedUser);
+        invalidateRemoteSharedGroupIndexes();
         // Do nothing if the user is still an admin
         if (group.getAdmins().contains(deletedUser)) {
             return;
@@ -559,6 +719,8 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
     @Override
     public void adminAdded(Group group, Map params) {
         JID addedUser = new JID((String) params.get("admin"));
+        sharedGroupIndex.userAdded(group, addedUser);
+        invalidateRemoteSharedGroupIndexes();
         // Do nothing if the user was a member that became an admin
         if (group.getMembers().contains(addedUser)) {
             return;
@@ -579,6 +741,8 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
     @Override
     public void adminRemoved(Group group, Map params) {
         JID deletedUser = new JID((String) params.get("admin"));
+        sharedGroupIndex.userRemoved(group, deletedUser);
+        invalidateRemoteSharedGroupIndexes();
         // Do nothing if the user is still a member
         if (group.getMembers().contains(deletedUser)) {
             return;
@@ -706,7 +870,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
      * @param addedUser the username of the user that has been added to the group.
      */
     private void groupUserAdded(Group group, JID addedUser) {
-        groupUserAdded(group, getAffectedUsers(group), addedUser);
+        groupUserAdded(group, getAffectedUsers(group), addedUser, isPublicSharedGroup(group));
     }
 
     /**
@@ -717,6 +881,19 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
      * @param addedUser the username of the user that has been added to the group.
      */
     private void groupUserAdded(Group group, Collection<JID> users, JID addedUser) {
+        groupUserAdded(group, users, addedUser, false);
+    }
+
+    /**
+     * Notification that a Group user has been added. Update the group users' roster accordingly.
+     *
+     * @param group the group where the user was added.
+     * @param users the users to update their rosters
+     * @param addedUser the username of the user that has been added to the group.
+     * @param visibleToEverybody true if the group is visible to all users of the system, in which case all users are
+     *        added to the roster of the added user (rather than only the users to update).
+     */
+    private void groupUserAdded(Group group, Collection<JID> users, JID addedUser, boolean visibleToEverybody) {
         // Get the roster of the added user.
         Roster addedUserRoster = null;
         if (server.isLocal(addedUser)) {
@@ -766,6 +943,22 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                 }
             }
         }
+
+        if (visibleToEverybody) {
+            if (addedUserRoster == null && server.isLocal(addedUser)) {
+                addedUserRoster = rosterCache.get(addedUser.getNode());
+            }
+            // Only update rosters in memory
+            if (addedUserRoster != null) {
+                final Roster roster = addedUserRoster;
+                UserManager.getInstance().forEachUsername(username -> {
+                    final JID userToAdd = server.createJID(username, null, true);
+                    if (!addedUser.equals(userToAdd) && !users.contains(userToAdd)) {
+                        roster.addSharedUser(userToAdd, GroupManager.getInstance().getGroups(userToAdd), group);
+                    }
+                });
+            }
+        }
     }
 
     /**
@@ -775,7 +968,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
      * @param deletedUser the username of the user that has been deleted from the group.
      */
     private void groupUserDeleted(Group group, JID deletedUser) {
-        groupUserDeleted(group, getAffectedUsers(group), deletedUser);
+        groupUserDeleted(group, getAffectedUsers(group), deletedUser, isPublicSharedGroup(group));
     }
 
     /**
@@ -786,6 +979,19 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
      * @param deletedUser the username of the user that has been deleted from the group.
      */
     private void groupUserDeleted(Group group, Collection<JID> users, JID deletedUser) {
+        groupUserDeleted(group, users, deletedUser, false);
+    }
+
+    /**
+     * Notification that a Group user has been deleted. Update the group users' roster accordingly.
+     *
+     * @param group the group from where the user was deleted.
+     * @param users the users to update their rosters
+     * @param deletedUser the username of the user that has been deleted from the group.
+     * @param visibleToEverybody true if the group was visible to all users of the system, in which case all users are
+     *        removed from the roster of the deleted user (rather than only the users to update).
+     */
+    private void groupUserDeleted(Group group, Collection<JID> users, JID deletedUser, boolean visibleToEverybody) {
         // Get the roster of the deleted user.
         Roster deletedUserRoster = null;
         if (server.isLocal(deletedUser)) {
@@ -832,6 +1038,22 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                 sendSubscribeRequest(deletedUser, userToUpdate, false);
             }
         }
+
+        if (visibleToEverybody) {
+            if (deletedUserRoster == null && server.isLocal(deletedUser)) {
+                deletedUserRoster = rosterCache.get(deletedUser.getNode());
+            }
+            // Only update rosters in memory
+            if (deletedUserRoster != null) {
+                final Roster roster = deletedUserRoster;
+                UserManager.getInstance().forEachUsername(username -> {
+                    final JID userToDelete = server.createJID(username, null, true);
+                    if (!users.contains(userToDelete)) {
+                        roster.deleteSharedUser(userToDelete, group);
+                    }
+                });
+            }
+        }
     }
 
     private void sendSubscribeRequest(JID sender, JID recipient, boolean isSubscribe) {
@@ -847,7 +1069,26 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         routingTable.routePacket(recipient, presence, false);
     }
 
+    /**
+     * Causes the index of the visibility of shared groups to be rebuilt.
+     */
+    void invalidateSharedGroupIndex() {
+        sharedGroupIndex.invalidate();
+    }
+
+    /**
+     * Causes the other cluster nodes to rebuild their index of the visibility of shared groups. Group events are
+     * only dispatched on the cluster node where a group is modified, so other nodes cannot update their index
+     * themselves.
+     */
+    private void invalidateRemoteSharedGroupIndexes() {
+        CacheFactory.doClusterTask(new InvalidateSharedGroupIndexTask());
+    }
+
     private Collection<Group> getVisibleGroups(Group groupToCheck) {
+        if (SHARED_GROUP_INDEX_ENABLED.getValue()) {
+            return new GroupCollection(sharedGroupIndex.getVisibleGroupNames(groupToCheck.getName()));
+        }
         return GroupManager.getInstance().getVisibleGroups(groupToCheck);
     }
 
@@ -868,6 +1109,10 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
             if (group.isUser(user)) {
                  return true;
             }
+            if (SHARED_GROUP_INDEX_ENABLED.getValue()) {
+                // Check if the user belongs to a group that may see this group
+                return sharedGroupIndex.isVisibleThroughViewerGroup(group, user);
+            }
             // Check if the user belongs to a group that may see this group
             Collection<Group> groupList = parseGroups(group.getSharedWithUsersInGroupNames());
             for (Group groupInList : groupList) {
@@ -881,15 +1126,14 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
 
     /**
      * Returns all the users that are related to a shared group. This is the logic that we are
-     * using: 1) If the group visibility is configured as "Everybody" then all users in the system or
-     * all logged users in the system will be returned (configurable through the "filterOffline"
-     * flag), 2) if the group visibility is configured as "onlyGroup" then all the group users will
+     * using: 1) If the group visibility is configured as "Everybody" then the group users and all users of which
+     * the roster is in memory will be returned, 2) if the group visibility is configured as "onlyGroup" then all the group users will
      * be included in the answer and 3) if the group visibility is configured as "onlyGroup" and
      * the group allows other groups to include the group in the groups users' roster then all
      * the users of the allowed groups will be included in the answer.
      */
     private Collection<JID> getAffectedUsers(Group group) {
-        return getAffectedUsers(group, group.getSharedWith(), group.getSharedWithUsersInGroupNames());
+        return getAffectedUsers(group, group.getSharedWith(), getSharedWithNames(group));
     }
 
     /**
@@ -910,13 +1154,13 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         users.addAll(group.getAdmins());
         // Check if anyone can see this shared group
         if (SharedGroupVisibility.everybody == showInRoster) {
-            // Add all users in the system
-            for (String username : UserManager.getInstance().getUsernames()) {
+            // Every user in the system can see the group, but only rosters in memory are updated (other rosters
+            // include the group when they are loaded). Add the users of which the roster is in memory, rather than
+            // all users in the system. Updating the roster of a group user with all users in the system is left to
+            // the callers.
+            for (String username : rosterCache.keySet()) {
                 users.add(server.createJID(username, null, true));
             }
-            // Add all logged users. We don't need to add all users in the system since only the
-            // logged ones will be affected.
-            //users.addAll(SessionManager.getInstance().getSessionUsers());
         }
         else {
             // Add the users that may see the group
@@ -929,39 +1173,44 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         return users;
     }
 
-    Collection<JID> getSharedUsersForRoster(Group group, Roster roster) {
+    /**
+     * Performs the given action for every user that should be in the roster because of a shared group. Users are
+     * passed on as soon as they are found, rather than being collected first, as for groups that are visible to
+     * everybody, that could be every user in the system. The same user can be passed on more than once.
+     *
+     * @param group the shared group.
+     * @param roster the roster that is being loaded.
+     * @param action the action to perform for each user.
+     */
+    void forEachSharedUserForRoster(Group group, Roster roster, Consumer<JID> action) {
         SharedGroupVisibility showInRoster = group.getSharedWith();
-        List<String> groupNames = group.getSharedWithUsersInGroupNames();
 
-        // Answer an empty collection if the group is not being shown in users' rosters
+        // Do nothing if the group is not being shown in users' rosters
         if (SharedGroupVisibility.usersOfGroups != showInRoster && SharedGroupVisibility.everybody != showInRoster) {
-            return new ArrayList<>();
+            return;
         }
 
         // Add the users of the group
-        Collection<JID> users = new HashSet<>(group.getMembers());
-        users.addAll(group.getAdmins());
+        group.getMembers().forEach(action);
+        group.getAdmins().forEach(action);
 
-        // If the user of the roster belongs to the shared group then we should return
+        // If the user of the roster belongs to the shared group then we should add
         // users that need to be in the roster with subscription "from"
         if (group.isUser(roster.getUsername())) {
             // Check if anyone can see this shared group
             if (SharedGroupVisibility.everybody == showInRoster) {
                 // Add all users in the system
-                for (String username : UserManager.getInstance().getUsernames()) {
-                    users.add(server.createJID(username, null, true));
-                }
+                UserManager.getInstance().forEachUsername(username -> action.accept(server.createJID(username, null, true)));
             }
             else {
                 // Add the users that may see the group
-                Collection<Group> groupList = parseGroups(groupNames);
+                Collection<Group> groupList = parseGroups(getSharedWithNames(group));
                 for (Group groupInList : groupList) {
-                    users.addAll(groupInList.getMembers());
-                    users.addAll(groupInList.getAdmins());
+                    groupInList.getMembers().forEach(action);
+                    groupInList.getAdmins().forEach(action);
                 }
             }
         }
-        return users;
     }
 
     /**
@@ -996,14 +1245,22 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                     return true;
                 }
                 else if (SharedGroupVisibility.usersOfGroups == showInRoster && SharedGroupVisibility.usersOfGroups == otherShowInRoster) {
-                    List<String> groupNames = group.getSharedWithUsersInGroupNames();
-                    List<String> otherGroupNames = otherGroup.getSharedWithUsersInGroupNames();
+                    Collection<String> groupNames = getSharedWithNames(group);
+                    Collection<String> otherGroupNames = getSharedWithNames(otherGroup);
                     // Return true if each group may see the other group
                     if (groupNames != null && otherGroupNames != null) {
                         if (groupNames.contains(otherGroup.getName()) &&
                                 otherGroupNames.contains(group.getName())) {
                             return true;
                         }
+                        if (SHARED_GROUP_INDEX_ENABLED.getValue()) {
+                            // Check if each shared group can be seen by a group where each user belongs
+                            if (sharedGroupIndex.isVisibleThroughViewerGroup(group, otherUser)
+                                && sharedGroupIndex.isVisibleThroughViewerGroup(otherGroup, server.createJID(user, null, true))) {
+                                return true;
+                            }
+                            continue;
+                        }
                         // Check if each shared group can be seen by a group where each user belongs
                         Collection<Group> groupList = parseGroups(groupNames);
                         Collection<Group> otherGroupList = parseGroups(otherGroupNames);
@@ -1021,7 +1278,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                 else if (SharedGroupVisibility.everybody == showInRoster && SharedGroupVisibility.usersOfGroups == otherShowInRoster) {
                     // Return true if one group is public and the other group allowed the public
                     // group to see him
-                    List<String> otherGroupNames = otherGroup.getSharedWithUsersInGroupNames();
+                    Collection<String> otherGroupNames = getSharedWithNames(otherGroup);
                     if (otherGroupNames != null && otherGroupNames.contains(group.getName())) {
                             return true;
                     }
@@ -1029,7 +1286,7 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
                 else if (SharedGroupVisibility.usersOfGroups == showInRoster && SharedGroupVisibility.everybody == otherShowInRoster) {
                     // Return true if one group is public and the other group allowed the public
                     // group to see him
-                    List<String> groupNames = group.getSharedWithUsersInGroupNames();
+                    Collection<String> groupNames = getSharedWithNames(group);
                     // Return true if each group may see the other group
                     if (groupNames != null && groupNames.contains(otherGroup.getName())) {
                             return true;
@@ -1040,6 +1297,16 @@ public class RosterManager extends BasicModule implements GroupEventListener, Us
         return false;
     }
 
+    /**
+     * Returns the names of the groups that a shared group is shared with.
+     */
+    private Collection<String> getSharedWithNames(Group group) {
+        if (SHARED_GROUP_INDEX_ENABLED.getValue()) {
+            return sharedGroupIndex.getSharedWithNames(group);
+        }
+        return group.getSharedWithUsersInGroupNames();
+    }
+
     @Override
     public void start() throws IllegalStateException {
         super.start();
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.roster;
+
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.CacheSizes;
+import org.jivesoftware.util.cache.Cacheable;
+import org.jivesoftware.util.cache.CannotCalculateSizeException;
+import org.jivesoftware.util.cache.ExternalizableUtil;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Records which roster items were pushed to the owner of a roster, so that a client that reconnects with the version
+ * of the roster that it last saw (as defined in RFC 6121, section 2.6) can be sent just the items that changed since.
+ *
+ * Every roster push increments the version of the roster. Versions are of the form 'prefix-sequence', where the prefix
+ * is random for every journal. This causes versions that were handed out by a different journal (for example, one that
+ * was evicted from the cache) to be unknown, in which case the complete roster must be sent.
+ *
+ * Journals are kept in a cache of their own by the {@link RosterManager}, which is shared by all cluster nodes. A
+ * journal is replaced by a new one when the roster is loaded, as the roster can have changed while it was not in memory
+ * (eg: because of a change to a shared group) without any pushes being recorded. Clients that provide a version from
+ * before that then receive the complete roster.
+ *
+ * The journal retains a limited number of changes. When a client provides a version that is older than the oldest
+ * retained change, the complete roster must be sent.
+ *
+ * Instances are thread-safe.
+ */
+public class RosterVersionJournal implements Cacheable, Externalizable
+{
+    private String prefix;
+
+    /**
+     * The bare JIDs of the items that were pushed, in order, together with the sequence number of the push.
+     */
+    private final Deque<Entry> entries = new ArrayDeque<>();
+
+    /**
+     * The sequence number of the last push.
+     */
+    private long sequence = 0;
+
+    /**
+     * The highest sequence number for which changes are no longer retained.
+     */
+    private long forgottenSequence = 0;
+
+    /**
+     * Creates a new, empty journal. Also used for Externalizable.
+     */
+    public RosterVersionJournal()
+    {
+        this.prefix = StringUtils.randomString(8);
+    }
+
+    /**
+     * Returns the current version of the roster.
+     *
+     * @return a roster version.
+     */
+    synchronized String getVersion()
+    {
+        return versionOf(sequence);
+    }
+
+    /**
+     * Records a roster push.
+     *
+     * @param bareJIDs the bare JIDs of the items that were pushed.
+     * @param maxEntries the maximum number of item changes to retain.
+     * @return the version of the roster after the push.
+     */
+    synchronized String record(final Collection<String> bareJIDs, final int maxEntries)
+    {
+        sequence++;
+        for (final String bareJID : bareJIDs) {
+            entries.addLast(new Entry(sequence, bareJID));
+        }
+        final int max = Math.max(0, maxEntries);
+        while (entries.size() > max) {
+            final Entry removed = entries.removeFirst();
+            forgottenSequence = Math.max(forgottenSequence, removed.sequence);
+        }
+        return versionOf(sequence);
+    }
+
+    /**
+     * Returns the items that changed after the provided version, in the order of their last change.
+     *
+     * @param version a version that was handed out by a journal.
+     * @return the bare JIDs of changed items mapped to the version after their last change, or null when the version is
+     *         not known to this journal or too old to determine the changes.
+     */
+    synchronized Map<String, String> getChangesSince(final String version)
+    {
+        final long since = parse(version);
+        if (since < forgottenSequence || since > sequence) {
+            return null;
+        }
+        final Map<String, String> result = new LinkedHashMap<>();
+        final Iterator<Entry> iterator = entries.descendingIterator();
+        final Deque<Entry> newer = new ArrayDeque<>();
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.sequence <= since) {
+                break;
+            }
+            newer.addFirst(entry);
+        }
+        for (final Entry entry : newer) {
+            // Re-inserting moves the item to the end, so that items are ordered by their last change.
+            result.remove(entry.bareJID);
+            result.put(entry.bareJID, versionOf(entry.sequence));
+        }
+        return result;
+    }
+
+    private String versionOf(final long sequence)
+    {
+        return prefix + '-' + sequence;
+    }
+
+    /**
+     * Returns the sequence number of a version, or -1 if the version was not handed out by this journal.
+     */
+    private long parse(final String version)
+    {
+        if (version == null || !version.startsWith(prefix + '-')) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(version.substring(prefix.length() + 1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public synchronized int getCachedSize() throws CannotCalculateSizeException
+    {
+        int size = CacheSizes.sizeOfObject();
+        size += CacheSizes.sizeOfString(prefix);
+        size += CacheSizes.sizeOfLong() * 2;
+        for (final Entry entry : entries) {
+            size += CacheSizes.sizeOfObject() + CacheSizes.sizeOfLong() + CacheSizes.sizeOfString(entry.bareJID);
+        }
+        return size;
+    }
+
+    @Override
+    public synchronized void writeExternal(final ObjectOutput out) throws IOException
+    {
+        final ExternalizableUtil util = ExternalizableUtil.getInstance();
+        util.writeSafeUTF(out, prefix);
+        util.writeLong(out, sequence);
+        util.writeLong(out, forgottenSequence);
+        util.writeInt(out, entries.size());
+        for (final Entry entry : entries) {
+            util.writeLong(out, entry.sequence);
+            util.writeSafeUTF(out, entry.bareJID);
+        }
+    }
+
+    @Override
+    public synchronized void readExternal(final ObjectInput in) throws IOException, ClassNotFoundException
+    {
+        final ExternalizableUtil util = ExternalizableUtil.getInstance();
+        prefix = util.readSafeUTF(in);
+        sequence = util.readLong(in);
+        forgottenSequence = util.readLong(in);
+        entries.clear();
+        final int size = util.readInt(in);
+        for (int i = 0; i < size; i++) {
+            entries.addLast(new Entry(util.readLong(in), util.readSafeUTF(in)));
+        }
+    }
+
+    private static final class Entry
+    {
+        final long sequence;
+        final String bareJID;
+
+        Entry(final long sequence, final String bareJID)
+        {
+            this.sequence = sequence;
+            this.bareJID = bareJID;
+        }
+    }
+}
@@ -0,0 +1,444 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.roster;
+
+import org.jivesoftware.openfire.group.Group;
+import org.jivesoftware.openfire.group.SharedGroupVisibility;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * An inverted index of the visibility of shared groups, which allows the {@link RosterManager} to determine what
+ * shared groups are visible to a user or group without iterating over (and loading) all groups that are involved.
+ *
+ * The index records, for every shared group that is shared with the users of specific groups, the names of those
+ * groups. Inversely, it records for every such group the names of the shared groups that its users can see, and for
+ * every user of such a group the names of the groups that the user belongs to.
+ *
+ * The index is kept up to date by the RosterManager, which passes on the events that it receives from the
+ * GroupManager. As groups can also be modified outside of Openfire (e.g. in LDAP), or on other cluster nodes, the
+ * index is rebuilt periodically, and when it is invalidated.
+ *
+ * Lookups do not block: a (re)build populates a new index, which replaces the current one when it is complete. Until
+ * then, lookups are answered by the current index. Only lookups that are performed before the index was first built
+ * wait for that build to complete.
+ *
+ * Instances are thread-safe.
+ */
+class SharedGroupIndex
+{
+    private static final Logger Log = LoggerFactory.getLogger(SharedGroupIndex.class);
+
+    private final Supplier<Collection<Group>> sharedGroups;
+    private final Function<String, Group> groupLookup;
+    private final Supplier<Long> maxAgeMillis;
+    private final Executor rebuildExecutor;
+
+    /**
+     * The index that is used for lookups, or null when it has not been built yet.
+     */
+    private volatile Index current;
+
+    /**
+     * Incremented whenever the index is invalidated. An index that was built before the last invalidation is stale.
+     */
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * Set while a rebuild of the index is scheduled or running.
+     */
+    private final AtomicBoolean rebuilding = new AtomicBoolean();
+
+    /**
+     * Serializes builds of the index.
+     */
+    private final Object buildMutex = new Object();
+
+    /**
+     * Serializes updates of the index, and the replacement of the current index.
+     */
+    private final Object updateMutex = new Object();
+
+    /**
+     * Updates that were applied while a build was running. These are applied again to the new index before it replaces
+     * the current one, as the build might have read the groups before they were updated. Null when no build is running.
+     * Guarded by {@link #updateMutex}.
+     */
+    private List<Consumer<Index>> pendingUpdates;
+
+    /**
+     * Creates a new, empty index that builds itself on first use.
+     *
+     * @param sharedGroups supplies all shared groups.
+     * @param groupLookup finds a group by name, returning null when no such group exists.
+     * @param maxAgeMillis supplies the period after which the index is rebuilt.
+     * @param rebuildExecutor executes the rebuilds of an index that is stale.
+     */
+    SharedGroupIndex(final Supplier<Collection<Group>> sharedGroups, final Function<String, Group> groupLookup, final Supplier<Long> maxAgeMillis, final Executor rebuildExecutor)
+    {
+        this.sharedGroups = sharedGroups;
+        this.groupLookup = groupLookup;
+        this.maxAgeMillis = maxAgeMillis;
+        this.rebuildExecutor = rebuildExecutor;
+    }
+
+    /**
+     * Returns true if the user belongs to a group that is allowed to see the shared group. This does not take into
+     * account users of the shared group itself, nor shared groups that are visible to everybody.
+     *
+     * @param group a shared group.
+     * @param user the user to check.
+     * @return true if a group of the user is allowed to see the shared group.
+     */
+    boolean isVisibleThroughViewerGroup(final Group group, final JID user)
+    {
+        final Index index = index();
+        final Set<String> viewerGroups = index.sharedWith.get(group.getName());
+        final Set<String> userGroups = index.viewerGroupsByUser.get(user.asBareJID());
+        if (viewerGroups == null || userGroups == null) {
+            return false;
+        }
+        return !Collections.disjoint(viewerGroups, userGroups);
+    }
+
+    /**
+     * Returns the names of the groups that a shared group is shared with.
+     *
+     * @param group a shared group.
+     * @return names of groups (possibly empty, never null).
+     */
+    Set<String> getSharedWithNames(final Group group)
+    {
+        final Set<String> result = index().sharedWith.get(group.getName());
+        return result == null ? Collections.emptySet() : new HashSet<>(result);
+    }
+
+    /**
+     * Returns the names of the shared groups that the users of a group can see, which includes all shared groups that
+     * are visible to everybody.
+     *
+     * @param groupName the name of a group.
+     * @return names of shared groups (possibly empty, never null).
+     */
+    Set<String> getVisibleGroupNames(final String groupName)
+    {
+        final Index index = index();
+        final Set<String> result = new HashSet<>(index.publicGroups);
+        final Set<String> visible = index.visibleTo.get(groupName);
+        if (visible != null) {
+            result.addAll(visible);
+        }
+        return result;
+    }
+
+    /**
+     * Updates the index after the sharing configuration of a group has changed, or after a group was created.
+     *
+     * @param group the group that was modified or created.
+     */
+    void groupChanged(final Group group)
+    {
+        update(index -> {
+            index.removeSharedGroup(group.getName());
+            index.addSharedGroup(group, groupLookup);
+            if (index.visibleTo.containsKey(group.getName())) {
+                index.indexViewerGroupUsers(group.getName(), group);
+            }
+        });
+    }
+
+    /**
+     * Updates the index after a group was deleted.
+     *
+     * @param group the group that is being deleted.
+     */
+    void groupDeleted(final Group group)
+    {
+        update(index -> {
+            index.removeSharedGroup(group.getName());
+            if (index.visibleTo.containsKey(group.getName())) {
+                // Other shared groups might still refer to the group by name, so retain the reference but drop its users.
+                index.indexViewerGroupUsers(group.getName(), null);
+            }
+        });
+    }
+
+    /**
+     * Updates the index after a user was added to a group (as a member or as an admin).
+     *
+     * @param group the group that the user was added to.
+     * @param user the user that was added.
+     */
+    void userAdded(final Group group, final JID user)
+    {
+        update(index -> {
+            final Set<JID> users = index.viewerGroupUsers.get(group.getName());
+            if (users == null) {
+                return; // Not a group that is used to determine visibility of shared groups.
+            }
+            final JID bareJID = user.asBareJID();
+            users.add(bareJID);
+            index.viewerGroupsByUser.computeIfAbsent(bareJID, k -> ConcurrentHashMap.newKeySet()).add(group.getName());
+        });
+    }
+
+    /**
+     * Updates the index after a user was removed from a group. Users that are still a member or admin of the group
+     * are retained.
+     *
+     * @param group the group that the user was removed from.
+     * @param user the user that was removed.
+     */
+    void userRemoved(final Group group, final JID user)
+    {
+        update(index -> {
+            final Set<JID> users = index.viewerGroupUsers.get(group.getName());
+            if (users == null || group.isUser(user)) {
+                return;
+            }
+            final JID bareJID = user.asBareJID();
+            users.remove(bareJID);
+            index.removeViewerGroupOfUser(bareJID, group.getName());
+        });
+    }
+
+    /**
+     * Marks the index as stale, causing it to be rebuilt. Until the rebuild completes, lookups are answered by the
+     * stale index.
+     */
+    void invalidate()
+    {
+        invalidations.incrementAndGet();
+        if (current != null) {
+            scheduleRebuild();
+        }
+    }
+
+    /**
+     * Returns the index to be used for lookups. This builds the index if it has not been built yet, and schedules a
+     * rebuild if it is stale.
+     */
+    private Index index()
+    {
+        Index index = current;
+        if (index == null) {
+            synchronized (buildMutex) {
+                index = current;
+                if (index == null) {
+                    index = build();
+                }
+            }
+        } else if (index.generation != invalidations.get() || System.currentTimeMillis() - index.builtAt > maxAgeMillis.get()) {
+            scheduleRebuild();
+        }
+        return index;
+    }
+
+    private void scheduleRebuild()
+    {
+        if (!rebuilding.compareAndSet(false, true)) {
+            return; // The index that is being built will be checked for staleness again when it is used.
+        }
+        try {
+            rebuildExecutor.execute(() -> {
+                try {
+                    synchronized (buildMutex) {
+                        build();
+                    }
+                } catch (final RuntimeException e) {
+                    Log.warn("Unable to rebuild the index of shared group visibility. The current index remains in use.", e);
+                } finally {
+                    rebuilding.set(false);
+                }
+            });
+        } catch (final RuntimeException e) {
+            rebuilding.set(false);
+            Log.warn("Unable to schedule a rebuild of the index of shared group visibility.", e);
+        }
+    }
+
+    /**
+     * Builds a new index and makes it the current one. Must be invoked while holding {@link #buildMutex}.
+     */
+    private Index build()
+    {
+        synchronized (updateMutex) {
+            pendingUpdates = new ArrayList<>();
+        }
+        try {
+            final Index index = new Index(System.currentTimeMillis(), invalidations.get());
+            for (final Group group : sharedGroups.get()) {
+                index.addSharedGroup(group, groupLookup);
+            }
+            synchronized (updateMutex) {
+                for (final Consumer<Index> update : pendingUpdates) {
+                    update.accept(index);
+                }
+                current = index;
+            }
+            return index;
+        } finally {
+            synchronized (updateMutex) {
+                pendingUpdates = null;
+            }
+        }
+    }
+
+    private void update(final Consumer<Index> update)
+    {
+        synchronized (updateMutex) {
+            if (current != null) {
+                update.accept(current);
+            }
+            if (pendingUpdates != null) {
+                pendingUpdates.add(update);
+            }
+        }
+    }
+
+    /**
+     * The data of the index. Modifications are serialized by the enclosing class, while lookups can read concurrently.
+     */
+    private static class Index
+    {
+        private final long builtAt;
+
+        /**
+         * The value of {@link #invalidations} when the build of this index started.
+         */
+        private final long generation;
+
+        /**
+         * Names of all shared groups that are visible to everybody.
+         */
+        private final Set<String> publicGroups = ConcurrentHashMap.newKeySet();
+
+        /**
+         * For every shared group that is shared with the users of specific groups: the names of those groups.
+         */
+        private final Map<String, Set<String>> sharedWith = new ConcurrentHashMap<>();
+
+        /**
+         * For every group that appears in the 'shared with' list of a shared group: the names of the shared groups that
+         * its users can see.
+         */
+        private final Map<String, Set<String>> visibleTo = new ConcurrentHashMap<>();
+
+        /**
+         * For every group that appears in the 'shared with' list of a shared group: its users.
+         */
+        private final Map<String, Set<JID>> viewerGroupUsers = new ConcurrentHashMap<>();
+
+        /**
+         * For every user of a group that appears in the 'shared with' list of a shared group: the names of those groups.
+         */
+        private final Map<JID, Set<String>> viewerGroupsByUser = new ConcurrentHashMap<>();
+
+        private Index(final long builtAt, final long generation)
+        {
+            this.builtAt = builtAt;
+            this.generation = generation;
+        }
+
+        private void addSharedGroup(final Group group, final Function<String, Group> groupLookup)
+        {
+            final SharedGroupVisibility visibility = group.getSharedWith();
+            if (visibility == SharedGroupVisibility.everybody) {
+                publicGroups.add(group.getName());
+            } else if (visibility == SharedGroupVisibility.usersOfGroups) {
+                final Set<String> viewerGroups = ConcurrentHashMap.newKeySet();
+                viewerGroups.addAll(group.getSharedWithUsersInGroupNames());
+                sharedWith.put(group.getName(), viewerGroups);
+                for (final String viewerGroup : viewerGroups) {
+                    visibleTo.computeIfAbsent(viewerGroup, k -> ConcurrentHashMap.newKeySet()).add(group.getName());
+                    if (!viewerGroupUsers.containsKey(viewerGroup)) {
+                        indexViewerGroupUsers(viewerGroup, groupLookup.apply(viewerGroup));
+                    }
+                }
+            }
+        }
+
+        private void removeSharedGroup(final String groupName)
+        {
+            publicGroups.remove(groupName);
+            final Set<String> viewerGroups = sharedWith.remove(groupName);
+            if (viewerGroups == null) {
+                return;
+            }
+            for (final String viewerGroup : viewerGroups) {
+                final Set<String> visible = visibleTo.get(viewerGroup);
+                if (visible != null) {
+                    visible.remove(groupName);
+                    if (visible.isEmpty()) {
+                        // The group is no longer used to determine visibility. Stop tracking its users.
+                        visibleTo.remove(viewerGroup);
+                        indexViewerGroupUsers(viewerGroup, null);
+                        viewerGroupUsers.remove(viewerGroup);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Replaces the recorded users of a viewer group with the current users of the group.
+         *
+         * @param groupName the name of the viewer group.
+         * @param group the viewer group, or null if it does not exist.
+         */
+        private void indexViewerGroupUsers(final String groupName, final Group group)
+        {
+            final Set<JID> previous = viewerGroupUsers.get(groupName);
+            if (previous != null) {
+                for (final JID user : previous) {
+                    removeViewerGroupOfUser(user, groupName);
+                }
+            }
+            final Set<JID> users = ConcurrentHashMap.newKeySet();
+            if (group != null) {
+                users.addAll(group.getMembers());
+                users.addAll(group.getAdmins());
+            }
+            viewerGroupUsers.put(groupName, users);
+            for (final JID user : users) {
+                viewerGroupsByUser.computeIfAbsent(user, k -> ConcurrentHashMap.newKeySet()).add(groupName);
+            }
+        }
+
+        private void removeViewerGroupOfUser(final JID user, final String groupName)
+        {
+            viewerGroupsByUser.computeIfPresent(user, (k, groups) -> {
+                groups.remove(groupName);
+                return groups.isEmpty() ? null : groups;
+            });
+        }
+    }
+}
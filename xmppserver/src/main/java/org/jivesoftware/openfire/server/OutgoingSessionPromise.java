@@ -21,6 +21,9 @@ import java.time.Duration;
 import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.concurrent.locks.Lock;
 
 import com.google.common.collect.Interner;
@@ -35,7 +38,10 @@ import org.jivesoftware.openfire.interceptor.InterceptorManager;
 import org.jivesoftware.openfire.interceptor.PacketRejectedException;
 import org.jivesoftware.openfire.session.*;
 import org.jivesoftware.openfire.spi.RoutingTableImpl;
-import org.jivesoftware.util.JiveGlobals;
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
+import org.jivesoftware.openfire.stats.i18nStatistic;
+import org.jivesoftware.util.NamedThreadFactory;
 import org.jivesoftware.util.SystemProperty;
 import org.jivesoftware.util.TaskEngine;
 import org.jivesoftware.util.cache.Cache;
@@ -62,6 +68,10 @@ import javax.annotation.Nonnull;
  * to connect to remote servers and deliver the packets. If an error occurred while establishing
  * the connection or sending the packet an error will be returned to the sender of the packet.
  *
+ * The queue of each remote domain is bounded by an amount of stanzas and by their estimated total size. The queues of
+ * all domains combined are bounded by a total size too. Stanzas that do not fit are bounced or dropped, as configured
+ * by {@link #QUEUE_OVERFLOW_POLICY}. The thread that queues a stanza never establishes a connection itself.
+ *
  * @author Gaston Dombiak, Dave Cridland, Guus der Kinderen
  */
 public class OutgoingSessionPromise {
@@ -72,9 +82,12 @@ public class OutgoingSessionPromise {
         .setKey(ConnectionSettings.Server.QUEUE_MAX_THREADS)
         .setDynamic(false)
         .setDefaultValue(20)
-        .setMinValue(0) // RejectedExecutionHandler is CallerRunsPolicy, meaning that the calling thread would execute the task.
+        .setMinValue(1)
         .build();
 
+    /**
+     * The amount of threads that establish connections to remote domains, that is kept when these threads are idle.
+     */
     public static final SystemProperty<Integer> QUEUE_MIN_THREADS = SystemProperty.Builder.ofType(Integer.class)
         .setKey(ConnectionSettings.Server.QUEUE_MIN_THREADS)
         .setDynamic(false)
@@ -97,6 +110,50 @@ public class OutgoingSessionPromise {
         .setMinValue(Duration.ZERO)
         .build();
 
+    /**
+     * The maximum total size of the stanzas that are queued for one domain pair, while a connection to the remote
+     * domain is being established. The size of a stanza is estimated as the length of its XML representation.
+     */
+    public static final SystemProperty<Long> QUEUE_MAX_BYTES_PER_DOMAIN = SystemProperty.Builder.ofType(Long.class)
+        .setKey("xmpp.server.outgoing.queue.max-bytes-per-domain")
+        .setDynamic(true)
+        .setDefaultValue(1024L * 1024)
+        .setMinValue(0L)
+        .build();
+
+    /**
+     * The maximum total size of the stanzas that are queued for all domain pairs combined, while connections to remote
+     * domains are being established. The size of a stanza is estimated as the length of its XML representation.
+     */
+    public static final SystemProperty<Long> QUEUE_MAX_BYTES = SystemProperty.Builder.ofType(Long.class)
+        .setKey("xmpp.server.outgoing.queue.max-bytes")
+        .setDynamic(true)
+        .setDefaultValue(64L * 1024 * 1024)
+        .setMinValue(0L)
+        .build();
+
+    public static final SystemProperty<OverflowPolicy> QUEUE_OVERFLOW_POLICY = SystemProperty.Builder.ofType(OverflowPolicy.class)
+        .setKey("xmpp.server.outgoing.queue.overflow-policy")
+        .setDynamic(true)
+        .setDefaultValue(OverflowPolicy.bounce)
+        .build();
+
+    /**
+     * Defines what happens to a stanza that cannot be queued, because a queue has reached its maximum size.
+     */
+    public enum OverflowPolicy
+    {
+        /**
+         * The stanza is discarded, and an error is returned to its sender.
+         */
+        bounce,
+
+        /**
+         * The stanza is discarded silently.
+         */
+        drop
+    }
+
     private static final OutgoingSessionPromise instance = new OutgoingSessionPromise();
 
     private final Interner<DomainPair> interner = Interners.newWeakInterner();
@@ -109,6 +166,16 @@ public class OutgoingSessionPromise {
 
     private final ConcurrentMap<DomainPair, PacketsProcessor> packetsProcessors = new ConcurrentHashMap<>();
 
+    /**
+     * The estimated total size of all stanzas that are queued, for all domain pairs.
+     */
+    private final AtomicLong queuedBytes = new AtomicLong();
+
+    /**
+     * The amount of stanzas that could not be queued since the last time that this was sampled.
+     */
+    private final LongAdder overflows = new LongAdder();
+
     /**
      * Cache (unlimited, never expire) that holds outgoing sessions to remote servers from this server.
      * Key: server domain, Value: nodeID
@@ -117,7 +184,8 @@ public class OutgoingSessionPromise {
 
     private RoutingTable routingTable;
 
-    private OutgoingSessionPromise() {
+    // @VisibleForTesting
+    OutgoingSessionPromise() {
         super();
         init();
     }
@@ -127,10 +195,116 @@ public class OutgoingSessionPromise {
         routingTable = XMPPServer.getInstance().getRoutingTable();
 
         // Create a pool of threads that will process queued packets.
-        threadPool = new ThreadPoolExecutor(QUEUE_MIN_THREADS.getValue(), QUEUE_MAX_THREADS.getValue(),
-                        QUEUE_THREAD_TIMEOUT.getValue().toMillis(), TimeUnit.MILLISECONDS,
-                        new LinkedBlockingQueue<>(QUEUE_SIZE.getValue()),
-                        new ThreadPoolExecutor.CallerRunsPolicy());
+        threadPool = createThreadPool(QUEUE_MIN_THREADS.getValue(), QUEUE_MAX_THREADS.getValue(), QUEUE_THREAD_TIMEOUT.getValue(), QUEUE_SIZE.getValue());
+
+        StatisticsManager.getInstance().addStatistic("s2s_queued_bytes", new i18nStatistic("s2s.queued_bytes", Statistic.Type.count) {
+            @Override
+            public double sample() {
+                return queuedBytes.get();
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return false;
+            }
+        });
+        StatisticsManager.getInstance().addStatistic("s2s_queue_overflows", new i18nStatistic("s2s.queue_overflows", Statistic.Type.rate) {
+            @Override
+            public double sample() {
+                return overflows.sumThenReset();
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return true;
+            }
+        });
+        StatisticsManager.getInstance().addStatistic("s2s_pending_domains", new i18nStatistic("s2s.pending_domains", Statistic.Type.count) {
+            @Override
+            public double sample() {
+                return packetsProcessors.size();
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return false;
+            }
+        });
+        StatisticsManager.getInstance().addStatistic("s2s_largest_queue_bytes", new i18nStatistic("s2s.largest_queue_bytes", Statistic.Type.count) {
+            @Override
+            public double sample() {
+                return packetsProcessors.values().stream().mapToLong(PacketsProcessor::getQueuedBytes).max().orElse(0);
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Creates a pool of threads that establish connections to remote domains.
+     *
+     * A ThreadPoolExecutor only starts threads beyond its core size when its queue is full. To establish connections to
+     * different domains in parallel, the pool instead starts threads up to the maximum before tasks are queued. Threads
+     * beyond the minimum time out when idle. When the queue is full, a task is rejected rather than executed by the
+     * calling thread, which typically is one that routes stanzas, and should not be blocked by DNS lookups or TLS
+     * handshakes.
+     *
+     * @param minThreads The amount of threads that is kept, even when idle.
+     * @param maxThreads The maximum amount of threads.
+     * @param timeout The duration after which an idle thread beyond the minimum is stopped (zero keeps all threads).
+     * @param queueSize The maximum amount of tasks that are queued when all threads are busy.
+     * @return A thread pool.
+     */
+    @Nonnull
+    static ThreadPoolExecutor createThreadPool(final int minThreads, final int maxThreads, @Nonnull final Duration timeout, final int queueSize)
+    {
+        final int coreThreads = timeout.isZero() ? maxThreads : Math.min(minThreads, maxThreads);
+        final GrowFirstQueue queue = new GrowFirstQueue(queueSize);
+        final ThreadPoolExecutor result = new ThreadPoolExecutor(coreThreads, maxThreads,
+                        timeout.toMillis(), TimeUnit.MILLISECONDS,
+                        queue,
+                        new NamedThreadFactory("s2s-outgoing-", null, true, null),
+                        (task, executor) -> {
+                            // The executor rejects a task that the queue refused, when it cannot start another thread.
+                            if (executor.isShutdown() || !queue.force(task)) {
+                                throw new RejectedExecutionException("Task " + task + " rejected from " + executor);
+                            }
+                        });
+        queue.executor = result;
+        return result;
+    }
+
+    /**
+     * A queue that refuses tasks while its thread pool can start more threads, causing the pool to do so.
+     */
+    private static final class GrowFirstQueue extends LinkedBlockingQueue<Runnable>
+    {
+        private ThreadPoolExecutor executor;
+
+        private GrowFirstQueue(final int capacity) {
+            super(capacity);
+        }
+
+        @Override
+        public boolean offer(@Nonnull final Runnable task) {
+            if (executor.getPoolSize() < executor.getMaximumPoolSize()) {
+                return false;
+            }
+            return super.offer(task);
+        }
+
+        /**
+         * Queues a task, even when more threads can be started.
+         *
+         * @param task The task to queue.
+         * @return true if the task was queued, false if the queue is full.
+         */
+        private boolean force(@Nonnull final Runnable task) {
+            return super.offer(task);
+        }
     }
 
     public static OutgoingSessionPromise getInstance() {
@@ -175,7 +349,13 @@ public class OutgoingSessionPromise {
         } else {
             Log.debug("Created new PacketProcessor for {}", domainPair);
             packetsProcessor.addPacket(packet);
-            threadPool.execute(packetsProcessor);
+            try {
+                threadPool.execute(packetsProcessor);
+            } catch (RejectedExecutionException e) {
+                Log.warn("Unable to start establishing a connection for {}, as too many connections are being established already.", domainPair);
+                packetsProcessors.remove(domainPair);
+                packetsProcessor.bounceAll();
+            }
         }
     }
 
@@ -226,11 +406,70 @@ public class OutgoingSessionPromise {
      * @return true if an outgoing session is currently being created, otherwise false.
      */
     public boolean hasProcess(@Nonnull final DomainPair domainPair) {
+        // A processor is removed after it has delivered all queued stanzas. It must be used to queue stanzas while it
+        // exists, even if its queue is empty (eg: when all stanzas so far were discarded because the queue was full).
+        return packetsProcessors.containsKey(domainPair);
+    }
+
+    /**
+     * Returns the domain pairs for which an outgoing session is in process of being created.
+     *
+     * @return domain pairs (never null).
+     */
+    @Nonnull
+    public Set<DomainPair> getPendingDomainPairs() {
+        return new HashSet<>(packetsProcessors.keySet());
+    }
+
+    /**
+     * Returns the amount of stanzas that are queued for delivery after an outgoing session has been created.
+     *
+     * @param domainPair The connection for which to return the queued amount of stanzas.
+     * @return an amount of stanzas (zero when no outgoing session is being created).
+     */
+    public int getQueuedStanzaCount(@Nonnull final DomainPair domainPair) {
+        final PacketsProcessor processor = packetsProcessors.get(domainPair);
+        return processor == null ? 0 : processor.getQueuedStanzaCount();
+    }
+
+    /**
+     * Returns the estimated total size of the stanzas that are queued for delivery after an outgoing session has been
+     * created.
+     *
+     * @param domainPair The connection for which to return the size of the queued stanzas.
+     * @return a size in bytes (zero when no outgoing session is being created).
+     */
+    public long getQueuedBytes(@Nonnull final DomainPair domainPair) {
         final PacketsProcessor processor = packetsProcessors.get(domainPair);
-        return processor != null && !processor.isDone();
+        return processor == null ? 0 : processor.getQueuedBytes();
+    }
+
+    /**
+     * Returns the estimated total size of the stanzas that are queued for delivery after outgoing sessions have been
+     * created, for all domain pairs.
+     *
+     * @return a size in bytes.
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * A stanza that is queued, and its estimated size.
+     */
+    private static final class QueuedPacket
+    {
+        private final Packet packet;
+        private final long size;
+
+        private QueuedPacket(@Nonnull final Packet packet, final long size) {
+            this.packet = packet;
+            this.size = size;
+        }
     }
 
-    private class PacketsProcessor implements Runnable
+    // @VisibleForTesting
+    class PacketsProcessor implements Runnable
     {
         private final Logger Log = LoggerFactory.getLogger( PacketsProcessor.class );
 
@@ -238,7 +477,11 @@ public class OutgoingSessionPromise {
         private final DomainPair domainPair;
 
         @Nonnull
-        private final Queue<Packet> packetQueue = new ArrayBlockingQueue<>( JiveGlobals.getIntProperty(ConnectionSettings.Server.QUEUE_SIZE, 2000) );
+        private final Queue<QueuedPacket> packetQueue = new ConcurrentLinkedQueue<>();
+
+        private final AtomicInteger queuedCount = new AtomicInteger();
+
+        private final AtomicLong domainQueuedBytes = new AtomicLong();
 
         public PacketsProcessor(@Nonnull final DomainPair domainPair) {
             this.domainPair = domainPair;
@@ -261,8 +504,10 @@ public class OutgoingSessionPromise {
             // established connection after we've finished processing all queued stanzas below.
             synchronized (getMutex(domainPair)) {
                 Log.trace("Purging queue for {}", domainPair);
-                Packet packet;
-                while ((packet = packetQueue.poll()) != null) {
+                QueuedPacket queuedPacket;
+                while ((queuedPacket = packetQueue.poll()) != null) {
+                    release(queuedPacket.size);
+                    final Packet packet = queuedPacket.packet;
                     if (channel != null) {
                         // A connection to the remote server was created so get the route and purge the packet queue.
                         try {
@@ -404,15 +649,76 @@ public class OutgoingSessionPromise {
             if (!packet.getTo().getDomain().equals(domainPair.getRemote())) {
                 throw new IllegalArgumentException("Cannot queue packet to intended recipient '" + packet.getTo() + "' in the outgoing session promise to domain " + domainPair + ". Remote domain does not match!");
             }
-            Log.trace("Queuing stanza to intended recipient '{}' in the outgoing session promise to domain '{}': {}", packet.getTo(), domainPair, packet.toXML());
+            final String xml = packet.toXML();
+            Log.trace("Queuing stanza to intended recipient '{}' in the outgoing session promise to domain '{}': {}", packet.getTo(), domainPair, xml);
+
+            final long size = xml.length();
+            if (!reserve(size))
+            {
+                overflows.increment();
+                if (QUEUE_OVERFLOW_POLICY.getValue() == OverflowPolicy.drop) {
+                    Log.debug("Dropping packet in the outgoing session promise for {}. (outbound queue full): {}", domainPair, packet);
+                } else {
+                    Log.debug("Error sending packet in the outgoing session promise for {}. (outbound queue full): {}", domainPair, packet);
+                    returnErrorToSender(packet);
+                }
+                return;
+            }
 
             // When queuing for async processing, ensure that the queued stanza is not modified by reference, by queuing
             // a defensive copy rather than the original. Modifications of the original can be expected in broadcast-like
             // scenarios (eg: MUC) where the same stanza is re-addressed for each intended recipient. See OF-2344.
-            if (!packetQueue.offer(packet.createCopy()))
-            {
-                Log.debug("Error sending packet in the outgoing session promise for {}. (outbound queue full): {}", domainPair, packet);
-                returnErrorToSender(packet);
+            packetQueue.add(new QueuedPacket(packet.createCopy(), size));
+        }
+
+        /**
+         * Claims room for a stanza in the queue of this processor, which is bounded by an amount of stanzas, and by the
+         * total size of the stanzas in this queue, as well as in all queues combined.
+         *
+         * @param size The estimated size of the stanza.
+         * @return true if the stanza can be queued, false if a limit would be exceeded.
+         */
+        private boolean reserve(final long size)
+        {
+            if (queuedCount.incrementAndGet() > QUEUE_SIZE.getValue()) {
+                queuedCount.decrementAndGet();
+                return false;
+            }
+            if (domainQueuedBytes.addAndGet(size) > QUEUE_MAX_BYTES_PER_DOMAIN.getValue()) {
+                domainQueuedBytes.addAndGet(-size);
+                queuedCount.decrementAndGet();
+                return false;
+            }
+            if (queuedBytes.addAndGet(size) > QUEUE_MAX_BYTES.getValue()) {
+                queuedBytes.addAndGet(-size);
+                domainQueuedBytes.addAndGet(-size);
+                queuedCount.decrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Releases the room that was claimed for a stanza that is removed from the queue of this processor.
+         *
+         * @param size The estimated size of the stanza.
+         */
+        private void release(final long size)
+        {
+            queuedBytes.addAndGet(-size);
+            domainQueuedBytes.addAndGet(-size);
+            queuedCount.decrementAndGet();
+        }
+
+        /**
+         * Returns an error to the senders of all queued stanzas, without attempting to deliver them.
+         */
+        void bounceAll()
+        {
+            QueuedPacket queuedPacket;
+            while ((queuedPacket = packetQueue.poll()) != null) {
+                release(queuedPacket.size);
+                returnErrorToSender(queuedPacket.packet);
             }
         }
 
@@ -421,8 +727,12 @@ public class OutgoingSessionPromise {
             return domainPair;
         }
 
-        public boolean isDone() {
-            return packetQueue.isEmpty();
+        public int getQueuedStanzaCount() {
+            return queuedCount.get();
+        }
+
+        public long getQueuedBytes() {
+            return domainQueuedBytes.get();
         }
     }
 }
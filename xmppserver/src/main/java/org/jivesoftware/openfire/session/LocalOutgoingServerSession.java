@@ -32,8 +32,12 @@ import org.jivesoftware.openfire.server.OutgoingServerSocketReader;
 import org.jivesoftware.openfire.server.RemoteServerManager;
 import org.jivesoftware.openfire.server.ServerDialback;
 import org.jivesoftware.openfire.spi.BasicStreamIDFactory;
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
+import org.jivesoftware.openfire.stats.i18nStatistic;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.SystemProperty;
 import org.jivesoftware.util.TaskEngine;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -42,6 +46,7 @@ import org.xmlpull.v1.XmlPullParserException;
 import org.xmpp.packet.*;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLHandshakeException;
 import java.io.IOException;
@@ -51,9 +56,10 @@ import java.net.Socket;
 import java.net.SocketAddress;
 import java.nio.charset.StandardCharsets;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 /**
@@ -75,6 +81,10 @@ import java.util.stream.Collectors;
  * several hostnames. However, different routes will be created in the routing table for each
  * hostname of the remote server.
  *
+ * Similarly, the same outgoing connection is used to send data from different local domains (such as the domains of
+ * MUC or pubsub services) to the same remote domain, by authenticating each additional local domain over the existing
+ * connection using server dialback. See {@link #MULTIPLEXING_ENABLED} and {@link #MAX_DOMAIN_PAIRS_PER_SESSION}.
+ *
  * @author Gaston Dombiak
  */
 public class LocalOutgoingServerSession extends LocalServerSession implements OutgoingServerSession {
@@ -83,8 +93,38 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
 
     private static final Interner<JID> remoteAuthMutex = Interners.newWeakInterner();
 
+    /**
+     * Controls if an outgoing session that was established for one local domain is re-used to send data from other
+     * local domains to the same remote domain. When disabled, a new session is established for every local domain.
+     */
+    public static final SystemProperty<Boolean> MULTIPLEXING_ENABLED = SystemProperty.Builder.ofType(Boolean.class)
+        .setKey("xmpp.server.outgoing.multiplexing.enabled")
+        .setDynamic(true)
+        .setDefaultValue(true)
+        .build();
+
+    /**
+     * The maximum amount of domain pairs that are authenticated over one outgoing session, when re-using that session
+     * for other domains. When all sessions to a remote domain have reached this limit, a new session is established.
+     */
+    public static final SystemProperty<Integer> MAX_DOMAIN_PAIRS_PER_SESSION = SystemProperty.Builder.ofType(Integer.class)
+        .setKey("xmpp.server.outgoing.max-domain-pairs-per-session")
+        .setDynamic(true)
+        .setDefaultValue(100)
+        .setMinValue(1)
+        .build();
+
+    private static final LongAdder createdSessions = new LongAdder();
+    private static final LongAdder reusedSessions = new LongAdder();
+
     private final OutgoingServerSocketReader socketReader;
-    private final Collection<DomainPair> outgoingDomainPairs = new HashSet<>();
+    private final Collection<DomainPair> outgoingDomainPairs = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Whether the remote server offered server dialback on this connection, which allows additional domains to be
+     * authenticated over this connection even when it was authenticated using SASL EXTERNAL.
+     */
+    private boolean dialbackOffered = false;
 
     /**
      * Authenticates the local domain to the remote domain. Once authenticated the remote domain can be expected to
@@ -93,7 +133,9 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
      * This implementation will attempt to re-use an existing connection. An connection is deemed re-usable when it is either:
      * <ul>
      *     <li>authenticated to the remote domain itself, or:</li>
-     *     <li>authenticated to a sub- or superdomain of the remote domain AND offers dialback.</li>
+     *     <li>authenticated to a sub- or superdomain of the remote domain AND offers dialback, or:</li>
+     *     <li>authenticated from a different local domain to the remote domain AND offers dialback (unless disabled by
+     *     {@link #MULTIPLEXING_ENABLED}, or when the connection reached {@link #MAX_DOMAIN_PAIRS_PER_SESSION}).</li>
      * </ul>
      *
      * When no re-usable connection exists, a new connection will be created.
@@ -180,6 +222,21 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
                 }
             }
 
+            if (session == null && MULTIPLEXING_ENABLED.getValue())
+            {
+                log.debug( "Searching for pre-existing outgoing sessions from other local domains to the remote domain (if one exists, it might be re-usable) ..." );
+                final LocalOutgoingServerSession multiplexed = findMultiplexableSession(sessionManager, domainPair);
+                if (multiplexed == null) {
+                    log.debug( "There are no pre-existing sessions from other local domains that can be re-used." );
+                } else if (multiplexed.authenticateSubdomain(domainPair)) {
+                    log.debug( "Authentication successful (domain authentication was added to a pre-existing session from a different local domain: {}).", multiplexed.getStreamID() );
+                    reusedSessions.increment();
+                    return true;
+                } else {
+                    log.debug( "Unable to add authentication to a pre-existing session from a different local domain. A new session will be created." );
+                }
+            }
+
             if ( session != null )
             {
                 log.debug( "A pre-existing session can be re-used. The session was established using server dialback so it is possible to do piggybacking to authenticate more domains." );
@@ -194,6 +251,7 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
                 if ( session.authenticateSubdomain(domainPair) )
                 {
                     log.debug( "Authentication successful (domain authentication was added using a pre-existing session)." );
+                    reusedSessions.increment();
                     return true;
                 }
                 else
@@ -213,6 +271,7 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
 
                         session.addOutgoingDomainPair(domainPair);
                         sessionManager.outgoingServerSessionCreated((LocalOutgoingServerSession) session);
+                        createdSessions.increment();
                         log.debug("Authentication successful.");
                         //inform all listeners as well.
                         ServerSessionEventDispatcher.dispatchEvent(session, ServerSessionEventDispatcher.EventType.session_created);
@@ -236,6 +295,93 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
         }
     }
 
+    /**
+     * Finds an outgoing session of this cluster node to the remote domain of a domain pair, over which the local domain
+     * of that domain pair can be authenticated. When more than one session qualifies, the session that is used by the
+     * least amount of domain pairs is returned.
+     *
+     * @param sessionManager the session manager.
+     * @param domainPair the local and remote domain for which authentication is to be established.
+     * @return a re-usable session, or null if no session can be re-used.
+     */
+    // @VisibleForTesting
+    @Nullable
+    static LocalOutgoingServerSession findMultiplexableSession(@Nonnull final SessionManager sessionManager, @Nonnull final DomainPair domainPair) {
+        final int maxDomainPairs = MAX_DOMAIN_PAIRS_PER_SESSION.getValue();
+        LocalOutgoingServerSession result = null;
+        for (final OutgoingServerSession candidate : sessionManager.getOutgoingServerSessions(domainPair.getRemote())) {
+            // Sessions of other cluster nodes cannot be used to send data from this cluster node.
+            if (!(candidate instanceof LocalOutgoingServerSession)) {
+                continue;
+            }
+            final LocalOutgoingServerSession session = (LocalOutgoingServerSession) candidate;
+            if (session.isClosed() || !session.canAuthenticateSubdomains() || session.outgoingDomainPairs.size() >= maxDomainPairs) {
+                continue;
+            }
+            if (result == null || session.outgoingDomainPairs.size() < result.outgoingDomainPairs.size()) {
+                result = session;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the amount of outgoing sessions that were established by this cluster node since it started.
+     *
+     * @return an amount of sessions.
+     */
+    public static long getCreatedSessionCount() {
+        return createdSessions.sum();
+    }
+
+    /**
+     * Returns the amount of times that a domain pair was authenticated over a pre-existing outgoing session of this
+     * cluster node (rather than over a newly established session) since it started.
+     *
+     * @return an amount of domain pairs.
+     */
+    public static long getReusedSessionCount() {
+        return reusedSessions.sum();
+    }
+
+    /**
+     * Creates and adds statistics to statistic manager.
+     */
+    public static void initStatistics() {
+        StatisticsManager.getInstance().addStatistic("s2s_sessions_created", new i18nStatistic("s2s.sessions_created", Statistic.Type.rate) {
+            private long previous = getCreatedSessionCount();
+
+            @Override
+            public synchronized double sample() {
+                final long current = getCreatedSessionCount();
+                final long result = current - previous;
+                previous = current;
+                return result;
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return true;
+            }
+        });
+        StatisticsManager.getInstance().addStatistic("s2s_sessions_reused", new i18nStatistic("s2s.sessions_reused", Statistic.Type.rate) {
+            private long previous = getReusedSessionCount();
+
+            @Override
+            public synchronized double sample() {
+                final long current = getReusedSessionCount();
+                final long result = current - previous;
+                previous = current;
+                return result;
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return true;
+            }
+        });
+    }
+
     /**
      * Establishes a new outgoing session to a remote domain. If the remote domain supports TLS and SASL then the new
      * outgoing connection will be secured with TLS and authenticated  using SASL. However, if TLS or SASL is not
@@ -557,6 +703,7 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
 
         if ( result != null ) {
             log.debug( "Successfully secured and authenticated connection!" );
+            result.dialbackOffered = dialbackOffered;
             return result;
         } else {
             log.warn( "Unable to secure and authenticate connection: Exhausted all options." );
@@ -668,9 +815,19 @@ public class LocalOutgoingServerSession extends LocalServerSession implements Ou
         }
     }
 
+    /**
+     * Checks if additional domain pairs can be authenticated over this session, which requires server dialback to
+     * either have been used to authenticate the session, or to have been offered by the remote server.
+     *
+     * @return true if additional domain pairs can be authenticated, otherwise false.
+     */
+    boolean canAuthenticateSubdomains() {
+        return usingServerDialback || (dialbackOffered && (ServerDialback.isEnabled() || ServerDialback.isEnabledForSelfSigned()));
+    }
+
     @Override
     public boolean authenticateSubdomain(@Nonnull final DomainPair domainPair) {
-        if (!usingServerDialback) {
+        if (!canAuthenticateSubdomains()) {
             /*
              * We cannot do this reliably; but this code should be unreachable.
              */
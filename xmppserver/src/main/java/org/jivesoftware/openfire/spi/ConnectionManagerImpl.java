@@ -53,6 +53,7 @@ public class ConnectionManagerImpl extends BasicModule implements ConnectionMana
     public static final String COMPRESSION_FILTER_NAME = "compression";
     public static final String XMPP_CODEC_FILTER_NAME = "xmpp";
     public static final String CAPACITY_FILTER_NAME = "outCap";
+    public static final String WRITE_COALESCING_FILTER_NAME = "writeCoalescing";
 
     private static final Logger Log = LoggerFactory.getLogger(ConnectionManagerImpl.class);
 
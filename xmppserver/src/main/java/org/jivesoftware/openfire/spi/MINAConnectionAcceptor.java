@@ -15,6 +15,7 @@ import org.apache.mina.transport.socket.nio.NioSocketAcceptor;
 import org.jivesoftware.openfire.Connection;
 import org.jivesoftware.openfire.JMXManager;
 import org.jivesoftware.openfire.net.StalledSessionsFilter;
+import org.jivesoftware.openfire.net.WriteCoalescingFilter;
 import org.jivesoftware.openfire.nio.*;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.NamedThreadFactory;
@@ -121,6 +122,12 @@ class MINAConnectionAcceptor extends ConnectionAcceptor
             // Kill sessions whose outgoing queues keep growing and fail to send traffic
             filterChain.addAfter( ConnectionManagerImpl.XMPP_CODEC_FILTER_NAME, ConnectionManagerImpl.CAPACITY_FILTER_NAME, new StalledSessionsFilter() );
 
+            // Optionally gather outbound data, to write it in fewer (but larger) chunks.
+            if ( WriteCoalescingFilter.ENABLED.getValue() )
+            {
+                filterChain.addAfter( ConnectionManagerImpl.CAPACITY_FILTER_NAME, ConnectionManagerImpl.WRITE_COALESCING_FILTER_NAME, new WriteCoalescingFilter() );
+            }
+
             // Ports can be configured to start connections in SSL (as opposed to upgrade a non-encrypted socket to an encrypted one, typically using StartTLS)
             if ( configuration.getTlsPolicy() == Connection.TLSPolicy.legacyMode )
             {
@@ -22,6 +22,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Types;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.Lock;
 
 import org.dom4j.Document;
@@ -41,6 +42,8 @@ import org.jivesoftware.openfire.roster.Roster;
 import org.jivesoftware.openfire.roster.RosterItem;
 import org.jivesoftware.openfire.roster.RosterManager;
 import org.jivesoftware.openfire.session.ClientSession;
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
 import org.jivesoftware.openfire.user.User;
 import org.jivesoftware.openfire.user.UserManager;
 import org.jivesoftware.openfire.user.UserNotFoundException;
@@ -65,6 +68,8 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
 
     private static final String LOAD_OFFLINE_PRESENCE =
             "SELECT offlinePresence, offlineDate FROM ofPresence WHERE username=?";
+    private static final String LOAD_OFFLINE_PRESENCES =
+            "SELECT username, offlinePresence, offlineDate FROM ofPresence WHERE username IN ";
     private static final String INSERT_OFFLINE_PRESENCE =
             "INSERT INTO ofPresence(username, offlinePresence, offlineDate) VALUES(?,?,?)";
     private static final String DELETE_OFFLINE_PRESENCE =
@@ -73,6 +78,18 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
     private static final String NULL_STRING = "NULL";
     private static final long NULL_LONG = -1L;
 
+    /**
+     * The maximum number of users for which offline presence is loaded from the database in one query.
+     */
+    private static final int LOAD_BATCH_SIZE = 100;
+
+    private static final String probeLatencyStatKey = "presence_probe_latency";
+    private static final String probeCountStatKey = "presence_probe_count";
+
+    private final AtomicLong bulkProbeCounter = new AtomicLong(0);
+    private final AtomicLong bulkProbeNanosCounter = new AtomicLong(0);
+    private final AtomicLong bulkProbeeCounter = new AtomicLong(0);
+
     private RoutingTable routingTable;
     private SessionManager sessionManager;
     private UserManager userManager;
@@ -336,17 +353,73 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
 
     @Override
     public void probePresence(JID prober, JID probee) {
+        probePresence(prober, null, probee);
+    }
+
+    @Override
+    public void probePresences(JID prober, Collection<JID> probees) {
+        final long start = System.nanoTime();
+
+        // Load the offline presence of all local contacts that are not online, and that is not
+        // yet cached, in as few database queries as possible.
+        final List<String> missing = new ArrayList<>();
+        for (JID probee : probees) {
+            final String username = probee.getNode();
+            if (username != null && server.isLocal(probee)
+                    && sessionManager.getActiveSessionCount(username) == 0
+                    && offlinePresenceCache.get(username) == null) {
+                missing.add(username);
+            }
+        }
+        loadOfflinePresences(missing);
+
+        // The full JIDs of the prober are the same for every probee.
+        Collection<JID> proberFullJIDs = null;
+        for (JID probee : probees) {
+            if (proberFullJIDs == null && server.isLocal(probee)) {
+                proberFullJIDs = getProberFullJIDs(prober);
+            }
+            probePresence(prober, proberFullJIDs, probee);
+        }
+
+        bulkProbeCounter.incrementAndGet();
+        bulkProbeeCounter.addAndGet(probees.size());
+        bulkProbeNanosCounter.addAndGet(System.nanoTime() - start);
+    }
+
+    /**
+     * Returns the addresses that should receive the presence of a local probee: all connected
+     * resources of a local prober that is using its bare JID, or the prober itself otherwise.
+     *
+     * @param prober The user requesting the probe
+     * @return the addresses to send the probee's presence to.
+     */
+    private Collection<JID> getProberFullJIDs(JID prober) {
+        Collection<JID> proberFullJIDs = new ArrayList<>();
+        if (prober.getResource() == null && server.isLocal(prober)) {
+            for (ClientSession session : sessionManager.getSessions(prober.getNode())) {
+                proberFullJIDs.add(session.getAddress());
+            }
+        }
+        else {
+            proberFullJIDs.add(prober);
+        }
+        return proberFullJIDs;
+    }
+
+    /**
+     * Probes the presence of the probee on behalf of the prober.
+     *
+     * @param prober The user requesting the probe
+     * @param proberFullJIDs The result of {@link #getProberFullJIDs(JID)} for the prober, or null if it is yet to be determined.
+     * @param probee The XMPPAddress whos presence we would like sent have have probed
+     */
+    private void probePresence(JID prober, Collection<JID> proberFullJIDs, JID probee) {
         try {
             if (server.isLocal(probee)) {
                 // Local probers should receive presences of probee in all connected resources
-                Collection<JID> proberFullJIDs = new ArrayList<>();
-                if (prober.getResource() == null && server.isLocal(prober)) {
-                    for (ClientSession session : sessionManager.getSessions(prober.getNode())) {
-                        proberFullJIDs.add(session.getAddress());
-                    }
-                }
-                else {
-                    proberFullJIDs.add(prober);
+                if (proberFullJIDs == null) {
+                    proberFullJIDs = getProberFullJIDs(prober);
                 }
                 // If the probee is a local user then don't send a probe to the contact's server.
                 // But instead just send the contact's presence to the prober
@@ -531,7 +604,7 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
         componentManager = InternalComponentManager.getInstance();
         // Listen for user deletion events
         UserEventDispatcher.addListener(this);
-
+        initStatistics();
     }
 
     @Override
@@ -541,6 +614,82 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
         lastActivityCache.clear();
         // Stop listening for user deletion events
         UserEventDispatcher.removeListener(this);
+        StatisticsManager.getInstance().removeStatistic(probeLatencyStatKey);
+        StatisticsManager.getInstance().removeStatistic(probeCountStatKey);
+    }
+
+    /**
+     * Creates and adds statistics to statistic manager.
+     */
+    private void initStatistics() {
+        final Statistic probeLatency = new Statistic() {
+            @Override
+            public String getName() {
+                return LocaleUtils.getLocalizedString("presence.stats.probe_latency.name");
+            }
+
+            @Override
+            public Type getStatType() {
+                return Type.count;
+            }
+
+            @Override
+            public String getDescription() {
+                return LocaleUtils.getLocalizedString("presence.stats.probe_latency.description");
+            }
+
+            @Override
+            public String getUnits() {
+                return LocaleUtils.getLocalizedString("presence.stats.probe_latency.label");
+            }
+
+            @Override
+            public double sample() {
+                // Average time (in milliseconds) that it took to probe all contacts of a user.
+                final long probes = bulkProbeCounter.getAndSet(0);
+                final long nanos = bulkProbeNanosCounter.getAndSet(0);
+                return probes == 0 ? 0 : nanos / (double) probes / 1_000_000d;
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return true;
+            }
+        };
+        StatisticsManager.getInstance().addStatistic(probeLatencyStatKey, probeLatency);
+
+        final Statistic probeCount = new Statistic() {
+            @Override
+            public String getName() {
+                return LocaleUtils.getLocalizedString("presence.stats.probe_count.name");
+            }
+
+            @Override
+            public Type getStatType() {
+                return Type.count;
+            }
+
+            @Override
+            public String getDescription() {
+                return LocaleUtils.getLocalizedString("presence.stats.probe_count.description");
+            }
+
+            @Override
+            public String getUnits() {
+                return LocaleUtils.getLocalizedString("presence.stats.probe_count.label");
+            }
+
+            @Override
+            public double sample() {
+                return bulkProbeeCounter.getAndSet(0);
+            }
+
+            @Override
+            public boolean isPartialSample() {
+                return true;
+            }
+        };
+        StatisticsManager.getInstance().addStatistic(probeCountStatKey, probeCount);
     }
 
     /**
@@ -584,6 +733,72 @@ public class PresenceManagerImpl extends BasicModule implements PresenceManager,
         }
     }
 
+    /**
+     * Loads offline presence data for a number of users into cache, using one database query for
+     * every {@link #LOAD_BATCH_SIZE} users. Data that is cached by the time that the query returns
+     * is not replaced.
+     *
+     * @param usernames the usernames.
+     */
+    private void loadOfflinePresences(List<String> usernames) {
+        if (usernames.size() == 1) {
+            loadOfflinePresence(usernames.get(0));
+            return;
+        }
+        for (int i = 0; i < usernames.size(); i += LOAD_BATCH_SIZE) {
+            final List<String> batch = usernames.subList(i, Math.min(i + LOAD_BATCH_SIZE, usernames.size()));
+            final Map<String, String> presences = new HashMap<>();
+            final Map<String, Long> dates = new HashMap<>();
+            Connection con = null;
+            PreparedStatement pstmt = null;
+            ResultSet rs = null;
+            try {
+                final StringBuilder sql = new StringBuilder(LOAD_OFFLINE_PRESENCES).append('(');
+                for (int j = 0; j < batch.size(); j++) {
+                    sql.append(j == 0 ? "?" : ",?");
+                }
+                sql.append(')');
+                con = DbConnectionManager.getConnection();
+                pstmt = con.prepareStatement(sql.toString());
+                for (int j = 0; j < batch.size(); j++) {
+                    pstmt.setString(j + 1, batch.get(j));
+                }
+                rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    String username = rs.getString(1);
+                    String offlinePresence = DbConnectionManager.getLargeTextField(rs, 2);
+                    if (rs.wasNull()) {
+                        offlinePresence = NULL_STRING;
+                    }
+                    presences.put(username, offlinePresence);
+                    dates.put(username, Long.parseLong(rs.getString(3).trim()));
+                }
+            }
+            catch (SQLException sqle) {
+                Log.error(sqle.getMessage(), sqle);
+                // Leave the cache untouched, so that each user is loaded on demand.
+                continue;
+            }
+            finally {
+                DbConnectionManager.closeConnection(rs, pstmt, con);
+            }
+
+            for (String username : batch) {
+                Lock lock = offlinePresenceCache.getLock(username);
+                lock.lock();
+                try {
+                    if (!offlinePresenceCache.containsKey(username) || !lastActivityCache.containsKey(username)) {
+                        offlinePresenceCache.put(username, presences.getOrDefault(username, NULL_STRING));
+                        lastActivityCache.put(username, dates.getOrDefault(username, NULL_LONG));
+                    }
+                }
+                finally {
+                    lock.unlock();
+                }
+            }
+        }
+    }
+
     @Override
     public void serverStarted() {
     }
@@ -43,6 +43,7 @@ import java.time.temporal.ChronoUnit;
 import java.util.*;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 /**
  * Manages users, including loading, creating and deleting.
@@ -322,6 +323,18 @@ public final class UserManager {
         return provider.getUsernames();
     }
 
+    /**
+     * Performs the given action for the username of every user in the system. This is preferred over
+     * {@link #getUsernames()} when the caller does not need a collection of all usernames.
+     *
+     * @param action the action to perform for each username.
+     * @throws IllegalStateException when not all usernames could be iterated over. The action might already have been
+     *                               performed for some usernames.
+     */
+    public void forEachUsername(@Nonnull final Consumer<String> action) {
+        provider.forEachUsername(action);
+    }
+
     /**
      * Returns an unmodifiable Collection of all users starting at {@code startIndex}
      * with the given number of results. This is useful to support pagination in a GUI
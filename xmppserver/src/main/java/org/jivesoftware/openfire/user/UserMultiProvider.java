@@ -21,7 +21,9 @@ import org.jivesoftware.util.JiveGlobals;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nonnull;
 import java.util.*;
+import java.util.function.Consumer;
 
 /**
  * A {@link UserProvider} that delegates to one or more 'backing' UserProvider.
@@ -127,6 +129,15 @@ public abstract class UserMultiProvider implements UserProvider
         return result;
     }
 
+    @Override
+    public void forEachUsername( @Nonnull final Consumer<String> action )
+    {
+        for ( final UserProvider provider : getUserProviders() )
+        {
+            provider.forEachUsername( action );
+        }
+    }
+
     @Override
     public Collection<User> getUsers( int startIndex, int numResults )
     {
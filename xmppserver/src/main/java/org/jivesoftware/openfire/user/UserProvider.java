@@ -16,9 +16,11 @@
 
 package org.jivesoftware.openfire.user;
 
+import javax.annotation.Nonnull;
 import java.util.Collection;
 import java.util.Date;
 import java.util.Set;
+import java.util.function.Consumer;
 
 /**
  * Provider interface for the user system.
@@ -85,6 +87,24 @@ public interface UserProvider {
      */
     Collection<String> getUsernames();
 
+    /**
+     * Performs the given action for the username of every user in the system. Unlike {@link #getUsernames()}, this
+     * does not require a collection of all usernames to be returned to the caller. A provider can pass on usernames as
+     * they are retrieved from the backend user store. Whether the provider retains all usernames (for example, to cache
+     * them) is up to the implementation.
+     *
+     * The default implementation iterates over the result of {@link #getUsernames()}.
+     *
+     * When the backend user store fails while usernames are being iterated over, a runtime exception is thrown. The
+     * action might already have been performed for some, but not all, usernames at that point.
+     *
+     * @param action the action to perform for each username.
+     * @throws IllegalStateException when not all usernames could be iterated over.
+     */
+    default void forEachUsername( @Nonnull final Consumer<String> action ) {
+        getUsernames().forEach( action );
+    }
+
     /**
      * Returns an unmodifiable Collections of users in the system within the
      * specified range. The {@link UserCollection} class can be used to assist
@@ -41,6 +41,8 @@ public class WebSocketConnection extends VirtualConnection
 {
     private static final Logger Log = LoggerFactory.getLogger(WebSocketConnection.class);
 
+    private static final String JABBER_CLIENT_NAMESPACE = " xmlns=\"jabber:client\"";
+
     private InetSocketAddress remotePeer;
     private XmppWebSocket socket;
     private PacketDeliverer backupDeliverer;
@@ -83,17 +85,8 @@ public class WebSocketConnection extends VirtualConnection
     @Override
     public void deliver(Packet packet) throws UnauthorizedException
     {
-        final String xml;
-        if (Namespace.NO_NAMESPACE.equals(packet.getElement().getNamespace())) {
-            // use string-based operation here to avoid cascading xmlns wonkery
-            StringBuilder packetXml = new StringBuilder(packet.toXML());
-            packetXml.insert(packetXml.indexOf(" "), " xmlns=\"jabber:client\"");
-            xml = packetXml.toString();
-        } else {
-            xml = packet.toXML();
-        }
         if (validate()) {
-            deliverRawText(xml);
+            deliverRawText(serialize(packet));
         } else {
             // use fallback delivery mechanism (offline)
             if (backupDeliverer != null) {
@@ -104,6 +97,32 @@ public class WebSocketConnection extends VirtualConnection
         }
     }
 
+    /**
+     * Serializes a stanza, adding the 'jabber:client' namespace to stanzas that do not have a namespace.
+     *
+     * @param packet the stanza to serialize.
+     * @return the serialized stanza.
+     */
+    static String serialize(Packet packet)
+    {
+        final String xml = packet.toXML();
+        if (!Namespace.NO_NAMESPACE.equals(packet.getElement().getNamespace())) {
+            return xml;
+        }
+
+        // use string-based operation here to avoid cascading xmlns wonkery. The namespace declaration is added right
+        // after the element name, which is followed by whitespace, or by the end of the (possibly empty) start tag.
+        int index = 1;
+        while (index < xml.length() && !Character.isWhitespace(xml.charAt(index)) && xml.charAt(index) != '/' && xml.charAt(index) != '>') {
+            index++;
+        }
+        return new StringBuilder(xml.length() + JABBER_CLIENT_NAMESPACE.length())
+            .append(xml, 0, index)
+            .append(JABBER_CLIENT_NAMESPACE)
+            .append(xml, index, xml.length())
+            .toString();
+    }
+
     @Override
     public void deliverRawText(String text)
     {
@@ -15,9 +15,6 @@
  */
 package org.jivesoftware.openfire.websocket;
 
-import org.apache.commons.pool2.BasePooledObjectFactory;
-import org.apache.commons.pool2.PooledObject;
-import org.apache.commons.pool2.impl.DefaultPooledObject;
 import org.dom4j.io.XMPPPacketReader;
 import org.jivesoftware.openfire.net.MXParser;
 import org.slf4j.Logger;
@@ -25,7 +22,10 @@ import org.slf4j.LoggerFactory;
 import org.xmlpull.v1.XmlPullParserException;
 import org.xmlpull.v1.XmlPullParserFactory;
 
-public class XMPPPPacketReaderFactory extends BasePooledObjectFactory<XMPPPacketReader> {
+/**
+ * Creates readers that parse XMPP data that is received over a websocket.
+ */
+public final class XMPPPPacketReaderFactory {
 
     private static Logger Log = LoggerFactory.getLogger( XMPPPPacketReaderFactory.class );
 
@@ -40,31 +40,18 @@ public class XMPPPPacketReaderFactory extends BasePooledObjectFactory<XMPPPacket
         }
     }
 
-    //-- BasePooledObjectFactory implementation 
-    
-    @Override
-    public XMPPPacketReader create() throws Exception {
+    private XMPPPPacketReaderFactory() {
+        // Not instantiable.
+    }
+
+    /**
+     * Creates a new reader, configured to parse XMPP data received over a websocket.
+     *
+     * @return a new reader.
+     */
+    static XMPPPacketReader newPacketReader() {
         XMPPPacketReader parser = new XMPPPacketReader();
         parser.setXPPFactory( xppFactory );
         return parser;
     }
-
-    @Override
-    public PooledObject<XMPPPacketReader> wrap(XMPPPacketReader reader) {
-        return new DefaultPooledObject<XMPPPacketReader>(reader);
-    }
-
-    @Override
-    public boolean validateObject(PooledObject<XMPPPacketReader> po) {
-        // reset the input for the pooled parser
-        try {
-            po.getObject().getXPPParser().resetInput();
-            return true;
-        } catch (XmlPullParserException xppe) {
-            Log.error("Failed to reset pooled parser; evicting from pool", xppe);
-            return false;
-        }
-    }
-
-
 }
@@ -15,13 +15,14 @@
  */
 package org.jivesoftware.openfire.websocket;
 
-import org.apache.commons.pool2.impl.GenericObjectPool;
 import org.dom4j.Document;
 import org.dom4j.Element;
 import org.dom4j.QName;
 import org.dom4j.io.XMPPPacketReader;
+import org.eclipse.jetty.websocket.api.BatchMode;
 import org.eclipse.jetty.websocket.api.RemoteEndpoint;
 import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.WriteCallback;
 import org.eclipse.jetty.websocket.api.annotations.*;
 import org.jivesoftware.openfire.*;
 import org.jivesoftware.openfire.entitycaps.EntityCapabilitiesManager;
@@ -49,7 +50,10 @@ import java.io.StringReader;
 import java.time.Duration;
 import java.time.Instant;
 import java.util.Locale;
+import java.util.Queue;
 import java.util.TimerTask;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * This class handles all WebSocket events for the corresponding connection with a remote peer.
@@ -79,10 +83,33 @@ public class XmppWebSocket {
     private static final String FRAMING_NAMESPACE = "urn:ietf:params:xml:ns:xmpp-framing";
 
     private static Logger Log = LoggerFactory.getLogger( XmppWebSocket.class );
-    private static GenericObjectPool<XMPPPacketReader> readerPool;
+
+    /**
+     * Parsers used to process inbound data. Jetty invokes {@link #onTextMethod(String)} for one message at a time per
+     * websocket, and each message is parsed as a complete document, which allows a parser to be reused by all sockets
+     * that are serviced by the same thread.
+     */
+    private static final ThreadLocal<XMPPPacketReader> PARSER_CACHE = ThreadLocal.withInitial(XMPPPPacketReaderFactory::newPacketReader);
 
     private SessionPacketRouter router;
-    private Session wsSession;
+    private volatile Session wsSession;
+
+    /**
+     * Data that is to be sent to the peer, in order. Data is queued by the threads that deliver it, and is handed to
+     * the websocket implementation by the thread that owns the queue (see {@link #outboundOwned}).
+     */
+    private final Queue<String> outbound = new ConcurrentLinkedQueue<>();
+
+    /**
+     * Set by the thread that hands queued data to the websocket implementation.
+     */
+    private final AtomicBoolean outboundOwned = new AtomicBoolean(false);
+
+    /**
+     * Set when the websocket is to be closed once all queued data has been handed to the websocket implementation.
+     */
+    private volatile boolean closeRequested = false;
+
     private WebSocketConnection wsConnection;
     private LocalClientSession xmppSession;
     private boolean startedSASL = false;
@@ -90,9 +117,6 @@ public class XmppWebSocket {
     private TimerTask pingTask;
 
     public XmppWebSocket() {
-        if (readerPool == null) {
-            initializePool();
-        }
     }
 
     // WebSocket event handlers
@@ -123,10 +147,7 @@ public class XmppWebSocket {
     @OnWebSocketMessage
     public void onTextMethod(String stanza)
     {
-        XMPPPacketReader reader = null;
         try {
-            reader = readerPool.borrowObject();
-
             if (STREAM_SUBSTITUTION_ENABLED.getValue()) {
                 // Allow clients that do websockets without the required XMPP framing to connect. See https://igniterealtime.atlassian.net/browse/OF-2479
                 if (stanza.startsWith("<?xml version='1.0'?><stream:stream ")) {
@@ -139,7 +160,7 @@ public class XmppWebSocket {
                 }
             }
 
-            Document doc = reader.read(new StringReader(stanza));
+            Document doc = PARSER_CACHE.get().read(new StringReader(stanza));
 
             if (xmppSession == null) {
                 initiateSession(doc.getRootElement());
@@ -148,10 +169,6 @@ public class XmppWebSocket {
             }
         } catch (Exception ex) {
             Log.error("Failed to process XMPP stanza", ex);
-        } finally {
-            if (reader != null) {
-                readerPool.returnObject(reader);
-            }
         }
     }
 
@@ -171,7 +188,7 @@ public class XmppWebSocket {
                 } catch (Exception e) {
                     Log.error("Error disconnecting websocket", e);
                 } finally {
-                    wsSession = null;
+                    closeWebSocket();
                 }
             }
         });
@@ -179,21 +196,24 @@ public class XmppWebSocket {
 
     // local (package) visibility
 
-    synchronized boolean isWebSocketOpen() {
-        return wsSession != null && wsSession.isOpen();
+    boolean isWebSocketOpen() {
+        final Session session = wsSession;
+        return !closeRequested && session != null && session.isOpen();
     }
 
-    synchronized boolean isWebSocketSecure() {
-        return wsSession != null && wsSession.isSecure();
+    boolean isWebSocketSecure() {
+        final Session session = wsSession;
+        return session != null && session.isSecure();
     }
 
+    /**
+     * Closes the websocket, after all data that has been queued for delivery has been handed to the websocket
+     * implementation.
+     */
     synchronized void closeWebSocket()
     {
-        if (isWebSocketOpen())
-        {
-            wsSession.close();
-        }
-        wsSession = null;
+        closeRequested = true;
+        flushOutbound();
     }
 
     void closeSession() {
@@ -221,30 +241,77 @@ public class XmppWebSocket {
     }
 
     /**
-     * Send an XML packet to the remote peer
+     * Send an XML packet to the remote peer.
+     *
+     * This method does not block: the packet is queued, and is sent asynchronously, after all packets that were queued
+     * earlier.
      *
      * @param packet XML to be sent to client
      */
-    synchronized void deliver(String packet)
+    void deliver(String packet)
     {
         if (isWebSocketOpen())
         {
-            try {
-                if (xmppSession != null) { // OF-2265 In certain circumstances, the xmppSession can be absent (eg: when sending an error).
-                    xmppSession.incrementServerPacketCount();
-                } else {
-                    Log.debug("Packet delivery when no xmppSession is present. Should only occur exceptionally. Session: {}, Packet: {}", wsSession, packet);
-                }
-                wsSession.getRemote().sendStringByFuture(packet);
-            } catch (Exception e) {
-                Log.error("Packet delivery failed; session: " + wsSession, e);
-                Log.warn("Failed to deliver packet:\n" + packet );
+            final LocalClientSession session = xmppSession;
+            if (session != null) { // OF-2265 In certain circumstances, the xmppSession can be absent (eg: when sending an error).
+                session.incrementServerPacketCount();
+            } else {
+                Log.debug("Packet delivery when no xmppSession is present. Should only occur exceptionally. Session: {}, Packet: {}", wsSession, packet);
             }
+            outbound.add(packet);
+            flushOutbound();
         } else {
             Log.warn("Failed to deliver packet; socket is closed:\n" + packet);
         }
     }
 
+    /**
+     * Hands all queued data to the websocket implementation, unless another thread is already doing so (in which case
+     * that thread will process the data that was queued by the invoking thread).
+     *
+     * Data is sent asynchronously. As each websocket message must contain exactly one complete XML element (RFC 7395),
+     * stanzas cannot be combined into one frame. Instead, all frames but the last of a series of queued frames are
+     * sent in batch mode, allowing them to be written to the network in one operation.
+     */
+    private void flushOutbound()
+    {
+        while (outboundOwned.compareAndSet(false, true)) {
+            final Session session = wsSession;
+            try {
+                String text;
+                while ((text = outbound.poll()) != null) {
+                    if (session == null || !session.isOpen()) {
+                        Log.warn("Failed to deliver packet; socket is closed:\n" + text);
+                        continue;
+                    }
+                    try {
+                        final RemoteEndpoint remote = session.getRemote();
+                        remote.setBatchMode(outbound.isEmpty() ? BatchMode.OFF : BatchMode.ON);
+                        remote.sendString(text, new DeliveryCallback(session, text));
+                    } catch (Exception e) {
+                        Log.error("Packet delivery failed; session: " + session, e);
+                        Log.warn("Failed to deliver packet:\n" + text);
+                    }
+                }
+                if (closeRequested && session != null) {
+                    // All data that was queued before the close was requested has been handed to the websocket implementation, which sends it before closing.
+                    if (session.isOpen()) {
+                        session.close();
+                    }
+                    wsSession = null;
+                }
+            } finally {
+                outboundOwned.set(false);
+            }
+
+            // Data that was queued after the last poll, but before ownership was released, might not have been
+            // processed by the thread that queued it.
+            if (outbound.isEmpty() && !(closeRequested && wsSession != null)) {
+                return;
+            }
+        }
+    }
+
 
     static boolean isCompressionEnabled() {
         return JiveGlobals.getProperty(
@@ -421,13 +488,26 @@ public class XmppWebSocket {
         deliver(reply.asXML());
     }
 
-    private synchronized void initializePool() {
-        if (readerPool == null) {
-            readerPool = new GenericObjectPool<XMPPPacketReader>(new XMPPPPacketReaderFactory());
-            readerPool.setMaxTotal(-1);
-            readerPool.setBlockWhenExhausted(false);
-            readerPool.setTestOnReturn(true);
-            readerPool.setTimeBetweenEvictionRunsMillis(Duration.ofMinutes(1).toMillis());
+    /**
+     * Logs the outcome of the asynchronous delivery of data to the peer.
+     */
+    private static final class DeliveryCallback implements WriteCallback {
+        private final Session session;
+        private final String text;
+
+        DeliveryCallback(Session session, String text) {
+            this.session = session;
+            this.text = text;
+        }
+
+        @Override
+        public void writeFailed(Throwable x) {
+            Log.debug("Packet delivery failed; session: {}", session, x);
+            Log.warn("Failed to deliver packet:\n" + text);
+        }
+
+        @Override
+        public void writeSuccess() {
         }
     }
 
@@ -438,7 +518,8 @@ public class XmppWebSocket {
 
         @Override
         public void run() {
-            if (!isWebSocketOpen()) {
+            final Session session = wsSession;
+            if (!isWebSocketOpen() || session == null) {
                 TaskEngine.getInstance().cancelScheduledTask(pingTask);
             } else {
                 Instant idleTime = Instant.now().minus(Duration.ofMinutes(1));
@@ -447,10 +528,10 @@ public class XmppWebSocket {
                 }
                 try {
                     // see https://tools.ietf.org/html/rfc6455#section-5.5.2
-                    wsSession.getRemote().sendPing(null);
+                    session.getRemote().sendPing(null);
                     lastPingFailed = false;
                 } catch (IOException ioe) {
-                    Log.error("Failed to ping remote peer: " + wsSession, ioe);
+                    Log.error("Failed to ping remote peer: " + session, ioe);
                     if (lastPingFailed) {
                         closeSession();
                         TaskEngine.getInstance().cancelScheduledTask(pingTask);
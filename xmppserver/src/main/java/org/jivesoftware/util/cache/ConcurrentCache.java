@@ -0,0 +1,527 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util.cache;
+
+import org.jivesoftware.openfire.cluster.ClusteredCacheEntryListener;
+import org.jivesoftware.util.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nonnull;
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+
+/**
+ * Non-distributed implementation of the Cache interface that, unlike {@link DefaultCache}, does not synchronize on the
+ * cache instance. It is intended for caches that are accessed by many threads concurrently.
+ *
+ * Entries are stored in a {@link ConcurrentHashMap}. Instead of maintaining linked lists of access and insertion order,
+ * each entry records the time at which it was created and last accessed. Reads and writes therefore do not contend
+ * with each other on a shared structure.
+ *
+ * The semantics are the same as those of {@link DefaultCache}:<ul>
+ *
+ * <li> The size of each entry is calculated using {@link CacheSizes} when it is added. When the total size of the
+ * cache grows within 3% of the maximum cache size, the least recently accessed entries are removed until the cache is
+ * at least 10% empty. Culling is done by one thread at a time. Other threads do not wait for it to complete.
+ * <li> Entries that have existed longer than the maximum lifetime are never returned. Expired entries are removed when
+ * they are looked up, and periodically in bulk.
+ * <li> Cache hits, misses and culls are counted.</ul>
+ */
+public class ConcurrentCache<K extends Serializable, V extends Serializable> implements Cache<K, V> {
+
+    private static final Logger Log = LoggerFactory.getLogger(ConcurrentCache.class);
+
+    /**
+     * Minimum amount of time in between two bulk removals of expired entries.
+     */
+    private static final long EXPIRY_SWEEP_INTERVAL = Duration.ofSeconds(1).toMillis();
+
+    /**
+     * The map the keys and values are stored in.
+     */
+    private final ConcurrentHashMap<K, CacheObject<V>> map = new ConcurrentHashMap<>(103);
+
+    /**
+     * Maintains the current size of the cache in bytes.
+     */
+    private final AtomicLong cacheSize = new AtomicLong(0);
+
+    private final LongAdder cacheHits = new LongAdder();
+    private final LongAdder cacheMisses = new LongAdder();
+
+    /**
+     * Held by the thread that is culling the cache.
+     */
+    private final ReentrantLock cullLock = new ReentrantLock();
+
+    // Contains the set of times when the Cache was last culled
+    private final Set<Long> cullTimes = ConcurrentHashMap.newKeySet();
+
+    /**
+     * The earliest time at which the next bulk removal of expired entries is performed.
+     */
+    private final AtomicLong nextExpirySweep = new AtomicLong(0);
+
+    private volatile long maxCacheSize;
+    private volatile long maxLifetime;
+    private volatile String name;
+
+    /**
+     * Create a new cache and specify the maximum size of for the cache in bytes, and the maximum lifetime of objects.
+     *
+     * @param name a name for the cache.
+     * @param maxSize the maximum size of the cache in bytes. -1 means the cache has no max size.
+     * @param maxLifetime the maximum amount of time objects can exist in cache before being deleted. -1 means objects
+     *                    never expire.
+     */
+    ConcurrentCache(final String name, final long maxSize, final long maxLifetime) {
+        this.name = name;
+        this.maxCacheSize = maxSize;
+        this.maxLifetime = maxLifetime;
+    }
+
+    @Override
+    public V put(final K key, final V value) {
+        if (isNull(key, DefaultCache.NULL_KEY_IS_NOT_ALLOWED) || isNull(value, DefaultCache.NULL_VALUE_IS_NOT_ALLOWED)) {
+            return null;
+        }
+
+        int objectSize = 1;
+        try {
+            objectSize = CacheSizes.sizeOfAnything(value);
+        }
+        catch (final CannotCalculateSizeException e) {
+            Log.warn(e.getMessage(), e);
+        }
+
+        // If the object is bigger than the entire cache, simply don't add it.
+        final long maxSize = maxCacheSize;
+        if (maxSize > 0 && objectSize > maxSize * .90) {
+            Log.warn("Cache: " + name + " -- object with key " + key +
+                " is too large to fit in cache. Size is " + objectSize);
+            return remove(key);
+        }
+
+        final CacheObject<V> previous = map.put(key, new CacheObject<>(value, objectSize));
+        cacheSize.addAndGet(previous == null ? objectSize : objectSize - previous.size);
+
+        // If cache is too full, remove least used cache entries until it is not too full.
+        cullCache();
+
+        return previous == null ? null : previous.object;
+    }
+
+    @Override
+    public V get(final Object key) {
+        if (isNull(key, DefaultCache.NULL_KEY_IS_NOT_ALLOWED)) {
+            return null;
+        }
+        final CacheObject<V> cacheObject = lookup(key);
+        if (cacheObject == null) {
+            // The object didn't exist in cache, so increment cache misses.
+            cacheMisses.increment();
+            return null;
+        }
+
+        cacheHits.increment();
+        cacheObject.lastAccessed = System.nanoTime();
+        return cacheObject.object;
+    }
+
+    @Override
+    public V remove(final Object key) {
+        if (isNull(key, DefaultCache.NULL_KEY_IS_NOT_ALLOWED)) {
+            return null;
+        }
+        @SuppressWarnings("SuspiciousMethodCalls")
+        final CacheObject<V> cacheObject = map.remove(key);
+        if (cacheObject == null) {
+            return null;
+        }
+        cacheSize.addAndGet(-cacheObject.size);
+        return cacheObject.object;
+    }
+
+    @Override
+    public void clear() {
+        for (final K key : map.keySet()) {
+            remove(key);
+        }
+        cacheHits.reset();
+        cacheMisses.reset();
+    }
+
+    /**
+     * Returns the number of entries in the cache. Entries that expired less than a second ago might be included.
+     *
+     * @return the number of entries in the cache.
+     */
+    @Override
+    public int size() {
+        deleteExpiredEntries();
+        return map.size();
+    }
+
+    @Override
+    public boolean isEmpty() {
+        deleteExpiredEntries();
+        return map.isEmpty();
+    }
+
+    @Override
+    @Nonnull
+    public Collection<V> values() {
+        final long now = System.currentTimeMillis();
+        return map.values().stream()
+            .filter(cacheObject -> !isExpired(cacheObject, now))
+            .map(cacheObject -> cacheObject.object)
+            .collect(Collectors.toList());
+    }
+
+    @Override
+    public boolean containsKey(final Object key) {
+        if (isNull(key, DefaultCache.NULL_KEY_IS_NOT_ALLOWED)) {
+            return false;
+        }
+        return lookup(key) != null;
+    }
+
+    @Override
+    public void putAll(final Map<? extends K, ? extends V> map) {
+        for (final Entry<? extends K, ? extends V> entry : map.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    @Override
+    public boolean containsValue(final Object value) {
+        if (isNull(value, DefaultCache.NULL_VALUE_IS_NOT_ALLOWED)) {
+            return false;
+        }
+        final long now = System.currentTimeMillis();
+        for (final CacheObject<V> cacheObject : map.values()) {
+            if (!isExpired(cacheObject, now) && value.equals(cacheObject.object)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    @Override
+    @Nonnull
+    public Set<Entry<K, V>> entrySet() {
+        final long now = System.currentTimeMillis();
+        return map.entrySet().stream()
+            .filter(entry -> !isExpired(entry.getValue(), now))
+            .collect(Collectors.toMap(Entry::getKey, entry -> entry.getValue().object))
+            .entrySet();
+    }
+
+    @Override
+    @Nonnull
+    public Set<K> keySet() {
+        final long now = System.currentTimeMillis();
+        return map.entrySet().stream()
+            .filter(entry -> !isExpired(entry.getValue(), now))
+            .map(Entry::getKey)
+            .collect(Collectors.toSet());
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void setName(final String name) {
+        this.name = name;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return cacheHits.sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return cacheMisses.sum();
+    }
+
+    @Override
+    public long getLongCacheSize() {
+        return cacheSize.get();
+    }
+
+    @Override
+    public long getMaxCacheSize() {
+        return maxCacheSize;
+    }
+
+    @Override
+    public void setMaxCacheSize(final long maxSize) {
+        this.maxCacheSize = maxSize;
+        CacheFactory.setMaxSizeProperty(name, maxSize);
+        // It's possible that the new max size is smaller than our current cache
+        // size. If so, we need to delete infrequently used items.
+        cullCache();
+    }
+
+    @Override
+    public long getMaxLifetime() {
+        return maxLifetime;
+    }
+
+    @Override
+    public void setMaxLifetime(final long maxLifetime) {
+        this.maxLifetime = maxLifetime;
+        CacheFactory.setMaxLifetimeProperty(name, maxLifetime);
+    }
+
+    /**
+     * Returns the number of times that this cache was culled in the provided period.
+     *
+     * @param duration The period (up to twelve hours) to count culls for.
+     * @return the number of culls.
+     */
+    public long getCacheCulls(final Duration duration) {
+        final long millis = duration.toMillis();
+        if (millis > DefaultCache.MAX_CULL_COUNT_PERIOD) {
+            throw new IllegalArgumentException("Request duration exceed maximum of " + StringUtils.getFullElapsedTime(duration));
+        }
+        cullCacheTimes();
+        final long oldestCullToCount = System.currentTimeMillis() - millis;
+        return cullTimes.stream()
+            .filter(cullTime -> cullTime >= oldestCullToCount)
+            .count();
+    }
+
+    /**
+     * Returns the (non-expired) cache object for a key, removing it from the cache if it has expired.
+     */
+    private CacheObject<V> lookup(final Object key) {
+        @SuppressWarnings("SuspiciousMethodCalls")
+        final CacheObject<V> cacheObject = map.get(key);
+        if (cacheObject == null) {
+            return null;
+        }
+        if (isExpired(cacheObject, System.currentTimeMillis())) {
+            if (map.remove(key, cacheObject)) {
+                cacheSize.addAndGet(-cacheObject.size);
+            }
+            return null;
+        }
+        return cacheObject;
+    }
+
+    private boolean isExpired(final CacheObject<V> cacheObject, final long now) {
+        final long lifetime = maxLifetime;
+        return lifetime > 0 && cacheObject.created < now - lifetime;
+    }
+
+    /**
+     * Removes all expired entries from the cache. To prevent repeated iterations over all entries, this is done at most
+     * once per {@link #EXPIRY_SWEEP_INTERVAL}.
+     */
+    private void deleteExpiredEntries() {
+        if (maxLifetime <= 0) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long next = nextExpirySweep.get();
+        if (now < next || !nextExpirySweep.compareAndSet(next, now + EXPIRY_SWEEP_INTERVAL)) {
+            return;
+        }
+        for (final Entry<K, CacheObject<V>> entry : map.entrySet()) {
+            if (isExpired(entry.getValue(), now) && map.remove(entry.getKey(), entry.getValue())) {
+                cacheSize.addAndGet(-entry.getValue().size);
+            }
+        }
+    }
+
+    /**
+     * Removes objects from cache if the cache is too full. "Too full" is defined as within 3% of the maximum cache
+     * size. Whenever the cache is too big, the least recently accessed elements are deleted until the cache is at
+     * least 10% empty.
+     */
+    private void cullCache() {
+        // Check if a max cache size is defined.
+        final long maxSize = maxCacheSize;
+        if (maxSize < 0) {
+            return;
+        }
+
+        // See if the cache size is within 3% of being too big. If so, clean out
+        // cache until it's 10% free. Leave the work to another thread, if one is already doing it.
+        if (cacheSize.get() < (long) (maxSize * .97) || !cullLock.tryLock()) {
+            return;
+        }
+        try {
+            // First, delete any old entries to see how much memory that frees.
+            nextExpirySweep.set(0);
+            deleteExpiredEntries();
+
+            final long desiredSize = (long) (maxSize * .90);
+            if (cacheSize.get() > desiredSize) {
+                long t = System.currentTimeMillis();
+                cullTimes.add(t);
+
+                while (cacheSize.get() > desiredSize) {
+                    boolean removed = false;
+                    for (final CullCandidate<K, V> candidate : selectLeastRecentlyAccessed(desiredSize)) {
+                        if (cacheSize.get() <= desiredSize) {
+                            break;
+                        }
+                        if (map.remove(candidate.key, candidate.object)) {
+                            cacheSize.addAndGet(-candidate.object.size);
+                            removed = true;
+                        }
+                    }
+                    if (!removed) {
+                        break;
+                    }
+                }
+                t = System.currentTimeMillis() - t;
+                Log.warn("Cache " + name + " was full, shrunk to 90% in " + t + "ms.");
+            }
+        } finally {
+            cullLock.unlock();
+        }
+
+        cullCacheTimes();
+    }
+
+    /**
+     * Selects the least recently accessed entries, in order of last access, of which the removal is expected to shrink
+     * the cache to the desired size. The amount of entries to select is estimated from their average size. Only that
+     * amount of entries is retained while all entries are inspected, rather than sorting all entries.
+     *
+     * @param desiredSize The size (in bytes) to which the cache is to be shrunk.
+     * @return The least recently accessed entries, least recently accessed first.
+     */
+    private List<CullCandidate<K, V>> selectLeastRecentlyAccessed(final long desiredSize) {
+        final long size = cacheSize.get();
+        final int count = map.size();
+        if (count == 0 || size <= 0) {
+            return Collections.emptyList();
+        }
+        final int limit = (int) Math.min(count, (size - desiredSize) * count / size + 1);
+
+        // Holds the selected entries, the most recently accessed of which is at the head, to be replaced first.
+        final PriorityQueue<CullCandidate<K, V>> selected = new PriorityQueue<>(limit, Comparator.comparingLong((CullCandidate<K, V> candidate) -> candidate.lastAccessed).reversed());
+        for (final Entry<K, CacheObject<V>> entry : map.entrySet()) {
+            final long lastAccessed = entry.getValue().lastAccessed;
+            if (selected.size() < limit) {
+                selected.add(new CullCandidate<>(entry.getKey(), entry.getValue(), lastAccessed));
+            } else if (lastAccessed < selected.peek().lastAccessed) {
+                selected.poll();
+                selected.add(new CullCandidate<>(entry.getKey(), entry.getValue(), lastAccessed));
+            }
+        }
+
+        final List<CullCandidate<K, V>> result = new ArrayList<>(selected);
+        result.sort(Comparator.comparingLong(candidate -> candidate.lastAccessed));
+        return result;
+    }
+
+    /**
+     * An entry that is considered for removal while culling, with the time at which it was last accessed when it was
+     * considered. Entries can be accessed while the cache is culled, which must not change their order.
+     */
+    private static class CullCandidate<K, V> {
+        final K key;
+        final CacheObject<V> object;
+        final long lastAccessed;
+
+        CullCandidate(final K key, final CacheObject<V> object, final long lastAccessed) {
+            this.key = key;
+            this.object = object;
+            this.lastAccessed = lastAccessed;
+        }
+    }
+
+    private void cullCacheTimes() {
+        final long oldestCullToKeep = System.currentTimeMillis() - DefaultCache.MAX_CULL_COUNT_PERIOD;
+        cullTimes.removeIf(cullTime -> cullTime < oldestCullToKeep);
+    }
+
+    /**
+     * Verifies that an argument is not null. Depending on configuration, a null value is either rejected by throwing
+     * an exception, or is ignored.
+     *
+     * @return true if the argument is null (and should be ignored), otherwise false.
+     */
+    private static boolean isNull(final Object argument, final String message) {
+        if (argument != null) {
+            return false;
+        }
+        final NullPointerException e = new NullPointerException(message);
+        if (DefaultCache.allowNull) {
+            Log.debug("Ignoring null argument for Cache: ", e); // Gives us a trace for debugging.
+            return true;
+        }
+        throw e;
+    }
+
+    @Override
+    public String addClusteredCacheEntryListener(@Nonnull final ClusteredCacheEntryListener<K, V> listener, final boolean includeValues, final boolean includeEventsFromLocalNode) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public void removeClusteredCacheEntryListener(@Nonnull final String listenerId) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Wrapper for all objects put into cache. Records the size of the object, and the times at which it was added to
+     * and last accessed in the cache.
+     */
+    private static class CacheObject<V> {
+
+        /**
+         * Underlying object wrapped by the CacheObject.
+         */
+        final V object;
+
+        /**
+         * The size of the object, computed once when it is added to the cache.
+         */
+        final int size;
+
+        /**
+         * The time (in milliseconds since the epoch) when the object was added to the cache.
+         */
+        final long created = System.currentTimeMillis();
+
+        /**
+         * The time (as obtained from {@link System#nanoTime()}) when the object was last accessed. Used to determine
+         * the order in which objects are culled.
+         */
+        volatile long lastAccessed = System.nanoTime();
+
+        CacheObject(final V object, final int size) {
+            this.object = object;
+            this.size = size;
+        }
+    }
+}
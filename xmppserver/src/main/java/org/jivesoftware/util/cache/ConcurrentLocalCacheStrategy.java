@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util.cache;
+
+/**
+ * CacheFactoryStrategy for use in Openfire, that creates {@link ConcurrentCache} instances rather than
+ * {@link DefaultCache} instances. Like {@link DefaultLocalCacheStrategy}, it does not support clustering.
+ *
+ * To use this strategy, set the value of property <tt>cache.clustering.local.class</tt> to the name of this class.
+ * @see CacheFactory
+ */
+public class ConcurrentLocalCacheStrategy extends DefaultLocalCacheStrategy {
+
+    public ConcurrentLocalCacheStrategy() {
+    }
+
+    @Override
+    public Cache createCache(String name) {
+        // Get cache configuration from system properties or default (hardcoded) values
+        long maxSize = CacheFactory.getMaxCacheSize(name);
+        long lifetime = CacheFactory.getMaxCacheLifetime(name);
+        // Create cache with located properties
+        return new ConcurrentCache(name, maxSize, lifetime);
+    }
+}
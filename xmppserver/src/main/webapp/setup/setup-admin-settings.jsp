@@ -186,6 +186,8 @@
                         } catch ( Exception e ) {
                             e.printStackTrace();
                             errors.put("administrator", "");
+                        } finally {
+                            manager.closeContextPools();
                         }
                     } else {
                         manager.setUsernameField(userSettings.get("ldap.usernameField"));
@@ -207,6 +209,8 @@
                         } catch ( Exception e ) {
                             e.printStackTrace();
                             errors.put("administrator", "");
+                        } finally {
+                            manager.closeContextPools();
                         }
                     }
                 }
@@ -59,6 +59,9 @@
             errorDetail = e.getMessage();
             e.printStackTrace();
         }
+        finally {
+            manager.closeContextPools();
+        }
     }
 
         pageContext.setAttribute( "errorDetail", errorDetail );
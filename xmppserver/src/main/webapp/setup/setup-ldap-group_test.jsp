@@ -37,6 +37,9 @@
             errorDetail = LocaleUtils.getLocalizedString("setup.ldap.test.error-loading-sample");
             LoggerFactory.getLogger("setup-ldap-group_test.jsp").error("Error occurred while trying to get a sample of group data from LDAP.", e);
         }
+        finally {
+            manager.closeContextPools();
+        }
         if (groups.isEmpty()) {
             // Inform user that no users were found
             errorDetail = LocaleUtils.getLocalizedString("setup.ldap.group.test.group-not-found");
@@ -62,6 +62,7 @@
                 catch (Exception e) {
                 }
             }
+            manager.closeContextPools();
         }
     } else {
         errorDetail = LocaleUtils.getLocalizedString("setup.invalid_session");
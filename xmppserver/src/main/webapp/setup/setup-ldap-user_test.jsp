@@ -29,41 +29,46 @@
         manager.setUsernameField(userSettings.get("ldap.usernameField"));
         manager.setSearchFilter(userSettings.get("ldap.searchFilter"));
 
-        // Build the tester with the recreated LdapManager and vcard mapping information
-        LdapUserTester tester = new LdapUserTester(manager, vCardSettings);
-        List<String> usernames = new ArrayList<String>();
         try {
-            usernames = tester.getSample(40);
-        }
-        catch (Exception e) {
-            // Inform user that an error occurred while trying to get users data
-            errorDetail = LocaleUtils.getLocalizedString("setup.ldap.test.error-loading-sample");
-            LoggerFactory.getLogger("setup-ldap-user_user.jsp").error("Error occurred while trying to get a sample of user data from LDAP.", e);
-        }
-        if (usernames.isEmpty()) {
-            // Inform user that no users were found
-            errorDetail = LocaleUtils.getLocalizedString("setup.ldap.user.test.users-not-found");
-        } else {
-            // Pick a user from the sample list of users
-            userIndex = userIndex + 1;
-            if (usernames.size() <= userIndex) {
-                userIndex = 0;
+            // Build the tester with the recreated LdapManager and vcard mapping information
+            LdapUserTester tester = new LdapUserTester(manager, vCardSettings);
+            List<String> usernames = new ArrayList<String>();
+            try {
+                usernames = tester.getSample(40);
             }
-            // Get attributes for selected user
-            final String username = usernames.get( userIndex );
-            attributes = tester.getAttributes( username );
-
-            if ( attributes == null || attributes.isEmpty() ) {
-                errorDetail = "Unable to get attributes for: " + username;
+            catch (Exception e) {
+                // Inform user that an error occurred while trying to get users data
+                errorDetail = LocaleUtils.getLocalizedString("setup.ldap.test.error-loading-sample");
+                LoggerFactory.getLogger("setup-ldap-user_user.jsp").error("Error occurred while trying to get a sample of user data from LDAP.", e);
+            }
+            if (usernames.isEmpty()) {
+                // Inform user that no users were found
+                errorDetail = LocaleUtils.getLocalizedString("setup.ldap.user.test.users-not-found");
             } else {
-                // Postprocessing - remove all values that include the '{' character.
-                for ( final Map.Entry<String, String> entry : attributes.entrySet() ) {
-                    if ( entry.getValue().contains( "{" ) ){
-                        entry.setValue( null );
+                // Pick a user from the sample list of users
+                userIndex = userIndex + 1;
+                if (usernames.size() <= userIndex) {
+                    userIndex = 0;
+                }
+                // Get attributes for selected user
+                final String username = usernames.get( userIndex );
+                attributes = tester.getAttributes( username );
+
+                if ( attributes == null || attributes.isEmpty() ) {
+                    errorDetail = "Unable to get attributes for: " + username;
+                } else {
+                    // Postprocessing - remove all values that include the '{' character.
+                    for ( final Map.Entry<String, String> entry : attributes.entrySet() ) {
+                        if ( entry.getValue().contains( "{" ) ){
+                            entry.setValue( null );
+                        }
                     }
                 }
             }
         }
+        finally {
+            manager.closeContextPools();
+        }
     }
     else {
         // Information was not found in the HTTP Session. Internal error?
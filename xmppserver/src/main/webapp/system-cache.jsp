@@ -9,6 +9,7 @@
 <%@ page import="org.jivesoftware.util.cache.Cache" %>
 <%@ page import="org.jivesoftware.util.cache.CacheWrapper" %>
 <%@ page import="org.jivesoftware.util.cache.DefaultCache" %>
+<%@ page import="org.jivesoftware.util.cache.ConcurrentCache" %>
 <%--
   -
   - Copyright (C) 2005-2008 Jive Software. All rights reserved.
@@ -215,6 +216,12 @@
             culls[0] = defaultCache.getCacheCulls(Duration.ofHours(3));
             culls[1] = defaultCache.getCacheCulls(Duration.ofHours(6));
             culls[2] = defaultCache.getCacheCulls(Duration.ofHours(12));
+        } else if (cache instanceof CacheWrapper && ((CacheWrapper) cache).getWrappedCache() instanceof ConcurrentCache) {
+            culls = new Long[3];
+            final ConcurrentCache concurrentCache = (ConcurrentCache) ((CacheWrapper) cache).getWrappedCache();
+            culls[0] = concurrentCache.getCacheCulls(Duration.ofHours(3));
+            culls[1] = concurrentCache.getCacheCulls(Duration.ofHours(6));
+            culls[2] = concurrentCache.getCacheCulls(Duration.ofHours(12));
         } else {
             culls = null;
         }
@@ -0,0 +1,150 @@
+<%@ page contentType="text/html; charset=UTF-8" %>
+<%@ page import="java.text.DecimalFormat"%>
+<%@ page import="java.text.NumberFormat"%>
+<%@ page import="java.util.ArrayList"%>
+<%@ page import="java.util.Comparator"%>
+<%@ page import="java.util.List"%>
+<%@ page import="org.jivesoftware.openfire.interceptor.InterceptorManager"%>
+<%@ page import="org.jivesoftware.openfire.interceptor.InterceptorStatistics"%>
+<%@ page import="org.jivesoftware.util.CookieUtils"%>
+<%@ page import="org.jivesoftware.util.JiveGlobals"%>
+<%@ page import="org.jivesoftware.util.ParamUtils"%>
+<%@ page import="org.jivesoftware.util.StringUtils"%>
+<%--
+  -
+  - Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+  -
+  - Licensed under the Apache License, Version 2.0 (the "License");
+  - you may not use this file except in compliance with the License.
+  - You may obtain a copy of the License at
+  -
+  -     http://www.apache.org/licenses/LICENSE-2.0
+  -
+  - Unless required by applicable law or agreed to in writing, software
+  - distributed under the License is distributed on an "AS IS" BASIS,
+  - WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+  - See the License for the specific language governing permissions and
+  - limitations under the License.
+--%>
+
+<%@ taglib uri="http://java.sun.com/jsp/jstl/core" prefix="c" %>
+<%@ taglib uri="http://java.sun.com/jsp/jstl/fmt" prefix="fmt" %>
+
+<jsp:useBean id="webManager" class="org.jivesoftware.util.WebManager"  />
+<% webManager.init(request, response, session, application, out ); %>
+
+<html>
+    <head>
+        <title><fmt:message key="system.interceptors.title"/></title>
+        <meta name="pageID" content="system-interceptors"/>
+    </head>
+    <body>
+
+<% // Get parameters
+    boolean doReset = request.getParameter("reset") != null;
+
+    Cookie csrfCookie = CookieUtils.getCookie(request, "csrf");
+    String csrfParam = ParamUtils.getParameter(request, "csrf");
+
+    if (doReset) {
+        if (csrfCookie == null || csrfParam == null || !csrfCookie.getValue().equals(csrfParam)) {
+            doReset = false;
+        }
+    }
+    csrfParam = StringUtils.randomString(15);
+    CookieUtils.setCookie(request, response, "csrf", csrfParam, -1);
+    pageContext.setAttribute("csrf", csrfParam);
+
+    final List<InterceptorStatistics> statistics = new ArrayList<>(InterceptorManager.getInstance().getStatistics().values());
+    statistics.sort(Comparator.comparing(InterceptorStatistics::getInterceptorClassName));
+
+    // Reset the statistics of all interceptors if requested.
+    if (doReset) {
+        for (final InterceptorStatistics stats : statistics) {
+            stats.reset();
+        }
+        webManager.logEvent("Reset packet interceptor statistics", null);
+    }
+
+    NumberFormat numberFormatter = NumberFormat.getNumberInstance(JiveGlobals.getLocale());
+    DecimalFormat latencyFormat = new DecimalFormat("#0.0");
+%>
+
+<%  if (doReset) { %>
+
+    <div class="jive-success">
+    <table cellpadding="0" cellspacing="0" border="0">
+    <tbody>
+        <tr><td class="jive-icon"><img src="images/success-16x16.gif" width="16" height="16" border="0" alt=""></td>
+        <td class="jive-icon-label">
+        <fmt:message key="system.interceptors.reset" />
+        </td></tr>
+    </tbody>
+    </table>
+    </div><br>
+
+<%  } %>
+
+<p>
+<fmt:message key="system.interceptors.info" />
+</p>
+
+<form action="system-interceptors.jsp" method="post" name="interceptorForm">
+        <input type="hidden" name="csrf" value="${csrf}">
+
+<div class="jive-table">
+<table cellpadding="0" cellspacing="0" border="0" width="100%">
+<thead>
+    <tr>
+        <th width="35%" nowrap><fmt:message key="system.interceptors.head.name" /></th>
+        <th width="10%" nowrap><fmt:message key="system.interceptors.head.invocations" /></th>
+        <th width="10%" nowrap><fmt:message key="system.interceptors.head.rejections" /></th>
+        <th width="10%" nowrap><fmt:message key="system.interceptors.head.errors" /></th>
+        <th width="10%" nowrap><fmt:message key="system.interceptors.head.average" /></th>
+        <th width="10%" nowrap><fmt:message key="system.interceptors.head.max" /></th>
+        <th width="15%" nowrap><fmt:message key="system.interceptors.head.histogram" /></th>
+    </tr>
+</thead>
+<tbody>
+
+<%  if (statistics.isEmpty()) { %>
+    <tr>
+        <td align="center" colspan="7">
+            <fmt:message key="system.interceptors.none" />
+        </td>
+    </tr>
+<%  }
+    int i = 0;
+    for (final InterceptorStatistics stats : statistics) {
+        i++;
+        final String[] buckets = stats.getLatencyHistogramBuckets();
+        final long[] histogram = stats.getLatencyHistogram();
+%>
+    <tr class="jive-<%= (((i%2)==0) ? "even" : "odd") %>">
+        <td class="c1"><%= StringUtils.escapeHTMLTags(stats.getInterceptorClassName()) %></td>
+        <td class="c2"><%= numberFormatter.format(stats.getInvocationCount()) %></td>
+        <td class="c2"><%= numberFormatter.format(stats.getRejectionCount()) %></td>
+        <td class="c2"><%= numberFormatter.format(stats.getErrorCount()) %></td>
+        <td class="c2"><%= latencyFormat.format(stats.getAverageLatencyMicros()) %></td>
+        <td class="c2"><%= numberFormatter.format(stats.getMaxLatencyMicros()) %></td>
+        <td class="c2" nowrap>
+            <% for (int b = 0; b < buckets.length; b++) { %>
+            <%= StringUtils.escapeHTMLTags(buckets[b]) %>: <%= numberFormatter.format(histogram[b]) %><br/>
+            <% } %>
+        </td>
+    </tr>
+<%  } %>
+
+<tr bgcolor="#eeeeee">
+    <td align="right" colspan="7">
+        <input type="submit" name="reset" value="<fmt:message key="system.interceptors.reset-all" />">
+    </td>
+</tr>
+</tbody>
+</table>
+</div>
+
+    </form>
+
+    </body>
+</html>
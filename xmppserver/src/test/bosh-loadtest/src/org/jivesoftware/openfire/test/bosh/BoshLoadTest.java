@@ -0,0 +1,282 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.openfire.test.bosh;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A load test that drives many simulated BOSH (XEP-0124 / XEP-0206) clients against a server. It is intended to
+ * observe the behavior of the server when many sessions are concurrently long-polling, while other requests for the
+ * same sessions arrive at the same time.<p/>
+ *
+ * Every simulated client creates a session with hold=1 and requests=2, and uses two threads: one that continuously
+ * long-polls, and one that periodically sends a request. With hold=1, every request sent by the second thread causes
+ * the server to respond to the request that the first thread is waiting on. This causes concurrent requests for the
+ * same session to arrive at the server continuously.<p/>
+ *
+ * When the 'anonymous' argument is provided, the clients authenticate using SASL ANONYMOUS (which must be enabled on
+ * the server) and send a message to themselves with every request. Otherwise, the clients remain unauthenticated and
+ * send empty requests.<p/>
+ *
+ * Every ten seconds, the request rate, the amount of failed requests and the response time of requests that are not
+ * held by the server are printed. Every client uses two threads: to simulate very large amounts of clients, run
+ * several instances of this test.<p/>
+ *
+ * java BoshLoadTest [url] [domain] [clients] [duration in seconds] [anonymous]<p/>
+ *
+ * For example: java BoshLoadTest http://localhost:7070/http-bind/ example.org 500 300 anonymous
+ */
+public class BoshLoadTest {
+
+    private static final Pattern SID = Pattern.compile("sid=['\"]([^'\"]+)['\"]");
+    private static final Pattern JID = Pattern.compile("<jid>([^<]+)</jid>");
+
+    private static final int WAIT = 30;
+    private static final long SEND_INTERVAL_MS = 1000;
+
+    private static final AtomicLong requestCount = new AtomicLong(0);
+    private static final AtomicLong failureCount = new AtomicLong(0);
+
+    /**
+     * Response times (in milliseconds) of requests that are not expected to be held by the server, bucketed
+     * logarithmically: bucket n contains response times below 2^n milliseconds.
+     */
+    private static final AtomicLongArray latencies = new AtomicLongArray(20);
+
+    private static volatile boolean done = false;
+
+    /**
+     * Starts the load test.
+     *
+     * @param args application arguments.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: java BoshLoadTest [url] [domain] [clients] [duration in seconds] [anonymous]");
+            System.exit(0);
+        }
+        final URL url = new URL(args[0]);
+        final String domain = args[1];
+        final int clients = Integer.parseInt(args[2]);
+        final long duration = Long.parseLong(args[3]) * 1000;
+        final boolean anonymous = args.length > 4 && "anonymous".equalsIgnoreCase(args[4]);
+
+        System.out.println("Starting " + clients + " clients against " + url + " for domain " + domain + (anonymous ? " (authenticating anonymously)" : "") + ".");
+        final List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < clients; i++) {
+            final Client client = new Client(url, domain, anonymous);
+            final Thread thread = new Thread(client::run, "bosh-client-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+            // Ramp up, to avoid measuring the creation of all sessions at the same time.
+            Thread.sleep(5);
+        }
+
+        final long end = System.currentTimeMillis() + duration;
+        while (System.currentTimeMillis() < end) {
+            Thread.sleep(10000);
+            report();
+        }
+        done = true;
+        System.out.println("Done.");
+    }
+
+    private static void report() {
+        final long requests = requestCount.getAndSet(0);
+        final long failures = failureCount.getAndSet(0);
+        final long[] buckets = new long[latencies.length()];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = latencies.getAndSet(i, 0);
+            total += buckets[i];
+        }
+        System.out.println("requests/s: " + (requests / 10) + ", failures: " + failures
+            + ", response time p50: < " + percentile(buckets, total, 0.50) + "ms"
+            + ", p99: < " + percentile(buckets, total, 0.99) + "ms"
+            + ", p999: < " + percentile(buckets, total, 0.999) + "ms");
+    }
+
+    private static long percentile(final long[] buckets, final long total, final double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= total * percentile) {
+                return 1L << i;
+            }
+        }
+        return 1L << buckets.length;
+    }
+
+    private static void recordLatency(final long millis) {
+        int bucket = 0;
+        while (bucket < latencies.length() - 1 && (1L << bucket) <= millis) {
+            bucket++;
+        }
+        latencies.incrementAndGet(bucket);
+    }
+
+    /**
+     * A simulated BOSH client.
+     */
+    private static class Client {
+
+        private final URL url;
+        private final String domain;
+        private final boolean anonymous;
+        private final AtomicLong rid = new AtomicLong(ThreadLocalRandom.current().nextLong(1, 1L << 40));
+        private String sid;
+        private String jid;
+
+        Client(URL url, String domain, boolean anonymous) {
+            this.url = url;
+            this.domain = domain;
+            this.anonymous = anonymous;
+        }
+
+        void run() {
+            try {
+                final String created = post("<body content='text/xml; charset=utf-8' hold='1' requests='2' rid='" + rid.get()
+                    + "' to='" + domain + "' wait='" + WAIT + "' ver='1.6' xml:lang='en' xmpp:version='1.0'"
+                    + " xmlns='http://jabber.org/protocol/httpbind' xmlns:xmpp='urn:xmpp:xbosh'/>");
+                final Matcher matcher = SID.matcher(created);
+                if (!matcher.find()) {
+                    throw new IOException("No session identifier in response: " + created);
+                }
+                sid = matcher.group(1);
+
+                if (anonymous) {
+                    authenticate();
+                }
+
+                final Thread sender = new Thread(this::send, Thread.currentThread().getName() + "-sender");
+                sender.setDaemon(true);
+                sender.start();
+
+                while (!done) {
+                    post(body(""));
+                }
+                post("<body rid='" + rid.incrementAndGet() + "' sid='" + sid + "' type='terminate' xmlns='http://jabber.org/protocol/httpbind'/>");
+            } catch (IOException e) {
+                failureCount.incrementAndGet();
+                System.err.println("Client " + Thread.currentThread().getName() + " stopped: " + e.getMessage());
+            }
+        }
+
+        private void authenticate() throws IOException {
+            await(body("<auth xmlns='urn:ietf:params:xml:ns:xmpp-sasl' mechanism='ANONYMOUS'/>"), "<success");
+            post("<body rid='" + rid.incrementAndGet() + "' sid='" + sid + "' to='" + domain + "' xml:lang='en' xmpp:restart='true'"
+                + " xmlns='http://jabber.org/protocol/httpbind' xmlns:xmpp='urn:xmpp:xbosh'/>");
+            final String bound = await(body("<iq type='set' id='bind_1' xmlns='jabber:client'><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/></iq>"), "<jid>");
+            final Matcher matcher = JID.matcher(bound);
+            if (!matcher.find()) {
+                throw new IOException("No JID in response: " + bound);
+            }
+            jid = matcher.group(1);
+            await(body("<iq type='set' id='session_1' xmlns='jabber:client'><session xmlns='urn:ietf:params:xml:ns:xmpp-session'/></iq>"), "session_1");
+        }
+
+        private void send() {
+            while (!done) {
+                try {
+                    Thread.sleep(ThreadLocalRandom.current().nextLong(SEND_INTERVAL_MS / 2, SEND_INTERVAL_MS * 3 / 2));
+                    final String payload = jid == null ? "" : "<message to='" + jid + "' type='chat' xmlns='jabber:client'><body>load</body></message>";
+                    final long start = System.nanoTime();
+                    post(body(payload));
+                    recordLatency((System.nanoTime() - start) / 1_000_000);
+                } catch (InterruptedException e) {
+                    return;
+                } catch (IOException e) {
+                    failureCount.incrementAndGet();
+                }
+            }
+        }
+
+        /**
+         * Sends a request, followed by empty requests, until a response contains the expected text.
+         */
+        private String await(final String request, final String expected) throws IOException {
+            String response = post(request);
+            for (int i = 0; i < 5 && !response.contains(expected); i++) {
+                response = post(body(""));
+            }
+            if (!response.contains(expected)) {
+                throw new IOException("Expected '" + expected + "' but got: " + response);
+            }
+            return response;
+        }
+
+        private String body(final String payload) {
+            if (payload.isEmpty()) {
+                return "<body rid='" + rid.incrementAndGet() + "' sid='" + sid + "' xmlns='http://jabber.org/protocol/httpbind'/>";
+            }
+            return "<body rid='" + rid.incrementAndGet() + "' sid='" + sid + "' xmlns='http://jabber.org/protocol/httpbind'>" + payload + "</body>";
+        }
+
+        private String post(final String body) throws IOException {
+            final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+            try {
+                connection.setRequestMethod("POST");
+                connection.setDoOutput(true);
+                connection.setConnectTimeout(10000);
+                connection.setReadTimeout((WAIT + 10) * 1000);
+                connection.setRequestProperty("Content-Type", "text/xml; charset=utf-8");
+                final byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+                connection.setFixedLengthStreamingMode(bytes.length);
+                try (OutputStream out = connection.getOutputStream()) {
+                    out.write(bytes);
+                }
+                requestCount.incrementAndGet();
+                final int status = connection.getResponseCode();
+                if (status != HttpURLConnection.HTTP_OK) {
+                    throw new IOException("Unexpected HTTP status " + status + " for session " + sid);
+                }
+                try (InputStream in = connection.getInputStream()) {
+                    final ByteArrayOutputStream result = new ByteArrayOutputStream();
+                    final byte[] buffer = new byte[4096];
+                    int read;
+                    while ((read = in.read(buffer)) != -1) {
+                        result.write(buffer, 0, read);
+                    }
+                    final String response = result.toString(StandardCharsets.UTF_8.name());
+                    if (response.contains("type='terminate'") || response.contains("type=\"terminate\"")) {
+                        throw new IOException("Session " + sid + " was terminated: " + response);
+                    }
+                    return response;
+                }
+            } finally {
+                connection.disconnect();
+            }
+        }
+    }
+}
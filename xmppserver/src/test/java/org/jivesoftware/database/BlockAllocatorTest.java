@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.database;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link BlockAllocator}.
+ */
+public class BlockAllocatorTest
+{
+    /**
+     * Asserts that IDs are handed out in order, starting with the first ID of the first reserved block.
+     */
+    @Test
+    public void testSequentialIDs() throws Exception
+    {
+        // Setup test fixture.
+        final AtomicLong storage = new AtomicLong(1);
+        final BlockAllocator allocator = new BlockAllocator(storage::getAndAdd, () -> 5, () -> 5, Runnable::run);
+
+        // Execute system under test.
+        final List<Long> result = new ArrayList<>();
+        for (int i = 0; i < 12; i++) {
+            result.add(allocator.nextID());
+        }
+
+        // Verify results.
+        for (int i = 0; i < 12; i++) {
+            assertEquals(i + 1, (long) result.get(i));
+        }
+    }
+
+    /**
+     * Asserts that IDs are unique when they are requested concurrently.
+     */
+    @Test
+    public void testConcurrentIDsAreUnique() throws Exception
+    {
+        // Setup test fixture.
+        final AtomicLong storage = new AtomicLong(1);
+        final ExecutorService prefetcher = Executors.newSingleThreadExecutor();
+        final ExecutorService threads = Executors.newFixedThreadPool(8);
+        final BlockAllocator allocator = new BlockAllocator(storage::getAndAdd, () -> 5, () -> 100, prefetcher);
+        final Set<Long> ids = ConcurrentHashMap.newKeySet();
+
+        try {
+            // Execute system under test.
+            final List<Future<Boolean>> results = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                results.add(threads.submit(() -> {
+                    boolean allUnique = true;
+                    for (int i = 0; i < 10_000; i++) {
+                        allUnique &= ids.add(allocator.nextID());
+                    }
+                    return allUnique;
+                }));
+            }
+
+            // Verify results.
+            for (final Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+            assertEquals(80_000, ids.size());
+        } finally {
+            // Teardown test fixture.
+            threads.shutdown();
+            prefetcher.shutdown();
+        }
+    }
+
+    /**
+     * Asserts that blocks grow when they are used up quickly, but do not exceed the maximum size.
+     */
+    @Test
+    public void testBlocksGrowUpToMaximum() throws Exception
+    {
+        // Setup test fixture.
+        final AtomicLong storage = new AtomicLong(1);
+        final List<Integer> sizes = Collections.synchronizedList(new ArrayList<>());
+        final BlockAllocator allocator = new BlockAllocator(size -> { sizes.add(size); return storage.getAndAdd(size); }, () -> 5, () -> 40, Runnable::run);
+
+        // Execute system under test.
+        for (int i = 0; i < 1000; i++) {
+            allocator.nextID();
+        }
+
+        // Verify results.
+        assertEquals(5, (int) sizes.get(0));
+        assertEquals(10, (int) sizes.get(1));
+        assertEquals(40, (int) sizes.get(sizes.size() - 1));
+    }
+}
@@ -1,11 +1,40 @@
 package org.jivesoftware.openfire;
 
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.database.DbConnectionManager;
+import org.jivesoftware.database.DefaultConnectionProvider;
+import org.jivesoftware.openfire.session.LocalClientSession;
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
 import org.junit.Test;
+import org.xmpp.packet.JID;
 import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
 import org.xmpp.packet.PacketExtension;
 
-import static org.junit.Assert.assertFalse;
-import static org.junit.Assert.assertTrue;
+import java.net.URL;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.awaitility.Awaitility.await;
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 
 /**
  * This tests the business rules for storing messages as described in <a href="http://xmpp.org/extensions/xep-0160.html#types">3. Handling of Message Types</a>.
@@ -14,6 +43,253 @@ import static org.junit.Assert.assertTrue;
  */
 public class OfflineMessageStoreTest {
 
+    private static final String DRIVER = "org.hsqldb.jdbcDriver";
+    private static final String URL;
+    private static final String USERNAME = "sa";
+    private static final String PASSWORD = "";
+
+    static {
+        final URL location = OfflineMessageStoreTest.class.getResource("/datasets/openfire.script");
+        final String fileLocation = location.toString().substring(0, location.toString().lastIndexOf("/")+1) + "openfire";
+        URL = "jdbc:hsqldb:"+fileLocation+";ifexists=true";
+    }
+
+    private static final String OWNER = "john";
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Fixtures.reconfigureOpenfireHome();
+        CacheFactory.initialize();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Fixtures.clearExistingProperties();
+        XMPPServer.setInstance(Fixtures.mockXMPPServer());
+
+        final DefaultConnectionProvider conProvider = new DefaultConnectionProvider();
+        conProvider.setDriver(DRIVER);
+        conProvider.setServerURL(URL);
+        conProvider.setUsername(USERNAME);
+        conProvider.setPassword(PASSWORD);
+        DbConnectionManager.setConnectionProvider(conProvider);
+
+        deleteStoredMessages();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        deleteStoredMessages();
+    }
+
+    private static void deleteStoredMessages() throws Exception {
+        try (final java.sql.Connection con = DbConnectionManager.getConnection();
+             final PreparedStatement pstmt = con.prepareStatement("DELETE FROM ofOffline")) {
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Stores an offline message for {@link #OWNER} directly in the database, which allows a test to control the message
+     * identifier and creation date.
+     */
+    private static void store(final long messageID, final long creationDate) throws Exception {
+        final Message message = new Message();
+        message.setTo(new JID(OWNER, Fixtures.XMPP_DOMAIN, null));
+        message.setBody("message " + messageID);
+        final String stanza = message.toXML();
+        try (final java.sql.Connection con = DbConnectionManager.getConnection();
+             final PreparedStatement pstmt = con.prepareStatement("INSERT INTO ofOffline (username, messageID, creationDate, messageSize, stanza) VALUES (?, ?, ?, ?, ?)")) {
+            pstmt.setString(1, OWNER);
+            pstmt.setLong(2, messageID);
+            pstmt.setString(3, StringUtils.dateToMillis(new Date(creationDate)));
+            pstmt.setInt(4, stanza.length());
+            pstmt.setString(5, stanza);
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Returns the identifiers of the messages of {@link #OWNER} that are in the database, in ascending order.
+     */
+    private static List<Long> storedMessageIDs() throws Exception {
+        final List<Long> result = new ArrayList<>();
+        try (final java.sql.Connection con = DbConnectionManager.getConnection();
+             final PreparedStatement pstmt = con.prepareStatement("SELECT messageID FROM ofOffline WHERE username=? ORDER BY messageID")) {
+            pstmt.setString(1, OWNER);
+            try (final ResultSet rs = pstmt.executeQuery()) {
+                while (rs.next()) {
+                    result.add(rs.getLong(1));
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Asserts that messages are processed in chunks of the configured size, in the order in which they were stored,
+     * including when a chunk boundary falls in between messages that have the same creation date.
+     */
+    @Test
+    public void testProcessMessagesInChunks() throws Exception
+    {
+        // Setup test fixture.
+        OfflineMessageStore.OFFLINE_CHUNK_SIZE.setValue(2);
+        store(5, 1000);
+        store(2, 2000);
+        store(3, 2000);
+        store(4, 2000);
+        store(1, 3000);
+        final OfflineMessageStore store = new OfflineMessageStore();
+        final List<Integer> chunkSizes = new ArrayList<>();
+        final List<String> bodies = new ArrayList<>();
+
+        // Execute system under test.
+        store.processMessages(OWNER, false, chunk -> {
+            chunkSizes.add(chunk.size());
+            chunk.forEach(message -> bodies.add(message.getBody()));
+            return true;
+        });
+
+        // Verify results.
+        assertEquals(Arrays.asList(2, 2, 1), chunkSizes);
+        assertEquals(Arrays.asList("message 5", "message 2", "message 3", "message 4", "message 1"), bodies);
+        assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), storedMessageIDs());
+    }
+
+    /**
+     * Asserts that only the messages of chunks that were processed are deleted, and that a message that is stored while
+     * messages are being processed is retained.
+     */
+    @Test
+    public void testProcessedChunksAreDeletedById() throws Exception
+    {
+        // Setup test fixture.
+        OfflineMessageStore.OFFLINE_CHUNK_SIZE.setValue(2);
+        store(1, 1000);
+        store(2, 2000);
+        store(3, 3000);
+        final OfflineMessageStore store = new OfflineMessageStore();
+        final AtomicBoolean first = new AtomicBoolean(true);
+
+        // Execute system under test.
+        store.processMessages(OWNER, true, chunk -> {
+            if (first.getAndSet(false)) {
+                try {
+                    store(10, 500);
+                } catch (Exception e) {
+                    throw new IllegalStateException(e);
+                }
+                return true;
+            }
+            return false;
+        });
+
+        // Verify results.
+        assertEquals(Arrays.asList(3L, 10L), storedMessageIDs());
+    }
+
+    /**
+     * Asserts that no offline messages are delivered to a session while too much data is waiting to be written to its
+     * connection, and that delivery resumes when that data has been written.
+     */
+    @Test
+    public void testDeliveryWaitsForPendingData() throws Exception
+    {
+        // Setup test fixture.
+        OfflineMessageStore.OFFLINE_CHUNK_SIZE.setValue(2);
+        OfflineMessageStore.OFFLINE_FLOOD_MAX_PENDING_BYTES.setValue(1000L);
+        store(1, 1000);
+        store(2, 2000);
+        store(3, 3000);
+        final AtomicLong pendingBytes = new AtomicLong(5000);
+        final List<Packet> delivered = new CopyOnWriteArrayList<>();
+        final LocalClientSession session = mockSession(pendingBytes, new AtomicBoolean(false), delivered);
+        final OfflineMessageStore store = new OfflineMessageStore();
+
+        // Execute system under test.
+        store.deliverMessages(session);
+
+        // Verify results.
+        Thread.sleep(300);
+        assertTrue(delivered.isEmpty());
+        assertEquals(Arrays.asList(1L, 2L, 3L), storedMessageIDs());
+
+        pendingBytes.set(0);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> delivered.size() == 3);
+        await().atMost(5, TimeUnit.SECONDS).until(() -> storedMessageIDs().isEmpty());
+    }
+
+    /**
+     * Asserts that delivery of offline messages stops, retaining the messages, when the connection of the session is
+     * closed while waiting for pending data to be written.
+     */
+    @Test
+    public void testDeliveryStopsWhenConnectionClosed() throws Exception
+    {
+        // Setup test fixture.
+        OfflineMessageStore.OFFLINE_FLOOD_MAX_PENDING_BYTES.setValue(1000L);
+        store(1, 1000);
+        final AtomicLong pendingBytes = new AtomicLong(5000);
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        final List<Packet> delivered = new CopyOnWriteArrayList<>();
+        final LocalClientSession session = mockSession(pendingBytes, closed, delivered);
+        final OfflineMessageStore store = new OfflineMessageStore();
+
+        // Execute system under test.
+        store.deliverMessages(session);
+        closed.set(true);
+        Thread.sleep(300);
+        pendingBytes.set(0);
+        Thread.sleep(300);
+
+        // Verify results.
+        assertTrue(delivered.isEmpty());
+        assertEquals(Collections.singletonList(1L), storedMessageIDs());
+    }
+
+    /**
+     * Asserts that delivery of offline messages stops, retaining the messages, when too much data remains waiting to be
+     * written for longer than the configured timeout.
+     */
+    @Test
+    public void testDeliveryStopsAfterTimeout() throws Exception
+    {
+        // Setup test fixture.
+        OfflineMessageStore.OFFLINE_FLOOD_MAX_PENDING_BYTES.setValue(1000L);
+        OfflineMessageStore.OFFLINE_FLOOD_WRITE_TIMEOUT.setValue(Duration.ofMillis(200));
+        store(1, 1000);
+        final AtomicLong pendingBytes = new AtomicLong(5000);
+        final List<Packet> delivered = new CopyOnWriteArrayList<>();
+        final LocalClientSession session = mockSession(pendingBytes, new AtomicBoolean(false), delivered);
+        final OfflineMessageStore store = new OfflineMessageStore();
+
+        // Execute system under test.
+        store.deliverMessages(session);
+        Thread.sleep(600);
+        pendingBytes.set(0);
+        Thread.sleep(300);
+
+        // Verify results.
+        assertTrue(delivered.isEmpty());
+        assertEquals(Collections.singletonList(1L), storedMessageIDs());
+    }
+
+    private static LocalClientSession mockSession(final AtomicLong pendingBytes, final AtomicBoolean closed, final List<Packet> delivered) {
+        final Connection connection = mock(Connection.class);
+        doAnswer(invocationOnMock -> pendingBytes.get()).when(connection).getPendingWriteBytes();
+        doAnswer(invocationOnMock -> closed.get()).when(connection).isClosed();
+
+        final LocalClientSession session = mock(LocalClientSession.class);
+        doReturn(new JID(OWNER, Fixtures.XMPP_DOMAIN, "resource")).when(session).getAddress();
+        doReturn(connection).when(session).getConnection();
+        doAnswer(invocationOnMock -> {
+            delivered.add(invocationOnMock.getArgument(0));
+            return null;
+        }).when(session).process(any(Packet.class));
+        return session;
+    }
+
     @Test
     public void shouldNotStoreGroupChatMessages() {
         // XEP-0160: "groupchat" message types SHOULD NOT be stored offline
@@ -23,6 +23,8 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
@@ -285,6 +287,97 @@ public class ArchiverTest
         }
     }
 
+    /**
+     * Verifies that all data is written when more than one writer is used, and that all data is reported to be
+     * available afterwards.
+     */
+    @Test
+    public void testArchiverMultipleWriters() throws Exception
+    {
+        // Setup fixture.
+        final int maxWorkQueueSize = 10;
+        final Duration maxPurgeInterval = Duration.ofMillis( 5000 );
+        final Duration gracePeriod = Duration.ofMillis( 50 );
+        final DummyArchiver archiver = new DummyArchiver( "test", maxWorkQueueSize, maxPurgeInterval, gracePeriod );
+        archiver.setWriterCount( 3 );
+        final Thread thread = new Thread( archiver );
+
+        try
+        {
+            // Execute system under test.
+            thread.start();
+            for ( int i = 1; i <= 100; i++ ) {
+                archiver.archive( i );
+            }
+            final Instant afterArchiving = Instant.now();
+
+            // Verify result.
+            waitUntilArchivingIsDone( archiver, 100 );
+
+            assertTrue( archiver.getBatches().size() >= 10 );
+            assertEquals( Duration.ZERO, archiver.availabilityETAOnLocalNode( afterArchiving ) );
+        }
+        finally
+        {
+            // Teardown fixture.
+            archiver.stop();
+        }
+    }
+
+    /**
+     * Verifies that data is not reported to be available as long as older data is still being written, even if a
+     * different writer has already written newer data.
+     */
+    @Test
+    public void testArchiverETAWithSlowWriter() throws Exception
+    {
+        // Setup fixture.
+        final CountDownLatch release = new CountDownLatch( 1 );
+        final Map<Integer, Instant> store = new ConcurrentHashMap<>();
+        final Archiver<Integer> archiver = new Archiver<Integer>( "test", 1, Duration.ofMillis( 5000 ), Duration.ofMillis( 10 ) ) {
+            @Override
+            protected void store( final List<Integer> batch ) {
+                if ( batch.contains( 1 ) ) {
+                    try {
+                        release.await();
+                    } catch ( InterruptedException e ) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+                batch.forEach( integer -> store.put( integer, Instant.now() ) );
+            }
+        };
+        archiver.setWriterCount( 2 );
+        final Thread thread = new Thread( archiver );
+
+        try
+        {
+            // Execute system under test.
+            thread.start();
+            archiver.archive( 1 );
+            archiver.archive( 2 );
+            final Instant afterArchiving = Instant.now();
+
+            final Instant start = Instant.now();
+            while ( !store.containsKey( 2 ) ) {
+                if ( Duration.between( start, Instant.now() ).compareTo( Duration.ofSeconds( 5 ) ) > 0 ) {
+                    throw new IllegalStateException( "Failsafe triggered: test is taking to long." );
+                }
+                Thread.sleep( 10 );
+            }
+
+            // Verify result.
+            assertFalse( store.containsKey( 1 ) );
+            assertFalse( archiver.availabilityETAOnLocalNode( afterArchiving ).isZero() );
+        }
+        finally
+        {
+            // Teardown fixture.
+            release.countDown();
+            archiver.stop();
+        }
+    }
+
     /**
      * A utility method that blocks until the archiver should reasonably have finished storing data.
      *
@@ -0,0 +1,104 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.entitycaps;
+
+import org.dom4j.Element;
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link EntityCapabilities}, and the creation of instances from a
+ * service discovery response.
+ */
+public class EntityCapabilitiesTest
+{
+    /**
+     * Asserts that equal features of different capabilities are represented by the same instance.
+     */
+    @Test
+    public void testFeaturesAreInterned() throws Exception
+    {
+        // Setup test fixture.
+        final EntityCapabilities first = new EntityCapabilities();
+        final EntityCapabilities second = new EntityCapabilities();
+
+        // Execute system under test.
+        first.addFeature(new String("http://jabber.org/protocol/muc"));
+        second.addFeature(new String("http://jabber.org/protocol/muc"));
+
+        // Verify results.
+        assertSame(first.getFeatures().iterator().next(), second.getFeatures().iterator().next());
+    }
+
+    /**
+     * Asserts that capabilities are created from a service discovery response, using the simple example of XEP-0115.
+     */
+    @Test
+    public void testCreateCapabilities() throws Exception
+    {
+        // Setup test fixture.
+        final IQ response = new IQ(IQ.Type.result);
+        final Element query = response.setChildElement("query", "http://jabber.org/protocol/disco#info");
+        query.addElement("identity").addAttribute("category", "client").addAttribute("type", "pc").addAttribute("name", "Exodus 0.9.1");
+        query.addElement("feature").addAttribute("var", "http://jabber.org/protocol/caps");
+        query.addElement("feature").addAttribute("var", "http://jabber.org/protocol/disco#info");
+        query.addElement("feature").addAttribute("var", "http://jabber.org/protocol/disco#items");
+        query.addElement("feature").addAttribute("var", "http://jabber.org/protocol/muc");
+        final String ver = EntityCapabilitiesManager.generateVerHash(response, "sha-1");
+
+        // Execute system under test.
+        final EntityCapabilities result = EntityCapabilitiesManager.createCapabilities(response, ver, "sha-1");
+
+        // Verify results.
+        assertEquals("QgayPKawpkPSDYmwT/WM94uAlu0=", ver);
+        assertEquals(ver, result.getVerAttribute());
+        assertEquals("sha-1", result.getHashAttribute());
+        assertTrue(result.getIdentities().contains("client/pc//Exodus 0.9.1"));
+        assertEquals(4, result.getFeatures().size());
+        assertTrue(result.containsFeature("http://jabber.org/protocol/muc"));
+    }
+
+    /**
+     * Asserts that capabilities that have the same features, but different identities, share the same collection of
+     * features.
+     */
+    @Test
+    public void testFeatureCollectionsAreInterned() throws Exception
+    {
+        // Setup test fixture.
+        final IQ first = new IQ(IQ.Type.result);
+        final Element firstQuery = first.setChildElement("query", "http://jabber.org/protocol/disco#info");
+        firstQuery.addElement("identity").addAttribute("category", "client").addAttribute("type", "pc").addAttribute("name", "Client 1.0");
+        firstQuery.addElement("feature").addAttribute("var", "http://jabber.org/protocol/caps");
+        firstQuery.addElement("feature").addAttribute("var", "http://jabber.org/protocol/muc");
+        final IQ second = new IQ(IQ.Type.result);
+        final Element secondQuery = second.setChildElement("query", "http://jabber.org/protocol/disco#info");
+        secondQuery.addElement("identity").addAttribute("category", "client").addAttribute("type", "pc").addAttribute("name", "Client 1.1");
+        secondQuery.addElement("feature").addAttribute("var", "http://jabber.org/protocol/muc");
+        secondQuery.addElement("feature").addAttribute("var", "http://jabber.org/protocol/caps");
+
+        // Execute system under test.
+        final EntityCapabilities firstResult = EntityCapabilitiesManager.createCapabilities(first, EntityCapabilitiesManager.generateVerHash(first, "sha-1"), "sha-1");
+        final EntityCapabilities secondResult = EntityCapabilitiesManager.createCapabilities(second, EntityCapabilitiesManager.generateVerHash(second, "sha-1"), "sha-1");
+
+        // Verify results.
+        assertNotEquals(firstResult.getVerAttribute(), secondResult.getVerAttribute());
+        assertSame(firstResult.getFeatures(), secondResult.getFeatures());
+        assertNotEquals(firstResult.getIdentities(), secondResult.getIdentities());
+    }
+}
@@ -18,17 +18,23 @@ package org.jivesoftware.openfire.group;
 import static junit.framework.TestCase.fail;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.core.Is.is;
+import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.Mockito.doReturn;
 import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.verifyNoMoreInteractions;
 
 import java.lang.reflect.Field;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Map;
 
 import org.jivesoftware.Fixtures;
+import org.jivesoftware.openfire.event.GroupEventDispatcher;
+import org.jivesoftware.openfire.event.GroupEventListener;
 import org.jivesoftware.util.CacheableOptional;
 import org.jivesoftware.util.JiveGlobals;
 import org.jivesoftware.util.PersistableMap;
@@ -166,6 +172,66 @@ public class GroupManagerTest {
         fail();
     }
 
+    @Test
+    public void anExternalModificationWillDispatchEventsForTheDifferences() throws Exception {
+        final JID removed = new JID("removed@example.org");
+        final JID retained = new JID("retained@example.org");
+        final JID added = new JID("added@example.org");
+        groupCache.put(GROUP_NAME, CacheableOptional.of(cachedGroup));
+        doReturn(Arrays.asList(removed, retained)).when(cachedGroup).getMembers();
+        doReturn(Arrays.asList(retained, added)).when(unCachedGroup).getMembers();
+        doReturn(unCachedGroup).when(groupProvider).getGroup(GROUP_NAME);
+        final GroupEventListener listener = mock(GroupEventListener.class);
+        GroupEventDispatcher.addListener(listener);
+
+        try {
+            groupManager.groupModifiedExternallyPostProcess(GROUP_NAME);
+
+            verify(listener).memberAdded(unCachedGroup, Collections.singletonMap("member", added.toString()));
+            verify(listener).memberRemoved(unCachedGroup, Collections.singletonMap("member", removed.toString()));
+            verify(listener, never()).memberAdded(unCachedGroup, Collections.singletonMap("member", retained.toString()));
+            verify(listener, never()).memberRemoved(unCachedGroup, Collections.singletonMap("member", retained.toString()));
+            assertThat(groupCache.get(GROUP_NAME), is(CacheableOptional.of(unCachedGroup)));
+        } finally {
+            GroupEventDispatcher.removeListener(listener);
+        }
+    }
+
+    @Test
+    public void anExternalModificationOfAnUncachedGroupWillOnlyRefreshTheCache() throws Exception {
+        doReturn(unCachedGroup).when(groupProvider).getGroup(GROUP_NAME);
+        final GroupEventListener listener = mock(GroupEventListener.class);
+        GroupEventDispatcher.addListener(listener);
+
+        try {
+            groupManager.groupModifiedExternallyPostProcess(GROUP_NAME);
+
+            verify(listener, never()).memberAdded(any(), any());
+            verify(listener, never()).memberRemoved(any(), any());
+            assertThat(groupCache.get(GROUP_NAME), is(CacheableOptional.of(unCachedGroup)));
+        } finally {
+            GroupEventDispatcher.removeListener(listener);
+        }
+    }
+
+    @Test
+    public void anExternalModificationOfADeletedGroupWillDispatchNoEvents() throws Exception {
+        groupCache.put(GROUP_NAME, CacheableOptional.of(cachedGroup));
+        doThrow(new GroupNotFoundException()).when(groupProvider).getGroup(GROUP_NAME);
+        final GroupEventListener listener = mock(GroupEventListener.class);
+        GroupEventDispatcher.addListener(listener);
+
+        try {
+            groupManager.groupModifiedExternallyPostProcess(GROUP_NAME);
+
+            verify(listener, never()).memberAdded(any(), any());
+            verify(listener, never()).memberRemoved(any(), any());
+            assertThat(groupCache.get(GROUP_NAME), is(CacheableOptional.of(null)));
+        } finally {
+            GroupEventDispatcher.removeListener(listener);
+        }
+    }
+
     /**
      * As the GroupManager creates the instance of the GroupProvider, use this class to delegate calls
      * to the mock.
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.http;
+
+import org.dom4j.Element;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link HttpBindBody}.
+ */
+public class HttpBindBodyTest
+{
+    /**
+     * Asserts that the attributes of a session creation request are parsed.
+     */
+    @Test
+    public void testSessionCreationAttributes() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<?xml version='1.0'?><body content='text/xml; charset=utf-8' hold='1' rid='1573741820' to='example.org' wait='60' ver='1.6' xml:lang='nl' xmpp:version='1.0' xmlns='http://jabber.org/protocol/httpbind' xmlns:xmpp='urn:xmpp:xbosh'/>";
+
+        // Execute system under test.
+        final HttpBindBody result = HttpBindBody.from(input);
+
+        // Verify results.
+        assertEquals(Long.valueOf(1573741820L), result.getRid());
+        assertNull(result.getSid());
+        assertEquals(1, result.getHold());
+        assertEquals(Duration.ofSeconds(60), result.getWait());
+        assertEquals("nl", result.getLanguage());
+        assertEquals(1, result.getMajorVersion());
+        assertEquals(6, result.getMinorVersion());
+        assertTrue(result.isEmpty());
+        assertTrue(result.isPoll());
+        assertFalse(result.isRestart());
+    }
+
+    /**
+     * Asserts that each child element of the body is parsed into a stanza, in order.
+     */
+    @Test
+    public void testStanzas() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<body rid='1249243562' sid='ca4f2d' xmlns='http://jabber.org/protocol/httpbind'>"
+            + "<message to='juliet@example.com' xmlns='jabber:client'><body>wherefore art thou?</body></message>"
+            + "<iq type='get' id='1' xmlns='jabber:client'><query xmlns='jabber:iq:roster'/></iq>"
+            + "</body>";
+
+        // Execute system under test.
+        final HttpBindBody result = HttpBindBody.from(input);
+
+        // Verify results.
+        assertEquals("ca4f2d", result.getSid());
+        assertFalse(result.isEmpty());
+        assertFalse(result.isPoll());
+        final List<Element> stanzas = result.getStanzaElements();
+        assertEquals(2, stanzas.size());
+        assertEquals("message", stanzas.get(0).getName());
+        assertEquals("wherefore art thou?", stanzas.get(0).elementText("body"));
+        assertEquals("iq", stanzas.get(1).getName());
+        assertEquals("jabber:iq:roster", stanzas.get(1).element("query").getNamespaceURI());
+    }
+
+    /**
+     * Asserts that parsing UTF-8 encoded bytes yields the same result as parsing text.
+     */
+    @Test
+    public void testFromBytes() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<body rid='1249243562' sid='ca4f2d' xmlns='http://jabber.org/protocol/httpbind'>"
+            + "<message to='juliet@example.com' xmlns='jabber:client'><body>¿Dónde estás? 🌹</body></message>"
+            + "</body>";
+
+        // Execute system under test.
+        final HttpBindBody result = HttpBindBody.from(new ByteArrayInputStream(input.getBytes(StandardCharsets.UTF_8)));
+
+        // Verify results.
+        assertEquals(Long.valueOf(1249243562L), result.getRid());
+        assertEquals(1, result.getStanzaElements().size());
+        assertEquals("¿Dónde estás? 🌹", result.getStanzaElements().get(0).elementText("body"));
+    }
+
+    /**
+     * Asserts that a request to restart the stream is recognized.
+     */
+    @Test
+    public void testRestart() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<body rid='1249243564' sid='ca4f2d' to='example.com' xml:lang='en' xmpp:restart='true' xmlns='http://jabber.org/protocol/httpbind' xmlns:xmpp='urn:xmpp:xbosh'/>";
+
+        // Execute system under test.
+        final HttpBindBody result = HttpBindBody.from(input);
+
+        // Verify results.
+        assertTrue(result.isRestart());
+        assertFalse(result.isPoll());
+    }
+
+    /**
+     * Asserts that the textual representation of a request includes its stanzas.
+     */
+    @Test
+    public void testAsXMLIncludesStanzas() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<body rid='1249243562' sid='ca4f2d' xmlns='http://jabber.org/protocol/httpbind'>"
+            + "<presence xmlns='jabber:client'/>"
+            + "</body>";
+        final HttpBindBody body = HttpBindBody.from(input);
+
+        // Execute system under test.
+        final String result = body.asXML();
+
+        // Verify results.
+        assertTrue(result.startsWith("<body"));
+        assertTrue(result.contains("<presence"));
+        assertEquals(1, body.getStanzaElements().size());
+    }
+
+    /**
+     * Asserts that data that does not have a 'body' root element is rejected.
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testMissingBody() throws Exception
+    {
+        // Execute system under test.
+        HttpBindBody.from("<message xmlns='jabber:client'/>");
+    }
+}
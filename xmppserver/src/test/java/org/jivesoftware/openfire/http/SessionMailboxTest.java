@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.http;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link SessionMailbox}.
+ */
+public class SessionMailboxTest
+{
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Asserts that a task that is submitted to an idle mailbox is executed by the submitting thread.
+     */
+    @Test
+    public void testRunsOnCaller() throws Exception
+    {
+        // Setup test fixture.
+        final SessionMailbox mailbox = new SessionMailbox(executor, true, 10);
+        final Thread caller = Thread.currentThread();
+        final AtomicBoolean result = new AtomicBoolean(false);
+
+        // Execute system under test.
+        mailbox.execute(() -> result.set(Thread.currentThread() == caller));
+
+        // Verify results.
+        assertTrue(result.get());
+        assertFalse(mailbox.hasPendingTasks());
+    }
+
+    /**
+     * Asserts that a task that is submitted by a task is executed after the submitting task has finished.
+     */
+    @Test
+    public void testNestedTaskRunsAfterSubmitter() throws Exception
+    {
+        // Setup test fixture.
+        final SessionMailbox mailbox = new SessionMailbox(executor, true, 10);
+        final List<String> result = new ArrayList<>();
+
+        // Execute system under test.
+        mailbox.execute(() -> {
+            result.add("outer-start");
+            mailbox.execute(() -> result.add("inner"));
+            result.add("outer-end");
+        });
+
+        // Verify results.
+        assertEquals(Arrays.asList("outer-start", "outer-end", "inner"), result);
+    }
+
+    /**
+     * Asserts that submitting a task does not block while another thread is executing a task of the same mailbox, and
+     * that the submitted task is executed after the running task.
+     */
+    @Test
+    public void testDoesNotBlockWhileOwned() throws Exception
+    {
+        // Setup test fixture.
+        final SessionMailbox mailbox = new SessionMailbox(executor, true, 10);
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        final List<String> result = Collections.synchronizedList(new ArrayList<>());
+        executor.submit(() -> mailbox.execute(() -> {
+            running.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            result.add("first");
+        }));
+        assertTrue(running.await(5, TimeUnit.SECONDS));
+
+        // Execute system under test.
+        mailbox.execute(() -> {
+            result.add("second");
+            done.countDown();
+        });
+
+        // Verify results.
+        assertTrue(result.isEmpty());
+        assertTrue(mailbox.hasPendingTasks());
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList("first", "second"), result);
+    }
+
+    /**
+     * Asserts that tasks submitted concurrently by many threads are all executed, never concurrently, and in the order
+     * in which each thread submitted them.
+     */
+    @Test
+    public void testConcurrentSubmissions() throws Exception
+    {
+        // Setup test fixture.
+        final SessionMailbox mailbox = new SessionMailbox(executor, true, 3);
+        final int threads = 8;
+        final int tasksPerThread = 1000;
+        final AtomicInteger active = new AtomicInteger(0);
+        final AtomicBoolean overlap = new AtomicBoolean(false);
+        final int[] lastSeen = new int[threads];
+        final AtomicBoolean outOfOrder = new AtomicBoolean(false);
+        final CountDownLatch done = new CountDownLatch(threads * tasksPerThread);
+        final CountDownLatch start = new CountDownLatch(1);
+
+        // Execute system under test.
+        final List<Thread> submitters = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            final int thread = t;
+            final Thread submitter = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 1; i <= tasksPerThread; i++) {
+                    final int sequence = i;
+                    mailbox.execute(() -> {
+                        if (active.incrementAndGet() > 1) {
+                            overlap.set(true);
+                        }
+                        if (lastSeen[thread] != sequence - 1) {
+                            outOfOrder.set(true);
+                        }
+                        lastSeen[thread] = sequence;
+                        active.decrementAndGet();
+                        done.countDown();
+                    });
+                }
+            });
+            submitters.add(submitter);
+            submitter.start();
+        }
+        start.countDown();
+        for (final Thread submitter : submitters) {
+            submitter.join();
+        }
+
+        // Verify results.
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertFalse(overlap.get());
+        assertFalse(outOfOrder.get());
+    }
+
+    /**
+     * Asserts that a mailbox that is configured to not execute tasks on the calling thread uses the executor.
+     */
+    @Test
+    public void testRunsOnExecutor() throws Exception
+    {
+        // Setup test fixture.
+        final SessionMailbox mailbox = new SessionMailbox(executor, false, 10);
+        final Thread caller = Thread.currentThread();
+        final AtomicBoolean result = new AtomicBoolean(true);
+        final CountDownLatch done = new CountDownLatch(1);
+
+        // Execute system under test.
+        mailbox.execute(() -> {
+            result.set(Thread.currentThread() == caller);
+            done.countDown();
+        });
+
+        // Verify results.
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertFalse(result.get());
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.interceptor;
+
+import org.jivesoftware.openfire.session.Session;
+import org.junit.Test;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link InterceptorManager}.
+ */
+public class InterceptorManagerTest
+{
+    /**
+     * Asserts that an interceptor is invoked only for the packets and phases that it declares interest in.
+     */
+    @Test
+    public void testInterceptorInvokedOnlyWhenInterested() throws Exception
+    {
+        // Setup test fixture.
+        final InterceptorManager manager = new InterceptorManager();
+        final CountingInterceptor interceptor = new CountingInterceptor() {
+            @Override
+            public boolean isInterestedIn(Class<? extends Packet> packetType, boolean incoming, boolean processed) {
+                return packetType == Message.class && incoming && !processed;
+            }
+        };
+        manager.addInterceptor(interceptor);
+
+        // Execute system under test.
+        manager.invokeInterceptors(new Message(), null, true, false);
+        manager.invokeInterceptors(new Message(), null, true, true);
+        manager.invokeInterceptors(new Message(), null, false, false);
+        manager.invokeInterceptors(new Presence(), null, true, false);
+
+        // Verify results.
+        assertEquals(1, interceptor.count.get());
+        assertEquals(1, manager.getStatistics().get(interceptor).getInvocationCount());
+    }
+
+    /**
+     * Asserts that rejections are counted, and that the rejection is propagated.
+     */
+    @Test
+    public void testRejectionIsRecorded() throws Exception
+    {
+        // Setup test fixture.
+        final InterceptorManager manager = new InterceptorManager();
+        final PacketInterceptor interceptor = (packet, session, incoming, processed) -> {
+            throw new PacketRejectedException();
+        };
+        manager.addInterceptor(interceptor);
+
+        // Execute system under test.
+        try {
+            manager.invokeInterceptors(new Message(), null, true, false);
+            fail("Expected the packet to be rejected.");
+        } catch (PacketRejectedException e) {
+            // expected.
+        }
+
+        // Verify results.
+        final InterceptorStatistics statistics = manager.getStatistics().get(interceptor);
+        assertEquals(1, statistics.getInvocationCount());
+        assertEquals(1, statistics.getRejectionCount());
+        assertEquals(0, statistics.getErrorCount());
+    }
+
+    /**
+     * Asserts that statistics are removed when an interceptor is removed.
+     */
+    @Test
+    public void testStatisticsRemovedWithInterceptor() throws Exception
+    {
+        // Setup test fixture.
+        final InterceptorManager manager = new InterceptorManager();
+        final CountingInterceptor interceptor = new CountingInterceptor();
+        manager.addInterceptor(interceptor);
+
+        // Execute system under test.
+        manager.removeInterceptor(interceptor);
+        manager.invokeInterceptors(new Message(), null, true, false);
+
+        // Verify results.
+        assertTrue(manager.getStatistics().isEmpty());
+        assertEquals(0, interceptor.count.get());
+    }
+
+    private static class CountingInterceptor implements PacketInterceptor
+    {
+        final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public void interceptPacket(Packet packet, Session session, boolean incoming, boolean processed) {
+            count.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.ldap;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.zapodot.junit.ldap.EmbeddedLdapRule;
+import org.zapodot.junit.ldap.EmbeddedLdapRuleBuilder;
+
+import javax.naming.Context;
+import javax.naming.ServiceUnavailableException;
+import javax.naming.directory.Attributes;
+import javax.naming.ldap.LdapContext;
+import javax.naming.ldap.LdapName;
+import javax.naming.ldap.Rdn;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies the pooling of LDAP connections by {@link LdapManager}, using {@link LdapContextPool}, against an in-memory
+ * LDAP server.
+ */
+public class LdapContextPoolTest
+{
+    @Rule
+    public EmbeddedLdapRule embeddedLdapRule = EmbeddedLdapRuleBuilder
+        .newInstance()
+        .usingDomainDsn("dc=example,dc=org")
+        .importingLdifs("org/jivesoftware/openfire/ldap/connectionPool.ldif")
+        .build();
+
+    private LdapManager createManager(final int maxSize)
+    {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("ldap.host", "localhost");
+        properties.put("ldap.port", String.valueOf(embeddedLdapRule.embeddedServerPort()));
+        properties.put("ldap.sslEnabled", "false");
+        properties.put("ldap.startTlsEnabled", "false");
+        properties.put("ldap.baseDN", "dc=example,dc=org");
+        properties.put("ldap.adminDN", EmbeddedLdapRuleBuilder.DEFAULT_BIND_DSN);
+        properties.put("ldap.adminPassword", EmbeddedLdapRuleBuilder.DEFAULT_BIND_CREDENTIALS);
+        properties.put("ldap.connectionPoolEnabled", "true");
+        properties.put("ldap.pool.maxSize", String.valueOf(maxSize));
+        properties.put("ldap.pool.auth.maxSize", String.valueOf(maxSize));
+        properties.put("ldap.pool.borrowTimeout", "200");
+        return new LdapManager(properties);
+    }
+
+    /**
+     * Asserts that a context that is closed is used again, and that it can still be used.
+     */
+    @Test
+    public void testContextIsReused() throws Exception
+    {
+        // Setup test fixture.
+        final LdapManager manager = createManager(4);
+        final LdapContext first = manager.getContext();
+        first.getAttributes("ou=people");
+        first.close();
+
+        // Execute system under test.
+        final LdapContext result = manager.getContext();
+
+        // Verify results.
+        try {
+            assertSame(first, result);
+            final Attributes attributes = result.getAttributes("uid=jane,ou=people", new String[] { "cn" });
+            assertEquals("Jane Doe", attributes.get("cn").get());
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * Asserts that no more than the configured amount of contexts is used concurrently.
+     */
+    @Test(expected = ServiceUnavailableException.class)
+    public void testPoolIsBounded() throws Exception
+    {
+        // Setup test fixture.
+        final LdapManager manager = createManager(1);
+        final LdapContext first = manager.getContext();
+
+        // Execute system under test.
+        try {
+            manager.getContext();
+        } finally {
+            first.close();
+        }
+    }
+
+    /**
+     * Asserts that closing a context more than once returns it to the pool only once.
+     */
+    @Test
+    public void testCloseTwice() throws Exception
+    {
+        // Setup test fixture.
+        final LdapManager manager = createManager(2);
+        final LdapContext first = manager.getContext();
+        first.close();
+
+        // Execute system under test.
+        first.close();
+
+        // Verify results.
+        final LdapContext second = manager.getContext();
+        final LdapContext third = manager.getContext();
+        try {
+            assertNotSame(second, third);
+        } finally {
+            second.close();
+            third.close();
+        }
+    }
+
+    /**
+     * Asserts that users are authenticated by their password, using pooled connections, and that a failed attempt does
+     * not affect subsequent attempts.
+     */
+    @Test
+    public void testAuthentication() throws Exception
+    {
+        // Setup test fixture.
+        final LdapManager manager = createManager(1);
+        final Rdn[] userRDN = new Rdn[] { new Rdn("uid=jane"), new Rdn("ou=people") };
+
+        // Execute system under test.
+        final boolean first = manager.checkAuthentication(userRDN, "secret");
+        final boolean second = manager.checkAuthentication(userRDN, "wrong");
+        final boolean third = manager.checkAuthentication(userRDN, "secret");
+
+        // Verify results.
+        assertTrue(first);
+        assertFalse(second);
+        assertTrue(third);
+    }
+
+    /**
+     * Asserts that the credentials of a user that authenticated are not retained by the pooled context that was used
+     * for the authentication.
+     */
+    @Test
+    public void testAuthenticationCredentialsNotRetained() throws Exception
+    {
+        // Setup test fixture.
+        final LdapManager manager = createManager(1);
+        final Rdn[] userRDN = new Rdn[] { new Rdn("uid=jane"), new Rdn("ou=people") };
+
+        // Execute system under test.
+        final boolean authenticated = manager.checkAuthentication(userRDN, "secret");
+
+        // Verify results.
+        assertTrue(authenticated);
+        final PooledLdapContext context = manager.getAuthenticationPool(new LdapName("dc=example,dc=org")).borrow();
+        try {
+            assertNull(context.getEnvironment().get(Context.SECURITY_PRINCIPAL));
+            assertNull(context.getEnvironment().get(Context.SECURITY_CREDENTIALS));
+        } finally {
+            context.close();
+        }
+    }
+
+    /**
+     * Asserts that attributes of a node below the base DN are read, using a pooled context for the base DN.
+     */
+    @Test
+    public void testRetrieveAttributeOfNodeInBaseDN() throws Exception
+    {
+        // Setup test fixture.
+        final LdapManager manager = createManager(1);
+
+        // Execute system under test.
+        final List<String> result = manager.retrieveAttributeOf("sn", new LdapName("uid=jane,ou=people,dc=example,dc=org"));
+
+        // Verify results.
+        assertEquals(Collections.singletonList("Doe"), result);
+    }
+
+    /**
+     * Asserts that values of all entries that match a search filter are passed to an action, and that the context that
+     * is used for the search is returned to the pool afterwards.
+     */
+    @Test
+    public void testForEachValue() throws Exception
+    {
+        // Setup test fixture.
+        final LdapManager manager = createManager(1);
+        final List<String> result = new ArrayList<>();
+
+        // Execute system under test.
+        manager.forEachValue("uid", "(objectClass=inetOrgPerson)", null, true, result::add);
+
+        // Verify results.
+        assertEquals(2, result.size());
+        assertTrue(result.containsAll(Arrays.asList("jane", "john")));
+        final LdapContext context = manager.getContext();
+        context.close();
+    }
+}
@@ -0,0 +1,197 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.ldap;
+
+import org.jivesoftware.openfire.group.GroupProvider;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.zapodot.junit.ldap.EmbeddedLdapRule;
+import org.zapodot.junit.ldap.EmbeddedLdapRuleBuilder;
+
+import javax.naming.directory.BasicAttribute;
+import javax.naming.directory.DirContext;
+import javax.naming.directory.ModificationItem;
+import javax.naming.ldap.LdapContext;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests that verify the implementation of {@link LdapGroupSynchronizer}.
+ *
+ * Changes are detected against an in-memory LDAP server, which maintains the 'modifyTimestamp' attribute of entries.
+ */
+public class LdapGroupSynchronizerTest
+{
+    @Rule
+    public EmbeddedLdapRule embeddedLdapRule = EmbeddedLdapRuleBuilder
+        .newInstance()
+        .usingDomainDsn("dc=example,dc=org")
+        .importingLdifs("org/jivesoftware/openfire/ldap/groupSynchronizer.ldif")
+        .build();
+
+    private LdapManager manager;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        final Map<String, String> properties = new HashMap<>();
+        properties.put("ldap.host", "localhost");
+        properties.put("ldap.port", String.valueOf(embeddedLdapRule.embeddedServerPort()));
+        properties.put("ldap.sslEnabled", "false");
+        properties.put("ldap.startTlsEnabled", "false");
+        properties.put("ldap.baseDN", "dc=example,dc=org");
+        properties.put("ldap.adminDN", EmbeddedLdapRuleBuilder.DEFAULT_BIND_DSN);
+        properties.put("ldap.adminPassword", EmbeddedLdapRuleBuilder.DEFAULT_BIND_CREDENTIALS);
+        properties.put("ldap.groupSearchFilter", "(objectClass=groupOfNames)");
+        manager = new LdapManager(properties);
+    }
+
+    private LdapGroupSynchronizer createSynchronizer()
+    {
+        return new LdapGroupSynchronizer(manager, mock(GroupProvider.class), "modifyTimestamp");
+    }
+
+    private void addMember(final String groupName, final String memberDN) throws Exception
+    {
+        // Ensure that the modification is recorded with a later timestamp, even if timestamps have a resolution of seconds.
+        Thread.sleep(1100);
+
+        final LdapContext context = manager.getContext();
+        try {
+            context.modifyAttributes("cn=" + groupName + ",ou=groups", new ModificationItem[] {
+                new ModificationItem(DirContext.ADD_ATTRIBUTE, new BasicAttribute("member", memberDN))
+            });
+        } finally {
+            context.close();
+        }
+    }
+
+    /**
+     * Asserts that the first search for changes only establishes a baseline, and does not report any group as changed.
+     */
+    @Test
+    public void testFirstSearchIsBaseline() throws Exception
+    {
+        // Setup test fixture.
+        final LdapGroupSynchronizer synchronizer = createSynchronizer();
+
+        // Execute system under test.
+        final Set<String> result = synchronizer.findChanges();
+
+        // Verify results.
+        assertTrue(result.isEmpty());
+    }
+
+    /**
+     * Asserts that groups that were not modified after the previous search are not reported as changed, even though the
+     * search includes groups that have a change attribute value equal to the highest value that was seen.
+     */
+    @Test
+    public void testUnmodifiedGroupsAreNotReported() throws Exception
+    {
+        // Setup test fixture.
+        final LdapGroupSynchronizer synchronizer = createSynchronizer();
+        synchronizer.findChanges();
+
+        // Execute system under test.
+        final Set<String> result = synchronizer.findChanges();
+
+        // Verify results.
+        assertTrue(result.isEmpty());
+    }
+
+    /**
+     * Asserts that a group that was modified after the previous search is reported as changed, and that other groups
+     * are not.
+     */
+    @Test
+    public void testModifiedGroupIsReported() throws Exception
+    {
+        // Setup test fixture.
+        final LdapGroupSynchronizer synchronizer = createSynchronizer();
+        synchronizer.findChanges();
+        addMember("alpha", "uid=john,ou=people,dc=example,dc=org");
+
+        // Execute system under test.
+        final Set<String> result = synchronizer.findChanges();
+
+        // Verify results.
+        assertEquals(Collections.singleton("alpha"), result);
+    }
+
+    /**
+     * Asserts that a change is reported only once.
+     */
+    @Test
+    public void testModifiedGroupIsReportedOnce() throws Exception
+    {
+        // Setup test fixture.
+        final LdapGroupSynchronizer synchronizer = createSynchronizer();
+        synchronizer.findChanges();
+        addMember("alpha", "uid=john,ou=people,dc=example,dc=org");
+        synchronizer.findChanges();
+
+        // Execute system under test.
+        final Set<String> result = synchronizer.findChanges();
+
+        // Verify results.
+        assertTrue(result.isEmpty());
+    }
+    /**
+     * Asserts that update sequence numbers are compared numerically, rather than lexicographically.
+     */
+    @Test
+    public void testCompareNumbers() throws Exception
+    {
+        // Execute system under test.
+        final int result = LdapGroupSynchronizer.compare("9999", "10000");
+
+        // Verify results.
+        assertTrue(result < 0);
+    }
+
+    /**
+     * Asserts that generalized time values are compared chronologically.
+     */
+    @Test
+    public void testCompareTimestamps() throws Exception
+    {
+        // Execute system under test.
+        final int result = LdapGroupSynchronizer.compare("20231018120000Z", "20230918235959Z");
+
+        // Verify results.
+        assertTrue(result > 0);
+    }
+
+    /**
+     * Asserts that equal values are recognized as such.
+     */
+    @Test
+    public void testCompareEqual() throws Exception
+    {
+        // Execute system under test.
+        final int result = LdapGroupSynchronizer.compare("20231018120000Z", "20231018120000Z");
+
+        // Verify results.
+        assertEquals(0, result);
+    }
+}
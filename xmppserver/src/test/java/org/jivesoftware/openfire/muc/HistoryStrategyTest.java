@@ -16,6 +16,7 @@
 package org.jivesoftware.openfire.muc;
 
 import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.XMPPDateTimeFormat;
 import org.junit.Test;
 import org.xmpp.packet.JID;
 import org.xmpp.packet.Message;
@@ -27,9 +28,10 @@ import java.io.ObjectOutputStream;
 import java.lang.reflect.Field;
 import java.util.AbstractList;
 import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
 import java.util.ListIterator;
 import java.util.Random;
-import java.util.concurrent.ConcurrentLinkedQueue;
 
 import static org.junit.Assert.*;
 
@@ -88,6 +90,114 @@ public class HistoryStrategyTest
         assertEquals(inputMessageTextHistory, resultMessageTextHistory);
     }
 
+    /**
+     * Asserts that when the maximum number of messages is reached, the oldest messages are removed from the history.
+     */
+    @Test
+    public void testNumberStrategyRemovesOldest() throws Exception
+    {
+        // Setup test fixture.
+        final HistoryStrategy input = new HistoryStrategy(null);
+        input.setType(HistoryStrategy.Type.number);
+        input.setMaxNumber(3);
+
+        // Execute system under test.
+        for (int i = 0; i < 100; i++) {
+            input.addMessage(dummyMessage("message " + i, new Date(i * 1000L)));
+        }
+
+        // Verify results.
+        final Iterator<Message> result = input.getMessageHistory();
+        assertEquals("message 97", result.next().getBody());
+        assertEquals("message 98", result.next().getBody());
+        assertEquals("message 99", result.next().getBody());
+        assertFalse(result.hasNext());
+    }
+
+    /**
+     * Asserts that messages that are added out of order are returned in order of their timestamp.
+     */
+    @Test
+    public void testOutOfOrderMessagesAreSorted() throws Exception
+    {
+        // Setup test fixture.
+        final HistoryStrategy input = new HistoryStrategy(null);
+        input.setType(HistoryStrategy.Type.all);
+
+        // Execute system under test.
+        input.addMessage(dummyMessage("b", new Date(2000)));
+        input.addMessage(dummyMessage("d", new Date(4000)));
+        input.addMessage(dummyMessage("a", new Date(1000)));
+        input.addMessage(dummyMessage("c", new Date(3000)));
+
+        // Verify results.
+        final ListIterator<Message> result = input.getReverseMessageHistory();
+        assertEquals("d", result.previous().getBody());
+        assertEquals("c", result.previous().getBody());
+        assertEquals("b", result.previous().getBody());
+        assertEquals("a", result.previous().getBody());
+        assertFalse(result.hasPrevious());
+    }
+
+    /**
+     * Asserts that only messages sent at or after the requested date are returned.
+     */
+    @Test
+    public void testReverseMessageHistorySince() throws Exception
+    {
+        // Setup test fixture.
+        final HistoryStrategy input = new HistoryStrategy(null);
+        input.setType(HistoryStrategy.Type.all);
+        for (int i = 0; i < 10; i++) {
+            input.addMessage(dummyMessage("message " + i, new Date(i * 1000L)));
+        }
+
+        // Execute system under test.
+        final ListIterator<Message> result = input.getReverseMessageHistory(new Date(8000));
+
+        // Verify results.
+        assertEquals("message 9", result.previous().getBody());
+        assertEquals("message 8", result.previous().getBody());
+        assertFalse(result.hasPrevious());
+    }
+
+    /**
+     * Asserts that an iterator that was obtained before messages were removed from the history does not return those
+     * messages, nor messages that replaced them.
+     */
+    @Test
+    public void testIteratorSkipsRemovedMessages() throws Exception
+    {
+        // Setup test fixture.
+        final HistoryStrategy input = new HistoryStrategy(null);
+        input.setType(HistoryStrategy.Type.number);
+        input.setMaxNumber(4);
+        for (int i = 0; i < 4; i++) {
+            input.addMessage(dummyMessage("message " + i, new Date(i * 1000L)));
+        }
+        final Iterator<Message> result = input.getMessageHistory();
+        assertEquals("message 0", result.next().getBody());
+
+        // Execute system under test.
+        input.addMessage(dummyMessage("message 4", new Date(4000)));
+        input.addMessage(dummyMessage("message 5", new Date(5000)));
+
+        // Verify results.
+        assertEquals("message 2", result.next().getBody());
+        assertEquals("message 3", result.next().getBody());
+        assertFalse(result.hasNext());
+    }
+
+    private static Message dummyMessage(final String body, final Date sent)
+    {
+        final Message message = new Message();
+        message.setFrom(new JID("room@conference.example.org/nick"));
+        message.setType(Message.Type.groupchat);
+        message.setBody(body);
+        message.addChildElement("delay", "urn:xmpp:delay").addAttribute("stamp", XMPPDateTimeFormat.format(sent));
+        return message;
+    }
+
     public static <E> void populateField(final E object, final String fieldName, final Object value) throws NoSuchFieldException, IllegalAccessException {
         final Field field = object.getClass().getDeclaredField(fieldName);
         field.setAccessible(true);
@@ -119,9 +229,9 @@ public class HistoryStrategyTest
         h2.setBody("This is another historic message that is used in a unit test. Some random value to make text unique: " + StringUtils.randomString(10));
         h2.addChildElement("delay", "urn:xmpp:delay").addAttribute("stamp", "1");
 
-        final ConcurrentLinkedQueue<Message> history = new ConcurrentLinkedQueue<>();
-        history.add(h1);
-        history.add(h2);
+        final HistoryBuffer history = new HistoryBuffer();
+        history.add(h1, -1);
+        history.add(h2, -1);
 
         final Message subject = new Message();
         subject.setFrom(new JID("bar" + StringUtils.randomString(4) + "@example.org"));
@@ -0,0 +1,105 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.muc.spi;
+
+import org.jivesoftware.openfire.muc.MUCRole;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify how changes are combined by {@link RoomStateWriter}.
+ */
+public class RoomStateWriterTest {
+
+    /**
+     * Asserts that repeated changes to the same column of a room result in one update, with the last value.
+     */
+    @Test
+    public void testColumnChangesAreCombined() throws Exception
+    {
+        // Setup test fixture.
+        final RoomStateWriter.Change first = new RoomStateWriter.RoomColumnChange("UPDATE x", 1, "a");
+        final RoomStateWriter.Change second = new RoomStateWriter.RoomColumnChange("UPDATE x", 1, "b");
+        final RoomStateWriter.Batch batch = new RoomStateWriter.Batch();
+
+        // Execute system under test.
+        assertEquals(first.key, second.key);
+        first.combine(second).addTo(batch);
+
+        // Verify results.
+        assertEquals(1, batch.updates.get("UPDATE x").size());
+        assertArrayEquals(new Object[] { "b", 1L }, batch.updates.get("UPDATE x").get(0));
+    }
+
+    /**
+     * Asserts that an affiliation that is added and then changed is written as one insert of the last affiliation.
+     */
+    @Test
+    public void testAffiliationAddedThenChanged() throws Exception
+    {
+        // Setup test fixture.
+        final RoomStateWriter.Change added = new RoomStateWriter.AffiliationChange(1, "john@example.org", "john", MUCRole.Affiliation.member, MUCRole.Affiliation.none);
+        final RoomStateWriter.Change changed = new RoomStateWriter.AffiliationChange(1, "john@example.org", null, MUCRole.Affiliation.admin, MUCRole.Affiliation.member);
+        final RoomStateWriter.Batch batch = new RoomStateWriter.Batch();
+
+        // Execute system under test.
+        added.combine(changed).addTo(batch);
+
+        // Verify results.
+        assertTrue(batch.deletes.isEmpty());
+        assertTrue(batch.updates.isEmpty());
+        assertArrayEquals(new Object[] { 1L, "john@example.org", MUCRole.Affiliation.admin.getValue() }, batch.inserts.get(MUCPersistenceManager.ADD_AFFILIATION).get(0));
+    }
+
+    /**
+     * Asserts that an affiliation that is added and then removed again does not result in an insert.
+     */
+    @Test
+    public void testAffiliationAddedThenRemoved() throws Exception
+    {
+        // Setup test fixture.
+        final RoomStateWriter.Change added = new RoomStateWriter.AffiliationChange(1, "john@example.org", "john", MUCRole.Affiliation.member, MUCRole.Affiliation.none);
+        final RoomStateWriter.Change removed = new RoomStateWriter.AffiliationChange(1, "john@example.org", null, MUCRole.Affiliation.none, MUCRole.Affiliation.member);
+        final RoomStateWriter.Batch batch = new RoomStateWriter.Batch();
+
+        // Execute system under test.
+        added.combine(removed).addTo(batch);
+
+        // Verify results.
+        assertTrue(batch.inserts.isEmpty());
+        assertTrue(batch.updates.isEmpty());
+    }
+
+    /**
+     * Asserts that a member that becomes an outcast is removed from the members table before being added to the
+     * affiliations table.
+     */
+    @Test
+    public void testMemberBecomesOutcast() throws Exception
+    {
+        // Setup test fixture.
+        final RoomStateWriter.Change change = new RoomStateWriter.AffiliationChange(1, "john@example.org", null, MUCRole.Affiliation.outcast, MUCRole.Affiliation.member);
+        final RoomStateWriter.Batch batch = new RoomStateWriter.Batch();
+
+        // Execute system under test.
+        change.addTo(batch);
+
+        // Verify results.
+        assertArrayEquals(new Object[] { 1L, "john@example.org" }, batch.deletes.get(MUCPersistenceManager.DELETE_MEMBER).get(0));
+        assertArrayEquals(new Object[] { 1L, "john@example.org", MUCRole.Affiliation.outcast.getValue() }, batch.inserts.get(MUCPersistenceManager.ADD_AFFILIATION).get(0));
+    }
+}
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.net;
+
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.naming.directory.InitialDirContext;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies the DNS SRV lookups and caching of {@link DNSUtil}, using a DNS server that runs in the test.
+ */
+public class DNSUtilLookupTest
+{
+    private StubDnsServer dnsServer;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Fixtures.reconfigureOpenfireHome();
+        CacheFactory.initialize();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Fixtures.clearExistingProperties();
+
+        dnsServer = new StubDnsServer();
+        final Hashtable<String, String> env = new Hashtable<>();
+        env.put("java.naming.factory.initial", "com.sun.jndi.dns.DnsContextFactory");
+        env.put("java.naming.provider.url", "dns://127.0.0.1:" + dnsServer.getPort());
+        DNSUtil.setContext(new InitialDirContext(env));
+    }
+
+    @After
+    public void tearDown() {
+        dnsServer.close();
+    }
+
+    /**
+     * Asserts that the records that are served by DNS are returned, ordered by priority.
+     */
+    @Test
+    public void testLookup() throws Exception
+    {
+        // Setup test fixture.
+        dnsServer.setRecords("_xmpp-server._tcp.lookup.example.org.", "10 5 5269 xmpp.example.org.", "20 0 5270 backup.example.org.");
+
+        // Execute system under test.
+        final List<DNSUtil.WeightedHostAddress> result = DNSUtil.srvLookup("xmpp-server", "tcp", "lookup.example.org");
+
+        // Verify results.
+        assertEquals(2, result.size());
+        assertEquals("xmpp.example.org", result.get(0).getHost());
+        assertEquals(5269, result.get(0).getPort());
+        assertFalse(result.get(0).isDirectTLS());
+        assertEquals("backup.example.org", result.get(1).getHost());
+        assertEquals(5270, result.get(1).getPort());
+    }
+
+    /**
+     * Asserts that a domain without records yields an empty result.
+     */
+    @Test
+    public void testLookupUnknownDomain() throws Exception
+    {
+        // Execute system under test.
+        final List<DNSUtil.WeightedHostAddress> result = DNSUtil.srvLookup("xmpp-server", "tcp", "unknown.example.org");
+
+        // Verify results.
+        assertTrue(result.isEmpty());
+    }
+
+    /**
+     * Asserts that a result is cached, and used without querying DNS again.
+     */
+    @Test
+    public void testCachedResultIsUsed() throws Exception
+    {
+        // Setup test fixture.
+        dnsServer.setRecords("_xmpp-server._tcp.cached.example.org.", "10 5 5269 xmpp.example.org.");
+        DNSUtil.srvLookup("xmpp-server", "tcp", "cached.example.org");
+
+        // Execute system under test.
+        final List<DNSUtil.WeightedHostAddress> result = DNSUtil.srvLookup("xmpp-server", "tcp", "cached.example.org");
+
+        // Verify results.
+        assertEquals(1, result.size());
+        assertEquals(1, dnsServer.getQueryCount("_xmpp-server._tcp.cached.example.org."));
+    }
+
+    /**
+     * Asserts that a result that is due to be refreshed is still used, while it is being refreshed in the background.
+     */
+    @Test
+    public void testStaleResultIsUsedWhileRefreshing() throws Exception
+    {
+        // Setup test fixture.
+        DNSUtil.SRV_TTL.setValue(Duration.ZERO);
+        dnsServer.setRecords("_xmpp-server._tcp.stale.example.org.", "10 5 5269 old.example.org.");
+        DNSUtil.srvLookup("xmpp-server", "tcp", "stale.example.org");
+        dnsServer.setRecords("_xmpp-server._tcp.stale.example.org.", "10 5 5269 new.example.org.");
+        Thread.sleep(10);
+
+        // Execute system under test.
+        final List<DNSUtil.WeightedHostAddress> stale = DNSUtil.srvLookup("xmpp-server", "tcp", "stale.example.org");
+        List<DNSUtil.WeightedHostAddress> refreshed;
+        final Instant deadline = Instant.now().plusSeconds(5);
+        do {
+            Thread.sleep(10);
+            refreshed = DNSUtil.srvLookup("xmpp-server", "tcp", "stale.example.org");
+        } while (!refreshed.get(0).getHost().equals("new.example.org") && Instant.now().isBefore(deadline));
+
+        // Verify results.
+        assertEquals("old.example.org", stale.get(0).getHost());
+        assertEquals("new.example.org", refreshed.get(0).getHost());
+    }
+
+    /**
+     * A DNS server that answers SRV queries from a fixed set of records, and answers with NXDOMAIN for other names.
+     */
+    private static final class StubDnsServer
+    {
+        private final DatagramSocket socket;
+        private final Map<String, List<String>> records = new ConcurrentHashMap<>();
+        private final Map<String, AtomicInteger> queryCounts = new ConcurrentHashMap<>();
+
+        StubDnsServer() throws IOException
+        {
+            socket = new DatagramSocket(0, InetAddress.getLoopbackAddress());
+            final Thread thread = new Thread(this::serve, "stub-dns-server");
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int getPort()
+        {
+            return socket.getLocalPort();
+        }
+
+        /**
+         * Sets the SRV records for a name, each in the form 'priority weight port target'.
+         */
+        void setRecords(final String name, final String... srvRecords)
+        {
+            records.put(name.toLowerCase(), Arrays.asList(srvRecords));
+        }
+
+        int getQueryCount(final String name)
+        {
+            final AtomicInteger count = queryCounts.get(name.toLowerCase());
+            return count == null ? 0 : count.get();
+        }
+
+        void close()
+        {
+            socket.close();
+        }
+
+        private void serve()
+        {
+            final byte[] buffer = new byte[512];
+            while (!socket.isClosed()) {
+                try {
+                    final DatagramPacket request = new DatagramPacket(buffer, buffer.length);
+                    socket.receive(request);
+                    final byte[] response = respond(ByteBuffer.wrap(request.getData(), 0, request.getLength()));
+                    socket.send(new DatagramPacket(response, response.length, request.getSocketAddress()));
+                } catch (IOException e) {
+                    // The socket was closed.
+                }
+            }
+        }
+
+        private byte[] respond(final ByteBuffer query)
+        {
+            // Read the name of the (single) question, that follows the 12 byte header.
+            final short id = query.getShort();
+            query.position(12);
+            final StringBuilder name = new StringBuilder();
+            int length;
+            while ((length = query.get() & 0xFF) != 0) {
+                final byte[] label = new byte[length];
+                query.get(label);
+                name.append(new String(label, StandardCharsets.US_ASCII)).append('.');
+            }
+            query.getShort(); // type
+            query.getShort(); // class
+            final int questionEnd = query.position();
+
+            final String questionName = name.toString().toLowerCase();
+            queryCounts.computeIfAbsent(questionName, k -> new AtomicInteger()).incrementAndGet();
+            final List<String> answers = records.get(questionName);
+
+            final ByteArrayOutputStream response = new ByteArrayOutputStream();
+            final ByteBuffer header = ByteBuffer.allocate(12);
+            header.putShort(id);
+            header.putShort((short) (answers == null ? 0x8183 : 0x8180)); // A response to a recursive query, with 'NXDOMAIN' if there are no records.
+            header.putShort((short) 1); // questions
+            header.putShort((short) (answers == null ? 0 : answers.size())); // answers
+            header.putShort((short) 0); // authority records
+            header.putShort((short) 0); // additional records
+            response.write(header.array(), 0, header.position());
+            response.write(query.array(), 12, questionEnd - 12);
+
+            if (answers != null) {
+                for (final String answer : answers) {
+                    final String[] parts = answer.split(" ");
+                    final byte[] target = encodeName(parts[3]);
+                    final ByteBuffer record = ByteBuffer.allocate(12 + 6 + target.length);
+                    record.putShort((short) 0xC00C); // A pointer to the name of the question.
+                    record.putShort((short) 33); // type: SRV
+                    record.putShort((short) 1); // class: IN
+                    record.putInt(60); // TTL
+                    record.putShort((short) (6 + target.length));
+                    record.putShort((short) Integer.parseInt(parts[0]));
+                    record.putShort((short) Integer.parseInt(parts[1]));
+                    record.putShort((short) Integer.parseInt(parts[2]));
+                    record.put(target);
+                    response.write(record.array(), 0, record.position());
+                }
+            }
+            return response.toByteArray();
+        }
+
+        private static byte[] encodeName(final String name)
+        {
+            final ByteArrayOutputStream result = new ByteArrayOutputStream();
+            for (final String label : name.split("\\.")) {
+                final byte[] bytes = label.getBytes(StandardCharsets.US_ASCII);
+                result.write(bytes.length);
+                result.write(bytes, 0, bytes.length);
+            }
+            result.write(0);
+            return result.toByteArray();
+        }
+    }
+}
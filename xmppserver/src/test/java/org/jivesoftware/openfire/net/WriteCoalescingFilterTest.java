@@ -0,0 +1,241 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.net;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.apache.mina.core.filterchain.IoFilter;
+import org.apache.mina.core.future.DefaultWriteFuture;
+import org.apache.mina.core.session.DummySession;
+import org.apache.mina.core.session.IoSession;
+import org.apache.mina.core.write.DefaultWriteRequest;
+import org.apache.mina.core.write.WriteRequest;
+import org.jivesoftware.Fixtures;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link WriteCoalescingFilter}
+ */
+public class WriteCoalescingFilterTest
+{
+    private WriteCoalescingFilter filter;
+    private IoSession session;
+    private IoFilter.NextFilter nextFilter;
+
+    /**
+     * The write requests that were passed on to the next filter, in order.
+     */
+    private List<WriteRequest> passedOn;
+
+    @BeforeClass
+    public static void beforeClass() throws Exception {
+        Fixtures.reconfigureOpenfireHome();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Fixtures.clearExistingProperties();
+        // Prevent tests that do not verify time-based behavior from depending on how fast they are executed.
+        WriteCoalescingFilter.MAX_LATENCY.setValue(Duration.ofMinutes(1));
+
+        filter = new WriteCoalescingFilter();
+        session = new DummySession();
+        passedOn = new ArrayList<>();
+        nextFilter = mock(IoFilter.NextFilter.class);
+        doAnswer(invocationOnMock -> {
+            passedOn.add(invocationOnMock.getArgument(1));
+            return null;
+        }).when(nextFilter).filterWrite(any(IoSession.class), any(WriteRequest.class));
+    }
+
+    private WriteRequest write(final String text) throws Exception {
+        final WriteRequest request = new DefaultWriteRequest(IoBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)), new DefaultWriteFuture(session));
+        filter.filterWrite(nextFilter, session, request);
+        return request;
+    }
+
+    private static String text(final WriteRequest request) {
+        final IoBuffer buffer = ((IoBuffer) request.getMessage()).duplicate();
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Asserts that data is passed on immediately when no other write is in progress.
+     */
+    @Test
+    public void testNotHeldWhenIdle() throws Exception
+    {
+        // Setup test fixture.
+
+        // Execute system under test.
+        write("<a/>");
+
+        // Verify results.
+        assertEquals(1, passedOn.size());
+        assertEquals("<a/>", text(passedOn.get(0)));
+    }
+
+    /**
+     * Asserts that data that is gathered while a write is in progress is written when the amount of gathered bytes
+     * reaches the threshold.
+     */
+    @Test
+    public void testByteThreshold() throws Exception
+    {
+        // Setup test fixture.
+        WriteCoalescingFilter.MAX_BYTES.setValue(10);
+        write("<a/>");
+        write("<bb/>");
+        assertEquals(1, passedOn.size());
+
+        // Execute system under test.
+        write("<ccc/>");
+
+        // Verify results.
+        assertEquals(2, passedOn.size());
+        assertEquals("<bb/><ccc/>", text(passedOn.get(1)));
+    }
+
+    /**
+     * Asserts that data that is gathered while a write is in progress is written when that write completes, and that
+     * the futures of the original write requests are completed when the combined data is written.
+     */
+    @Test
+    public void testFlushOnWriteCompletion() throws Exception
+    {
+        // Setup test fixture.
+        write("<a/>");
+        final WriteRequest second = write("<b/>");
+        final WriteRequest third = write("<c/>");
+        assertEquals(1, passedOn.size());
+
+        // Execute system under test.
+        passedOn.get(0).getFuture().setWritten();
+
+        // Verify results.
+        assertEquals(2, passedOn.size());
+        assertEquals("<b/><c/>", text(passedOn.get(1)));
+        assertFalse(second.getFuture().isDone());
+        passedOn.get(1).getFuture().setWritten();
+        assertTrue(second.getFuture().isWritten());
+        assertTrue(third.getFuture().isWritten());
+    }
+
+    /**
+     * Asserts that gathered data is written when more data is written after the maximum latency has passed, even when
+     * an earlier write is still in progress.
+     */
+    @Test
+    public void testLatencyFlush() throws Exception
+    {
+        // Setup test fixture.
+        WriteCoalescingFilter.MAX_LATENCY.setValue(Duration.ofMillis(1));
+        write("<a/>");
+        write("<b/>");
+        assertEquals(1, passedOn.size());
+        Thread.sleep(10);
+
+        // Execute system under test.
+        write("<c/>");
+
+        // Verify results.
+        assertEquals(2, passedOn.size());
+        assertEquals("<b/><c/>", text(passedOn.get(1)));
+    }
+
+    /**
+     * Asserts that the completion of an earlier write does not cause data to be written while a later write is still
+     * in progress.
+     */
+    @Test
+    public void testEarlierCompletionDoesNotFlushEarly() throws Exception
+    {
+        // Setup test fixture.
+        write("<a/>");
+        write("<b/>");
+        WriteCoalescingFilter.flush(session);
+        write("<c/>");
+        assertEquals(2, passedOn.size());
+
+        // Execute system under test.
+        passedOn.get(0).getFuture().setWritten();
+
+        // Verify results.
+        assertEquals(2, passedOn.size());
+        passedOn.get(1).getFuture().setWritten();
+        assertEquals(3, passedOn.size());
+        assertEquals("<c/>", text(passedOn.get(2)));
+    }
+
+    /**
+     * Asserts that data is written in the order in which it was requested, when an explicit flush is mixed with data
+     * that is written later.
+     */
+    @Test
+    public void testOrderWithExplicitFlush() throws Exception
+    {
+        // Setup test fixture.
+        write("<a/>");
+        write("<b/>");
+
+        // Execute system under test.
+        WriteCoalescingFilter.flush(session);
+        write("<c/>");
+        write("<d/>");
+        WriteCoalescingFilter.flush(session);
+
+        // Verify results.
+        final StringBuilder result = new StringBuilder();
+        for (final WriteRequest request : passedOn) {
+            result.append(text(request));
+        }
+        assertEquals("<a/><b/><c/><d/>", result.toString());
+        assertEquals(3, passedOn.size());
+    }
+
+    /**
+     * Asserts that data that is not a buffer is passed on after the data that was gathered before it.
+     */
+    @Test
+    public void testOrderWithOtherData() throws Exception
+    {
+        // Setup test fixture.
+        write("<a/>");
+        write("<b/>");
+        final WriteRequest other = new DefaultWriteRequest(new Object(), new DefaultWriteFuture(session));
+
+        // Execute system under test.
+        filter.filterWrite(nextFilter, session, other);
+
+        // Verify results.
+        assertEquals(3, passedOn.size());
+        assertEquals("<b/>", text(passedOn.get(1)));
+        assertSame(other, passedOn.get(2));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link StanzaSerializationCache}
+ */
+public class StanzaSerializationCacheTest {
+
+    /**
+     * Asserts that a stanza that is delivered to many recipients is serialized with the correct 'to' address each time.
+     */
+    @Test
+    public void testBroadcast() throws Exception
+    {
+        // Setup test fixture.
+        final Message message = new Message();
+        message.setFrom(new JID("room@conference.example.org/nick"));
+        message.setType(Message.Type.groupchat);
+        message.setBody("Héllo, wörld!");
+
+        for (int i = 0; i < 5; i++) {
+            message.setTo(new JID("user" + i + "@example.org/resource"));
+
+            // Execute system under test.
+            final String result = toString(StanzaSerializationCache.serialize(message));
+
+            // Verify results.
+            assertEquals(message.getElement().asXML(), result);
+        }
+    }
+
+    /**
+     * Asserts that modifications (other than changing the 'to' address) in between deliveries are not ignored.
+     */
+    @Test
+    public void testModifiedInBetweenDeliveries() throws Exception
+    {
+        // Setup test fixture.
+        final Message message = new Message();
+        message.setFrom(new JID("room@conference.example.org/nick"));
+        message.setBody("original");
+        message.setTo(new JID("user1@example.org"));
+        StanzaSerializationCache.serialize(message);
+        message.setTo(new JID("user2@example.org"));
+        StanzaSerializationCache.serialize(message);
+
+        // Execute system under test.
+        message.setTo(new JID("user3@example.org"));
+        message.setBody("modified");
+        message.addChildElement("x", "urn:example");
+        final String result = toString(StanzaSerializationCache.serialize(message));
+
+        // Verify results.
+        assertEquals(message.getElement().asXML(), result);
+    }
+
+    /**
+     * Asserts that a modified attribute value is not ignored.
+     */
+    @Test
+    public void testModifiedAttributeInBetweenDeliveries() throws Exception
+    {
+        // Setup test fixture.
+        final Message message = new Message();
+        message.setID("first");
+        message.setTo(new JID("user1@example.org"));
+        StanzaSerializationCache.serialize(message);
+        message.setTo(new JID("user2@example.org"));
+        StanzaSerializationCache.serialize(message);
+
+        // Execute system under test.
+        message.setTo(new JID("user3@example.org"));
+        message.setID("second");
+        final String result = toString(StanzaSerializationCache.serialize(message));
+
+        // Verify results.
+        assertEquals(message.getElement().asXML(), result);
+    }
+
+    private static String toString(final IoBuffer buffer) {
+        final byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
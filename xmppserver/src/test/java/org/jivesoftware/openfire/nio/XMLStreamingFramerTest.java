@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.nio;
+
+import org.apache.mina.core.buffer.IoBuffer;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link XMLStreamingFramer}, mostly by comparing its
+ * output with that of {@link XMLLightweightParser} for identical input.
+ */
+public class XMLStreamingFramerTest {
+
+    /**
+     * Traffic as typically sent by a client at the start of a session.
+     */
+    private static final String TRAFFIC = "<?xml version=\"1.0\"?>"
+        + "<stream:stream xmlns:stream=\"http://etherx.jabber.org/streams\" xmlns=\"jabber:client\" to=\"example.org\" version=\"1.0\">"
+        + "<starttls xmlns=\"urn:ietf:params:xml:ns:xmpp-tls\"/>"
+        + " \n"
+        + "<iq type=\"get\" id=\"r1\"><query xmlns=\"jabber:iq:roster\"/></iq>"
+        + "<presence><show>chat</show><status>Café ☃ 😀</status></presence>"
+        + "<message to=\"john@example.org\" type=\"chat\"><body><![CDATA[<b>bold</b> ]]]></body><!-- a > comment --></message>"
+        + "<message to=\"jane@example.org\"><body>a &lt; b</body></message>"
+        + "</stream:stream>";
+
+    /**
+     * Asserts that the framer produces the same stanzas as the legacy parser when all data is received at once.
+     */
+    @Test
+    public void testSameResultAsLegacyParser() throws Exception
+    {
+        // Setup test fixture.
+        final byte[] input = TRAFFIC.getBytes(StandardCharsets.UTF_8);
+
+        // Execute system under test.
+        final List<String> expected = legacy(input, input.length);
+        final List<String> result = framed(input, input.length);
+
+        // Verify results.
+        assertEquals(8, expected.size());
+        assertEquals(expected, result);
+    }
+
+    /**
+     * Asserts that the framer produces the same stanzas as the legacy parser when data is received in chunks of every
+     * possible size, which causes stanzas (and multibyte characters) to be split over multiple reads.
+     */
+    @Test
+    public void testSameResultWhenFragmented() throws Exception
+    {
+        // Setup test fixture.
+        final byte[] input = TRAFFIC.getBytes(StandardCharsets.UTF_8);
+        final List<String> expected = legacy(input, input.length);
+
+        for (int chunkSize = 1; chunkSize < input.length; chunkSize++) {
+            // Execute system under test.
+            final List<String> result = framed(input, chunkSize);
+
+            // Verify results.
+            assertEquals("Unexpected result for chunk size " + chunkSize, expected, result);
+        }
+    }
+
+    /**
+     * Asserts that an attribute value in single quotes that contains a '>' character does not end the element.
+     */
+    @Test
+    public void testSingleQuotedAttributeWithGreaterThan() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<message to='a@example.org' id='x>y'/><presence/>";
+
+        // Execute system under test.
+        final List<String> result = framed(input.getBytes(StandardCharsets.UTF_8), 3);
+
+        // Verify results.
+        assertEquals(Arrays.asList("<message to='a@example.org' id='x>y'/>", "<presence/>"), result);
+    }
+
+    /**
+     * Asserts that markup characters and partial end markers inside a CDATA section do not end the section or the
+     * stanza, for every possible chunk size.
+     */
+    @Test
+    public void testCharacterDataSection() throws Exception
+    {
+        // Setup test fixture.
+        final String stanza = "<message><body><![CDATA[a>b <b>bold</b> <c> ]] ]> ]]]></body></message>";
+        final byte[] input = (stanza + "<presence/>").getBytes(StandardCharsets.UTF_8);
+
+        for (int chunkSize = 1; chunkSize <= input.length; chunkSize++) {
+            // Execute system under test.
+            final List<String> result = framed(input, chunkSize);
+
+            // Verify results.
+            assertEquals("Unexpected result for chunk size " + chunkSize, Arrays.asList(stanza, "<presence/>"), result);
+        }
+    }
+
+    /**
+     * Asserts that only complete stanzas are consumed from the buffer.
+     */
+    @Test
+    public void testIncompleteStanzaRemainsInBuffer() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<presence/><message><body>incompl";
+        final IoBuffer buffer = IoBuffer.wrap(input.getBytes(StandardCharsets.UTF_8));
+        final XMLStreamingFramer framer = new XMLStreamingFramer();
+
+        // Execute system under test.
+        framer.read(buffer);
+        final String[] result = framer.getMsgs();
+
+        // Verify results.
+        assertEquals(1, result.length);
+        assertEquals("<presence/>", result[0]);
+        assertEquals("<presence/>".length(), buffer.position());
+    }
+
+    /**
+     * Asserts that an illegal control character causes an exception.
+     */
+    @Test(expected = XMLNotWellFormedException.class)
+    public void testIllegalCharacter() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<message><body>\u0001</body></message>";
+        final XMLStreamingFramer framer = new XMLStreamingFramer();
+
+        // Execute system under test.
+        framer.read(IoBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Asserts that an illegal numeric character reference causes an exception.
+     */
+    @Test(expected = XMLNotWellFormedException.class)
+    public void testIllegalCharacterReference() throws Exception
+    {
+        // Setup test fixture.
+        final String input = "<message><body>&#1;</body></message>";
+        final XMLStreamingFramer framer = new XMLStreamingFramer();
+
+        // Execute system under test.
+        framer.read(IoBuffer.wrap(input.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    /**
+     * Feeds the input to a legacy parser, in chunks of the provided size.
+     */
+    private static List<String> legacy(final byte[] input, final int chunkSize) throws Exception
+    {
+        final XMLLightweightParser parser = new XMLLightweightParser(StandardCharsets.UTF_8);
+        final List<String> result = new ArrayList<>();
+        for (int offset = 0; offset < input.length; offset += chunkSize) {
+            final IoBuffer buffer = IoBuffer.wrap(input, offset, Math.min(chunkSize, input.length - offset));
+            parser.read(buffer);
+            result.addAll(Arrays.asList(parser.getMsgs()));
+        }
+        return result;
+    }
+
+    /**
+     * Feeds the input to a framer, in chunks of the provided size, retaining unconsumed data in between reads in the
+     * same way as MINA's CumulativeProtocolDecoder does.
+     */
+    private static List<String> framed(final byte[] input, final int chunkSize) throws Exception
+    {
+        final XMLStreamingFramer framer = new XMLStreamingFramer();
+        final IoBuffer cumulative = IoBuffer.allocate(chunkSize).setAutoExpand(true);
+        final List<String> result = new ArrayList<>();
+        for (int offset = 0; offset < input.length; offset += chunkSize) {
+            cumulative.put(input, offset, Math.min(chunkSize, input.length - offset));
+            cumulative.flip();
+            framer.read(cumulative);
+            result.addAll(Arrays.asList(framer.getMsgs()));
+            cumulative.compact();
+        }
+        assertTrue(result.size() > 0);
+        return result;
+    }
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.privacy;
+
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.jivesoftware.openfire.roster.Roster;
+import org.jivesoftware.openfire.roster.RosterItem;
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.Presence;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Verifies that {@link CompiledPrivacyList} reaches the same verdicts as evaluating each {@link PrivacyItem} in turn.
+ */
+public class CompiledPrivacyListTest
+{
+    private static final JID OWNER = new JID("owner@example.org/desktop");
+
+    private static PrivacyItem createItem(final int order, final String action, final String type, final String value, final String... stanzas) throws Exception
+    {
+        final Element element = DocumentHelper.createElement("item");
+        element.addAttribute("order", String.valueOf(order));
+        element.addAttribute("action", action);
+        if (type != null) {
+            element.addAttribute("type", type);
+            element.addAttribute("value", value);
+        }
+        for (final String stanza : stanzas) {
+            element.addElement(stanza);
+        }
+        return new PrivacyItem(element);
+    }
+
+    private static List<PrivacyItem> createItems() throws Exception
+    {
+        final List<PrivacyItem> items = new ArrayList<>(Arrays.asList(
+            createItem(10, "allow", "jid", "friend@example.com/phone"),
+            createItem(20, "deny", "jid", "friend@example.com", "message"),
+            createItem(30, "deny", "jid", "example.com", "presence-out"),
+            createItem(40, "allow", "jid", "example.net", "iq", "presence-in"),
+            createItem(50, "deny", null, null, "message", "presence-in")
+        ));
+        Collections.sort(items);
+        return items;
+    }
+
+    /**
+     * Evaluates the items one by one, like privacy lists did before they were compiled.
+     */
+    private static PrivacyItem evaluateSequentially(final List<PrivacyItem> items, final Packet packet)
+    {
+        for (final PrivacyItem item : items) {
+            if (item.matchesCondition(packet, null, OWNER)) {
+                return item;
+            }
+        }
+        return null;
+    }
+
+    private static List<Packet> createPackets()
+    {
+        final List<Packet> result = new ArrayList<>();
+        final List<JID> peers = Arrays.asList(
+            new JID("friend@example.com/phone"),
+            new JID("friend@example.com/laptop"),
+            new JID("stranger@example.com/laptop"),
+            new JID("someone@example.net/home"),
+            new JID("example.net"),
+            new JID("other@example.edu/work")
+        );
+        for (final JID peer : peers) {
+            final Message inboundMessage = new Message();
+            inboundMessage.setFrom(peer);
+            inboundMessage.setTo(OWNER);
+            result.add(inboundMessage);
+
+            final Message outboundMessage = new Message();
+            outboundMessage.setFrom(OWNER);
+            outboundMessage.setTo(peer);
+            result.add(outboundMessage);
+
+            final IQ iq = new IQ();
+            iq.setFrom(peer);
+            iq.setTo(OWNER);
+            result.add(iq);
+
+            final Presence inboundPresence = new Presence();
+            inboundPresence.setFrom(peer);
+            inboundPresence.setTo(OWNER);
+            result.add(inboundPresence);
+
+            final Presence outboundPresence = new Presence(Presence.Type.unavailable);
+            outboundPresence.setFrom(OWNER);
+            outboundPresence.setTo(peer);
+            result.add(outboundPresence);
+
+            final Presence subscription = new Presence(Presence.Type.subscribe);
+            subscription.setFrom(peer);
+            subscription.setTo(OWNER);
+            result.add(subscription);
+        }
+        return result;
+    }
+
+    /**
+     * Asserts that, for a variety of packets, the compiled list selects the same item as sequential evaluation.
+     */
+    @Test
+    public void testSameVerdictAsSequentialEvaluation() throws Exception
+    {
+        // Setup test fixture.
+        final List<PrivacyItem> items = createItems();
+        final CompiledPrivacyList compiled = new CompiledPrivacyList(OWNER, items);
+
+        for (final Packet packet : createPackets()) {
+            // Execute system under test.
+            final PrivacyItem result = compiled.evaluate(packet, () -> null);
+
+            // Verify results.
+            assertSame("Unexpected verdict for " + packet.toXML(), evaluateSequentially(items, packet), result);
+        }
+    }
+
+    /**
+     * Asserts that a cached verdict is identical to the verdict that was computed initially.
+     */
+    @Test
+    public void testCachedVerdict() throws Exception
+    {
+        // Setup test fixture.
+        final List<PrivacyItem> items = createItems();
+        final CompiledPrivacyList compiled = new CompiledPrivacyList(OWNER, items);
+        final Message message = new Message();
+        message.setFrom(new JID("friend@example.com/laptop"));
+        message.setTo(OWNER);
+
+        // Execute system under test.
+        final PrivacyItem first = compiled.evaluate(message, () -> null);
+        final PrivacyItem second = compiled.evaluate(message, () -> null);
+
+        // Verify results.
+        assertNotNull(first);
+        assertFalse(first.isAllow());
+        assertEquals(20, first.getOrder());
+        assertSame(first, second);
+    }
+
+    /**
+     * Asserts that a cached verdict that depends on the roster of the owner is discarded when another cluster node
+     * signals that this roster was modified.
+     */
+    @Test
+    public void testRosterDependentVerdictInvalidatedByClusterTask() throws Exception
+    {
+        // Setup test fixture.
+        final List<PrivacyItem> items = Arrays.asList(
+            createItem(10, "allow", "subscription", "both", "message"),
+            createItem(20, "deny", null, null, "message")
+        );
+        final CompiledPrivacyList compiled = new CompiledPrivacyList(OWNER, items);
+        final JID peer = new JID("friend@example.com/laptop");
+        final Message message = new Message();
+        message.setFrom(peer);
+        message.setTo(OWNER);
+        final AtomicReference<Roster> roster = new AtomicReference<>(rosterWith(peer, RosterItem.SUB_BOTH));
+        assertTrue(compiled.evaluate(message, roster::get).isAllow());
+        roster.set(rosterWith(peer, RosterItem.SUB_NONE));
+        assertTrue(compiled.evaluate(message, roster::get).isAllow());
+
+        // Execute system under test.
+        new InvalidatePrivacyVerdictsTask(OWNER.getNode()).run();
+        final PrivacyItem result = compiled.evaluate(message, roster::get);
+
+        // Verify results.
+        assertFalse(result.isAllow());
+    }
+
+    private static Roster rosterWith(final JID contact, final RosterItem.SubType subscription) throws Exception
+    {
+        final Roster roster = mock(Roster.class);
+        final RosterItem item = new RosterItem(contact.asBareJID(), subscription, RosterItem.ASK_NONE, RosterItem.RECV_NONE, null, null);
+        doReturn(item).when(roster).getRosterItem(any(JID.class));
+        return roster;
+    }
+
+    /**
+     * Asserts that a list without items never matches.
+     */
+    @Test
+    public void testEmptyList() throws Exception
+    {
+        // Setup test fixture.
+        final CompiledPrivacyList compiled = new CompiledPrivacyList(OWNER, Collections.emptyList());
+        final Message message = new Message();
+        message.setFrom(new JID("friend@example.com/laptop"));
+        message.setTo(OWNER);
+
+        // Execute system under test.
+        final PrivacyItem result = compiled.evaluate(message, () -> null);
+
+        // Verify results.
+        assertNull(result);
+    }
+}
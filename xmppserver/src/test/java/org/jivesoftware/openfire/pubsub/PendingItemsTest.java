@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.pubsub;
+
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Verifies the implementation of {@link PendingItems}
+ */
+public class PendingItemsTest
+{
+    private static LeafNode createNode( final String nodeId )
+    {
+        return new LeafNode( new PubSubService.UniqueIdentifier( "test-service-id" ), null, nodeId, new JID( "unit-test@example.org"), new DefaultNodeConfiguration(true) );
+    }
+
+    private static PublishedItem createItem( final LeafNode node, final String itemId )
+    {
+        return new PublishedItem( node, new JID( "unit-test@example.org"), itemId, new Date() );
+    }
+
+    /**
+     * Asserts that adding an item with the identifier of an item that is already in the collection replaces that
+     * item, and moves it to the end of the collection.
+     */
+    @Test
+    public void testReplaceMovesToEnd() throws Exception
+    {
+        // Setup test fixture.
+        final LeafNode node = createNode( "test-node-id" );
+        final PublishedItem first = createItem( node, "a" );
+        final PublishedItem second = createItem( node, "b" );
+        final PublishedItem replacement = createItem( node, "a" );
+        final PendingItems pendingItems = new PendingItems();
+        pendingItems.put( first );
+        pendingItems.put( second );
+
+        // Execute system under test.
+        final PublishedItem replaced = pendingItems.put( replacement );
+
+        // Verify results.
+        assertSame( first, replaced );
+        assertEquals( 2, pendingItems.size() );
+        assertEquals( Arrays.asList( second, replacement ), pendingItems.removeAll() );
+        assertTrue( pendingItems.isEmpty() );
+    }
+
+    /**
+     * Asserts that removing all items of a node leaves the items of other nodes in place, in their original order.
+     */
+    @Test
+    public void testRemoveAllOfNode() throws Exception
+    {
+        // Setup test fixture.
+        final LeafNode node = createNode( "test-node-id" );
+        final LeafNode otherNode = createNode( "other-node-id" );
+        final PublishedItem first = createItem( node, "a" );
+        final PublishedItem second = createItem( otherNode, "a" );
+        final PublishedItem third = createItem( node, "b" );
+        final PublishedItem fourth = createItem( otherNode, "b" );
+        final PendingItems pendingItems = new PendingItems();
+        pendingItems.put( first );
+        pendingItems.put( second );
+        pendingItems.put( third );
+        pendingItems.put( fourth );
+
+        // Execute system under test.
+        final List<PublishedItem> result = pendingItems.removeAll( node.getUniqueIdentifier() );
+
+        // Verify results.
+        assertEquals( Arrays.asList( first, third ), result );
+        assertEquals( Arrays.asList( second, fourth ), pendingItems.removeAll() );
+    }
+
+    /**
+     * Asserts that an item that is removed is no longer returned when the items of its node are removed.
+     */
+    @Test
+    public void testRemoveItem() throws Exception
+    {
+        // Setup test fixture.
+        final LeafNode node = createNode( "test-node-id" );
+        final PublishedItem first = createItem( node, "a" );
+        final PublishedItem second = createItem( node, "b" );
+        final PendingItems pendingItems = new PendingItems();
+        pendingItems.put( first );
+        pendingItems.put( second );
+
+        // Execute system under test.
+        final PublishedItem removed = pendingItems.remove( first.getUniqueIdentifier() );
+
+        // Verify results.
+        assertSame( first, removed );
+        assertNull( pendingItems.get( first.getUniqueIdentifier() ) );
+        assertEquals( Arrays.asList( second ), pendingItems.removeAll( node.getUniqueIdentifier() ) );
+        assertTrue( pendingItems.isEmpty() );
+    }
+}
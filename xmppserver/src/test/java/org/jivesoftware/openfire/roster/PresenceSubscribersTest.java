@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.roster;
+
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.lang.reflect.Field;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the snapshot of presence subscribers ({@link PresenceSubscribers}) that is maintained by
+ * {@link Roster}, and its invalidation.
+ */
+public class PresenceSubscribersTest
+{
+    private static RosterManager rosterManager;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Fixtures.reconfigureOpenfireHome();
+        CacheFactory.initialize();
+
+        // Registers the listener that signals roster modifications. There is no way to unregister it, which is why this
+        // is done only once.
+        rosterManager = new RosterManager();
+        rosterManager.initialize(Fixtures.mockXMPPServer());
+    }
+
+    private static Roster createRoster(final String username) throws Exception {
+        final Roster roster = new Roster();
+        final Field field = Roster.class.getDeclaredField("username");
+        field.setAccessible(true);
+        field.set(roster, username);
+        return roster;
+    }
+
+    private static RosterItem item(final String jid, final RosterItem.SubType subStatus) {
+        return new RosterItem(new JID(jid), subStatus, RosterItem.ASK_NONE, RosterItem.RECV_NONE, null, null);
+    }
+
+    private static void add(final Roster roster, final RosterItem item) {
+        roster.rosterItems.put(item.getJid().toBareJID(), item);
+    }
+
+    /**
+     * Asserts that the snapshot contains the contacts that have a subscription to the presence of the roster owner,
+     * including contacts that have such a subscription only because of a shared group.
+     */
+    @Test
+    public void testSnapshotContainsSubscribers() throws Exception
+    {
+        // Setup test fixture.
+        final Roster roster = createRoster("john");
+        add(roster, item("both@example.org", RosterItem.SUB_BOTH));
+        add(roster, item("from@example.org", RosterItem.SUB_FROM));
+        add(roster, item("to@example.org", RosterItem.SUB_TO));
+        add(roster, item("none@example.org", RosterItem.SUB_NONE));
+        roster.implicitFrom.put("shared@example.org", Collections.singleton("group"));
+
+        // Execute system under test.
+        final PresenceSubscribers result = roster.getPresenceSubscribers();
+
+        // Verify results.
+        assertEquals(3, result.size());
+        assertEquals(new HashSet<>(Arrays.asList(new JID("both@example.org"), new JID("from@example.org"), new JID("shared@example.org"))), new HashSet<>(result.getSubscribers()));
+    }
+
+    /**
+     * Asserts that the snapshot is reused when the roster was not modified.
+     */
+    @Test
+    public void testSnapshotIsReused() throws Exception
+    {
+        // Setup test fixture.
+        final Roster roster = createRoster("john");
+        add(roster, item("both@example.org", RosterItem.SUB_BOTH));
+        final PresenceSubscribers first = roster.getPresenceSubscribers();
+
+        // Execute system under test.
+        final PresenceSubscribers result = roster.getPresenceSubscribers();
+
+        // Verify results.
+        assertSame(first, result);
+    }
+
+    /**
+     * Asserts that the snapshot is rebuilt after the roster signals that it was modified, and that it then reflects the
+     * modification.
+     */
+    @Test
+    public void testSnapshotIsRebuiltAfterModification() throws Exception
+    {
+        // Setup test fixture.
+        final Roster roster = createRoster("john");
+        add(roster, item("both@example.org", RosterItem.SUB_BOTH));
+        final PresenceSubscribers first = roster.getPresenceSubscribers();
+        add(roster, item("from@example.org", RosterItem.SUB_FROM));
+
+        // Execute system under test.
+        roster.rosterModified();
+        final PresenceSubscribers result = roster.getPresenceSubscribers();
+
+        // Verify results.
+        assertNotSame(first, result);
+        assertEquals(2, result.size());
+        assertTrue(result.getSubscribers().contains(new JID("from@example.org")));
+    }
+
+    /**
+     * Asserts that the roster events that are dispatched when a contact is added, updated or removed cause the snapshot
+     * to be rebuilt, through the listener of {@link RosterManager}.
+     */
+    @Test
+    public void testRosterEventsCauseRebuild() throws Exception
+    {
+        // Setup test fixture.
+        final Roster roster = createRoster("jane");
+        final RosterItem item = item("both@example.org", RosterItem.SUB_BOTH);
+        final PresenceSubscribers initial = roster.getPresenceSubscribers();
+
+        // Execute system under test.
+        add(roster, item);
+        RosterEventDispatcher.contactAdded(roster, item);
+        final PresenceSubscribers afterAdd = roster.getPresenceSubscribers();
+        item.setSubStatus(RosterItem.SUB_TO);
+        RosterEventDispatcher.contactUpdated(roster, item);
+        final PresenceSubscribers afterUpdate = roster.getPresenceSubscribers();
+
+        // Verify results.
+        assertEquals(0, initial.size());
+        assertEquals(Collections.singletonList(new JID("both@example.org")), afterAdd.getSubscribers());
+        assertEquals(0, afterUpdate.size());
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.roster;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link RosterVersionJournal}.
+ */
+public class RosterVersionJournalTest
+{
+    /**
+     * Asserts that the changes since a version are returned once per item, ordered by their last change, each with the
+     * version after that change.
+     */
+    @Test
+    public void testChangesSince() throws Exception
+    {
+        // Setup test fixture.
+        final RosterVersionJournal journal = new RosterVersionJournal();
+        journal.record(Collections.singletonList("a@example.org"), 100);
+        final String version = journal.getVersion();
+        final String afterB = journal.record(Collections.singletonList("b@example.org"), 100);
+        final String afterC = journal.record(Collections.singletonList("c@example.org"), 100);
+        final String afterB2 = journal.record(Collections.singletonList("b@example.org"), 100);
+
+        // Execute system under test.
+        final Map<String, String> result = journal.getChangesSince(version);
+
+        // Verify results.
+        assertNotNull(result);
+        assertEquals(Arrays.asList("c@example.org", "b@example.org"), new ArrayList<>(result.keySet()));
+        assertEquals(afterC, result.get("c@example.org"));
+        assertEquals(afterB2, result.get("b@example.org"));
+        assertNotEquals(afterB, afterB2);
+        assertEquals(afterB2, journal.getVersion());
+    }
+
+    /**
+     * Asserts that there are no changes since the current version.
+     */
+    @Test
+    public void testNoChangesSinceCurrentVersion() throws Exception
+    {
+        // Setup test fixture.
+        final RosterVersionJournal journal = new RosterVersionJournal();
+        journal.record(Collections.singletonList("a@example.org"), 100);
+
+        // Execute system under test.
+        final Map<String, String> result = journal.getChangesSince(journal.getVersion());
+
+        // Verify results.
+        assertNotNull(result);
+        assertTrue(result.isEmpty());
+    }
+
+    /**
+     * Asserts that versions that were handed out by another journal are not recognized.
+     */
+    @Test
+    public void testUnknownVersion() throws Exception
+    {
+        // Setup test fixture.
+        final RosterVersionJournal journal = new RosterVersionJournal();
+        final RosterVersionJournal other = new RosterVersionJournal();
+
+        // Execute system under test.
+        final Map<String, String> result = journal.getChangesSince(other.getVersion());
+
+        // Verify results.
+        assertNull(result);
+        assertNull(journal.getChangesSince("1234567"));
+        assertNull(journal.getChangesSince(null));
+    }
+
+    /**
+     * Asserts that changes are no longer available after they have been evicted from the journal.
+     */
+    @Test
+    public void testEvictedChanges() throws Exception
+    {
+        // Setup test fixture.
+        final RosterVersionJournal journal = new RosterVersionJournal();
+        final String initial = journal.getVersion();
+        journal.record(Collections.singletonList("a@example.org"), 2);
+        final String afterA = journal.getVersion();
+        journal.record(Collections.singletonList("b@example.org"), 2);
+        journal.record(Collections.singletonList("c@example.org"), 2);
+
+        // Execute system under test.
+        final Map<String, String> fromInitial = journal.getChangesSince(initial);
+        final Map<String, String> fromA = journal.getChangesSince(afterA);
+
+        // Verify results.
+        assertNull(fromInitial);
+        assertNotNull(fromA);
+        assertEquals(Arrays.asList("b@example.org", "c@example.org"), new ArrayList<>(fromA.keySet()));
+    }
+
+    /**
+     * Asserts that a journal that is shared with another cluster node (by serializing it) retains its versions and
+     * changes.
+     */
+    @Test
+    public void testExternalizable() throws Exception
+    {
+        // Setup test fixture.
+        final RosterVersionJournal journal = new RosterVersionJournal();
+        final String initial = journal.getVersion();
+        journal.record(Collections.singletonList("a@example.org"), 100);
+        journal.record(Collections.singletonList("b@example.org"), 100);
+
+        // Execute system under test.
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (final ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            journal.writeExternal(out);
+        }
+        final RosterVersionJournal result = new RosterVersionJournal();
+        try (final ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            result.readExternal(in);
+        }
+
+        // Verify results.
+        assertEquals(journal.getVersion(), result.getVersion());
+        assertEquals(journal.getChangesSince(initial), result.getChangesSince(initial));
+        assertEquals(Arrays.asList("a@example.org", "b@example.org"), new ArrayList<>(result.getChangesSince(initial).keySet()));
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.roster;
+
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.openfire.group.Group;
+import org.jivesoftware.openfire.group.SharedGroupVisibility;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests that verify the roster versions that are maintained by {@link RosterManager}.
+ */
+public class RosterVersioningTest
+{
+    private static RosterManager rosterManager;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Fixtures.reconfigureOpenfireHome();
+        CacheFactory.initialize();
+
+        // Registers the listener that signals roster loads. There is no way to unregister it, which is why this is done
+        // only once.
+        rosterManager = new RosterManager();
+        rosterManager.initialize(Fixtures.mockXMPPServer());
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        CacheFactory.createCache("Roster").clear();
+        CacheFactory.createCache("Roster Versions").clear();
+    }
+
+    private static Roster createRoster(final String username) throws Exception {
+        final Roster roster = new Roster();
+        final Field field = Roster.class.getDeclaredField("username");
+        field.setAccessible(true);
+        field.set(roster, username);
+        return roster;
+    }
+
+    /**
+     * Asserts that the changes since a version that was handed out are known when nothing but roster pushes happened.
+     */
+    @Test
+    public void testChangesSinceVersionKnown() throws Exception
+    {
+        // Setup test fixture.
+        final String version = rosterManager.getRosterVersion("jane");
+
+        // Execute system under test.
+        final String latest = rosterManager.recordRosterPush("jane", Collections.singleton("john@test.xmpp.domain"));
+
+        // Verify results.
+        assertNotEquals(version, latest);
+        assertEquals(latest, rosterManager.getRosterVersion("jane"));
+        assertEquals(Collections.singletonMap("john@test.xmpp.domain", latest), rosterManager.getRosterChangesSince("jane", version));
+    }
+
+    /**
+     * Asserts that the roster gets a new version when it is loaded after a shared group changed while the roster was
+     * not in memory, as that change did not cause any roster pushes to be recorded.
+     */
+    @Test
+    public void testNewVersionWhenLoadedAfterSharedGroupChange() throws Exception
+    {
+        // Setup test fixture.
+        final String version = rosterManager.recordRosterPush("jane", Collections.singleton("bob@test.xmpp.domain"));
+        assertTrue(CacheFactory.createCache("Roster").isEmpty());
+
+        final Group group = mock(Group.class);
+        when(group.getName()).thenReturn("everyone");
+        when(group.getSharedWith()).thenReturn(SharedGroupVisibility.everybody);
+        final Map<String, Object> params = new HashMap<>();
+        params.put("member", "john@test.xmpp.domain");
+        rosterManager.memberAdded(group, params);
+        assertEquals(version, rosterManager.getRosterVersion("jane")); // The change was not recorded.
+
+        // Execute system under test.
+        RosterEventDispatcher.rosterLoaded(createRoster("jane"));
+
+        // Verify results.
+        assertNotEquals(version, rosterManager.getRosterVersion("jane"));
+        assertNull(rosterManager.getRosterChangesSince("jane", version));
+    }
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.roster;
+
+import org.jivesoftware.openfire.group.Group;
+import org.jivesoftware.openfire.group.SharedGroupVisibility;
+import org.junit.Before;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit tests that verify the implementation of {@link SharedGroupIndex}.
+ */
+public class SharedGroupIndexTest
+{
+    private static final JID ALICE = new JID("alice@example.org");
+    private static final JID BOB = new JID("bob@example.org");
+
+    private final Map<String, Group> groups = new HashMap<>();
+    private SharedGroupIndex index;
+
+    /**
+     * Rebuilds of the index that were scheduled, but not yet executed.
+     */
+    private final List<Runnable> scheduledRebuilds = new ArrayList<>();
+
+    private Group createGroup(final String name, final SharedGroupVisibility visibility, final List<String> sharedWith, final JID... members)
+    {
+        final Group group = mock(Group.class);
+        when(group.getName()).thenReturn(name);
+        when(group.getSharedWith()).thenReturn(visibility);
+        when(group.getSharedWithUsersInGroupNames()).thenReturn(sharedWith);
+        when(group.getMembers()).thenReturn(new ArrayList<>(Arrays.asList(members)));
+        when(group.getAdmins()).thenReturn(new ArrayList<>());
+        groups.put(name, group);
+        return group;
+    }
+
+    @Before
+    public void setUp() throws Exception
+    {
+        groups.clear();
+        scheduledRebuilds.clear();
+        index = new SharedGroupIndex(() -> new ArrayList<>(groups.values()), groups::get, () -> Long.MAX_VALUE, scheduledRebuilds::add);
+    }
+
+    /**
+     * Asserts that a shared group is visible to users of the groups that it is shared with, and not to others.
+     */
+    @Test
+    public void testVisibleThroughViewerGroup() throws Exception
+    {
+        // Setup test fixture.
+        final Group shared = createGroup("shared", SharedGroupVisibility.usersOfGroups, Collections.singletonList("viewers"));
+        createGroup("viewers", null, Collections.emptyList(), ALICE);
+
+        // Execute system under test.
+        final boolean aliceResult = index.isVisibleThroughViewerGroup(shared, ALICE);
+        final boolean bobResult = index.isVisibleThroughViewerGroup(shared, BOB);
+
+        // Verify results.
+        assertTrue(aliceResult);
+        assertFalse(bobResult);
+        assertEquals(new HashSet<>(Collections.singletonList("shared")), index.getVisibleGroupNames("viewers"));
+    }
+
+    /**
+     * Asserts that the index reflects a user that is added to, and later removed from, a viewer group.
+     */
+    @Test
+    public void testMembershipChanges() throws Exception
+    {
+        // Setup test fixture.
+        final Group shared = createGroup("shared", SharedGroupVisibility.usersOfGroups, Collections.singletonList("viewers"));
+        final Group viewers = createGroup("viewers", null, Collections.emptyList(), ALICE);
+        assertFalse(index.isVisibleThroughViewerGroup(shared, BOB));
+
+        // Execute system under test.
+        index.userAdded(viewers, BOB);
+        final boolean afterAdd = index.isVisibleThroughViewerGroup(shared, BOB);
+        when(viewers.isUser(BOB)).thenReturn(false);
+        index.userRemoved(viewers, BOB);
+        final boolean afterRemove = index.isVisibleThroughViewerGroup(shared, BOB);
+
+        // Verify results.
+        assertTrue(afterAdd);
+        assertFalse(afterRemove);
+    }
+
+    /**
+     * Asserts that a change in the sharing configuration of a group is reflected by the index.
+     */
+    @Test
+    public void testSharingChanged() throws Exception
+    {
+        // Setup test fixture.
+        final Group shared = createGroup("shared", SharedGroupVisibility.usersOfGroups, Collections.singletonList("viewers"));
+        createGroup("viewers", null, Collections.emptyList(), ALICE);
+        createGroup("others", null, Collections.emptyList(), BOB);
+        assertTrue(index.isVisibleThroughViewerGroup(shared, ALICE));
+
+        // Execute system under test.
+        when(shared.getSharedWithUsersInGroupNames()).thenReturn(Collections.singletonList("others"));
+        index.groupChanged(shared);
+
+        // Verify results.
+        assertFalse(index.isVisibleThroughViewerGroup(shared, ALICE));
+        assertTrue(index.isVisibleThroughViewerGroup(shared, BOB));
+        assertTrue(index.getVisibleGroupNames("viewers").isEmpty());
+    }
+
+    /**
+     * Asserts that shared groups that are visible to everybody are visible to the users of any group.
+     */
+    @Test
+    public void testPublicGroupIsVisibleToAnyGroup() throws Exception
+    {
+        // Setup test fixture.
+        createGroup("public", SharedGroupVisibility.everybody, Collections.emptyList());
+
+        // Execute system under test.
+        final Set<String> result = index.getVisibleGroupNames("unrelated");
+
+        // Verify results.
+        assertEquals(new HashSet<>(Collections.singletonList("public")), result);
+    }
+
+    /**
+     * Asserts that an index that is invalidated keeps answering lookups until it is rebuilt, after which it reflects
+     * the modifications that were not passed on as events.
+     */
+    @Test
+    public void testInvalidatedIndexIsUsedUntilRebuilt() throws Exception
+    {
+        // Setup test fixture.
+        final Group shared = createGroup("shared", SharedGroupVisibility.usersOfGroups, Collections.singletonList("viewers"));
+        createGroup("viewers", null, Collections.emptyList(), ALICE);
+        createGroup("others", null, Collections.emptyList(), BOB);
+        assertTrue(index.isVisibleThroughViewerGroup(shared, ALICE));
+        when(shared.getSharedWithUsersInGroupNames()).thenReturn(Collections.singletonList("others"));
+
+        // Execute system under test.
+        index.invalidate();
+        final boolean beforeRebuild = index.isVisibleThroughViewerGroup(shared, ALICE);
+        assertEquals(1, scheduledRebuilds.size());
+        scheduledRebuilds.remove(0).run();
+
+        // Verify results.
+        assertTrue(beforeRebuild);
+        assertFalse(index.isVisibleThroughViewerGroup(shared, ALICE));
+        assertTrue(index.isVisibleThroughViewerGroup(shared, BOB));
+    }
+
+    /**
+     * Asserts that an update that is applied while the index is being rebuilt is reflected by the rebuilt index, even
+     * when the rebuild read the group before it was updated.
+     */
+    @Test
+    public void testUpdateDuringRebuildIsRetained() throws Exception
+    {
+        // Setup test fixture.
+        final Group shared = createGroup("shared", SharedGroupVisibility.usersOfGroups, Collections.singletonList("viewers"));
+        final Group viewers = createGroup("viewers", null, Collections.emptyList(), ALICE);
+        final List<Runnable> rebuilds = new ArrayList<>();
+        final boolean[] updateDuringBuild = { false };
+        index = new SharedGroupIndex(() -> {
+            if (updateDuringBuild[0]) {
+                // Simulate an update that is applied after the rebuild has read the groups (the mocked group does not
+                // include the added user).
+                updateDuringBuild[0] = false;
+                index.userAdded(viewers, BOB);
+            }
+            return new ArrayList<>(groups.values());
+        }, groups::get, () -> Long.MAX_VALUE, rebuilds::add);
+        assertFalse(index.isVisibleThroughViewerGroup(shared, BOB));
+        updateDuringBuild[0] = true;
+
+        // Execute system under test.
+        index.invalidate();
+        rebuilds.remove(0).run();
+
+        // Verify results.
+        assertTrue(index.isVisibleThroughViewerGroup(shared, BOB));
+    }
+
+    /**
+     * Asserts that an index that is older than the maximum age is rebuilt once, while lookups continue to be answered.
+     */
+    @Test
+    public void testExpiredIndexIsRebuiltOnce() throws Exception
+    {
+        // Setup test fixture.
+        final Group shared = createGroup("shared", SharedGroupVisibility.usersOfGroups, Collections.singletonList("viewers"));
+        createGroup("viewers", null, Collections.emptyList(), ALICE);
+        index = new SharedGroupIndex(() -> new ArrayList<>(groups.values()), groups::get, () -> -1L, scheduledRebuilds::add);
+
+        // Execute system under test.
+        final boolean first = index.isVisibleThroughViewerGroup(shared, ALICE);
+        final boolean second = index.isVisibleThroughViewerGroup(shared, ALICE);
+        final boolean third = index.isVisibleThroughViewerGroup(shared, ALICE);
+
+        // Verify results.
+        assertTrue(first);
+        assertTrue(second);
+        assertTrue(third);
+        assertEquals(1, scheduledRebuilds.size());
+    }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.server;
+
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.openfire.PacketRouter;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.session.DomainPair;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Packet;
+import org.xmpp.packet.PacketError;
+
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests that verify how {@link OutgoingSessionPromise} bounds the queues of stanzas that wait for a connection to a
+ * remote domain, and how it manages the threads that establish these connections.
+ */
+public class OutgoingSessionPromiseTest
+{
+    private static final DomainPair DOMAIN_PAIR = new DomainPair(Fixtures.XMPP_DOMAIN, "remote.example.org");
+    private static final DomainPair OTHER_DOMAIN_PAIR = new DomainPair(Fixtures.XMPP_DOMAIN, "other.example.org");
+
+    private PacketRouter packetRouter;
+    private OutgoingSessionPromise promise;
+    private ThreadPoolExecutor threadPool;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Fixtures.reconfigureOpenfireHome();
+        CacheFactory.initialize();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Fixtures.clearExistingProperties();
+
+        final XMPPServer xmppServer = Fixtures.mockXMPPServer();
+        packetRouter = mock(PacketRouter.class);
+        doReturn(packetRouter).when(xmppServer).getPacketRouter();
+        XMPPServer.setInstance(xmppServer);
+
+        promise = new OutgoingSessionPromise();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        promise.shutdown();
+        if (threadPool != null) {
+            threadPool.shutdownNow();
+        }
+    }
+
+    private static Message message(final DomainPair domainPair, final String body) {
+        final Message message = new Message();
+        message.setFrom("john@" + domainPair.getLocal());
+        message.setTo("jane@" + domainPair.getRemote());
+        message.setBody(body);
+        return message;
+    }
+
+    /**
+     * Asserts that queuing a stanza reserves its size, both for its domain pair and for all domain pairs combined, and
+     * that this is released again when queued stanzas are removed.
+     */
+    @Test
+    public void testReserveAndRelease() throws Exception
+    {
+        // Setup test fixture.
+        final OutgoingSessionPromise.PacketsProcessor processor = promise.new PacketsProcessor(DOMAIN_PAIR);
+        final OutgoingSessionPromise.PacketsProcessor other = promise.new PacketsProcessor(OTHER_DOMAIN_PAIR);
+        final Message first = message(DOMAIN_PAIR, "first");
+        final Message second = message(DOMAIN_PAIR, "second");
+        final Message third = message(OTHER_DOMAIN_PAIR, "third");
+
+        // Execute system under test.
+        processor.addPacket(first);
+        processor.addPacket(second);
+        other.addPacket(third);
+
+        // Verify results.
+        assertEquals(2, processor.getQueuedStanzaCount());
+        assertEquals(first.toXML().length() + second.toXML().length(), processor.getQueuedBytes());
+        assertEquals(1, other.getQueuedStanzaCount());
+        assertEquals(third.toXML().length(), other.getQueuedBytes());
+        assertEquals(first.toXML().length() + second.toXML().length() + third.toXML().length(), promise.getQueuedBytes());
+
+        processor.bounceAll();
+        assertEquals(0, processor.getQueuedStanzaCount());
+        assertEquals(0, processor.getQueuedBytes());
+        assertEquals(third.toXML().length(), promise.getQueuedBytes());
+    }
+
+    /**
+     * Asserts that a stanza is not queued when the queue of its domain pair would exceed the maximum amount of stanzas,
+     * and that this does not change the reserved sizes.
+     */
+    @Test
+    public void testStanzaCountLimit() throws Exception
+    {
+        // Setup test fixture.
+        OutgoingSessionPromise.QUEUE_SIZE.setValue(1);
+        final OutgoingSessionPromise.PacketsProcessor processor = promise.new PacketsProcessor(DOMAIN_PAIR);
+        final Message first = message(DOMAIN_PAIR, "first");
+        processor.addPacket(first);
+
+        // Execute system under test.
+        processor.addPacket(message(DOMAIN_PAIR, "second"));
+
+        // Verify results.
+        assertEquals(1, processor.getQueuedStanzaCount());
+        assertEquals(first.toXML().length(), processor.getQueuedBytes());
+        assertEquals(first.toXML().length(), promise.getQueuedBytes());
+    }
+
+    /**
+     * Asserts that a stanza is not queued when the queue of its domain pair would exceed its maximum size, while a
+     * stanza for another domain pair can still be queued.
+     */
+    @Test
+    public void testBytesPerDomainLimit() throws Exception
+    {
+        // Setup test fixture.
+        final Message first = message(DOMAIN_PAIR, "first");
+        OutgoingSessionPromise.QUEUE_MAX_BYTES_PER_DOMAIN.setValue((long) first.toXML().length());
+        final OutgoingSessionPromise.PacketsProcessor processor = promise.new PacketsProcessor(DOMAIN_PAIR);
+        final OutgoingSessionPromise.PacketsProcessor other = promise.new PacketsProcessor(OTHER_DOMAIN_PAIR);
+        processor.addPacket(first);
+
+        // Execute system under test.
+        processor.addPacket(message(DOMAIN_PAIR, "second"));
+        other.addPacket(message(OTHER_DOMAIN_PAIR, "third"));
+
+        // Verify results.
+        assertEquals(1, processor.getQueuedStanzaCount());
+        assertEquals(first.toXML().length(), processor.getQueuedBytes());
+        assertEquals(1, other.getQueuedStanzaCount());
+    }
+
+    /**
+     * Asserts that a stanza is not queued when the queues of all domain pairs combined would exceed their maximum size,
+     * and that this does not change the reserved sizes.
+     */
+    @Test
+    public void testTotalBytesLimit() throws Exception
+    {
+        // Setup test fixture.
+        final Message first = message(DOMAIN_PAIR, "first");
+        OutgoingSessionPromise.QUEUE_MAX_BYTES.setValue((long) first.toXML().length());
+        final OutgoingSessionPromise.PacketsProcessor processor = promise.new PacketsProcessor(DOMAIN_PAIR);
+        final OutgoingSessionPromise.PacketsProcessor other = promise.new PacketsProcessor(OTHER_DOMAIN_PAIR);
+        processor.addPacket(first);
+
+        // Execute system under test.
+        other.addPacket(message(OTHER_DOMAIN_PAIR, "third"));
+
+        // Verify results.
+        assertEquals(0, other.getQueuedStanzaCount());
+        assertEquals(0, other.getQueuedBytes());
+        assertEquals(first.toXML().length(), promise.getQueuedBytes());
+    }
+
+    /**
+     * Asserts that, using the 'bounce' overflow policy, an error is returned to the sender of a stanza that could not
+     * be queued.
+     */
+    @Test
+    public void testOverflowPolicyBounce() throws Exception
+    {
+        // Setup test fixture.
+        OutgoingSessionPromise.QUEUE_OVERFLOW_POLICY.setValue(OutgoingSessionPromise.OverflowPolicy.bounce);
+        OutgoingSessionPromise.QUEUE_SIZE.setValue(1);
+        final OutgoingSessionPromise.PacketsProcessor processor = promise.new PacketsProcessor(DOMAIN_PAIR);
+        processor.addPacket(message(DOMAIN_PAIR, "first"));
+        final Message overflow = message(DOMAIN_PAIR, "second");
+
+        // Execute system under test.
+        processor.addPacket(overflow);
+
+        // Verify results.
+        verify(packetRouter, timeout(5000)).route(argThat((Packet reply) ->
+            reply.getTo().equals(overflow.getFrom()) && reply.getError() != null && reply.getError().getCondition() == PacketError.Condition.remote_server_not_found));
+        assertEquals(1, processor.getQueuedStanzaCount());
+    }
+
+    /**
+     * Asserts that, using the 'drop' overflow policy, a stanza that could not be queued is discarded without returning
+     * an error to its sender.
+     */
+    @Test
+    public void testOverflowPolicyDrop() throws Exception
+    {
+        // Setup test fixture.
+        OutgoingSessionPromise.QUEUE_OVERFLOW_POLICY.setValue(OutgoingSessionPromise.OverflowPolicy.drop);
+        OutgoingSessionPromise.QUEUE_SIZE.setValue(1);
+        final OutgoingSessionPromise.PacketsProcessor processor = promise.new PacketsProcessor(DOMAIN_PAIR);
+        processor.addPacket(message(DOMAIN_PAIR, "first"));
+
+        // Execute system under test.
+        processor.addPacket(message(DOMAIN_PAIR, "second"));
+
+        // Verify results.
+        verify(packetRouter, after(500).never()).route(any(Packet.class));
+        assertEquals(1, processor.getQueuedStanzaCount());
+    }
+
+    /**
+     * Asserts that the thread pool starts threads up to its maximum before it queues tasks.
+     */
+    @Test
+    public void testThreadPoolGrowsBeforeQueuing() throws Exception
+    {
+        // Setup test fixture.
+        threadPool = OutgoingSessionPromise.createThreadPool(0, 3, Duration.ofMinutes(1), 10);
+        final CountDownLatch started = new CountDownLatch(3);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        // Execute system under test.
+        for (int i = 0; i < 4; i++) {
+            threadPool.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+
+        // Verify results.
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(3, threadPool.getPoolSize());
+        assertEquals(1, threadPool.getQueue().size());
+        release.countDown();
+    }
+
+    /**
+     * Asserts that the thread pool rejects a task when all threads are busy and its queue is full.
+     */
+    @Test(expected = RejectedExecutionException.class)
+    public void testThreadPoolRejectsWhenFull() throws Exception
+    {
+        // Setup test fixture.
+        threadPool = OutgoingSessionPromise.createThreadPool(0, 1, Duration.ofMinutes(1), 1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final Runnable task = () -> {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        };
+        threadPool.execute(task);
+        threadPool.execute(task);
+
+        // Execute system under test.
+        threadPool.execute(task);
+    }
+
+    /**
+     * Asserts that idle threads time out, but not below the minimum amount of threads.
+     */
+    @Test
+    public void testThreadPoolKeepsMinimumThreads() throws Exception
+    {
+        // Setup test fixture.
+        threadPool = OutgoingSessionPromise.createThreadPool(2, 4, Duration.ofMillis(50), 10);
+        final CountDownLatch started = new CountDownLatch(4);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 4; i++) {
+            threadPool.execute(() -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            });
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        // Execute system under test.
+        release.countDown();
+
+        // Verify results.
+        final long deadline = System.currentTimeMillis() + 5000;
+        while (threadPool.getPoolSize() > 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(200);
+        assertEquals(2, threadPool.getPoolSize());
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.session;
+
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.openfire.Connection;
+import org.jivesoftware.openfire.RoutingTable;
+import org.jivesoftware.openfire.SessionManager;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.server.OutgoingServerSocketReader;
+import org.jivesoftware.openfire.spi.BasicStreamIDFactory;
+import org.jivesoftware.util.JiveGlobals;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.*;
+
+/**
+ * Unit tests that verify which outgoing sessions are re-used to authenticate additional domain pairs, as implemented in
+ * {@link LocalOutgoingServerSession}.
+ */
+public class LocalOutgoingServerSessionTest
+{
+    private static final String REMOTE_DOMAIN = "remote.example.org";
+
+    private SessionManager sessionManager;
+
+    /**
+     * The sessions that are returned by the session manager as outgoing sessions to {@link #REMOTE_DOMAIN}.
+     */
+    private List<OutgoingServerSession> sessions;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Fixtures.reconfigureOpenfireHome();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Fixtures.clearExistingProperties();
+
+        sessions = new ArrayList<>();
+        sessionManager = mock(SessionManager.class, withSettings().lenient());
+        doReturn(sessions).when(sessionManager).getOutgoingServerSessions(REMOTE_DOMAIN);
+
+        final XMPPServer xmppServer = Fixtures.mockXMPPServer();
+        doReturn(sessionManager).when(xmppServer).getSessionManager();
+        doReturn(mock(RoutingTable.class)).when(xmppServer).getRoutingTable();
+        XMPPServer.setInstance(xmppServer);
+    }
+
+    /**
+     * Creates a session that has an open connection.
+     *
+     * @param usingServerDialback whether the session was authenticated using server dialback.
+     * @param dialbackOffered whether the remote server offered server dialback.
+     * @param localDomains the local domains that are authenticated over the session.
+     */
+    private static LocalOutgoingServerSession session(final boolean usingServerDialback, final boolean dialbackOffered, final String... localDomains) throws Exception {
+        final Connection connection = mock(Connection.class, withSettings().lenient());
+        doReturn(false).when(connection).isClosed();
+        final LocalOutgoingServerSession session = new LocalOutgoingServerSession(Fixtures.XMPP_DOMAIN, connection, mock(OutgoingServerSocketReader.class), new BasicStreamIDFactory().createStreamID());
+        session.usingServerDialback = usingServerDialback;
+        final Field field = LocalOutgoingServerSession.class.getDeclaredField("dialbackOffered");
+        field.setAccessible(true);
+        field.set(session, dialbackOffered);
+        for (final String localDomain : localDomains) {
+            session.addOutgoingDomainPair(new DomainPair(localDomain, REMOTE_DOMAIN));
+        }
+        return session;
+    }
+
+    private static DomainPair domainPair(final String localDomain) {
+        return new DomainPair(localDomain, REMOTE_DOMAIN);
+    }
+
+    /**
+     * Asserts that additional domain pairs can be authenticated over a session that was authenticated using server
+     * dialback.
+     */
+    @Test
+    public void testCanAuthenticateSubdomainsUsingDialback() throws Exception
+    {
+        // Setup test fixture.
+        final LocalOutgoingServerSession session = session(true, false);
+
+        // Execute system under test.
+        final boolean result = session.canAuthenticateSubdomains();
+
+        // Verify results.
+        assertTrue(result);
+    }
+
+    /**
+     * Asserts that additional domain pairs can be authenticated over a session that was authenticated using SASL, when
+     * the remote server offered server dialback and dialback is enabled locally.
+     */
+    @Test
+    public void testCanAuthenticateSubdomainsDialbackOffered() throws Exception
+    {
+        // Setup test fixture.
+        final LocalOutgoingServerSession session = session(false, true);
+
+        // Execute system under test.
+        final boolean result = session.canAuthenticateSubdomains();
+
+        // Verify results.
+        assertTrue(result);
+    }
+
+    /**
+     * Asserts that additional domain pairs cannot be authenticated over a session that was authenticated using SASL,
+     * when the remote server did not offer server dialback.
+     */
+    @Test
+    public void testCannotAuthenticateSubdomainsDialbackNotOffered() throws Exception
+    {
+        // Setup test fixture.
+        final LocalOutgoingServerSession session = session(false, false);
+
+        // Execute system under test.
+        final boolean result = session.canAuthenticateSubdomains();
+
+        // Verify results.
+        assertFalse(result);
+    }
+
+    /**
+     * Asserts that additional domain pairs cannot be authenticated over a session that was authenticated using SASL,
+     * when the remote server offered server dialback but dialback is disabled locally.
+     */
+    @Test
+    public void testCannotAuthenticateSubdomainsDialbackDisabled() throws Exception
+    {
+        // Setup test fixture.
+        JiveGlobals.setProperty(ConnectionSettings.Server.DIALBACK_ENABLED, "false");
+        final LocalOutgoingServerSession session = session(false, true);
+
+        // Execute system under test.
+        final boolean result = session.canAuthenticateSubdomains();
+
+        // Verify results.
+        assertFalse(result);
+    }
+
+    /**
+     * Asserts that no session is found when there are no sessions to the remote domain.
+     */
+    @Test
+    public void testFindMultiplexableSessionNone() throws Exception
+    {
+        // Execute system under test.
+        final LocalOutgoingServerSession result = LocalOutgoingServerSession.findMultiplexableSession(sessionManager, domainPair("a.example.org"));
+
+        // Verify results.
+        assertNull(result);
+    }
+
+    /**
+     * Asserts that sessions of other cluster nodes, closed sessions and sessions over which no additional domain pairs
+     * can be authenticated are not re-used.
+     */
+    @Test
+    public void testFindMultiplexableSessionSkipsUnusableSessions() throws Exception
+    {
+        // Setup test fixture.
+        sessions.add(mock(OutgoingServerSession.class));
+        final LocalOutgoingServerSession closed = session(true, false, "b.example.org");
+        doReturn(true).when(closed.getConnection()).isClosed();
+        sessions.add(closed);
+        sessions.add(session(false, false, "c.example.org"));
+
+        // Execute system under test.
+        final LocalOutgoingServerSession result = LocalOutgoingServerSession.findMultiplexableSession(sessionManager, domainPair("a.example.org"));
+
+        // Verify results.
+        assertNull(result);
+    }
+
+    /**
+     * Asserts that, of the sessions that can be re-used, the one that is used by the least amount of domain pairs is
+     * returned.
+     */
+    @Test
+    public void testFindMultiplexableSessionLeastUsed() throws Exception
+    {
+        // Setup test fixture.
+        final LocalOutgoingServerSession busy = session(true, false, "b.example.org", "c.example.org");
+        final LocalOutgoingServerSession quiet = session(true, false, "d.example.org");
+        sessions.addAll(Arrays.asList(busy, quiet));
+
+        // Execute system under test.
+        final LocalOutgoingServerSession result = LocalOutgoingServerSession.findMultiplexableSession(sessionManager, domainPair("a.example.org"));
+
+        // Verify results.
+        assertSame(quiet, result);
+    }
+
+    /**
+     * Asserts that a session that is used by the maximum amount of domain pairs is not re-used.
+     */
+    @Test
+    public void testFindMultiplexableSessionMaxDomainPairs() throws Exception
+    {
+        // Setup test fixture.
+        LocalOutgoingServerSession.MAX_DOMAIN_PAIRS_PER_SESSION.setValue(2);
+        final LocalOutgoingServerSession full = session(true, false, "b.example.org", "c.example.org");
+        sessions.add(full);
+
+        // Execute system under test.
+        final LocalOutgoingServerSession result = LocalOutgoingServerSession.findMultiplexableSession(sessionManager, domainPair("a.example.org"));
+
+        // Verify results.
+        assertNull(result);
+    }
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.spi;
+
+import org.jivesoftware.Fixtures;
+import org.jivesoftware.database.ConnectionProvider;
+import org.jivesoftware.database.DbConnectionManager;
+import org.jivesoftware.database.DefaultConnectionProvider;
+import org.jivesoftware.openfire.PacketDeliverer;
+import org.jivesoftware.openfire.SessionManager;
+import org.jivesoftware.openfire.XMPPServer;
+import org.jivesoftware.openfire.stats.Statistic;
+import org.jivesoftware.openfire.stats.StatisticsManager;
+import org.jivesoftware.util.StringUtils;
+import org.jivesoftware.util.cache.Cache;
+import org.jivesoftware.util.cache.CacheFactory;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.xmpp.packet.JID;
+import org.xmpp.packet.Presence;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.Assert.*;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit tests that verify how {@link PresenceManagerImpl#probePresences(JID, java.util.Collection)} loads the offline
+ * presence of the contacts of a user that logs in.
+ */
+public class PresenceManagerImplTest
+{
+    private static final String DRIVER = "org.hsqldb.jdbcDriver";
+    private static final String URL;
+    private static final String USERNAME = "sa";
+    private static final String PASSWORD = "";
+
+    static {
+        final URL location = PresenceManagerImplTest.class.getResource("/datasets/openfire.script");
+        final String fileLocation = location.toString().substring(0, location.toString().lastIndexOf("/")+1) + "openfire";
+        URL = "jdbc:hsqldb:"+fileLocation+";ifexists=true";
+    }
+
+    private static final String LOAD_SINGLE = "SELECT offlinePresence, offlineDate FROM ofPresence WHERE username=?";
+    private static final String LOAD_BULK = "SELECT username, offlinePresence, offlineDate FROM ofPresence WHERE username IN ";
+
+    private static final JID PROBER = new JID("prober", Fixtures.XMPP_DOMAIN, null);
+
+    /**
+     * The SQL of every statement that was prepared using a connection of the database connection provider.
+     */
+    private final List<String> preparedStatements = new CopyOnWriteArrayList<>();
+
+    private PresenceManagerImpl presenceManager;
+
+    @BeforeClass
+    public static void setUpClass() throws Exception {
+        Fixtures.reconfigureOpenfireHome();
+        CacheFactory.initialize();
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        Fixtures.clearExistingProperties();
+        Arrays.stream(CacheFactory.getAllCaches()).forEach(Map::clear);
+
+        final XMPPServer xmppServer = Fixtures.mockXMPPServer();
+        doReturn(mock(SessionManager.class)).when(xmppServer).getSessionManager();
+        doReturn(mock(PacketDeliverer.class)).when(xmppServer).getPacketDeliverer();
+        XMPPServer.setInstance(xmppServer);
+
+        final DefaultConnectionProvider conProvider = new DefaultConnectionProvider();
+        conProvider.setDriver(DRIVER);
+        conProvider.setServerURL(URL);
+        conProvider.setUsername(USERNAME);
+        conProvider.setPassword(PASSWORD);
+        DbConnectionManager.setConnectionProvider(new RecordingConnectionProvider(conProvider));
+
+        deleteStoredPresences();
+        preparedStatements.clear();
+
+        presenceManager = new PresenceManagerImpl();
+        presenceManager.initialize(xmppServer);
+        presenceManager.start();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        presenceManager.stop();
+        deleteStoredPresences();
+    }
+
+    private static void deleteStoredPresences() throws Exception {
+        try (final Connection con = DbConnectionManager.getConnection();
+             final PreparedStatement pstmt = con.prepareStatement("DELETE FROM ofPresence")) {
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Stores the offline presence of a user directly in the database.
+     */
+    private static void store(final String username, final Presence presence) throws Exception {
+        try (final Connection con = DbConnectionManager.getConnection();
+             final PreparedStatement pstmt = con.prepareStatement("INSERT INTO ofPresence(username, offlinePresence, offlineDate) VALUES(?,?,?)")) {
+            pstmt.setString(1, username);
+            pstmt.setString(2, presence.toXML());
+            pstmt.setString(3, StringUtils.dateToMillis(new Date()));
+            pstmt.executeUpdate();
+        }
+    }
+
+    /**
+     * Returns the addresses of an amount of local users that are not online.
+     */
+    private static List<JID> probees(final int amount) {
+        final List<JID> result = new ArrayList<>();
+        for (int i = 0; i < amount; i++) {
+            result.add(new JID("user" + i, Fixtures.XMPP_DOMAIN, null));
+        }
+        return result;
+    }
+
+    private long countPrepared(final String sqlPrefix) {
+        return preparedStatements.stream().filter(sql -> sql.startsWith(sqlPrefix)).count();
+    }
+
+    private static Cache<String, String> offlinePresenceCache() {
+        return CacheFactory.createCache("Offline Presence Cache");
+    }
+
+    /**
+     * Asserts that no database queries are executed when there are no contacts to probe.
+     */
+    @Test
+    public void testNoProbees() throws Exception
+    {
+        // Execute system under test.
+        presenceManager.probePresences(PROBER, Collections.emptyList());
+
+        // Verify results.
+        assertTrue(preparedStatements.isEmpty());
+    }
+
+    /**
+     * Asserts that the offline presence of 100 users is loaded using one query, and that the presence of these users
+     * is not queried again when each of them is probed.
+     */
+    @Test
+    public void testOneQueryForOneHundredUsers() throws Exception
+    {
+        // Setup test fixture.
+        final List<JID> probees = probees(100);
+
+        // Execute system under test.
+        presenceManager.probePresences(PROBER, probees);
+
+        // Verify results.
+        assertEquals(1, countPrepared(LOAD_BULK));
+        assertEquals(0, countPrepared(LOAD_SINGLE));
+        for (final JID probee : probees) {
+            assertTrue(offlinePresenceCache().containsKey(probee.getNode()));
+        }
+    }
+
+    /**
+     * Asserts that the offline presence of 101 users is loaded using two queries.
+     */
+    @Test
+    public void testTwoQueriesForOneHundredAndOneUsers() throws Exception
+    {
+        // Setup test fixture.
+        final List<JID> probees = probees(101);
+
+        // Execute system under test.
+        presenceManager.probePresences(PROBER, probees);
+
+        // Verify results.
+        assertEquals(2, countPrepared(LOAD_BULK));
+        assertEquals(0, countPrepared(LOAD_SINGLE));
+        for (final JID probee : probees) {
+            assertTrue(offlinePresenceCache().containsKey(probee.getNode()));
+        }
+    }
+
+    /**
+     * Asserts that users for which offline presence is stored get that presence cached, while users for which no
+     * presence is stored get cached as such, so that neither is queried again.
+     */
+    @Test
+    public void testUsersWithoutStoredPresence() throws Exception
+    {
+        // Setup test fixture.
+        final Presence stored = new Presence(Presence.Type.unavailable);
+        stored.setStatus("Gone fishing");
+        store("user1", stored);
+        final List<JID> probees = probees(3);
+
+        // Execute system under test.
+        presenceManager.probePresences(PROBER, probees);
+
+        // Verify results.
+        assertEquals("NULL", offlinePresenceCache().get("user0"));
+        assertTrue(offlinePresenceCache().get("user1").contains("Gone fishing"));
+        assertEquals("NULL", offlinePresenceCache().get("user2"));
+        assertEquals(1, countPrepared(LOAD_BULK));
+        assertEquals(0, countPrepared(LOAD_SINGLE));
+    }
+
+    /**
+     * Asserts that users of which the offline presence is already cached are not queried.
+     */
+    @Test
+    public void testCachedUsersAreNotQueried() throws Exception
+    {
+        // Setup test fixture.
+        final List<JID> probees = probees(3);
+        offlinePresenceCache().put("user0", "NULL");
+        offlinePresenceCache().put("user1", "NULL");
+        offlinePresenceCache().put("user2", "NULL");
+
+        // Execute system under test.
+        presenceManager.probePresences(PROBER, probees);
+
+        // Verify results.
+        assertEquals(0, countPrepared(LOAD_BULK));
+        assertEquals(0, countPrepared(LOAD_SINGLE));
+    }
+
+    /**
+     * Asserts that the statistics count the probed contacts and record the duration of probing, and that both are
+     * reset when sampled.
+     */
+    @Test
+    public void testStatistics() throws Exception
+    {
+        // Setup test fixture.
+        final Statistic count = StatisticsManager.getInstance().getStatistic("presence_probe_count");
+        final Statistic latency = StatisticsManager.getInstance().getStatistic("presence_probe_latency");
+        count.sample();
+        latency.sample();
+
+        // Execute system under test.
+        presenceManager.probePresences(PROBER, probees(3));
+        presenceManager.probePresences(PROBER, probees(2));
+
+        // Verify results.
+        assertEquals(5, count.sample(), 0);
+        assertTrue(latency.sample() > 0);
+        assertEquals(0, count.sample(), 0);
+        assertEquals(0, latency.sample(), 0);
+    }
+
+    /**
+     * Delegates to another connection provider, recording the SQL of every statement that is prepared.
+     */
+    private class RecordingConnectionProvider implements ConnectionProvider
+    {
+        private final ConnectionProvider delegate;
+
+        RecordingConnectionProvider(final ConnectionProvider delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public boolean isPooled() {
+            return delegate.isPooled();
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            final Connection connection = delegate.getConnection();
+            return (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                if ("prepareStatement".equals(method.getName())) {
+                    preparedStatements.add((String) args[0]);
+                }
+                try {
+                    return method.invoke(connection, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            });
+        }
+
+        @Override
+        public void start() {
+            delegate.start();
+        }
+
+        @Override
+        public void restart() {
+            delegate.restart();
+        }
+
+        @Override
+        public void destroy() {
+            delegate.destroy();
+        }
+    }
+}
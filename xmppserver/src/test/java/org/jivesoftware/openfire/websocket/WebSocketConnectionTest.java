@@ -0,0 +1,83 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.openfire.websocket;
+
+import org.dom4j.QName;
+import org.junit.Test;
+import org.xmpp.packet.IQ;
+import org.xmpp.packet.Message;
+import org.xmpp.packet.Presence;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the implementation of {@link WebSocketConnection}.
+ */
+public class WebSocketConnectionTest
+{
+    /**
+     * Asserts that the 'jabber:client' namespace is added to a stanza that has attributes.
+     */
+    @Test
+    public void testSerializeAddsNamespace() throws Exception
+    {
+        // Setup test fixture.
+        final Message input = new Message();
+        input.setTo("juliet@example.com");
+        input.setBody("wherefore art thou?");
+
+        // Execute system under test.
+        final String result = WebSocketConnection.serialize(input);
+
+        // Verify results.
+        assertTrue(result.startsWith("<message xmlns=\"jabber:client\" "));
+        assertTrue(result.endsWith("<body>wherefore art thou?</body></message>"));
+    }
+
+    /**
+     * Asserts that the 'jabber:client' namespace is added to a stanza that has no attributes and no child elements.
+     */
+    @Test
+    public void testSerializeAddsNamespaceToEmptyElement() throws Exception
+    {
+        // Setup test fixture.
+        final Presence input = new Presence();
+
+        // Execute system under test.
+        final String result = WebSocketConnection.serialize(input);
+
+        // Verify results.
+        assertEquals("<presence xmlns=\"jabber:client\"/>", result);
+    }
+
+    /**
+     * Asserts that a stanza that has a namespace is serialized unmodified.
+     */
+    @Test
+    public void testSerializeRetainsNamespace() throws Exception
+    {
+        // Setup test fixture.
+        final IQ input = new IQ(IQ.Type.get, "test");
+        input.getElement().setQName(QName.get("iq", "jabber:server"));
+
+        // Execute system under test.
+        final String result = WebSocketConnection.serialize(input);
+
+        // Verify results.
+        assertEquals(input.toXML(), result);
+        assertFalse(result.contains("jabber:client"));
+    }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jivesoftware.util.cache;
+
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.junit.Assert.*;
+
+/**
+ * Unit tests that verify the functionality as implemented in {@link ConcurrentCache}
+ */
+public class ConcurrentCacheTest {
+
+    /**
+     * Asserts that basic map operations behave like those of {@link DefaultCache}.
+     */
+    @Test
+    public void testSameResultAsDefaultCache() throws Exception
+    {
+        // Setup test fixture.
+        final Cache<String, String> expected = new DefaultCache<>("test", -1, -1);
+        final Cache<String, String> result = new ConcurrentCache<>("test", -1, -1);
+
+        // Execute system under test.
+        for (final Cache<String, String> cache : Arrays.asList(expected, result)) {
+            assertNull(cache.put("a", "1"));
+            assertNull(cache.put("b", "2"));
+            assertEquals("1", cache.put("a", "3"));
+            assertEquals("2", cache.remove("b"));
+            assertNull(cache.get("b"));
+            assertEquals("3", cache.get("a"));
+        }
+
+        // Verify results.
+        assertEquals(expected.size(), result.size());
+        assertEquals(expected.keySet(), result.keySet());
+        assertEquals(expected.entrySet(), result.entrySet());
+        assertEquals(expected.getLongCacheSize(), result.getLongCacheSize());
+        assertEquals(expected.getCacheHits(), result.getCacheHits());
+        assertEquals(expected.getCacheMisses(), result.getCacheMisses());
+    }
+
+    /**
+     * Asserts that entries are no longer returned after their lifetime has passed.
+     */
+    @Test
+    public void testExpiry() throws Exception
+    {
+        // Setup test fixture.
+        final Cache<String, String> cache = new ConcurrentCache<>("test", -1, 10);
+        cache.put("a", "1");
+
+        // Execute system under test.
+        Thread.sleep(50);
+
+        // Verify results.
+        assertNull(cache.get("a"));
+        assertFalse(cache.containsKey("a"));
+        assertTrue(cache.keySet().isEmpty());
+        assertEquals(0, cache.getLongCacheSize());
+    }
+
+    /**
+     * Asserts that the least recently accessed entries are removed when the cache is full.
+     */
+    @Test
+    public void testCull() throws Exception
+    {
+        // Setup test fixture.
+        final int entrySize = CacheSizes.sizeOfAnything("value-00");
+        final ConcurrentCache<String, String> cache = new ConcurrentCache<>("test", entrySize * 10L, -1);
+        for (int i = 0; i < 9; i++) {
+            cache.put("key-" + i, "value-0" + i);
+        }
+        cache.get("key-0"); // Prevent the oldest entry from being culled.
+
+        // Execute system under test.
+        cache.put("key-9", "value-09");
+
+        // Verify results.
+        assertTrue(cache.getLongCacheSize() <= entrySize * 9L);
+        assertTrue(cache.containsKey("key-0"));
+        assertFalse(cache.containsKey("key-1"));
+        assertTrue(cache.containsKey("key-9"));
+        assertEquals(1, cache.getCacheCulls(Duration.ofHours(1)));
+    }
+
+    /**
+     * Asserts that culling keeps removing the least recently accessed entries until the cache is small enough, when
+     * the amount of entries that was estimated from their average size does not free enough room.
+     */
+    @Test
+    public void testCullEntriesSmallerThanAverage() throws Exception
+    {
+        // Setup test fixture.
+        final int smallSize = CacheSizes.sizeOfAnything("value-0");
+        final String large = String.join("", Collections.nCopies(216, "x"));
+        final long maxSize = (long) ((smallSize * 8L + CacheSizes.sizeOfAnything(large)) / .98);
+        final ConcurrentCache<String, String> cache = new ConcurrentCache<>("test", maxSize, -1);
+        for (int i = 0; i < 8; i++) {
+            cache.put("key-" + i, "value-" + i);
+        }
+
+        // Execute system under test.
+        cache.put("large", large);
+
+        // Verify results.
+        assertTrue(cache.getLongCacheSize() <= (long) (maxSize * .90));
+        assertFalse(cache.containsKey("key-0"));
+        assertFalse(cache.containsKey("key-1"));
+        assertFalse(cache.containsKey("key-2"));
+        assertTrue(cache.containsKey("key-3"));
+        assertTrue(cache.containsKey("large"));
+        assertEquals(1, cache.getCacheCulls(Duration.ofHours(1)));
+    }
+
+    /**
+     * Runs a multithreaded read-mostly workload that causes culling against a {@link DefaultCache} and against a
+     * {@link ConcurrentCache}, asserting for each of them that its size and its hit/miss counts remain consistent.
+     */
+    @Test
+    public void testConsistentUnderConcurrentAccess() throws Exception
+    {
+        final int entrySize = CacheSizes.sizeOfAnything("value-0000");
+        for (final Cache<String, String> cache : Arrays.<Cache<String, String>>asList(new DefaultCache<>("test", entrySize * 500L, -1), new ConcurrentCache<>("test", entrySize * 500L, -1))) {
+            // Execute system under test.
+            final LongAdder reads = new LongAdder();
+            final ExecutorService executor = Executors.newFixedThreadPool(8);
+            try {
+                final List<Future<?>> futures = new ArrayList<>();
+                for (int t = 0; t < 8; t++) {
+                    futures.add(executor.submit(() -> {
+                        final ThreadLocalRandom random = ThreadLocalRandom.current();
+                        for (int i = 0; i < 20_000; i++) {
+                            final String key = String.format("key-%04d", random.nextInt(1000));
+                            final int action = random.nextInt(10);
+                            if (action == 0) {
+                                cache.put(key, key.replace("key", "value"));
+                            } else if (action == 1) {
+                                cache.remove(key);
+                            } else {
+                                reads.increment();
+                                cache.get(key);
+                            }
+                        }
+                    }));
+                }
+                for (final Future<?> future : futures) {
+                    future.get();
+                }
+            } finally {
+                executor.shutdown();
+            }
+
+            // Verify results.
+            assertEquals(cache.getClass().getSimpleName(), (long) cache.size() * entrySize, cache.getLongCacheSize());
+            assertTrue(cache.getClass().getSimpleName(), cache.getLongCacheSize() <= cache.getMaxCacheSize());
+            assertEquals(cache.getClass().getSimpleName(), reads.sum(), cache.getCacheHits() + cache.getCacheMisses());
+        }
+    }
+}
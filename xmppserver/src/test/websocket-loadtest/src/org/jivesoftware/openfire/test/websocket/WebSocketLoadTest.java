@@ -0,0 +1,246 @@
+/*
+ * Copyright (C) 2023 Ignite Realtime Foundation. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.jivesoftware.openfire.test.websocket;
+
+import org.eclipse.jetty.websocket.api.Session;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketClose;
+import org.eclipse.jetty.websocket.api.annotations.OnWebSocketMessage;
+import org.eclipse.jetty.websocket.api.annotations.WebSocket;
+import org.eclipse.jetty.websocket.client.ClientUpgradeRequest;
+import org.eclipse.jetty.websocket.client.WebSocketClient;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A load test that drives many simulated XMPP-over-WebSocket (RFC 7395) clients against a server. It is intended to
+ * observe the throughput and latency of the delivery of stanzas to websocket clients.<p/>
+ *
+ * Every simulated client authenticates using SASL ANONYMOUS (which must be enabled on the server), and then sends a
+ * burst of messages to itself at a fixed interval. Every message carries the time at which it was sent, which allows
+ * the client to measure the time it took for the server to deliver the message back to it. Bursts cause several
+ * stanzas to be queued for delivery to the same websocket at the same time.<p/>
+ *
+ * Every ten seconds, the amount of messages that were received, the amount of failures and the delivery latency of
+ * messages are printed. The clients share one Jetty websocket client, which uses a limited amount of threads. To
+ * simulate very large amounts of clients, run several instances of this test.<p/>
+ *
+ * java WebSocketLoadTest [url] [domain] [clients] [duration in seconds] [burst size]<p/>
+ *
+ * For example: java WebSocketLoadTest ws://localhost:7070/ws/ example.org 1000 300 5
+ */
+public class WebSocketLoadTest {
+
+    private static final Pattern JID = Pattern.compile("<jid>([^<]+)</jid>");
+    private static final Pattern SENT = Pattern.compile("<body>sent:([0-9]+)</body>");
+
+    private static final String FRAMING_NAMESPACE = "urn:ietf:params:xml:ns:xmpp-framing";
+    private static final long SEND_INTERVAL_MS = 1000;
+    private static final long TIMEOUT_MS = 10000;
+
+    private static final AtomicLong receivedCount = new AtomicLong(0);
+    private static final AtomicLong failureCount = new AtomicLong(0);
+
+    /**
+     * Delivery latency (in milliseconds) of messages, bucketed logarithmically: bucket n contains latencies below 2^n
+     * milliseconds.
+     */
+    private static final AtomicLongArray latencies = new AtomicLongArray(20);
+
+    /**
+     * Starts the load test.
+     *
+     * @param args application arguments.
+     */
+    public static void main(String[] args) throws Exception {
+        if (args.length < 4) {
+            System.out.println("Usage: java WebSocketLoadTest [url] [domain] [clients] [duration in seconds] [burst size]");
+            System.exit(0);
+        }
+        final URI uri = new URI(args[0]);
+        final String domain = args[1];
+        final int clients = Integer.parseInt(args[2]);
+        final long duration = Long.parseLong(args[3]) * 1000;
+        final int burst = args.length > 4 ? Integer.parseInt(args[4]) : 1;
+
+        final WebSocketClient webSocketClient = new WebSocketClient();
+        webSocketClient.start();
+        final ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(Math.max(2, Runtime.getRuntime().availableProcessors()));
+        try {
+            System.out.println("Starting " + clients + " clients against " + uri + " for domain " + domain + ", sending bursts of " + burst + " messages.");
+            for (int i = 0; i < clients; i++) {
+                final Client client = new Client(domain, burst);
+                try {
+                    client.connect(webSocketClient, uri);
+                    scheduler.scheduleAtFixedRate(client::sendBurst, ThreadLocalRandom.current().nextLong(SEND_INTERVAL_MS), SEND_INTERVAL_MS, TimeUnit.MILLISECONDS);
+                } catch (Exception e) {
+                    failureCount.incrementAndGet();
+                    System.err.println("Client " + i + " failed to connect: " + e.getMessage());
+                }
+            }
+
+            final long end = System.currentTimeMillis() + duration;
+            while (System.currentTimeMillis() < end) {
+                Thread.sleep(10000);
+                report();
+            }
+        } finally {
+            scheduler.shutdownNow();
+            webSocketClient.stop();
+        }
+        System.out.println("Done.");
+    }
+
+    private static void report() {
+        final long received = receivedCount.getAndSet(0);
+        final long failures = failureCount.getAndSet(0);
+        final long[] buckets = new long[latencies.length()];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = latencies.getAndSet(i, 0);
+            total += buckets[i];
+        }
+        System.out.println("messages/s: " + (received / 10) + ", failures: " + failures
+            + ", delivery time p50: < " + percentile(buckets, total, 0.50) + "ms"
+            + ", p99: < " + percentile(buckets, total, 0.99) + "ms"
+            + ", p999: < " + percentile(buckets, total, 0.999) + "ms");
+    }
+
+    private static long percentile(final long[] buckets, final long total, final double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long seen = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            seen += buckets[i];
+            if (seen >= total * percentile) {
+                return 1L << i;
+            }
+        }
+        return 1L << buckets.length;
+    }
+
+    private static void recordLatency(final long millis) {
+        int bucket = 0;
+        while (bucket < latencies.length() - 1 && (1L << bucket) <= millis) {
+            bucket++;
+        }
+        latencies.incrementAndGet(bucket);
+    }
+
+    /**
+     * A simulated websocket client.
+     */
+    @WebSocket
+    public static class Client {
+
+        private final String domain;
+        private final int burst;
+        private final BlockingQueue<String> handshake = new LinkedBlockingQueue<>();
+        private volatile Session session;
+        private volatile String jid;
+
+        Client(String domain, int burst) {
+            this.domain = domain;
+            this.burst = burst;
+        }
+
+        void connect(final WebSocketClient webSocketClient, final URI uri) throws Exception {
+            final ClientUpgradeRequest request = new ClientUpgradeRequest();
+            request.setSubProtocols("xmpp");
+            session = webSocketClient.connect(this, uri, request).get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+            send("<open xmlns='" + FRAMING_NAMESPACE + "' to='" + domain + "' version='1.0'/>");
+            await("<stream:features");
+            send("<auth xmlns='urn:ietf:params:xml:ns:xmpp-sasl' mechanism='ANONYMOUS'/>");
+            await("<success");
+            send("<open xmlns='" + FRAMING_NAMESPACE + "' to='" + domain + "' version='1.0'/>");
+            await("<stream:features");
+            send("<iq type='set' id='bind_1' xmlns='jabber:client'><bind xmlns='urn:ietf:params:xml:ns:xmpp-bind'/></iq>");
+            final Matcher matcher = JID.matcher(await("<jid>"));
+            if (!matcher.find()) {
+                throw new IOException("No JID in bind result.");
+            }
+            send("<iq type='set' id='session_1' xmlns='jabber:client'><session xmlns='urn:ietf:params:xml:ns:xmpp-session'/></iq>");
+            await("session_1");
+            jid = matcher.group(1);
+        }
+
+        void sendBurst() {
+            if (jid == null) {
+                return;
+            }
+            try {
+                for (int i = 0; i < burst; i++) {
+                    send("<message to='" + jid + "' type='chat' xmlns='jabber:client'><body>sent:" + System.nanoTime() + "</body></message>");
+                }
+            } catch (IOException e) {
+                failureCount.incrementAndGet();
+            }
+        }
+
+        @OnWebSocketMessage
+        public void onMessage(final String text) {
+            if (jid == null) {
+                handshake.add(text);
+                return;
+            }
+            final Matcher matcher = SENT.matcher(text);
+            if (matcher.find()) {
+                receivedCount.incrementAndGet();
+                recordLatency((System.nanoTime() - Long.parseLong(matcher.group(1))) / 1_000_000);
+            }
+        }
+
+        @OnWebSocketClose
+        public void onClose(final int statusCode, final String reason) {
+            if (jid != null) {
+                failureCount.incrementAndGet();
+                System.err.println("Connection of " + jid + " closed: " + statusCode + " " + reason);
+            }
+            jid = null;
+        }
+
+        private void send(final String text) throws IOException {
+            session.getRemote().sendString(text);
+        }
+
+        /**
+         * Waits for a message from the server that contains the expected text.
+         */
+        private String await(final String expected) throws Exception {
+            final long end = System.currentTimeMillis() + TIMEOUT_MS;
+            while (System.currentTimeMillis() < end) {
+                final String text = handshake.poll(end - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+                if (text != null && text.contains(expected)) {
+                    return text;
+                }
+            }
+            throw new IOException("Expected '" + expected + "' but did not receive it in time.");
+        }
+    }
+}